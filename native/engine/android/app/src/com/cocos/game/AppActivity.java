@@ -35,12 +35,14 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.Signature;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.content.res.Configuration;
 import android.util.Log;
 import android.view.View;
@@ -61,7 +63,12 @@ import com.tencent.mm.opensdk.constants.ConstantsAPI;
 import com.tencent.mm.opensdk.modelbiz.WXLaunchMiniProgram;
 import com.tencent.mm.opensdk.openapi.IWXAPI;
 import com.tencent.mm.opensdk.openapi.WXAPIFactory;
+import com.jujie.paipai.chat.CocosChatListener;
+import com.jujie.paipai.chat.SessionRecorder;
+import com.jujie.paipai.chat.SessionReplay;
+import com.jujie.paipai.chat.core.NetworkShaper;
 import com.jujie.paipai.common.DeviceInfo;
+import com.jujie.paipai.common.NetworkCore;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -96,6 +103,7 @@ public class AppActivity extends CocosActivity implements LifecycleOwner {
 
     private LifecycleRegistry lifecycleRegistry; // LifecycleOwner 实现所需
     private BroadcastReceiver screenStateReceiver; // 监听息屏/亮屏（如需前后台优化可扩展）
+    private BridgeCallback bridgeCallback;         // 持有跨会话复用的聊天客户端，销毁时释放
 
     /** 将字节数组转 16 进制字符串 (签名 MD5 输出使用) */
     private String bytesToHex(byte[] bytes) {
@@ -234,9 +242,27 @@ public class AppActivity extends CocosActivity implements LifecycleOwner {
             Log.d("AppActivity", "Network is available");
             if (!LogcatCapture.isAlive() || !LogcatCapture.isConnecting()) LogcatCapture.connect();
         });
+        // 各请求/WebSocket 握手的 DNS、建连、TLS、首字节耗时随对话指标一起上报脚本层
+        NetworkCore.setTimingSink(CocosChatListener::sendNetworkTiming);
+        // ====== 6.1) 调试包：弱网模拟脚本 / 会话录制与回放（均取自外部文件目录），复现现场网络问题 ======
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            NetworkShaper shaper = NetworkShaper.loadFromFile(new File(getExternalFilesDir(null), NetworkShaper.PROFILE_FILE_NAME),
+                    SystemClock::elapsedRealtime, line -> Log.d("NetworkShaper", line));
+            if (shaper != null) NetworkShaper.install(shaper);
+            // 存在 chat_replay.rec 时回放该会话（空输出播放器）；存在 chat_record.flag 时录制本次会话。
+            // 两者可同时生效：回放时的录制记下实际播放的段（KIND_PLAYBACK），与原录制比对回放结果
+            File replayFile = new File(getExternalFilesDir(null), "chat_replay.rec");
+            boolean replaying = replayFile.isFile();
+            if (replaying) SessionReplay.install(new SessionReplay(replayFile, 1f), true);
+            if (new File(getExternalFilesDir(null), "chat_record.flag").exists()) {
+                SessionRecorder.start(new File(getExternalFilesDir(null),
+                        (replaying ? "chat_replay_result_" : "chat_session_") + System.currentTimeMillis() + ".rec"));
+            }
+        }
         // ====== 7) 绑定抽离后的 BridgeCallback (统一管理脚本指令) ======
         // 回调内部不做 UI 复杂状态存储，必要状态放在本 Activity 字段
-        JsbBridge.setCallback(new BridgeCallback(this));
+        bridgeCallback = new BridgeCallback(this);
+        JsbBridge.setCallback(bridgeCallback);
     }
 
     /**
@@ -308,6 +334,7 @@ public class AppActivity extends CocosActivity implements LifecycleOwner {
     }
     @Override protected void onStop() { // 不再可见
         super.onStop(); lifecycleRegistry.setCurrentState(Lifecycle.State.CREATED); SDKWrapper.shared().onStop();
+        SessionRecorder.flushActive(); // 后台进程可能被直接杀掉，录制先落盘
     }
     @Override protected void onRestart() { // 从停止回到前台前
         super.onRestart(); SDKWrapper.shared().onRestart();
@@ -332,9 +359,11 @@ public class AppActivity extends CocosActivity implements LifecycleOwner {
         lifecycleRegistry.setCurrentState(Lifecycle.State.DESTROYED);
         unregisterScreenStateReceiver();
         LogcatCapture.stopCapturing();
+        SessionRecorder.stop();
         ImageLayerManager.clearInstance();
         imageLayerManager = null; overlayView = null; cameraXManager = null; cameraView = null;
         ConnectivityMonitor.unregister(this);
+        if (bridgeCallback != null) { bridgeCallback.release(); bridgeCallback = null; }
         if (!isTaskRoot()) return; // 避免重复销毁逻辑
         SDKWrapper.shared().onDestroy();
     }
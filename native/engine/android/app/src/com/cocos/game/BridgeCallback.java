@@ -23,6 +23,7 @@ import com.jujie.audiosdk.PaipaiCaptureActivity;
 import com.jujie.paipai.chat.CocosChatListener;
 import com.jujie.paipai.chat.VoiceChatClient;
 import com.jujie.paipai.common.DeviceInfo;
+import com.jujie.paipai.common.PerfTrace;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -37,16 +38,46 @@ import java.util.Map;
 public class BridgeCallback implements JsbBridge.ICallback {
 
     private final AppActivity activity;
-    private VoiceChatClient chatClient;
+    private volatile VoiceChatClient chatClient;
 
     public BridgeCallback(AppActivity activity) {
         this.activity = activity;
+        // 网络状态转发给聊天连接：离线暂停重连、恢复后立即重连、切网时迁移连接
+        ConnectivityMonitor.addListener(new ConnectivityMonitor.Listener() {
+            @Override public void onNetworkAvailable() {}
+            @Override public void onDefaultNetworkValidated(boolean handover, boolean wifi) {
+                VoiceChatClient c = chatClient;
+                if (c != null) c.onNetworkValidated(handover);
+            }
+            @Override public void onNetworkLost() {
+                VoiceChatClient c = chatClient;
+                if (c != null) c.onNetworkLost();
+            }
+        });
+    }
+
+    /** 宿主 Activity 销毁时调用：释放跨会话复用的聊天客户端 */
+    public void release() {
+        VoiceChatClient c = chatClient;
+        chatClient = null;
+        if (c != null) {
+            try { c.stopChatSilently(); } catch (Exception ignored) {}
+            try { c.release(); } catch (Exception ignored) {}
+        }
     }
 
     @Override
     public void onScript(String arg0, String arg1) {
         Log.d("BridgeCallback","on script: "+arg0 +","+arg1);
+        boolean traced = PerfTrace.begin("jsb.onScript", arg0);
+        try {
+            dispatchScript(arg0, arg1);
+        } finally {
+            if (traced) PerfTrace.end();
+        }
+    }
 
+    private void dispatchScript(String arg0, String arg1) {
         // FSR 控制
         if (arg0.equals("FSR") && arg1.equals("start")) {
             FSRManager.start(activity);
@@ -83,6 +114,7 @@ public class BridgeCallback implements JsbBridge.ICallback {
                 String userNickName = chatParams.optString("userNickName");
                 boolean isProduction = chatParams.optBoolean("isProduction", false);
                 int characterId = chatParams.optInt("characterId", 1);
+                boolean localTtsFallback = chatParams.optBoolean("localTtsFallback", false);
 
                 if(chatClient == null){
                     VoiceChatClient.Listener listener = new CocosChatListener();
@@ -100,6 +132,7 @@ public class BridgeCallback implements JsbBridge.ICallback {
 //                if(!versionName.toLowerCase().endsWith("test")){
 //                    url = "wss://colapai.xinjiaxianglao.com/chat/voice-chat?token="+token; // 生产环境
 //                }
+                chatClient.setLocalTtsFallbackEnabled(localTtsFallback);
                 chatClient.startChat(url);
             } catch (JSONException e) {
                 throw new RuntimeException(e);
@@ -108,6 +141,11 @@ public class BridgeCallback implements JsbBridge.ICallback {
         }
 
         if (arg0.equals("CHAT:CHARACTER:SWITCH")) {
+            if (chatClient == null) {
+                Log.e("BridgeCallback", "Chat client is not initialized");
+                JsbBridge.sendToScript("CHAT:ERROR", "Chat client is not initialized");
+                return;
+            }
             if(chatClient.isSwitchingMode()){
                 Log.e("BridgeCallback", "Character switch in progress, please wait.");
                 JsbBridge.sendToScript("CHAT:ERROR", "正切换角色中，请稍后再试");
@@ -120,37 +158,15 @@ public class BridgeCallback implements JsbBridge.ICallback {
                 boolean isProduction = chatParams.optBoolean("isProduction", false);
                 int characterId = chatParams.optInt("characterId", 1);
 
-                if (chatClient != null) {
-                    // 切换角色
-                    chatClient.stopChatSilently();
-                    chatClient.setSwitchingMode(true);
-
-                    Log.d("BridgeCallback","CHAT:CHARACTER:SWITCH : "+ arg1);
-                    String qs = "?token=" + token+"&userNickName="+userNickName + "&characterId=" + characterId;
-                    String url = "wss://test.paipai.xinjiaxianglao.com/chat/voice-chat" + qs; // 默认测试环境
-                    if(isProduction){
-                        url = "wss://colapai.xinjiaxianglao.com/chat/voice-chat" + qs; // 默认测试环境
-                    }
-
-//                String versionName = DeviceInfo.VERSION_NAME;
-//                if(!versionName.toLowerCase().endsWith("test")){
-//                    url = "wss://colapai.xinjiaxianglao.com/chat/voice-chat?token="+token; // 生产环境
-//                }
-                    // 最长等待 5 秒确认断开
-                    long start = android.os.SystemClock.elapsedRealtime();
-                    while (chatClient.isTransportConnected()
-                            && android.os.SystemClock.elapsedRealtime() - start < 5000) {
-                        android.os.SystemClock.sleep(50);
-                    }
-                    Log.d("BridgeCallback", "Transport connected: " + chatClient.isTransportConnected());
-                    Log.d("BridgeCallback", "Starting chat with new characterId: " + characterId);
-                    Log.d("BridgeCallback","Starting chat with URL: "+ url);
-
-                    chatClient.startChat(url);
-                } else {
-                    Log.e("BridgeCallback", "Chat client is not initialized");
-                    JsbBridge.sendToScript("CHAT:ERROR", "Chat client is not initialized");
+                Log.d("BridgeCallback","CHAT:CHARACTER:SWITCH : "+ arg1);
+                String qs = "?token=" + token+"&userNickName="+userNickName + "&characterId=" + characterId;
+                String url = "wss://test.paipai.xinjiaxianglao.com/chat/voice-chat" + qs; // 默认测试环境
+                if(isProduction){
+                    url = "wss://colapai.xinjiaxianglao.com/chat/voice-chat" + qs; // 默认测试环境
                 }
+                // 异步切换：优先复用现有连接，完成后通过 CHAT:CHARACTER:SWITCHED 通知脚本层
+                Log.d("BridgeCallback", "Switching character to: " + characterId);
+                chatClient.switchCharacter(characterId, url);
             }catch (JSONException e) {
                 Log.e("BridgeCallback", "JSON error", e);
             }catch (Exception e){
@@ -162,8 +178,8 @@ public class BridgeCallback implements JsbBridge.ICallback {
 
         if (arg0.equals("CHAT:STOP")) {
             if(chatClient != null){
+                // 仅结束会话：播放器（已预热）、播放线程与传输层留给下一次 CHAT:START 复用，宿主销毁时由 release() 释放
                 chatClient.stopChat();
-                chatClient = null;
             }
             return;
         }
@@ -9,12 +9,17 @@ import android.os.Build;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * 轻量级网络状态监控工具：
- *  - 仅在「有任何可用网络」时触发一次 onAvailable 回调
- *  - 不做复杂的连通性判断（如是否能上网、能否访问指定域名）
+ *  - 在「有任何可用网络」时触发 onAvailable 回调
+ *  - 跟踪默认网络：通过连通性验证（NET_CAPABILITY_VALIDATED）、切换（如 Wi-Fi -> 蜂窝）与丢失
+ *  - 支持多个监听者（日志上传、聊天重连等）
  */
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
 public final class ConnectivityMonitor {
@@ -22,13 +27,32 @@ public final class ConnectivityMonitor {
     public interface Listener {
         /** 当系统报告“至少有一条网络可用”时触发 */
         void onNetworkAvailable();
+
+        /**
+         * 默认网络已通过连通性验证。
+         * @param handover 是否从另一条默认网络切换而来（旧网络上的连接可能已失效）
+         * @param wifi     新默认网络是否为 Wi-Fi
+         */
+        default void onDefaultNetworkValidated(boolean handover, boolean wifi) {}
+
+        /** 默认网络丢失且暂无替代网络 */
+        default void onNetworkLost() {}
     }
 
     private static final String TAG = "ConnectivityMonitor";
     private static ConnectivityManager.NetworkCallback networkCallback;
+    private static ConnectivityManager.NetworkCallback defaultNetworkCallback;
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // 仅在回调线程访问
+    private static @Nullable Network defaultNetwork;
+    private static @Nullable Network previousDefault;
+    private static @Nullable Network validatedNotified;
+    private static volatile boolean online = true;
 
-    /** 注册监听；多次调用只会保留第一次的 Listener */
-    public static void register(@NonNull Context ctx, @NonNull Listener listener) {
+    /** 注册监听；系统回调只注册一次，后续调用仅追加 Listener */
+    public static synchronized void register(@NonNull Context ctx, @NonNull Listener listener) {
+        addListener(listener);
         if (networkCallback != null) return;      // 已经注册过
 
         ConnectivityManager cm = (ConnectivityManager)
@@ -38,13 +62,9 @@ public final class ConnectivityMonitor {
             @Override
             public void onAvailable(@NonNull Network network) {
                 Log.d(TAG, "Network available: " + network);
-                listener.onNetworkAvailable();
-            }
-
-            @Override
-            public void onCapabilitiesChanged(@NonNull Network net,
-                                              @NonNull NetworkCapabilities caps) {
-                // 可在此判断 Wi-Fi/蜂窝、是否具备 NET_CAPABILITY_VALIDATED 等
+                for (Listener l : listeners) {
+                    try { l.onNetworkAvailable(); } catch (Exception e) { Log.w(TAG, "listener error", e); }
+                }
             }
 
             @Override
@@ -55,16 +75,81 @@ public final class ConnectivityMonitor {
 
         NetworkRequest req = new NetworkRequest.Builder().build();
         cm.registerNetworkCallback(req, networkCallback);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            defaultNetworkCallback = new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(@NonNull Network network) {
+                    if (!network.equals(defaultNetwork)) {
+                        previousDefault = defaultNetwork;
+                        defaultNetwork = network;
+                        validatedNotified = null;
+                    }
+                }
+
+                @Override
+                public void onCapabilitiesChanged(@NonNull Network net,
+                                                  @NonNull NetworkCapabilities caps) {
+                    if (!net.equals(defaultNetwork) || net.equals(validatedNotified)) return;
+                    if (!caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)) return;
+                    validatedNotified = net;
+                    online = true;
+                    boolean handover = previousDefault != null;
+                    boolean wifi = caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI);
+                    previousDefault = null;
+                    Log.d(TAG, "Default network validated: " + net + " handover=" + handover + " wifi=" + wifi);
+                    for (Listener l : listeners) {
+                        try { l.onDefaultNetworkValidated(handover, wifi); } catch (Exception e) { Log.w(TAG, "listener error", e); }
+                    }
+                }
+
+                @Override
+                public void onLost(@NonNull Network network) {
+                    if (!network.equals(defaultNetwork)) return;
+                    defaultNetwork = null;
+                    previousDefault = null;
+                    validatedNotified = null;
+                    online = false;
+                    Log.d(TAG, "Default network lost: " + network);
+                    for (Listener l : listeners) {
+                        try { l.onNetworkLost(); } catch (Exception e) { Log.w(TAG, "listener error", e); }
+                    }
+                }
+            };
+            cm.registerDefaultNetworkCallback(defaultNetworkCallback);
+        }
         Log.d(TAG, "ConnectivityMonitor registered");
     }
 
+    public static void addListener(@NonNull Listener listener) {
+        if (!listeners.contains(listener)) listeners.add(listener);
+    }
+
+    public static void removeListener(@NonNull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /** 默认网络是否可用（未注册或系统版本不支持时视为可用） */
+    public static boolean isOnline() {
+        return online;
+    }
+
     /** 反注册，避免内存泄漏；可在 Application.onTerminate() 或 Service.onDestroy() 调 */
-    public static void unregister(@NonNull Context ctx) {
+    public static synchronized void unregister(@NonNull Context ctx) {
         if (networkCallback == null) return;
         ConnectivityManager cm = (ConnectivityManager)
                 ctx.getSystemService(Context.CONNECTIVITY_SERVICE);
         cm.unregisterNetworkCallback(networkCallback);
         networkCallback = null;
+        if (defaultNetworkCallback != null) {
+            try { cm.unregisterNetworkCallback(defaultNetworkCallback); } catch (Exception ignored) {}
+            defaultNetworkCallback = null;
+        }
+        defaultNetwork = null;
+        previousDefault = null;
+        validatedNotified = null;
+        online = true;
+        listeners.clear();
         Log.d(TAG, "ConnectivityMonitor unregistered");
     }
 
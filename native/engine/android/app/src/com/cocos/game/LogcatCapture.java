@@ -5,14 +5,13 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.jujie.paipai.common.DeviceInfo;
+import com.jujie.paipai.common.MuxTransport;
+import com.jujie.paipai.common.NetworkCore;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
@@ -44,9 +43,6 @@ public class LogcatCapture {
     // 当前应用的进程ID，仅发送当前进程日志
     private static final int CURRENT_PID = android.os.Process.myPid();
 
-    // 日期格式（SimpleDateFormat 不是线程安全，这里仅在单线程中使用，如需多线程共享可改用 ThreadLocal）
-    private static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
-
     // 静态初始化块 - 注册关闭钩子，进程退出前确保资源释放
     static {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -176,12 +172,7 @@ public class LogcatCapture {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
-        if (httpClient != null) {
-            try {
-                httpClient.dispatcher().executorService().shutdown();
-                httpClient.connectionPool().evictAll();
-            } catch (Exception ignored) {}
-        }
+        // httpClient 派生自 NetworkCore，连接池与 Dispatcher 为进程共享，不能在此关闭
     }
 
     // ============================= 状态查询 =============================
@@ -203,7 +194,7 @@ public class LogcatCapture {
 
     private static WebSocket createNewWebSocket() {
         if (httpClient == null) {
-            httpClient = new OkHttpClient.Builder()
+            httpClient = NetworkCore.newBuilder()
                     .connectTimeout(10, TimeUnit.SECONDS)
                     .readTimeout(10, TimeUnit.SECONDS)
                     .writeTimeout(10, TimeUnit.SECONDS)
@@ -239,7 +230,8 @@ public class LogcatCapture {
             };
         }
         wsStatus.set(1);
-        return httpClient.newWebSocket(request, listener);
+        // 日志通道优先级最低，多路复用时让位于音频
+        return MuxTransport.newWebSocket(httpClient, request, listener, MuxTransport.PRIORITY_LOG);
     }
 
     private static void scheduleReconnect() {
@@ -300,30 +292,10 @@ public class LogcatCapture {
         }
     }
 
-    // 解析 logcat 行，提取级别与消息；格式示例：
-    // 01-21 13:51:34.219 D/Cocos   (11720): 13:51:34 [DEBUG]: JS: socket connected
+    // 解析 logcat 行，提取级别与消息（见 LogcatLines）
     private static String[] extractLogDetails(String logLine) {
-        if (logLine == null || logLine.trim().isEmpty()) return null;
         try {
-            String[] parts = logLine.split("\\s+");
-            if (parts.length < 5) return null;
-            String levelAndTag = parts[2];
-            if (!levelAndTag.contains("/Cocos")) return null;
-            String pidPart = parts[3]; // (11720):
-            if (!(pidPart.startsWith("(") && pidPart.endsWith("):"))) return null;
-            String pidStr = pidPart.substring(1, pidPart.length() - 2);
-            int logPid;
-            try { logPid = Integer.parseInt(pidStr); } catch (NumberFormatException e) { return null; }
-            if (logPid != CURRENT_PID) return null;
-            String level = levelAndTag.split("/")[0];
-            StringBuilder sb = new StringBuilder();
-            for (int i = 4; i < parts.length; i++) {
-                if (sb.length() > 0) sb.append(' ');
-                sb.append(parts[i]);
-            }
-            String msg = sb.toString().trim();
-            if (msg.isEmpty()) return null;
-            return new String[]{level, msg};
+            return LogcatLines.extractLogDetails(logLine, CURRENT_PID);
         } catch (Exception e) {
             Log.e(TAG, "Parse error", e);
             return null;
@@ -333,17 +305,8 @@ public class LogcatCapture {
     // 入队；若队列满，丢弃最旧一条以保证最新日志
     private static void enqueueLog(String level, String message) {
         if (message == null || message.trim().isEmpty()) return;
-        Map<String, Object> map = new HashMap<>();
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_PATTERN);
-        map.put("level", level);
-        map.put("version", DeviceInfo.VERSION_NAME);
-        map.put("brand", DeviceInfo.BRAND);
-        map.put("model", DeviceInfo.MODEL);
-        map.put("ts", sdf.format(new Date()));
-        map.put("message", message.trim());
-        if (nonEmpty(DeviceInfo.MpNo)) map.put("mpNo", DeviceInfo.MpNo);
-        if (nonEmpty(DeviceInfo.OrgCode)) map.put("orgCode", DeviceInfo.OrgCode);
-        if (nonEmpty(DeviceInfo.UserName)) map.put("userName", DeviceInfo.UserName);
+        Map<String, Object> map = LogcatLines.buildEntry(level, message, DeviceInfo.VERSION_NAME, DeviceInfo.BRAND,
+                DeviceInfo.MODEL, DeviceInfo.MpNo, DeviceInfo.OrgCode, DeviceInfo.UserName);
         // 控制队列大小：满则移除最旧
         if (!logQueue.offer(map)) {
             logQueue.poll();
@@ -351,8 +314,6 @@ public class LogcatCapture {
         }
     }
 
-    private static boolean nonEmpty(String s) { return s != null && !s.isEmpty(); }
-
     // 启动批量发送调度器
     private static void startBatchSender() {
         batchSenderExecutor.scheduleWithFixedDelay(() -> {
@@ -0,0 +1,61 @@
+package com.cocos.game;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * logcat 行解析与上报条目构造，纯 Java 实现，不依赖 Android：LogcatCapture 的逐行热路径，可在 JVM 上做基准测试。
+ */
+public final class LogcatLines {
+
+    // 日期格式（SimpleDateFormat 不是线程安全，这里每次新建）
+    static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    private LogcatLines() {}
+
+    // 解析 logcat 行，提取级别与消息；仅接受 pid 进程的 Cocos 日志。格式示例：
+    // 01-21 13:51:34.219 D/Cocos   (11720): 13:51:34 [DEBUG]: JS: socket connected
+    public static String[] extractLogDetails(String logLine, int pid) {
+        if (logLine == null || logLine.trim().isEmpty()) return null;
+        String[] parts = logLine.split("\\s+");
+        if (parts.length < 5) return null;
+        String levelAndTag = parts[2];
+        if (!levelAndTag.contains("/Cocos")) return null;
+        String pidPart = parts[3]; // (11720):
+        if (!(pidPart.startsWith("(") && pidPart.endsWith("):"))) return null;
+        String pidStr = pidPart.substring(1, pidPart.length() - 2);
+        int logPid;
+        try { logPid = Integer.parseInt(pidStr); } catch (NumberFormatException e) { return null; }
+        if (logPid != pid) return null;
+        String level = levelAndTag.split("/")[0];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 4; i < parts.length; i++) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(parts[i]);
+        }
+        String msg = sb.toString().trim();
+        if (msg.isEmpty()) return null;
+        return new String[]{level, msg};
+    }
+
+    // 构造一条上报条目；账号字段为空时不写入
+    public static Map<String, Object> buildEntry(String level, String message, String version, String brand,
+                                                 String model, String mpNo, String orgCode, String userName) {
+        Map<String, Object> map = new HashMap<>();
+        SimpleDateFormat sdf = new SimpleDateFormat(DATE_PATTERN);
+        map.put("level", level);
+        map.put("version", version);
+        map.put("brand", brand);
+        map.put("model", model);
+        map.put("ts", sdf.format(new Date()));
+        map.put("message", message.trim());
+        if (nonEmpty(mpNo)) map.put("mpNo", mpNo);
+        if (nonEmpty(orgCode)) map.put("orgCode", orgCode);
+        if (nonEmpty(userName)) map.put("userName", userName);
+        return map;
+    }
+
+    private static boolean nonEmpty(String s) { return s != null && !s.isEmpty(); }
+}
@@ -1,13 +1,42 @@
 package com.cocos.game;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
 import org.json.JSONObject;
 import android.util.Log;
 import com.cocos.lib.JsbBridge;
+import com.jujie.paipai.common.NetworkCore;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 public class PostVideoData {
+    private static volatile OkHttpClient uploadClient;
+
+    // 视频较大、服务端评估耗时较长，放宽写/读超时；其余配置沿用共享客户端
+    private static OkHttpClient uploadClient() {
+        OkHttpClient c = uploadClient;
+        if (c == null) {
+            synchronized (PostVideoData.class) {
+                c = uploadClient;
+                if (c == null) {
+                    c = NetworkCore.newBuilder()
+                            .writeTimeout(120, TimeUnit.SECONDS)
+                            .readTimeout(120, TimeUnit.SECONDS)
+                            .build();
+                    uploadClient = c;
+                }
+            }
+        }
+        return c;
+    }
+
     // 上传视频并获取评分，出错返回60
     public static Result postVideoForScore(File videoFile, String task_id, String activity_id, String token, int group_size, boolean is_production) {
         long startTime = System.currentTimeMillis();
@@ -15,128 +44,35 @@ public class PostVideoData {
         Log.d("PostVideoData", "文件: " + videoFile.getName() + ", 大小: " + videoFile.length() + " bytes");
         Log.d("PostVideoData", "参数 - task_id:" + task_id + ", activity_id: " + activity_id + ", token: " + token + ", group_size: " + group_size);
         
-        String boundary = "----WebKitFormBoundary" + System.currentTimeMillis();
-        String LINE_FEED = "\r\n";
         int score = 60; // 默认分数
         String filename = "";
-        HttpURLConnection conn = null;
-        DataOutputStream outputStream = null;
-        BufferedReader reader = null;
         try {
-            long beforeUrlTime = System.currentTimeMillis();
-            URL url_development = new URL("https://test.paipai2.xinjiaxianglao.com/api/finger_exercise/upload_and_evaluate");
-            URL url_production = new URL("https://colapai.xinjiaxianglao.com/api/finger_exercise/upload_and_evaluate");
-            URL url = is_production ? url_production : url_development;
-            Log.d("PostVideoData", "连接URL: " + url.toString());
-            
-            long beforeConnectionTime = System.currentTimeMillis();
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setDoOutput(true);
-            conn.setDoInput(true);
-            conn.setUseCaches(false);
-            conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-            long afterConnectionTime = System.currentTimeMillis();
-            Log.d("PostVideoData", "网络连接配置耗时 - " + (afterConnectionTime - beforeConnectionTime) + "ms");
-            
-            Log.d("PostVideoData", "开始写入请求数据...");
-            long beforeOutputStreamTime = System.currentTimeMillis();
-            outputStream = new DataOutputStream(conn.getOutputStream());
-            long afterOutputStreamTime = System.currentTimeMillis();
-            Log.d("PostVideoData", "获取输出流耗时 - " + (afterOutputStreamTime - beforeOutputStreamTime) + "ms");
-            
-            // 写入 task_id 参数
-            long beforeParamsTime = System.currentTimeMillis();
-            String taskIdPart = "--" + boundary + LINE_FEED
-                    + "Content-Disposition: form-data; name=\"task_id\"" + LINE_FEED
-                    + LINE_FEED
-                    + task_id + LINE_FEED;
-            outputStream.writeBytes(taskIdPart);
+            String url = is_production
+                    ? "https://colapai.xinjiaxianglao.com/api/finger_exercise/upload_and_evaluate"
+                    : "https://test.paipai2.xinjiaxianglao.com/api/finger_exercise/upload_and_evaluate";
+            Log.d("PostVideoData", "连接URL: " + url);
 
-            //写入activity_id
-            String activityIDPart = "--" + boundary + LINE_FEED
-                    + "Content-Disposition: form-data; name=\"activity_id\"" + LINE_FEED
-                    + LINE_FEED
-                    + activity_id + LINE_FEED;
-            outputStream.writeBytes(activityIDPart);
-            
-            // 写入 token 参数
-            String tokenPart = "--" + boundary + LINE_FEED
-                    + "Content-Disposition: form-data; name=\"token\"" + LINE_FEED
-                    + LINE_FEED
-                    + token + LINE_FEED;
-            outputStream.writeBytes(tokenPart);
-            
-            // 写入 group_size 参数
-            String groupSizePart = "--" + boundary + LINE_FEED
-                    + "Content-Disposition: form-data; name=\"group_size\"" + LINE_FEED
-                    + LINE_FEED
-                    + group_size + LINE_FEED;
-            outputStream.writeBytes(groupSizePart);
-            long afterParamsTime = System.currentTimeMillis();
-            Log.d("PostVideoData", "参数写入耗时 - " + (afterParamsTime - beforeParamsTime) + "ms");
-            
-            // 写入文件部分
-            long beforeFileHeaderTime = System.currentTimeMillis();
-            String filePartHeader = "--" + boundary + LINE_FEED
-                    + "Content-Disposition: form-data; name=\"file\"; filename=\"" + videoFile.getName() + "\"" + LINE_FEED
-                    + "Content-Type: video/mp4" + LINE_FEED
-                    + LINE_FEED;
-            outputStream.writeBytes(filePartHeader);
-            long afterFileHeaderTime = System.currentTimeMillis();
-            Log.d("PostVideoData", "文件头写入耗时 - " + (afterFileHeaderTime - beforeFileHeaderTime) + "ms");
-            
-            Log.d("PostVideoData", "开始写入视频文件数据...");
-            long beforeFileWriteTime = System.currentTimeMillis();
-            // 写入文件内容
-            FileInputStream fileInputStream = new FileInputStream(videoFile);
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            long totalBytesRead = 0;
-            int chunkCount = 0;
-            while ((bytesRead = fileInputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-                totalBytesRead += bytesRead;
-                chunkCount++;
-                
-                // 每写入1MB记录一次进度
-                if (chunkCount % 256 == 0) { // 4096 * 256 = 1MB
-                    long currentTime = System.currentTimeMillis();
-                    Log.d("PostVideoData", "已写入 " + (totalBytesRead / 1024 / 1024) + "MB, 耗时: " + (currentTime - beforeFileWriteTime) + "ms");
-                }
-            }
-            fileInputStream.close();
-            long afterFileWriteTime = System.currentTimeMillis();
-            Log.d("PostVideoData", "视频文件写入完成，总字节数: " + totalBytesRead + ", 总耗时: " + (afterFileWriteTime - beforeFileWriteTime) + "ms");
-            
-            long beforeEndTime = System.currentTimeMillis();
-            outputStream.writeBytes(LINE_FEED);
-            // 结束分隔符
-            outputStream.writeBytes("--" + boundary + "--" + LINE_FEED);
-            outputStream.flush();
-            long afterEndTime = System.currentTimeMillis();
-            Log.d("PostVideoData", "请求结束符写入耗时 - " + (afterEndTime - beforeEndTime) + "ms");
-            
-            Log.d("PostVideoData", "请求数据写入完成，开始发送请求...");
-            long beforeSendTime = System.currentTimeMillis();
+            // 文件直接以流方式写入请求体，无需整体读入内存；连接/TLS 复用进程共享客户端
+            RequestBody body = new MultipartBody.Builder()
+                    .setType(MultipartBody.FORM)
+                    .addFormDataPart("task_id", task_id)
+                    .addFormDataPart("activity_id", activity_id)
+                    .addFormDataPart("token", token)
+                    .addFormDataPart("group_size", String.valueOf(group_size))
+                    .addFormDataPart("file", videoFile.getName(),
+                            RequestBody.create(videoFile, MediaType.parse("video/mp4")))
+                    .build();
+            Request request = new Request.Builder().url(url).post(body).build();
 
-            // 读取响应
-            int responseCode = conn.getResponseCode();
-            long afterSendTime = System.currentTimeMillis();
-            Log.d("PostVideoData", "服务器响应码: " + responseCode + ", 网络传输耗时: " + (afterSendTime - beforeSendTime) + "ms");
-            
-            long beforeReadTime = System.currentTimeMillis();
-            InputStream is = (responseCode == 200) ? conn.getInputStream() : conn.getErrorStream();
-            reader = new BufferedReader(new InputStreamReader(is));
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
+            Log.d("PostVideoData", "请求数据准备完成，开始发送请求...");
+            long beforeSendTime = System.currentTimeMillis();
+            String responseStr;
+            try (Response resp = uploadClient().newCall(request).execute()) {
+                long afterSendTime = System.currentTimeMillis();
+                Log.d("PostVideoData", "服务器响应码: " + resp.code() + ", 网络传输耗时: " + (afterSendTime - beforeSendTime) + "ms");
+                ResponseBody rb = resp.body();
+                responseStr = rb != null ? rb.string() : "";
             }
-            long afterReadTime = System.currentTimeMillis();
-            Log.d("PostVideoData", "响应读取耗时 - " + (afterReadTime - beforeReadTime) + "ms");
-            
-            String responseStr = response.toString();
             Log.d("PostVideoData", "服务器响应内容: " + responseStr);
             
             // 解析JSON
@@ -198,13 +134,6 @@ public class PostVideoData {
             Log.d("PostVideoData", "错误发生时间 - " + errorTime + ", 总耗时: " + (errorTime - startTime) + "ms");
             JsbBridge.sendToScript("POSTVIDEODATAERROR", "");
             // 返回默认分数60和空文件名
-        } finally {
-            long beforeCleanupTime = System.currentTimeMillis();
-            try { if (outputStream != null) outputStream.close(); } catch (Exception ignore) {}
-            try { if (reader != null) reader.close(); } catch (Exception ignore) {}
-            if (conn != null) conn.disconnect();
-            long afterCleanupTime = System.currentTimeMillis();
-            Log.d("PostVideoData", "网络连接已关闭，清理耗时: " + (afterCleanupTime - beforeCleanupTime) + "ms");
         }
         return new Result(60, "");
     }
@@ -15,6 +15,7 @@ import android.util.Log;
 
 import com.cocos.lib.JsbBridge;
 
+import java.util.Arrays;
 import java.util.Map;
 
 public class ASRManager {
@@ -23,7 +24,7 @@ public class ASRManager {
 
     private AudioRecord audioRecord;
     private int bufferSize;
-    private boolean isRecording;
+    private volatile boolean isRecording;
     private Thread worker;
     private boolean connected = false;
 
@@ -70,11 +71,11 @@ public class ASRManager {
             while (isRecording) {
                 int read = audioRecord.read(buffer, 0, buffer.length);
                 if (read > 0) {
-                    // 调用 websocket 发送音频帧
-                    ASRWebSocket.getInstance().sendAudioFrame(buffer);
+                    // 只发送实际读到的字节；拷贝一份，ASRWebSocket 的重发缓冲会持有该帧直至确认
+                    ASRWebSocket.getInstance().sendAudioFrame(Arrays.copyOf(buffer, read));
                 }
             }
-        }).start();
+        }, "asr-capture").start();
 
 //        this.worker.setDaemon(true);
         Log.d("ASR", "thread start");
@@ -3,11 +3,19 @@ package com.jujie.audiosdk;
 import android.util.Log;
 
 import com.cocos.lib.JsbBridge;
+import com.jujie.paipai.common.MuxTransport;
+import com.jujie.paipai.common.NetworkCore;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayDeque;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -15,15 +23,63 @@ import okhttp3.WebSocket;
 import okhttp3.WebSocketListener;
 import okio.ByteString;
 
+/**
+ * 旧版 ASR 通道。可续传：每个音频帧按会话内序号（从 1 起）存入有界重发缓冲，
+ * 断线（onFailure / 非主动关闭）后按退避重连，URL 带 session 与 resume_seq，连上后按序补发未确认的帧；
+ * 断线与连接中采集的音频同样进缓冲，不再静默丢弃。
+ * 确认：服务端下发 {"ack": seq} 时按其裁剪缓冲；旧服务端不回 ack，则已在存活连接上发出超过
+ * {@link #IMPLICIT_ACK_MS} 的帧视为送达（断线时只补发最近这一段）。
+ */
 public class ASRWebSocket {
+    private static final String TAG = "ASR";
     private static ASRWebSocket instance;
     private WebSocket webSocket;
+    // 进程共享客户端，避免每次连接新建 OkHttpClient
+    private static final OkHttpClient client = NetworkCore.client();
+
+    // 16kHz 单声道 16bit：32 字节/毫秒
+    private static final int BYTES_PER_MS = 32;
+    // 重发缓冲上限 10s 音频；超出时丢弃最老的帧并记日志
+    private static final long REPLAY_MAX_BYTES = 10_000L * BYTES_PER_MS;
+    private static final long IMPLICIT_ACK_MS = 1500;
+    private static final long RECONNECT_BASE_MS = 250;
+    private static final long RECONNECT_MAX_MS = 4000;
+
+    private static final class Frame {
+        final long seq; final byte[] data; long sentAtMs;
+        Frame(long seq, byte[] data) { this.seq = seq; this.data = data; }
+    }
+
+    // 重连退避为轻量任务，共用一个守护调度线程
+    private static final ScheduledThreadPoolExecutor SCHEDULER = newScheduler();
+
+    private static ScheduledThreadPoolExecutor newScheduler() {
+        ScheduledThreadPoolExecutor e = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "asr-reconnect");
+            t.setDaemon(true);
+            return t;
+        });
+        e.setRemoveOnCancelPolicy(true);
+        return e;
+    }
+
+    // 以下状态由采集线程、OkHttp 回调线程与调度线程共同访问，均在 this 锁内读写
+    private boolean active = false;
+    private boolean open = false;
+    private String baseUrl;
+    private String sessionId;
+    private final ArrayDeque<Frame> replay = new ArrayDeque<>();
+    private long replayBytes = 0;
+    private long nextSeq = 1;
+    private boolean ackSupported = false;
+    private int reconnectAttempts = 0;
+    private ScheduledFuture<?> reconnectFuture;
+    private boolean announced = false;
 
     private ASRWebSocket() {
     }
 
-    public void connectWS(Map args) {
-        OkHttpClient client = new OkHttpClient();
+    public synchronized void connectWS(Map args) {
         String url = "wss://test.paipai.xinjiaxianglao.com/asr-tmp/?proj=colapai";
         if(args != null){
             if(args.containsKey("id")){
@@ -40,32 +96,68 @@ public class ASRWebSocket {
 
         }
 
+        resetSession();
+        if (webSocket != null) {
+            webSocket.close(1000, "重新连接");
+            webSocket = null;
+        }
+        baseUrl = url;
+        sessionId = UUID.randomUUID().toString();
+        active = true;
+        openSocket(url + "&session=" + sessionId);
+    }
+
+    // 调用方持有 this 锁
+    private void openSocket(String url) {
         Request request = new Request.Builder().url(url).build();
-        webSocket = client.newWebSocket(request, new WebSocketListener() {
+        open = false;
+        webSocket = MuxTransport.newWebSocket(client, request, new WebSocketListener() {
+            // 本连接是否为会话内首次连上（由 announced 判定）；续传重连上的就绪回执不再通知脚本层
+            private boolean firstConnection = false;
 
             @Override
             public void onOpen(WebSocket webSocket, okhttp3.Response response) {
                 // WebSocket 连接已打开
                 Log.d("WebSocketManager", "onOpen:" + response.message());
-
-                JsbBridge.sendToScript("ASRConnected");
+                boolean first;
+                synchronized (ASRWebSocket.this) {
+                    if (webSocket != ASRWebSocket.this.webSocket) return;
+                    open = true;
+                    reconnectAttempts = 0;
+                    first = !announced;
+                    announced = true;
+                    firstConnection = first;
+                    flushReplay(webSocket);
+                }
+                // 断线续传对脚本层透明：只在首次连上时通知
+                if (first) {
+                    JsbBridge.sendToScript("ASRConnected");
+                }
             }
 
 
             @Override
             public void onMessage(WebSocket webSocket, String text) {
                 // 处理来自服务器的文本消息
-                Log.d("ASR", ">>" + text + "<<");
+                Log.d(TAG, ">>" + text + "<<");
 
                 if (text.trim().equals("1")) {
-                    Log.d("ASR", "ASRConnected");
-                    JsbBridge.sendToScript("ASRConnected");
+                    boolean first;
+                    synchronized (ASRWebSocket.this) {
+                        first = firstConnection;
+                    }
+                    Log.d(TAG, "ASRConnected" + (first ? "" : " (resumed)"));
+                    if (first) JsbBridge.sendToScript("ASRConnected");
                     return;
                 }
-                Log.d("ASR", "onMessage:" + text);
+                Log.d(TAG, "onMessage:" + text);
                 JSONObject jsonObject = null;
                 try {
                     jsonObject = new JSONObject(text);
+                    if (jsonObject.has("ack")) {
+                        onAck(jsonObject.optLong("ack", 0));
+                        if (!jsonObject.has("content")) return;
+                    }
                     String content = jsonObject.getString("content");
                     JsbBridge.sendToScript("ASRResult", "{\"content\":\"" + content + "\"}");
                 } catch (JSONException e) {
@@ -73,38 +165,138 @@ public class ASRWebSocket {
                 }
             }
 
+            @Override
+            public void onClosing(WebSocket webSocket, int code, String reason) {
+                // 服务端主动关闭时 OkHttp 只回调 onClosing：回应关闭帧并按断线处理，会话仍活跃时走补发续传
+                Log.d(TAG, "on closing " + code + " " + reason);
+                try {
+                    webSocket.close(code, null);
+                } catch (IllegalArgumentException e) {
+                    // 1005 等保留码不能回发
+                    webSocket.close(1000, null);
+                }
+                onDisconnected(webSocket);
+            }
+
             @Override
             public void onClosed(WebSocket webSocket, int code, String reason) {
-                Log.d("ASR", "on closed");
+                Log.d(TAG, "on closed " + code + " " + reason);
+                onDisconnected(webSocket);
             }
 
             @Override
             public void onFailure(WebSocket webSocket, Throwable t, okhttp3.Response response) {
-                Log.d("ASR", "on failure");
+                Log.d(TAG, "on failure " + (t == null ? "" : t.getMessage()));
+                onDisconnected(webSocket);
             }
         });
     }
 
+    private synchronized void onDisconnected(WebSocket ws) {
+        if (ws != webSocket) return;
+        open = false;
+        webSocket = null;
+        if (!active || reconnectFuture != null) return;
+        long delay = Math.min(RECONNECT_MAX_MS, RECONNECT_BASE_MS << Math.min(reconnectAttempts, 4));
+        reconnectAttempts++;
+        Log.d(TAG, "reconnect #" + reconnectAttempts + " in " + delay + "ms, pending frames=" + replay.size());
+        try {
+            reconnectFuture = SCHEDULER.schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.w(TAG, "schedule reconnect failed: " + e.getMessage());
+        }
+    }
+
+    private synchronized void reconnect() {
+        reconnectFuture = null;
+        if (!active || webSocket != null) return;
+        long resumeSeq = replay.isEmpty() ? nextSeq : replay.peekFirst().seq;
+        openSocket(baseUrl + "&session=" + sessionId + "&resume_seq=" + resumeSeq);
+    }
+
+    // 新连接打开后按序补发缓冲中的帧；调用方持有 this 锁
+    private void flushReplay(WebSocket ws) {
+        long now = System.currentTimeMillis();
+        int resent = 0;
+        for (Frame f : replay) {
+            if (!ws.send(ByteString.of(f.data))) break;
+            f.sentAtMs = now;
+            resent++;
+        }
+        if (resent > 0) Log.d(TAG, "resent " + resent + " frames from seq " + replay.peekFirst().seq);
+    }
+
+    private synchronized void onAck(long seq) {
+        ackSupported = true;
+        while (!replay.isEmpty() && replay.peekFirst().seq <= seq) {
+            replayBytes -= replay.pollFirst().data.length;
+        }
+    }
+
+    // 调用方持有 this 锁
+    private void trimReplay(long now) {
+        if (!ackSupported && open) {
+            Iterator<Frame> it = replay.iterator();
+            while (it.hasNext()) {
+                Frame f = it.next();
+                if (f.sentAtMs == 0 || now - f.sentAtMs < IMPLICIT_ACK_MS) break;
+                replayBytes -= f.data.length;
+                it.remove();
+            }
+        }
+        long dropped = 0;
+        while (replayBytes > REPLAY_MAX_BYTES && !replay.isEmpty()) {
+            replayBytes -= replay.pollFirst().data.length;
+            dropped++;
+        }
+        if (dropped > 0) Log.w(TAG, "replay buffer full, dropped " + dropped + " frames");
+    }
+
+    private void resetSession() {
+        if (reconnectFuture != null) {
+            reconnectFuture.cancel(false);
+            reconnectFuture = null;
+        }
+        replay.clear();
+        replayBytes = 0;
+        nextSeq = 1;
+        ackSupported = false;
+        reconnectAttempts = 0;
+        announced = false;
+        open = false;
+    }
+
     public void closeWS() {
-        Log.d("ASR", "closeWS ");
-        if (webSocket != null) {
-            Log.d("ASR", "close 1000 ");
-            webSocket.close(1000, "关闭");
-            webSocket = null;
+        Log.d(TAG, "closeWS ");
+        synchronized (this) {
+            active = false;
+            resetSession();
+            if (webSocket != null) {
+                Log.d(TAG, "close 1000 ");
+                webSocket.close(1000, "关闭");
+                webSocket = null;
+            }
         }
         JsbBridge.sendToScript("ASRClosed");
     }
 
-    public static ASRWebSocket getInstance() {
+    public static synchronized ASRWebSocket getInstance() {
         if (instance == null) {
             instance = new ASRWebSocket();
         }
         return instance;
     }
 
-    public void sendAudioFrame(byte[] audioFrame) {
-        if (webSocket != null) {
-            webSocket.send(ByteString.of(audioFrame));
+    /** 发送一帧音频（调用方需传入仅含有效字节的独立数组，缓冲会持有其引用直至确认） */
+    public synchronized void sendAudioFrame(byte[] audioFrame) {
+        if (!active) return;
+        Frame f = new Frame(nextSeq++, audioFrame);
+        replay.addLast(f);
+        replayBytes += audioFrame.length;
+        long now = System.currentTimeMillis();
+        if (open && webSocket != null && webSocket.send(ByteString.of(audioFrame))) {
+            f.sentAtMs = now;
         }
+        trimReplay(now);
     }
-}
\ No newline at end of file
+}
@@ -13,13 +13,11 @@ import android.media.MediaRecorder;
 import android.util.Log;
 
 import com.cocos.lib.JsbBridge;
+import com.jujie.paipai.common.NetworkCore;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import okhttp3.Call;
 import okhttp3.Callback;
@@ -29,30 +27,46 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Pipe;
+import okio.Source;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+/**
+ * 整句识别（FSR）：开始录音即发起 multipart 上传，请求体为分块传输（chunked），
+ * 录音线程把流式 WAV 头（{@link WavEncoder#streamingHeader}）与 PCM 边录边写入管道，
+ * OkHttp 同时把管道内容发往服务端；停止时关闭管道结束请求体，服务端随即返回识别结果。
+ * 不再整句缓存、拷贝与落临时文件。
+ */
 public class FSRManager {
 
     private static final String TAG = "FSRManager";
     private static final String FSR_URL = "https://test.paipai.xinjiaxianglao.com/fsr/";
+    private static final int SAMPLE_RATE = 16000;
+    // 管道上限约 30s 音频：上行短暂受阻时录音线程不阻塞；写满 1s 仍无进展视为上传失败
+    private static final long PIPE_MAX_BYTES = 30L * SAMPLE_RATE * 2;
+    private static final long PIPE_WRITE_TIMEOUT_MS = 1000;
     private static FSRManager manager = null;
 
     private AudioRecord audioRecord;
     private int bufferSize;
-    private boolean isRecording;
+    private volatile boolean isRecording;
     private Thread worker;
     private boolean started = false;
-    private ByteArrayOutputStream audioData; // 用于保存录音数据
-    private ExecutorService executorService;
     private OkHttpClient client;
+    private Call uploadCall;
+    // 本次录音实际写入管道的 PCM 字节数，停止时为 0 则取消上传
+    private volatile long pcmBytes = 0;
 
     public FSRManager() {
-        bufferSize = AudioRecord.getMinBufferSize(16000, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
-        audioData = new ByteArrayOutputStream();
-        executorService = Executors.newSingleThreadExecutor();
-        client = new OkHttpClient();
+        bufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        client = NetworkCore.newBuilder()
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .build();
     }
 
     public static void start(Context context) {
@@ -81,34 +95,58 @@ public class FSRManager {
         started = true;
         Log.d(TAG, "startRecording");
 
-        // 重置音频数据流
-        audioData.reset();
-
         Log.d(TAG, "record starting");
-        audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, 16000, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, bufferSize);
+        audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, bufferSize);
         audioRecord.startRecording();
         isRecording = true;
+        pcmBytes = 0;
+
+        Pipe pipe = new Pipe(PIPE_MAX_BYTES);
+        // 本次上传是否已向脚本层报错，采集线程与上传回调只报一次
+        AtomicBoolean failed = new AtomicBoolean(false);
+        Call call = startUpload(pipe.source(), failed);
+        uploadCall = call;
+        BufferedSink sink = Okio.buffer(pipe.sink());
+        sink.timeout().timeout(PIPE_WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
 
         Log.d(TAG, "worker starting");
 
+        AudioRecord record = audioRecord;
         worker = new Thread(() -> {
             byte[] buffer = new byte[bufferSize];
+            boolean writable = true;
+            try {
+                sink.write(WavEncoder.streamingHeader(SAMPLE_RATE, 1, 16));
+            } catch (IOException e) {
+                Log.e(TAG, "Upload pipe closed", e);
+                writable = false;
+                failUpload(call, failed);
+            }
             while (isRecording) {
-                int read = audioRecord.read(buffer, 0, buffer.length);
-                if (read > 0) {
-                    // 保存音频数据
-                    synchronized (audioData) {
-                        audioData.write(buffer, 0, read);
+                int read = record.read(buffer, 0, buffer.length);
+                if (read > 0 && writable) {
+                    // 边录边传：每次读到的数据立即交给上传请求
+                    try {
+                        sink.write(buffer, 0, read);
+                        sink.flush();
+                        pcmBytes += read;
+                    } catch (IOException e) {
+                        // 管道写失败（上传中断或写超时）后的音频已无法送达，不能让服务端识别残缺的录音
+                        Log.e(TAG, "Upload pipe write failed", e);
+                        writable = false;
+                        failUpload(call, failed);
                     }
                 }
             }
-        });
+            // 关闭管道即结束请求体
+            try { sink.close(); } catch (IOException ignored) {}
+        }, "fsr-capture");
 
         worker.start();
         Log.d(TAG, "Recording thread started");
     }
 
-    // 停止录音并上传音频文件
+    // 停止录音；上传已在进行，结束请求体后等待识别结果
     public void stopAndUpload() {
         if (!isRecording || audioRecord == null) {
             Log.d(TAG, "Not recording, cannot stop");
@@ -117,8 +155,9 @@ public class FSRManager {
 
         Log.d(TAG, "Stopping recording");
         isRecording = false;
+        started = false;
 
-        // 确保录音线程停止
+        // 确保录音线程停止（线程退出前关闭管道）
         try {
             if (worker != null && worker.isAlive()) {
                 worker.join(1000); // 等待最多1秒
@@ -133,147 +172,84 @@ public class FSRManager {
             audioRecord = null;
         }
 
-        // 获取录音数据
-        byte[] audioBytes;
-        synchronized (audioData) {
-            audioBytes = audioData.toByteArray();
-            audioData.reset();
-        }
-
-        if (audioBytes.length == 0) {
+        if (pcmBytes == 0) {
             Log.e(TAG, "No audio data recorded");
-            return;
-        }
-
-        // 创建WAV格式的音频数据
-        byte[] wavBytes = createWavFile(audioBytes);
-
-        // 上传音频文件
-        uploadAudio(wavBytes);
-
-        started = false;
-    }
-
-    // 创建WAV文件格式
-    private byte[] createWavFile(byte[] audioData) {
-        int sampleRate = 16000;
-        int channels = 1;
-        int bitsPerSample = 16;
-        int dataSize = audioData.length;
-        int headerSize = 44;
-        int totalSize = headerSize + dataSize;
-
-        ByteArrayOutputStream out = new ByteArrayOutputStream(totalSize);
-
-        try {
-            // RIFF header
-            writeString(out, "RIFF"); // ChunkID
-            writeInt(out, 36 + dataSize); // ChunkSize
-            writeString(out, "WAVE"); // Format
-
-            // fmt subchunk
-            writeString(out, "fmt "); // Subchunk1ID
-            writeInt(out, 16); // Subchunk1Size
-            writeShort(out, (short) 1); // AudioFormat (1 = PCM)
-            writeShort(out, (short) channels); // NumChannels
-            writeInt(out, sampleRate); // SampleRate
-            writeInt(out, sampleRate * channels * bitsPerSample / 8); // ByteRate
-            writeShort(out, (short) (channels * bitsPerSample / 8)); // BlockAlign
-            writeShort(out, (short) bitsPerSample); // BitsPerSample
-
-            // data subchunk
-            writeString(out, "data"); // Subchunk2ID
-            writeInt(out, dataSize); // Subchunk2Size
-
-            // Audio data
-            out.write(audioData);
-
-            return out.toByteArray();
-        } catch (IOException e) {
-            Log.e(TAG, "Error creating WAV file", e);
-            return null;
+            if (uploadCall != null) uploadCall.cancel();
+        } else {
+            Log.d(TAG, "Recorded " + pcmBytes + " bytes, waiting for result");
         }
+        uploadCall = null;
     }
 
-    // 写入字符串到输出流
-    private void writeString(ByteArrayOutputStream out, String s) throws IOException {
-        for (int i = 0; i < s.length(); i++) {
-            out.write(s.charAt(i));
+    // 采集端写管道失败：取消上传并按上传失败通知脚本层
+    private void failUpload(Call call, AtomicBoolean failed) {
+        call.cancel();
+        if (failed.compareAndSet(false, true)) {
+            sendErrorToJS(2, "语音上传失败");
         }
     }
 
-    // 写入32位整数到输出流 (小端序)
-    private void writeInt(ByteArrayOutputStream out, int val) throws IOException {
-        out.write(val & 0xFF);
-        out.write((val >> 8) & 0xFF);
-        out.write((val >> 16) & 0xFF);
-        out.write((val >> 24) & 0xFF);
-    }
-
-    // 写入16位整数到输出流 (小端序)
-    private void writeShort(ByteArrayOutputStream out, short val) throws IOException {
-        out.write(val & 0xFF);
-        out.write((val >> 8) & 0xFF);
-    }
+    // 发起流式上传：文件部分长度未知（-1），整个 multipart 请求以 chunked 发送
+    private Call startUpload(Source audio, AtomicBoolean failed) {
+        RequestBody filePart = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return MediaType.parse("audio/wav");
+            }
 
-    // 上传音频文件到服务器
-    private void uploadAudio(byte[] wavData) {
-        if (wavData == null || wavData.length == 0) {
-            Log.e(TAG, "No WAV data to upload");
-            return;
-        }
+            @Override
+            public long contentLength() {
+                return -1;
+            }
 
-        Log.d(TAG, "Uploading WAV data, size: " + wavData.length + " bytes");
+            @Override
+            public boolean isOneShot() {
+                // 管道只能读一次，禁止 OkHttp 重试时重放
+                return true;
+            }
 
-        executorService.execute(() -> {
-            try {
-                // 创建临时文件
-                File tempFile = File.createTempFile("recording", ".wav", new File(System.getProperty("java.io.tmpdir")));
-                try (FileOutputStream fos = new FileOutputStream(tempFile)) {
-                    fos.write(wavData);
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                sink.writeAll(audio);
+            }
+        };
+
+        RequestBody requestBody = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("file", "recording.wav", filePart)
+                .build();
+
+        Request request = new Request.Builder()
+                .url(FSR_URL)
+                .post(requestBody)
+                .build();
+
+        Call call = client.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                try { audio.close(); } catch (IOException ignored) {}
+                if (call.isCanceled() || !failed.compareAndSet(false, true)) {
+                    Log.d(TAG, "Upload canceled");
+                    return;
                 }
+                Log.e(TAG, "Upload failed", e);
+                sendErrorToJS(2, "语音上传失败");
+            }
 
-                // 构建multipart请求
-                RequestBody requestBody = new MultipartBody.Builder()
-                        .setType(MultipartBody.FORM)
-                        .addFormDataPart("file", "recording.wav",
-                                RequestBody.create(MediaType.parse("audio/wav"), tempFile))
-                        .build();
-
-                Request request = new Request.Builder()
-                        .url(FSR_URL)
-                        .post(requestBody)
-                        .build();
-
-                // 发送请求
-                client.newCall(request).enqueue(new Callback() {
-                    @Override
-                    public void onFailure(Call call, IOException e) {
-                        Log.e(TAG, "Upload failed", e);
-                        sendErrorToJS(2, "语音上传失败");
-                    }
-
-                    @Override
-                    public void onResponse(Call call, Response response) throws IOException {
-                        if (response.isSuccessful()) {
-                            String responseBody = response.body().string();
-                            Log.d(TAG, "Upload successful: " + responseBody);
-                            sendResultToJS(responseBody);
-                        } else {
-                            Log.e(TAG, "Upload failed with code: " + response.code());
-                            sendErrorToJS(2, "语音识别失败");
-                        }
-                    }
-                });
-
-                // 删除临时文件
-                tempFile.deleteOnExit();
-
-            } catch (IOException e) {
-                Log.e(TAG, "Error during upload", e);
-                sendErrorToJS(2, "语音识别失败");
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                if (response.isSuccessful()) {
+                    String responseBody = response.body().string();
+                    Log.d(TAG, "Upload successful: " + responseBody);
+                    sendResultToJS(responseBody);
+                } else {
+                    Log.e(TAG, "Upload failed with code: " + response.code());
+                    sendErrorToJS(2, "语音识别失败");
+                }
             }
         });
+        return call;
     }
 
     // 发送结果到JS
@@ -303,4 +279,4 @@ public class FSRManager {
             JsbBridge.sendToScript("FSRError", "{\"error\":\"Unknown error\"}");
         }
     }
-}
\ No newline at end of file
+}
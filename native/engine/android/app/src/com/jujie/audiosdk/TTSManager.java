@@ -1,19 +1,23 @@
 package com.jujie.audiosdk;
 
-import android.content.Context;
+import android.media.AudioAttributes;
 import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.media.AudioTrack;
-import android.provider.MediaStore;
 import android.util.Log;
 
 import com.cocos.lib.JsbBridge;
+import com.jujie.paipai.common.MuxTransport;
+import com.jujie.paipai.common.NetworkCore;
 
 import org.json.JSONObject;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -21,19 +25,53 @@ import okhttp3.WebSocket;
 import okhttp3.WebSocketListener;
 import okio.ByteString;
 
+/**
+ * 旧版 TTS 通道：服务端按块下发 26 字节头（20 字节 uid | 1 字节 isLast | 5 字节 seq）+ 24kHz 单声道 16bit PCM。
+ * 播放为一条常驻的 MODE_STREAM AudioTrack，由写线程从无锁队列取块、按 20ms 切片写入；
+ * TTSStart / TTSEnd 按播放头位置（getPlaybackHeadPosition）到达对应帧时发出，而不是按块设置标记。
+ */
 public class TTSManager {
     private static TTSManager instance;
     private static final String TAG = "TTSManager";
+    // 进程共享客户端，避免每次连接新建 OkHttpClient
+    private static final OkHttpClient client = NetworkCore.client();
+
+    private static final int SAMPLE_RATE = 24000;
+    private static final int BYTES_PER_FRAME = 2;           // 16bit 单声道
+    private static final int HEADER_BYTES = 26;
+    private static final int UID_BYTES = 20;
+    private static final int SEQ_OFFSET = 21;
+    // 每次写入 20ms，写入之间检查播放头，事件精度约一个切片
+    private static final int SLICE_BYTES = SAMPLE_RATE / 50 * BYTES_PER_FRAME;
+    // 有待触发事件时的轮询间隔；空闲超过 IDLE_PAUSE_MS 暂停 AudioTrack 并停止轮询
+    private static final long MARKER_POLL_NS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long IDLE_PAUSE_MS = 2000;
+
+    private static final class Marker {
+        final long frame; final String event; final String uid;
+        Marker(long frame, String event, String uid) { this.frame = frame; this.event = event; this.uid = uid; }
+    }
 
-    private Queue<byte[]> audioQueue = new LinkedList<>();
+    // 网络线程入队、写线程出队
+    private final ConcurrentLinkedQueue<byte[]> audioQueue = new ConcurrentLinkedQueue<>();
     private WebSocket webSocket;
     private String wsUrl = "wss://test.paipai.xinjiaxianglao.com/api/tts-tmp/";
 
-    private boolean connected = false;
+    private volatile boolean connected = false;
     private boolean connecting = false;
-    private boolean isPlaying = false;
-    private int idx = 0;
+
+    private volatile Thread writer;
+    // close() 递增；写线程发现变化时清空在途块与事件并 flush AudioTrack
+    private volatile int generation = 0;
+    // 以下仅写线程访问
     private AudioTrack audioTrack;
+    private int trackBufferBytes = 0;
+    private int writerGeneration = 0;
+    private long framesWritten = 0;
+    private final ArrayDeque<Marker> markers = new ArrayDeque<>();
+    private long lastActiveMs = 0;
+    private final byte[] lastUidBytes = new byte[UID_BYTES];
+    private String lastUid = "";
 
     public TTSManager() {
 
@@ -48,29 +86,32 @@ public class TTSManager {
         }
     }
 
-    private AudioTrack initAudioTrack(int bufferSize) {
-        Log.d(TAG, "init audio track bufferSize=" + bufferSize);
-        int sampleRateInHz = 24000; // 示例采样率，根据实际情况调整
+    private AudioTrack createAudioTrack() {
         int channelConfig = AudioFormat.CHANNEL_OUT_MONO;
-        int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
-
-        AudioTrack theAudioTrack = new AudioTrack(
-                AudioManager.STREAM_MUSIC,
-                sampleRateInHz,
-                channelConfig,
-                audioFormat,
+        int encoding = AudioFormat.ENCODING_PCM_16BIT;
+        int minBuffer = AudioTrack.getMinBufferSize(SAMPLE_RATE, channelConfig, encoding);
+        int bufferSize = Math.max(minBuffer * 2, SLICE_BYTES * 4);
+        Log.d(TAG, "create streaming audio track bufferSize=" + bufferSize);
+        trackBufferBytes = bufferSize;
+        return new AudioTrack(
+                new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_MEDIA)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                        .build(),
+                new AudioFormat.Builder()
+                        .setSampleRate(SAMPLE_RATE)
+                        .setChannelMask(channelConfig)
+                        .setEncoding(encoding)
+                        .build(),
                 bufferSize,
-                AudioTrack.MODE_STATIC
-        );
-
-        return theAudioTrack;
+                AudioTrack.MODE_STREAM,
+                AudioManager.AUDIO_SESSION_ID_GENERATE);
     }
 
     private void connectToWebSocket() {
         Log.d(TAG, "connectToWebSocket");
-        okhttp3.OkHttpClient client = new okhttp3.OkHttpClient();
         Request request = new Request.Builder().url(wsUrl).build();
-        webSocket = client.newWebSocket(request,
+        webSocket = MuxTransport.newWebSocket(client, request,
                 new WebSocketListener() {
                     @Override
                     public void onOpen(WebSocket webSocket, okhttp3.Response response) {
@@ -89,16 +130,8 @@ public class TTSManager {
 
                     @Override
                     public void onMessage(WebSocket webSocket, ByteString bytes) {
-                        Log.d(TAG, "on message");
-
-                        byte[] audioData = bytes.toByteArray();
-                        audioQueue.add(audioData);
-                        idx++;
-                        Log.d(TAG, "isPlaying: " + isPlaying);
-
-                        if (!isPlaying) {
-                            playNextInQueue();
-                        }
+                        audioQueue.add(bytes.toByteArray());
+                        wakeWriter();
                     }
 
                     @Override
@@ -111,118 +144,150 @@ public class TTSManager {
                     public void onClosed(WebSocket webSocket, int code, String reason) {
                         super.onClosed(webSocket, code, reason);
                         Log.d(TAG, "WebSocket 连接关闭: " + reason);
-                        isPlaying = false;
                     }
                 }
         );
     }
 
 
-    private void playNextInQueue() {
-        Log.d(TAG, "play next in queue len: " + audioQueue.size() + ", idx: " + idx);
-        if (audioQueue.isEmpty() && idx == 0) {
-            isPlaying = false;
-            return;
+    private synchronized void wakeWriter() {
+        Thread t = writer;
+        if (t == null) {
+            t = new Thread(this::writerLoop, "tts-writer");
+            t.setPriority(Thread.MAX_PRIORITY);
+            t.setDaemon(true);
+            writer = t;
+            t.start();
+        } else {
+            LockSupport.unpark(t);
         }
+    }
 
-        isPlaying = true;
-        byte[] audioData = audioQueue.poll();
-        if (audioData != null) {
-            String prefix = new String(audioData, 0, 26);
-            Log.d(TAG, "prefix: " + prefix);
-            String uid = prefix.substring(0, 20);
-            boolean isLast = prefix.charAt(20) == '1';
-            String seq = prefix.substring(21, 26);
-
-            Log.d(TAG, "on message audioData length: " + audioData.length + ", uid: " + uid + ", isLast: " + isLast + ", seq: " + seq);
-
-            byte[] audioContent = new byte[audioData.length - 26];
-            System.arraycopy(audioData, 26, audioContent, 0, audioContent.length);
-
-            int bytesPerSample = 2; // 16 位 PCM
-            int channelCount = 1; // 单声道
-            int frameCount = audioContent.length / (bytesPerSample * channelCount);
-            Log.d(TAG, "audioContent.length: " + audioContent.length + ", frameCount: " + frameCount);
-
-            int iseq = 0;
-            try {
-                iseq = Integer.valueOf(seq);
-            }catch (Exception e) {
-                Log.d(TAG, "NumberFormatException: " + e.getMessage());
+    private void writerLoop() {
+        while (true) {
+            if (writerGeneration != generation) resetPlayback();
+            byte[] chunk = audioQueue.poll();
+            if (chunk != null) {
+                writeChunk(chunk);
+                continue;
             }
-
-            if(iseq == 1) {
-                // 第一帧
-                try {
-                    JsbBridge.sendToScript("TTSStart", "{\"uid\": \"" + uid.trim() + "\"}");
-                } catch (Exception e) {
-                    Log.d(TAG, e.getMessage());
+            firePassedMarkers();
+            if (!markers.isEmpty()) {
+                LockSupport.parkNanos(this, MARKER_POLL_NS);
+            } else if (audioTrack != null && audioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
+                long idle = System.currentTimeMillis() - lastActiveMs;
+                if (idle >= IDLE_PAUSE_MS) {
+                    audioTrack.pause();
+                } else {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(IDLE_PAUSE_MS - idle));
                 }
+            } else {
+                LockSupport.park(this);
             }
+        }
+    }
 
-            if (audioContent.length == 0) {
-                if (isLast) {
-                    isPlaying = false;
-                    // 帧长度为0， 播放结束
-                    try {
-                        JsbBridge.sendToScript("TTSEnd", "{\"uid\": \"" + uid.trim() + "\"}");
-                    } catch (Exception e) {
-                        Log.d(TAG, e.getMessage());
-                    }
-                }
-
-                idx--;
-                // 继续播放下一条
-                isPlaying = false;
-                playNextInQueue();
-                return;
+    private void writeChunk(byte[] chunk) {
+        if (chunk.length < HEADER_BYTES) {
+            Log.w(TAG, "drop short chunk length=" + chunk.length);
+            return;
+        }
+        String uid = uidOf(chunk);
+        boolean isLast = chunk[UID_BYTES] == '1';
+        int seq = seqOf(chunk);
+        if (seq == 1) markers.add(new Marker(framesWritten, "TTSStart", uid));
+
+        AudioTrack track = audioTrack;
+        if (track == null) {
+            track = audioTrack = createAudioTrack();
+        }
+        if (track.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) track.play();
+        int gen = writerGeneration;
+        int off = HEADER_BYTES;
+        int end = chunk.length - (chunk.length - HEADER_BYTES) % BYTES_PER_FRAME;
+        while (off < end && gen == generation) {
+            int written = track.write(chunk, off, Math.min(SLICE_BYTES, end - off));
+            if (written < 0) {
+                Log.e(TAG, "AudioTrack write error: " + written);
+                break;
             }
+            off += written;
+            framesWritten += written / BYTES_PER_FRAME;
+            firePassedMarkers();
+        }
+        if (isLast && gen == generation) {
+            markers.add(new Marker(framesWritten, "TTSEnd", uid));
+            // 流式 AudioTrack 在缓冲未满时可能不把尾部送出：无后续数据时补一缓冲区静音，让播放头走过句尾
+            if (audioQueue.isEmpty()) writeSilence(track);
+        }
+        lastActiveMs = System.currentTimeMillis();
+    }
 
-            if (audioTrack != null) {
-                audioTrack.release(); // 释放之前的 AudioTrack
-            }
-            audioTrack = initAudioTrack(audioContent.length);
+    private void writeSilence(AudioTrack track) {
+        int bytes = trackBufferBytes;
+        byte[] zeros = new byte[Math.min(bytes, SLICE_BYTES)];
+        int gen = writerGeneration;
+        while (bytes > 0 && gen == generation && audioQueue.isEmpty()) {
+            int written = track.write(zeros, 0, Math.min(zeros.length, bytes));
+            if (written <= 0) break;
+            bytes -= written;
+            framesWritten += written / BYTES_PER_FRAME;
+            firePassedMarkers();
+        }
+    }
 
-            int result = audioTrack.write(audioContent, 0, audioContent.length);
-            if (result == AudioTrack.ERROR_BAD_VALUE || result == AudioTrack.ERROR_INVALID_OPERATION) {
-                Log.e(TAG, "AudioTrack write error: " + result);
-            } else {
-                Log.d(TAG, "AudioTrack write successful, bytes written: " + result);
+    private void firePassedMarkers() {
+        if (markers.isEmpty() || audioTrack == null) return;
+        long head = audioTrack.getPlaybackHeadPosition() & 0xffffffffL;
+        while (!markers.isEmpty() && markers.peekFirst().frame <= head) {
+            Marker m = markers.pollFirst();
+            if (!connected) continue;
+            Log.d(TAG, m.event + " uid=" + m.uid + " frame=" + m.frame);
+            try {
+                JsbBridge.sendToScript(m.event, "{\"uid\": \"" + m.uid + "\"}");
+            } catch (Exception e) {
+                Log.d(TAG, "sendToScript failed: " + e.getMessage());
             }
+        }
+    }
 
-            audioTrack.setNotificationMarkerPosition(frameCount);
-
-            audioTrack.setPlaybackPositionUpdateListener(new AudioTrack.OnPlaybackPositionUpdateListener() {
-                @Override
-                public void onMarkerReached(AudioTrack track) {
-                    Log.d(TAG, "on marker reached uid: " + uid + ", isLast: " + isLast + ", connected: " + connected);
-                    if(!connected){
-                        return;
-                    }
-
-                    try {
-                        if (isLast) {
-                            JsbBridge.sendToScript("TTSEnd", "{\"uid\": \"" + uid.trim() + "\"}");
-                        }
-                    } catch (Exception e) {
-                        Log.d(TAG, e.getMessage());
-                    }
-                    Log.d(TAG, "play next in queue " + audioQueue.size());
-                    playNextInQueue();
-                }
-
-                @Override
-                public void onPeriodicNotification(AudioTrack track) {
-                }
-            });
-
-            audioTrack.play();
-            Log.d(TAG, "play audio");
+    // close() 之后：丢弃在途块与事件，清空 AudioTrack 缓冲并从 0 重新计帧
+    private void resetPlayback() {
+        writerGeneration = generation;
+        audioQueue.clear();
+        markers.clear();
+        if (audioTrack != null) {
+            try {
+                audioTrack.pause();
+                audioTrack.flush();
+            } catch (Exception ignored) {}
+        }
+        framesWritten = 0;
+    }
 
-            idx--;
+    /** 头部前 20 字节为 uid（ASCII，右侧补空格）；与上一块相同时复用已解码的字符串 */
+    private String uidOf(byte[] chunk) {
+        boolean same = true;
+        for (int i = 0; i < UID_BYTES; i++) {
+            if (chunk[i] != lastUidBytes[i]) { same = false; break; }
+        }
+        if (!same) {
+            System.arraycopy(chunk, 0, lastUidBytes, 0, UID_BYTES);
+            lastUid = new String(chunk, 0, UID_BYTES, StandardCharsets.US_ASCII).trim();
         }
+        return lastUid;
     }
 
+    /** 头部最后 5 字节为十进制序号（可含空格补位）；非法时返回 0 */
+    private static int seqOf(byte[] chunk) {
+        int seq = 0;
+        for (int i = SEQ_OFFSET; i < HEADER_BYTES; i++) {
+            byte b = chunk[i];
+            if (b >= '0' && b <= '9') seq = seq * 10 + (b - '0');
+            else if (b != ' ') return 0;
+        }
+        return seq;
+    }
 
     public static void send(String uid, String text) {
         if (instance != null) {
@@ -239,12 +304,11 @@ public class TTSManager {
         Log.d(TAG, "close() connected: " + connected);
         if (connected) {
             connected = false;
+            // AudioTrack 常驻复用：由写线程丢弃在途数据并 flush
+            generation++;
             audioQueue.clear();
-
-            if(audioTrack != null){
-                audioTrack.stop();
-                audioTrack.release();
-            }
+            Thread t = writer;
+            if (t != null) LockSupport.unpark(t);
 
             if (webSocket != null) {
                 webSocket.close(1000, "");
@@ -253,7 +317,6 @@ public class TTSManager {
 
             Log.d(TAG, "send script");
             JsbBridge.sendToScript("TTSClosed");
-            isPlaying = false;
         }
     }
 
@@ -0,0 +1,86 @@
+package com.jujie.audiosdk;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * PCM → WAV 封装（44 字节 RIFF 头 + 原始数据），纯 Java 实现，不依赖 Android，可在 JVM 上做基准测试。
+ */
+public final class WavEncoder {
+
+    private WavEncoder() {}
+
+    public static byte[] encode(byte[] audioData, int sampleRate, int channels, int bitsPerSample) {
+        int dataSize = audioData.length;
+        int headerSize = 44;
+        int totalSize = headerSize + dataSize;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(totalSize);
+
+        // RIFF header
+        writeString(out, "RIFF"); // ChunkID
+        writeInt(out, 36 + dataSize); // ChunkSize
+        writeString(out, "WAVE"); // Format
+
+        // fmt subchunk
+        writeString(out, "fmt "); // Subchunk1ID
+        writeInt(out, 16); // Subchunk1Size
+        writeShort(out, (short) 1); // AudioFormat (1 = PCM)
+        writeShort(out, (short) channels); // NumChannels
+        writeInt(out, sampleRate); // SampleRate
+        writeInt(out, sampleRate * channels * bitsPerSample / 8); // ByteRate
+        writeShort(out, (short) (channels * bitsPerSample / 8)); // BlockAlign
+        writeShort(out, (short) bitsPerSample); // BitsPerSample
+
+        // data subchunk
+        writeString(out, "data"); // Subchunk2ID
+        writeInt(out, dataSize); // Subchunk2Size
+
+        // Audio data
+        out.write(audioData, 0, dataSize);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * 流式 WAV 头：录音开始时数据长度未知，RIFF 与 data 长度按惯例填 0xFFFFFFFF，
+     * 服务端读到流结束即为数据结束。
+     */
+    public static byte[] streamingHeader(int sampleRate, int channels, int bitsPerSample) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(44);
+        writeString(out, "RIFF");
+        writeInt(out, 0xFFFFFFFF);
+        writeString(out, "WAVE");
+        writeString(out, "fmt ");
+        writeInt(out, 16);
+        writeShort(out, (short) 1);
+        writeShort(out, (short) channels);
+        writeInt(out, sampleRate);
+        writeInt(out, sampleRate * channels * bitsPerSample / 8);
+        writeShort(out, (short) (channels * bitsPerSample / 8));
+        writeShort(out, (short) bitsPerSample);
+        writeString(out, "data");
+        writeInt(out, 0xFFFFFFFF);
+        return out.toByteArray();
+    }
+
+    // 写入字符串到输出流
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            out.write(s.charAt(i));
+        }
+    }
+
+    // 写入32位整数到输出流 (小端序)
+    private static void writeInt(ByteArrayOutputStream out, int val) {
+        out.write(val & 0xFF);
+        out.write((val >> 8) & 0xFF);
+        out.write((val >> 16) & 0xFF);
+        out.write((val >> 24) & 0xFF);
+    }
+
+    // 写入16位整数到输出流 (小端序)
+    private static void writeShort(ByteArrayOutputStream out, short val) {
+        out.write(val & 0xFF);
+        out.write((val >> 8) & 0xFF);
+    }
+}
@@ -1,13 +1,23 @@
 package com.jujie.paipai.chat;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.jujie.paipai.chat.core.AudioFrameHeader;
+import com.jujie.paipai.chat.core.NetworkShaper;
+import com.jujie.paipai.common.MuxTransport;
+import com.jujie.paipai.common.NetworkCore;
+import com.jujie.paipai.common.PerfTrace;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Random;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.OkHttpClient;
@@ -20,6 +30,9 @@ import okio.ByteString;
 /**
  * 负责 WebSocket 连接、收发与自动重连（指数退避 + 抖动）。
  * 仅承载传输，不解析业务协议。
+ * 感知网络状态：离线时暂停重连，网络恢复（已验证）后立即带抖动重连；默认网络切换时先建新连接再关旧连接。
+ * 应用层心跳：ping/pong 测 RTT；会话活跃（录音/播放）时短间隔，约 2~3 秒内发现半开连接。
+ * 控制消息走可靠队列（有序、有界、TTL、按 key 合并），ready 后发出；音频帧仍走直接发送、断线即丢弃。
  */
 public class ChatTransport {
 
@@ -30,6 +43,12 @@ public class ChatTransport {
         void onClosed(int code, @NonNull String reason);
         void onFailure(@NonNull Throwable t, @Nullable Response response);
         default void onReconnectScheduled(int attempt, long delayMs) {}
+        /** 断线后重新建立连接；downtimeMs 为首次断开到新连接 onOpen 的耗时 */
+        default void onReconnected(long downtimeMs) {}
+        /** 每次心跳收到 pong 时回调：本次 RTT 与平滑 RTT（毫秒） */
+        default void onHeartbeatRtt(long rttMs, long smoothedRttMs) {}
+        /** 下行吞吐估计更新（kbit/s，EWMA）与当前平滑 RTT（毫秒，未知为 -1） */
+        default void onDownlinkEstimate(long kbps, long smoothedRttMs) {}
     }
 
     private final OkHttpClient http;
@@ -55,17 +74,89 @@ public class ChatTransport {
 
     private volatile @Nullable String lastUrl = null;
 
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
-        Thread t = new Thread(r, "chat-transport-reconnector");
-        t.setDaemon(true);
-        return t;
-    });
+    // 进程内所有连接共用一个调度线程（重连退避、心跳均为轻量任务）：会话与角色切换反复创建/释放连接时不再新建线程
+    private static final ScheduledThreadPoolExecutor SCHEDULER = newScheduler();
+
+    private static ScheduledThreadPoolExecutor newScheduler() {
+        ScheduledThreadPoolExecutor e = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "chat-transport-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        // 取消的心跳/重连任务立即出队，避免长延时任务堆积
+        e.setRemoveOnCancelPolicy(true);
+        return e;
+    }
     private final Random random = new Random();
     private int reconnectAttempts = 0;
+    private @Nullable ScheduledFuture<?> reconnectFuture;
+
+    // 网络感知：由外部（ConnectivityMonitor）驱动；未知时视为可用
+    private volatile boolean networkAvailable = true;
+    private static final long NETWORK_RETURN_JITTER_MS = 300;
+
+    // 连接代号：每个 WebSocket 的回调只在其代号仍为当前/迁移中时生效，旧连接的迟到事件直接忽略
+    private int nextGen = 0;
+    private int activeGen = -1;
+    private int migratingGen = -1;
+    private @Nullable WebSocket migratingWs;
+
+    // 断线时刻（elapsedRealtime），用于统计重连耗时；0 表示当前未处于断线状态
+    private volatile long disconnectedAtMs = 0;
+
+    // 应用层心跳：活跃时 1s 一跳、2.5s 无任何下行即判死；空闲时 10s 一跳、25s 判死
+    private static final long HEARTBEAT_ACTIVE_INTERVAL_MS = 1000;
+    private static final long HEARTBEAT_ACTIVE_DEAD_MS = 2500;
+    private static final long HEARTBEAT_IDLE_INTERVAL_MS = 10_000;
+    private static final long HEARTBEAT_IDLE_DEAD_MS = 25_000;
+    private static final int PING_SLOTS = 8;
+    private volatile boolean sessionActive = false;
+    private @Nullable ScheduledFuture<?> heartbeatFuture;
+    private int pingSeq = 0;
+    private final int[] pingSlotSeq = new int[PING_SLOTS];
+    private final long[] pingSlotSentNs = new long[PING_SLOTS];
+    // 服务端回过 pong 才启用判死，兼容不支持应用层心跳的旧服务端
+    private volatile boolean pongSupported = false;
+    private volatile long lastInboundMs = 0;
+    private volatile long heartbeatGraceFromMs = 0;
+    private volatile long lastRttMs = -1;
+    private volatile long smoothedRttMs = -1;
+
+    // 下行吞吐估计：按突发（帧间隔 < 500ms）统计，突发结束或持续 2s 时以 EWMA 更新。
+    // 服务端按播放节奏推流时测得的是发送速率，因此只能作为可用带宽的下界。仅在读线程访问。
+    private static final long BURST_GAP_MS = 500;
+    private static final long BURST_MAX_MS = 2000;
+    private static final long BURST_MIN_DURATION_MS = 100;
+    private static final long BURST_MIN_BYTES = 8 * 1024;
+    private long burstStartMs = 0;
+    private long burstLastMs = 0;
+    private long burstBytes = 0;
+    private volatile long downlinkKbps = -1;
+
+    // 控制消息队列：未连接或服务端未 ready 时暂存，ready 后按序发出
+    private static final int CONTROL_QUEUE_CAPACITY = 32;
+    private static final class ControlMessage {
+        final String text; final @Nullable String key; final long expiresAtMs; final boolean once;
+        ControlMessage(String t, @Nullable String k, long e, boolean o){ text = t; key = k; expiresAtMs = e; once = o; }
+    }
+    private final ArrayDeque<ControlMessage> controlQueue = new ArrayDeque<>();
+    private boolean controlReady = false;
+    // 本次 ready 周期内已发出的“每连接一次”控制消息键（如 start_asr）；controlReady 复位时清空
+    private final HashSet<String> sentOnceKeys = new HashSet<>();
+
+    // 弱网模拟层（调试包安装后生效），为 null 时收发直通
+    private final @Nullable NetworkShaper shaper;
+    private final Runnable shaperDisconnect = this::forceDisconnect;
+
+    // 会话回放（调试/基准）：安装 SessionReplay 后 connect() 不连网，改为投递录制的下行帧
+    private volatile @Nullable Thread replayThread;
 
     public ChatTransport(@NonNull Listener listener) {
         this.listener = listener;
-        this.http = new OkHttpClient.Builder()
+        this.shaper = NetworkShaper.installed();
+        if (shaper != null) shaper.addDisconnectHook(shaperDisconnect);
+        // 派生自进程级共享客户端：复用连接池、Dispatcher 与 TLS 会话
+        this.http = NetworkCore.newBuilder()
                 .pingInterval(15, TimeUnit.SECONDS)
                 .build();
     }
@@ -78,9 +169,48 @@ public class ChatTransport {
         manualClose = false;
         lastUrl = url;
         reconnectAttempts = 0;
+        SessionReplay replay = SessionReplay.installed();
+        if (replay != null) {
+            startReplay(replay);
+            return;
+        }
         openWebSocket(url);
     }
 
+    private void startReplay(@NonNull SessionReplay replay) {
+        Thread old = replayThread;
+        if (old != null) old.interrupt();
+        Log.d("ChatTransport", "replaying recorded session instead of connecting");
+        replayThread = replay.play(new SessionReplay.Sink() {
+            @Override public void onOpen() {
+                isConnected = true;
+                try { listener.onOpen(); } catch (Exception ignored) {}
+            }
+            @Override public void onText(@NonNull String text) {
+                if (handlePong(text)) return;
+                try { listener.onTextMessage(text); } catch (Exception ignored) {}
+            }
+            @Override public void onBinary(@NonNull byte[] bytes) {
+                recordDownlink(bytes.length, SystemClock.elapsedRealtime());
+                try { listener.onBinaryMessage(bytes); } catch (Exception ignored) {}
+            }
+            @Override public void onClosed(int code, @NonNull String reason) {
+                isConnected = false;
+                try { listener.onClosed(code, reason); } catch (Exception ignored) {}
+            }
+            @Override public void onFinished() {
+                isConnected = false;
+            }
+        });
+    }
+
+    /**
+     * 仅替换后续重连使用的地址，不影响当前连接（如带内切换角色后 characterId 已变）。
+     */
+    public synchronized void updateUrl(@NonNull String url) {
+        if (lastUrl != null) lastUrl = url;
+    }
+
     public synchronized void setAutoReconnect(boolean enable) {
         this.autoReconnect = enable;
     }
@@ -89,19 +219,188 @@ public class ChatTransport {
         this.reconnectOnNormalClose = enable;
     }
 
+    /**
+     * 会话是否处于活跃轮次（录音或播放中）。活跃时心跳间隔缩短，以便快速发现半开连接。
+     */
+    public void setSessionActive(boolean active) {
+        if (sessionActive == active) return;
+        // 切换间隔后从此刻起重新计时，避免空闲期的长静默被误判为断线
+        heartbeatGraceFromMs = SystemClock.elapsedRealtime();
+        sessionActive = active;
+        if (isConnected) startHeartbeat();
+    }
+
+    /** 最近一次心跳 RTT（毫秒），未测得时为 -1 */
+    public long getLastRttMs() {
+        return lastRttMs;
+    }
+
+    /** 平滑 RTT（EWMA, 1/8 权重），未测得时为 -1 */
+    public long getSmoothedRttMs() {
+        return smoothedRttMs;
+    }
+
+    /** 下行吞吐估计（kbit/s），未测得时为 -1 */
+    public long getDownlinkKbps() {
+        return downlinkKbps;
+    }
+
+    /** 丢弃已有吞吐估计（如恢复语音后不再沿用降级期间的旧值） */
+    public void resetDownlinkEstimate() {
+        downlinkKbps = -1;
+    }
+
+    private void recordDownlink(int size, long now) {
+        if (burstStartMs != 0 && now - burstLastMs > BURST_GAP_MS) finishBurst();
+        if (burstStartMs == 0) {
+            // 首帧只标记起点：其字节在起点之前就已在途，不计入
+            burstStartMs = now;
+            burstBytes = 0;
+        } else {
+            burstBytes += size;
+        }
+        burstLastMs = now;
+        if (now - burstStartMs >= BURST_MAX_MS) {
+            finishBurst();
+            burstStartMs = now;
+            burstBytes = 0;
+        }
+    }
+
+    private void finishBurst() {
+        long dur = burstLastMs - burstStartMs;
+        if (dur >= BURST_MIN_DURATION_MS && burstBytes >= BURST_MIN_BYTES) {
+            long kbps = burstBytes * 8 / dur;   // 字节*8/毫秒 = kbit/s
+            long prev = downlinkKbps;
+            long est = prev < 0 ? kbps : (prev * 3 + kbps) / 4;
+            downlinkKbps = est;
+            try { listener.onDownlinkEstimate(est, smoothedRttMs); } catch (Exception ignored) {}
+        }
+        burstStartMs = 0;
+        burstBytes = 0;
+    }
+
     public boolean sendText(@NonNull String text) {
+        if (replayThread != null) return true;   // 回放中：上行直接吞掉
         WebSocket w = ws;
-        return w != null && isConnected && w.send(text);
+        return w != null && isConnected && transmit(w, text);
+    }
+
+    /**
+     * 可靠发送控制消息：已 ready 则立即发送，否则入队，待 {@link #markReady()} 后按序补发。
+     *
+     * @param text        JSON 文本
+     * @param coalesceKey 合并键：队列中同键的旧消息会被移除，只保留最新一条（如模式切换）；null 表示不合并
+     * @param ttlMs       有效期，超时未发出则丢弃
+     */
+    public void sendControl(@NonNull String text, @Nullable String coalesceKey, long ttlMs) {
+        enqueueControl(text, coalesceKey, ttlMs, false);
+    }
+
+    /**
+     * 每个 ready 周期（连接/迁移后收到 ready 为一个周期）只发一次的控制消息：
+     * 本周期已发出过同键消息则忽略，避免 ready 补发队列后上层再次触发同一请求造成重复（如 start_asr）。
+     */
+    public void sendControlOnce(@NonNull String text, @NonNull String key, long ttlMs) {
+        enqueueControl(text, key, ttlMs, true);
+    }
+
+    /** 服务端会话在同一连接上重建（如角色切换完成）：允许“每周期一次”的控制消息再次发送 */
+    public synchronized void resetControlSession() {
+        sentOnceKeys.clear();
+    }
+
+    private void enqueueControl(@NonNull String text, @Nullable String coalesceKey, long ttlMs, boolean once) {
+        synchronized (this) {
+            if (once && sentOnceKeys.contains(coalesceKey)) {
+                Log.d("ChatTransport", "control already sent this session, skip: " + text);
+                return;
+            }
+            if (coalesceKey != null) {
+                for (Iterator<ControlMessage> it = controlQueue.iterator(); it.hasNext(); ) {
+                    if (coalesceKey.equals(it.next().key)) it.remove();
+                }
+            }
+            if (controlQueue.size() >= CONTROL_QUEUE_CAPACITY) {
+                ControlMessage dropped = controlQueue.pollFirst();
+                if (dropped != null) Log.w("ChatTransport", "control queue full, drop: " + dropped.text);
+            }
+            controlQueue.addLast(new ControlMessage(text, coalesceKey, SystemClock.elapsedRealtime() + ttlMs, once));
+        }
+        flushControl();
+    }
+
+    private synchronized void flushControl() {
+        if (!controlReady) return;
+        long now = SystemClock.elapsedRealtime();
+        while (!controlQueue.isEmpty()) {
+            ControlMessage m = controlQueue.peekFirst();
+            if (m.expiresAtMs < now) {
+                controlQueue.pollFirst();
+                Log.w("ChatTransport", "control message expired: " + m.text);
+                continue;
+            }
+            if (!sendText(m.text)) return; // 发送失败则保留，等下一次 ready
+            controlQueue.pollFirst();
+            if (m.once) sentOnceKeys.add(m.key);
+        }
     }
 
     public boolean sendBinary(@NonNull byte[] bytes) {
+        if (replayThread != null) return true;
         WebSocket w = ws;
-        return w != null && isConnected && w.send(ByteString.of(bytes));
+        return w != null && isConnected && transmit(w, ByteString.of(bytes));
     }
 
     public boolean sendBinary(@NonNull byte[] bytes, int offset, int length) {
+        if (replayThread != null) return true;
         WebSocket w = ws;
-        return w != null && isConnected && w.send(ByteString.of(bytes, offset, length));
+        return w != null && isConnected && transmit(w, ByteString.of(bytes, offset, length));
+    }
+
+    private boolean transmit(@NonNull WebSocket w, @NonNull String text) {
+        boolean traced = PerfTrace.begin("ws.sendText");
+        try {
+            SessionRecorder rec = SessionRecorder.active();
+            if (rec != null) rec.recordText(SessionRecorder.KIND_OUT_TEXT, text);
+            NetworkShaper s = shaper;
+            if (s == null) return w.send(text);
+            s.outbound(NetworkShaper.utf8Length(text), false, () -> w.send(text));
+            return true;
+        } finally {
+            if (traced) PerfTrace.end();
+        }
+    }
+
+    private boolean transmit(@NonNull WebSocket w, @NonNull ByteString bytes) {
+        boolean traced = PerfTrace.begin("ws.sendBinary");
+        try {
+            SessionRecorder rec = SessionRecorder.active();
+            if (rec != null) rec.record(SessionRecorder.KIND_OUT_BINARY, bytes.toByteArray(), 0, bytes.size());
+            NetworkShaper s = shaper;
+            if (s == null) return w.send(bytes);
+            s.outbound(bytes.size(), true, () -> w.send(bytes));
+            return true;
+        } finally {
+            // 上行音频在 OkHttp 发送队列中的积压字节（弱网时持续上涨）
+            if (traced) {
+                PerfTrace.counter("mic.sendQueueBytes", w.queueSize());
+                PerfTrace.end();
+            }
+        }
+    }
+
+    private static void recordClosed(int code, @NonNull String reason) {
+        SessionRecorder rec = SessionRecorder.active();
+        if (rec != null) rec.recordText(SessionRecorder.KIND_CLOSED, code + " " + reason);
+    }
+
+    /** 模拟层脚本要求断线：直接取消当前连接，走 onFailure -> 重连流程 */
+    private void forceDisconnect() {
+        WebSocket w = ws;
+        if (w == null) return;
+        Log.d("ChatTransport", "forced disconnect by network shaper");
+        try { w.cancel(); } catch (Exception ignored) {}
     }
 
     public synchronized void close() {
@@ -109,6 +408,16 @@ public class ChatTransport {
         autoReconnect = false;
         reconnectAttempts = 0;
         connecting = false;
+        disconnectedAtMs = 0;
+        cancelScheduledReconnect();
+        abortMigration();
+        stopHeartbeat();
+        controlReady = false;
+        sentOnceKeys.clear();
+        controlQueue.clear();
+        Thread replay = replayThread;
+        replayThread = null;
+        if (replay != null) replay.interrupt();
         WebSocket w = ws;
         ws = null;
         if (w != null) {
@@ -116,54 +425,306 @@ public class ChatTransport {
         }
     }
 
+    /**
+     * 首次断开时刻（elapsedRealtime），0 表示未处于断线/重连过程。
+     * 上层可据此计算「断线到业务 ready」的耗时。
+     */
+    public long getDisconnectedAtMs() {
+        return disconnectedAtMs;
+    }
+
+    /** 默认网络丢失且无替代：暂停重连调度，等网络恢复后再立即重连 */
+    public synchronized void onNetworkLost() {
+        networkAvailable = false;
+        if (cancelScheduledReconnect()) {
+            Log.d("ChatTransport", "network lost, reconnect paused");
+        }
+    }
+
+    /**
+     * 默认网络已通过连通性验证。
+     * @param handover 是否由另一条网络切换而来（如 Wi-Fi -> 蜂窝），此时旧连接大概率已不可用
+     */
+    public void onNetworkValidated(boolean handover) {
+        networkAvailable = true;
+        if (handover && isConnected) {
+            migrate();
+        } else if (!isConnected) {
+            reconnectNow();
+        }
+    }
+
+    /** 网络恢复：跳过剩余退避时间，带少量抖动立即重连（避免大量客户端同时涌入） */
+    private synchronized void reconnectNow() {
+        if (manualClose || !autoReconnect || lastUrl == null || isConnected || connecting) return;
+        cancelScheduledReconnect();
+        reconnectAttempts = 0;
+        long delayMs = (long) (random.nextDouble() * NETWORK_RETURN_JITTER_MS);
+        Log.d("ChatTransport", "network validated, reconnect in " + delayMs + "ms");
+        scheduleReconnect(delayMs);
+    }
+
+    /** 先建后断：在新网络上打开新连接，onOpen 后替换当前连接并关闭旧连接 */
+    private void migrate() {
+        String url;
+        int gen;
+        synchronized (this) {
+            if (manualClose || lastUrl == null || !isConnected || migratingWs != null || connecting) return;
+            url = lastUrl;
+            gen = nextGen++;
+            migratingGen = gen;
+        }
+        Log.d("ChatTransport", "default network changed, migrating socket gen=" + gen);
+        WebSocket w = MuxTransport.newWebSocket(http, buildRequest(url), new SocketListener(gen));
+        synchronized (this) {
+            if (migratingGen == gen) migratingWs = w;
+            else try { w.cancel(); } catch (Exception ignored) {}
+        }
+    }
+
+    private synchronized void abortMigration() {
+        WebSocket m = migratingWs;
+        migratingWs = null;
+        migratingGen = -1;
+        if (m != null) {
+            try { m.cancel(); } catch (Exception ignored) {}
+        }
+    }
+
+    private synchronized boolean cancelScheduledReconnect() {
+        ScheduledFuture<?> f = reconnectFuture;
+        reconnectFuture = null;
+        return f != null && f.cancel(false);
+    }
+
+    private synchronized void scheduleReconnect(long delayMs) {
+        try {
+            reconnectFuture = SCHEDULER.schedule(() -> {
+                synchronized (ChatTransport.this) {
+                    reconnectFuture = null;
+                    if (manualClose || !autoReconnect || lastUrl == null) return;
+                }
+                openWebSocket(lastUrl);
+            }, delayMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.w("ChatTransport", "schedule reconnect failed: " + e.getMessage());
+        }
+    }
+
     public synchronized void release() {
         close();
-        try { scheduler.shutdownNow(); } catch (Exception ignored) {}
+        if (shaper != null) shaper.removeDisconnectHook(shaperDisconnect);
     }
 
     private void openWebSocket(@NonNull String url) {
         Log.d("ChatTransport", "openWebSocket. enableAsr: " + enableAsr);
 
+        int gen;
         synchronized (this) {
             if (connecting) return; // 防止并发重复连接
             connecting = true;
+            gen = nextGen++;
+            activeGen = gen;
         }
 
+        Request req = buildRequest(url);
+        Log.d("ChatTransport", "Opening WebSocket to " + req.url());
+        ws = MuxTransport.newWebSocket(http, req, new SocketListener(gen));
+    }
+
+    private Request buildRequest(@NonNull String url) {
+        // 声明支持带帧头的下行音频（AudioFrameHeader），服务端在 ready 中回 audioFrameVersion 确认
+        url = url + "&audioFrame=" + AudioFrameHeader.VERSION;
         // 根据 enableAsr 标志修改 URL 参数
-        Request req =null;
         if(this.enableAsr){
-            req = new Request.Builder().url(url + "&enableAsr=1").build();
-        }else{
-            req = new Request.Builder().url(url).build();
+            return new Request.Builder().url(url + "&enableAsr=1").build();
         }
+        return new Request.Builder().url(url).build();
+    }
 
-        Log.d("ChatTransport", "Opening WebSocket to " + req.url());
+    private final class SocketListener extends WebSocketListener {
+        private final int gen;
 
-        ws = http.newWebSocket(req, new WebSocketListener() {
-            @Override public void onOpen(@NonNull WebSocket webSocket, @NonNull Response response) {
-                isConnected = true;
-                synchronized (ChatTransport.this) { reconnectAttempts = 0; connecting = false; }
-                try { listener.onOpen(); } catch (Exception ignored) {}
-            }
-            @Override public void onMessage(@NonNull WebSocket webSocket, @NonNull String text) {
-                try { listener.onTextMessage(text); } catch (Exception ignored) {}
+        SocketListener(int gen) { this.gen = gen; }
+
+        @Override public void onOpen(@NonNull WebSocket webSocket, @NonNull Response response) {
+            WebSocket replaced = null;
+            synchronized (ChatTransport.this) {
+                if (gen == migratingGen) {
+                    // 迁移完成：新连接成为当前连接，旧连接随后关闭
+                    replaced = ws;
+                    ws = webSocket;
+                    activeGen = gen;
+                    migratingGen = -1;
+                    migratingWs = null;
+                    // 新连接尚未收到服务器 ready：控制消息重新排队，待 markReady 后补发
+                    controlReady = false;
+                    sentOnceKeys.clear();
+                } else if (gen != activeGen) {
+                    try { webSocket.close(1000, "stale"); } catch (Exception ignored) {}
+                    return;
+                }
+                reconnectAttempts = 0;
+                connecting = false;
             }
-            @Override public void onMessage(@NonNull WebSocket webSocket, @NonNull ByteString bytes) {
-                try { listener.onBinaryMessage(bytes.toByteArray()); } catch (Exception ignored) {}
+            isConnected = true;
+            lastInboundMs = SystemClock.elapsedRealtime();
+            startHeartbeat();
+            if (replaced != null) {
+                Log.d("ChatTransport", "socket migrated to gen=" + gen);
+                try { replaced.close(1000, "migrated"); } catch (Exception ignored) {}
             }
-            @Override public void onClosed(@NonNull WebSocket webSocket, int code, @NonNull String reason) {
-                isConnected = false;
-                synchronized (ChatTransport.this) { connecting = false; }
-                try { listener.onClosed(code, reason); } catch (Exception ignored) {}
-                handleMaybeReconnect(code, reason, null);
+            // 断线时刻保留到上层 markReady()，以便统计「断线到业务 ready」
+            long since = disconnectedAtMs;
+            if (since > 0) {
+                try { listener.onReconnected(SystemClock.elapsedRealtime() - since); } catch (Exception ignored) {}
             }
-            @Override public void onFailure(@NonNull WebSocket webSocket, @NonNull Throwable t, @Nullable Response response) {
-                isConnected = false;
-                synchronized (ChatTransport.this) { connecting = false; }
-                try { listener.onFailure(t, response); } catch (Exception ignored) {}
-                handleMaybeReconnect(-1, String.valueOf(t.getMessage()), response);
+            SessionRecorder rec = SessionRecorder.active();
+            if (rec != null) rec.recordText(SessionRecorder.KIND_OPEN, webSocket.request().url().toString());
+            try { listener.onOpen(); } catch (Exception ignored) {}
+        }
+        @Override public void onMessage(@NonNull WebSocket webSocket, @NonNull String text) {
+            if (gen != activeGen) return;
+            NetworkShaper s = shaper;
+            if (s != null) { s.inbound(NetworkShaper.utf8Length(text), false, () -> deliverText(text)); return; }
+            deliverText(text);
+        }
+        @Override public void onMessage(@NonNull WebSocket webSocket, @NonNull ByteString bytes) {
+            if (gen != activeGen) return;
+            NetworkShaper s = shaper;
+            if (s != null) { s.inbound(bytes.size(), true, () -> deliverBinary(bytes)); return; }
+            deliverBinary(bytes);
+        }
+        private void deliverText(@NonNull String text) {
+            // 经模拟层延迟投递时连接可能已被替换，需再次校验代号
+            if (gen != activeGen) return;
+            lastInboundMs = SystemClock.elapsedRealtime();
+            SessionRecorder rec = SessionRecorder.active();
+            if (rec != null) rec.recordText(SessionRecorder.KIND_IN_TEXT, text);
+            if (handlePong(text)) return;
+            boolean traced = PerfTrace.begin("ws.recvText");
+            try { listener.onTextMessage(text); } catch (Exception ignored) {}
+            finally { if (traced) PerfTrace.end(); }
+        }
+        private void deliverBinary(@NonNull ByteString bytes) {
+            if (gen != activeGen) return;
+            long now = SystemClock.elapsedRealtime();
+            lastInboundMs = now;
+            recordDownlink(bytes.size(), now);
+            byte[] data = bytes.toByteArray();
+            SessionRecorder rec = SessionRecorder.active();
+            if (rec != null) rec.record(SessionRecorder.KIND_IN_BINARY, data, 0, data.length);
+            boolean traced = PerfTrace.begin("ws.recvBinary");
+            try { listener.onBinaryMessage(data); } catch (Exception ignored) {}
+            finally { if (traced) PerfTrace.end(); }
+        }
+        @Override public void onClosed(@NonNull WebSocket webSocket, int code, @NonNull String reason) {
+            if (!onSocketGone(webSocket)) return;
+            recordClosed(code, reason);
+            try { listener.onClosed(code, reason); } catch (Exception ignored) {}
+            handleMaybeReconnect(code, reason, null);
+        }
+        @Override public void onFailure(@NonNull WebSocket webSocket, @NonNull Throwable t, @Nullable Response response) {
+            if (!onSocketGone(webSocket)) return;
+            recordClosed(1006, String.valueOf(t.getMessage()));
+            try { listener.onFailure(t, response); } catch (Exception ignored) {}
+            handleMaybeReconnect(-1, String.valueOf(t.getMessage()), response);
+        }
+
+        /** @return 是否为当前连接断开（需要通知上层并考虑重连） */
+        private boolean onSocketGone(@NonNull WebSocket webSocket) {
+            synchronized (ChatTransport.this) {
+                if (gen == migratingGen) {
+                    // 迁移失败：保留旧连接，由其自身的心跳/断线逻辑兜底
+                    Log.w("ChatTransport", "socket migration failed gen=" + gen);
+                    migratingGen = -1;
+                    migratingWs = null;
+                    return false;
+                }
+                if (gen != activeGen) return false;
+                connecting = false;
+                controlReady = false;
+                sentOnceKeys.clear();
             }
-        });
+            isConnected = false;
+            stopHeartbeat();
+            if (disconnectedAtMs == 0 && !manualClose) disconnectedAtMs = SystemClock.elapsedRealtime();
+            return true;
+        }
+    }
+
+    private synchronized void startHeartbeat() {
+        stopHeartbeat();
+        long interval = sessionActive ? HEARTBEAT_ACTIVE_INTERVAL_MS : HEARTBEAT_IDLE_INTERVAL_MS;
+        try {
+            // 进入活跃轮次时立即发一跳，尽早确认连接可用
+            long initialDelay = sessionActive ? 0 : interval;
+            heartbeatFuture = SCHEDULER.scheduleWithFixedDelay(this::beat, initialDelay, interval, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.w("ChatTransport", "schedule heartbeat failed: " + e.getMessage());
+        }
+    }
+
+    private synchronized void stopHeartbeat() {
+        ScheduledFuture<?> f = heartbeatFuture;
+        heartbeatFuture = null;
+        if (f != null) f.cancel(false);
+    }
+
+    private void beat() {
+        WebSocket w = ws;
+        if (w == null || !isConnected) return;
+        long silentMs = SystemClock.elapsedRealtime() - Math.max(lastInboundMs, heartbeatGraceFromMs);
+        long deadMs = sessionActive ? HEARTBEAT_ACTIVE_DEAD_MS : HEARTBEAT_IDLE_DEAD_MS;
+        if (pongSupported && silentMs > deadMs) {
+            // 半开连接：直接取消，走 onFailure -> 重连流程
+            Log.w("ChatTransport", "heartbeat timeout, no inbound for " + silentMs + "ms, active=" + sessionActive);
+            try { w.cancel(); } catch (Exception ignored) {}
+            return;
+        }
+        int seq;
+        synchronized (this) {
+            seq = ++pingSeq;
+            int slot = seq & (PING_SLOTS - 1);
+            pingSlotSeq[slot] = seq;
+            pingSlotSentNs[slot] = System.nanoTime();
+        }
+        transmit(w, "{\"type\":\"ping\",\"seq\":" + seq + "}");
+    }
+
+    /** 识别并消费 pong（不上抛给业务层）；只对短消息做解析，避免影响正常下行 */
+    private boolean handlePong(@NonNull String text) {
+        if (text.length() > 96 || !text.contains("\"pong\"")) return false;
+        int seq;
+        try {
+            org.json.JSONObject o = new org.json.JSONObject(text);
+            if (!"pong".equals(o.optString("type"))) return false;
+            seq = o.optInt("seq", -1);
+        } catch (Exception e) {
+            return false;
+        }
+        pongSupported = true;
+        long sentNs;
+        synchronized (this) {
+            int slot = seq & (PING_SLOTS - 1);
+            if (seq < 0 || pingSlotSeq[slot] != seq) return true;
+            sentNs = pingSlotSentNs[slot];
+            pingSlotSeq[slot] = 0;
+        }
+        long rtt = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentNs);
+        long srtt = smoothedRttMs;
+        srtt = srtt < 0 ? rtt : (srtt * 7 + rtt) / 8;
+        lastRttMs = rtt;
+        smoothedRttMs = srtt;
+        try { listener.onHeartbeatRtt(rtt, srtt); } catch (Exception ignored) {}
+        return true;
+    }
+
+    /** 上层在业务层 ready 后调用：结束一次断线统计，并补发排队中的控制消息 */
+    public void markReady() {
+        disconnectedAtMs = 0;
+        synchronized (this) { controlReady = true; }
+        flushControl();
     }
 
     private void handleMaybeReconnect(int code, @NonNull String reason, @Nullable Response response) {
@@ -172,16 +733,17 @@ public class ChatTransport {
         if (normalClose && !reconnectOnNormalClose) return;
         synchronized (this) {
             if (connecting) return; // 仍在连接中则不重复调度
+            if (!networkAvailable) {
+                // 离线时不做盲目退避，等待 onNetworkValidated 触发立即重连
+                Log.d("ChatTransport", "offline, reconnect deferred until network returns");
+                return;
+            }
+            if (reconnectFuture != null) return;
         }
         long delayMs = nextBackoffDelayMs();
         int attempt = reconnectAttempts; // nextBackoffDelayMs 内已++
         try { listener.onReconnectScheduled(attempt, delayMs); } catch (Exception ignored) {}
-        scheduler.schedule(() -> {
-            synchronized (ChatTransport.this) {
-                if (manualClose || !autoReconnect || lastUrl == null) return;
-            }
-            openWebSocket(lastUrl);
-        }, delayMs, TimeUnit.MILLISECONDS);
+        scheduleReconnect(delayMs);
     }
 
     private long nextBackoffDelayMs() {
@@ -4,30 +4,50 @@ import android.content.Context;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Base64;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.OptIn;
 import androidx.media3.common.AudioAttributes;
 import androidx.media3.common.C;
 import androidx.media3.common.MediaItem;
 import androidx.media3.common.PlaybackException;
 import androidx.media3.common.PlaybackParameters;
 import androidx.media3.common.Player;
+import androidx.media3.common.audio.AudioProcessor;
 import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.DefaultLoadControl;
+import androidx.media3.exoplayer.DefaultRenderersFactory;
 import androidx.media3.exoplayer.ExoPlayer;
+import androidx.media3.exoplayer.LoadControl;
+import androidx.media3.exoplayer.RenderersFactory;
+import androidx.media3.exoplayer.audio.AudioSink;
+import androidx.media3.exoplayer.audio.DefaultAudioSink;
+
+import com.jujie.paipai.chat.core.ChatProtocolEngine;
+import com.jujie.paipai.common.PerfTrace;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * 负责串行播放 TTS 段并在正确的线程上访问 ExoPlayer。
  * - 单独的 HandlerThread + Looper；所有 player 调用封送到该线程。
- * - data URI 方式播放 base64 编码的音频（默认当作 audio/mpeg）。
+ * - data URI 方式播放 base64 编码的音频（默认 audio/mpeg，可按段指定 MIME 以支持流中途切换编码）。
  * - 通过 Callback 通知段开始/结束（包含是否取消）。
+ * - 口型：音频输出链上的 {@link LipSyncTap} 把 RMS 包络/粗口型写入 {@link LipSyncBuffer}，按播放时钟位置查表。
+ * - 播放时钟：段开始、暂停/恢复、变速及播放中每 250ms 发布到 {@link PlaybackClock} 并回调 onPlaybackClock。
+ * - 积压控制：待播音频超过阈值时轻微加速（1.0~1.15x，保持音高），消化后恢复原速；可选硬上限时每个回复只保留最后一段。
+ * - 随 VoiceChatClient 跨会话复用：TTS 播放器构造时即创建（预热），歌曲播放器首次点歌时创建，均在 release() 时释放。
+ *   两者使用不同的缓冲策略：TTS 段短、要求尽快出声；歌曲为长流，缓冲更深以抗抖动。
  */
 public class ChatTtsPlayer {
 
@@ -38,24 +58,69 @@ public class ChatTtsPlayer {
         // 当播放队列空闲时触发
         void onQueueIdle();
         void onSongEndMarker(@NonNull String requestId);
+        // 播放速度变化或因积压跳过段时触发：backlogMs 为调整后的待播音频时长
+        default void onPlayoutAdjusted(long backlogMs, float speed, int skippedSegments) {}
+        // 播放时钟锚点：段内位置（毫秒，按 ExoPlayer 基于 AudioTrack 时间戳的播放位置）、速度与是否在播
+        default void onPlaybackClock(@NonNull String requestId, int sequence, long positionMs, float speed, boolean playing) {}
     }
 
+    // 缓冲策略：TTS 段 / 歌曲流
+    public static final int PROFILE_TTS = 0;
+    public static final int PROFILE_SONG = 1;
+
+    // TTS：100ms 即可开播，段内最多预读 5s
+    private static final int TTS_MIN_BUFFER_MS = 1000;
+    private static final int TTS_MAX_BUFFER_MS = 5000;
+    private static final int TTS_BUFFER_FOR_PLAYBACK_MS = 100;
+    private static final int TTS_BUFFER_AFTER_REBUFFER_MS = 300;
+    // 歌曲：开播门槛略高，卡顿后多攒一些再继续
+    private static final int SONG_MIN_BUFFER_MS = 5000;
+    private static final int SONG_MAX_BUFFER_MS = 30_000;
+    private static final int SONG_BUFFER_FOR_PLAYBACK_MS = 500;
+    private static final int SONG_BUFFER_AFTER_REBUFFER_MS = 1500;
+
     private static final class Track {
         final String requestId;
         final int sequence;
         final String base64;
         final String textDelta;
         final boolean isFinalSegment;
+        final String mimeType;
+        final int profile;
+        final long bytes;
         boolean startNotified = false;
-        Track(String r, int s, String b64, String t, boolean fin){
-            requestId = r; sequence = s; base64 = b64; textDelta = t; isFinalSegment = fin;
+        Track(String r, int s, String b64, String t, boolean fin, String mime, int prof){
+            requestId = r; sequence = s; base64 = b64; textDelta = t; isFinalSegment = fin; mimeType = mime; profile = prof;
+            bytes = b64.length() * 3L / 4;
         }
     }
 
+    // 积压控制：待播超过 3s 开始加速，10s 时达到上限；低于 1.5s 恢复原速（中间保持，避免来回切换）
+    private static final long SPEEDUP_START_MS = 3000;
+    private static final long SPEEDUP_FULL_MS = 10_000;
+    private static final long SPEEDUP_RELEASE_MS = 1500;
+    private static final float MAX_SPEED = 1.15f;
+    private static final float SPEED_STEP = 0.05f;
+    // 未播完过任何段时按 32kbps 估算时长，之后按实际播完的 TTS 段学习（EWMA）
+    private static final double INITIAL_BYTES_PER_MS = 4.0;
+    private static final double BITRATE_EWMA_ALPHA = 0.2;
+    private volatile boolean adaptiveSpeed = true;
+    private volatile long backlogHardCapMs = 0;   // 0 表示不启用
+    private float speed = 1.0f;                  // 仅 player 线程访问
+    private double bytesPerMs = INITIAL_BYTES_PER_MS;
+
+    // 播放时钟：播放中按此间隔刷新锚点，读取方在两次锚点之间自行外推
+    private static final long CLOCK_TICK_MS = 250;
+    private final Runnable clockTick = this::refreshClock;
+    private long nullOutputStartMs = 0;
+
+    private final Context app;
     private final HandlerThread playerThread;
     private final Handler playerHandler;
     private final Looper playerLooper;
-    private final ExoPlayer player;
+    private final ExoPlayer ttsPlayer;
+    private @Nullable ExoPlayer songPlayer;   // 首次播放歌曲时创建（仅 player 线程访问）
+    private ExoPlayer player;                 // 当前使用的播放器（仅 player 线程切换）
     private final Deque<Track> queue = new ArrayDeque<>();
     private @Nullable String currentPlayingMeta = null; // requestId#sequence
     private final Callback callback;
@@ -64,21 +129,57 @@ public class ChatTtsPlayer {
     // 新增：待触发的歌曲结束标记集合（仅在 player 线程访问）
     private final Set<String> pendingSongEnd = new HashSet<>();
 
+    // 空输出模式（会话回放/基准）：不解码不出声，按码率估算时长后完成段；若在录制则记下实际播放的段
+    private static volatile boolean nullOutput = false;
+    private static final long NULL_OUTPUT_ASSUMED_KBPS = 32;
+    private int nullOutputToken = 0;   // 取消/清空时递增，使在途的模拟结束失效（仅 player 线程访问）
+
+    public static void setNullOutput(boolean enabled) {
+        nullOutput = enabled;
+    }
+
     @UnstableApi
     public ChatTtsPlayer(@NonNull Context app, @NonNull Callback cb) {
+        this.app = app.getApplicationContext();
         this.callback = cb;
         this.playerThread = new HandlerThread("tts-player-thread");
         this.playerThread.start();
         this.playerLooper = playerThread.getLooper();
         this.playerHandler = new Handler(playerLooper);
 
-        this.player = new ExoPlayer.Builder(app)
+        this.ttsPlayer = buildPlayer(new DefaultLoadControl.Builder()
+                .setBufferDurationsMs(TTS_MIN_BUFFER_MS, TTS_MAX_BUFFER_MS,
+                        TTS_BUFFER_FOR_PLAYBACK_MS, TTS_BUFFER_AFTER_REBUFFER_MS)
+                .setPrioritizeTimeOverSizeThresholds(true)
+                .build());
+        this.player = ttsPlayer;
+    }
+
+    @OptIn(markerClass = UnstableApi.class)
+    @NonNull
+    private ExoPlayer buildPlayer(@NonNull LoadControl loadControl) {
+        // 在默认音频输出链上插入口型分析节点（PCM 原样透传）
+        RenderersFactory renderers = new DefaultRenderersFactory(app) {
+            @Override
+            protected AudioSink buildAudioSink(@NonNull Context context, boolean enableFloatOutput,
+                                               boolean enableAudioTrackPlaybackParams) {
+                return new DefaultAudioSink.Builder(context)
+                        .setEnableFloatOutput(enableFloatOutput)
+                        .setEnableAudioTrackPlaybackParams(enableAudioTrackPlaybackParams)
+                        .setAudioProcessors(new AudioProcessor[]{ new LipSyncTap(LipSyncBuffer.get()) })
+                        .build();
+            }
+        };
+        ExoPlayer p = new ExoPlayer.Builder(app, renderers)
                 .setLooper(playerLooper)
+                .setLoadControl(loadControl)
                 .build();
-        this.player.addListener(new Player.Listener() {
+        p.addListener(new Player.Listener() {
+            // 仅处理当前使用的播放器的事件；切换后被停用的播放器事件忽略
             @Override
             public void onPlaybackStateChanged(int state) {
-                if (state == Player.STATE_READY && player.getPlayWhenReady()) {
+                if (p != player) return;
+                if (state == Player.STATE_READY && p.getPlayWhenReady()) {
                     notifyStartIfNeeded();
                 }
                 if (state == Player.STATE_ENDED) {
@@ -87,10 +188,13 @@ public class ChatTtsPlayer {
             }
             @Override
             public void onIsPlayingChanged(boolean isPlaying) {
+                if (p != player) return;
                 if (isPlaying) notifyStartIfNeeded();
+                refreshClock();
             }
             @Override
             public void onPlayerError(@NonNull PlaybackException error) {
+                if (p != player) return;
                 handleEnded(true);
             }
         });
@@ -99,16 +203,51 @@ public class ChatTtsPlayer {
                     .setUsage(C.USAGE_MEDIA)
                     .setContentType(C.AUDIO_CONTENT_TYPE_MUSIC) // 改为 MUSIC 类型
                     .build();
-            player.setAudioAttributes(attrs, /* handleAudioFocus= */ false);
+            p.setAudioAttributes(attrs, /* handleAudioFocus= */ false);
             // 添加缓冲优化
-            player.setPlaybackParameters(new PlaybackParameters(1.0f)); // 确保正常速度
-
-
+            p.setPlaybackParameters(new PlaybackParameters(1.0f)); // 确保正常速度
         });
+        return p;
+    }
+
+    /** 按段的缓冲策略取播放器；切换时停掉原播放器，下一段在新播放器上重新准备 */
+    @OptIn(markerClass = UnstableApi.class)
+    @NonNull
+    private ExoPlayer playerFor(int profile) {
+        ExoPlayer target;
+        if (profile == PROFILE_SONG) {
+            if (songPlayer == null) {
+                songPlayer = buildPlayer(new DefaultLoadControl.Builder()
+                        .setBufferDurationsMs(SONG_MIN_BUFFER_MS, SONG_MAX_BUFFER_MS,
+                                SONG_BUFFER_FOR_PLAYBACK_MS, SONG_BUFFER_AFTER_REBUFFER_MS)
+                        .build());
+            }
+            target = songPlayer;
+        } else {
+            target = ttsPlayer;
+        }
+        if (target != player) {
+            try { player.stop(); } catch (Exception ignored) {}
+            player = target;
+            currentPlayingMeta = null;
+        }
+        return target;
     }
 
+    public static final String DEFAULT_MIME = ChatProtocolEngine.DEFAULT_MIME;
+
     public void enqueue(@NonNull String requestId, int sequence, @NonNull byte[] audio,
                         @NonNull String textDelta, boolean isFinalSegment) {
+        enqueue(requestId, sequence, audio, textDelta, isFinalSegment, DEFAULT_MIME);
+    }
+
+    public void enqueue(@NonNull String requestId, int sequence, @NonNull byte[] audio,
+                        @NonNull String textDelta, boolean isFinalSegment, @NonNull String mimeType) {
+        enqueue(requestId, sequence, audio, textDelta, isFinalSegment, mimeType, PROFILE_TTS);
+    }
+
+    public void enqueue(@NonNull String requestId, int sequence, @NonNull byte[] audio,
+                        @NonNull String textDelta, boolean isFinalSegment, @NonNull String mimeType, int profile) {
         if (audio.length == 0) {
             Log.d("TtsPlayer", "检测到歌曲结束标记(延迟触发): " + requestId);
             runOnPlayer(() -> {
@@ -125,8 +264,10 @@ public class ChatTtsPlayer {
 
         final String b64 = Base64.encodeToString(audio, Base64.NO_WRAP);
         runOnPlayer(() -> {
-            queue.addLast(new Track(requestId, sequence, b64, textDelta, isFinalSegment));
+            queue.addLast(new Track(requestId, sequence, b64, textDelta, isFinalSegment, mimeType, profile));
+            traceQueueDepth();
             playNextIfIdle();
+            adjustPlayout();
         });
     }
 
@@ -140,33 +281,55 @@ public class ChatTtsPlayer {
             Track current = queue.peekFirst();
             if (current != null && current.requestId.equals(responseId)) {
                 try { player.stop(); } catch (Exception ignored) {}
+                nullOutputToken++;
                 canceledCurrent = true;
             }
             queue.clear(); queue.addAll(remain);
+            traceQueueDepth();
             // 取消时丢弃待触发的结束标记
             pendingSongEnd.remove(responseId);
             if (canceledCurrent) {
+                if (current.startNotified) {
+                    traceSegmentEnd(current);
+                    stopClock(current);
+                }
                 // current 在上面被判定为 non-null 时才会设置 canceledCurrent，因此此处无需再次检查 current != null
                 // 注意：queue 已经被重建为不包含被取消的条目，调用 queue.pollFirst() 会误删非目标项，因此不能再 poll
                 currentPlayingMeta = null;
                 try { callback.onSegmentEnd(current.requestId, current.sequence, current.isFinalSegment, true); } catch (Exception ignored) {}
             }
             playNextIfIdle();
+            adjustPlayout();
         });
     }
 
     public void clear(){
         runOnPlayer(() -> {
+            Track current = queue.peekFirst();
+            if (current != null && current.startNotified) {
+                traceSegmentEnd(current);
+                stopClock(current);
+            }
             queue.clear();
+            traceQueueDepth();
             pendingSongEnd.clear(); // 丢弃所有待触发标记
             try { player.stop(); } catch (Exception ignored) {}
+            nullOutputToken++;
             currentPlayingMeta = null;
+            adjustPlayout();
         });
     }
 
+    /** 会话结束：播放器跨会话复用，需丢弃上一会话遗留的暂停状态（队列由 clear() 清空） */
+    public void endSession(){
+        runOnPlayer(() -> paused = false);
+    }
+
     public void release(){
         runOnPlayer(() -> {
-            try { player.release(); } catch (Exception ignored) {}
+            playerHandler.removeCallbacks(clockTick);
+            try { ttsPlayer.release(); } catch (Exception ignored) {}
+            try { if (songPlayer != null) songPlayer.release(); } catch (Exception ignored) {}
             try { playerThread.quitSafely(); } catch (Exception ignored) {}
         });
     }
@@ -196,24 +359,40 @@ public class ChatTtsPlayer {
         Track cur = queue.peekFirst();
         if (cur == null || cur.startNotified) return;
         cur.startNotified = true;
+        if (PerfTrace.isEnabled()) PerfTrace.beginAsync("tts.segment", segmentCookie(cur));
         try { callback.onSegmentStart(cur.requestId, cur.sequence, cur.textDelta); } catch (Exception ignored) {}
+        refreshClock();
+        adjustPlayout();
     }
 
     private void handleEnded(boolean canceled){
         if (Looper.myLooper() != playerLooper) { runOnPlayer(() -> handleEnded(canceled)); return; }
-        Track finished = queue.pollFirst();
-        currentPlayingMeta = null;
-        if (finished != null) {
-            try { callback.onSegmentEnd(finished.requestId, finished.sequence, finished.isFinalSegment, canceled); } catch (Exception ignored) {}
-            // 尝试触发该 requestId 的歌曲结束标记（若已安全）
-            maybeEmitSongEndIfSafe(finished.requestId);
-        }
-        // ★ 当本段结束后，队列里已经没有下一段了 -> 告知“队列空了”
-        if (queue.peekFirst() == null) {
-            try { callback.onQueueIdle(); } catch (Exception ignored) {}
-        }
+        boolean traced = PerfTrace.begin("tts.ended");
+        try {
+            Track finished = queue.peekFirst();
+            if (finished != null && !canceled) learnBitrate(finished);
+            queue.pollFirst();
+            traceQueueDepth();
+            currentPlayingMeta = null;
+            if (finished != null) {
+                if (finished.startNotified) {
+                    traceSegmentEnd(finished);
+                    stopClock(finished);
+                }
+                try { callback.onSegmentEnd(finished.requestId, finished.sequence, finished.isFinalSegment, canceled); } catch (Exception ignored) {}
+                // 尝试触发该 requestId 的歌曲结束标记（若已安全）
+                maybeEmitSongEndIfSafe(finished.requestId);
+            }
+            // ★ 当本段结束后，队列里已经没有下一段了 -> 告知“队列空了”
+            if (queue.peekFirst() == null) {
+                try { callback.onQueueIdle(); } catch (Exception ignored) {}
+            }
 
-        playNextIfIdle();
+            playNextIfIdle();
+            adjustPlayout();
+        } finally {
+            if (traced) PerfTrace.end();
+        }
     }
 
     // 若队列中已不存在指定 requestId 的任何片段，且存在待触发标记，则触发 onSongEndMarker
@@ -243,22 +422,182 @@ public class ChatTtsPlayer {
         if (player.isPlaying()) return;
         Track next = queue.peekFirst();
         if (next == null) { currentPlayingMeta = null; return; }
+        if (nullOutput) { playNullOutput(next); return; }
+        playerFor(next.profile);
         // 优化：避免频繁的setMediaItem调用
         if (currentPlayingMeta == null || !currentPlayingMeta.equals(next.requestId )) {
             Log.d("ChatTtsPlayer", "reparing next track: " + next.requestId );
-            String uri = "data:audio/mpeg;base64," + next.base64;
+            String uri = "data:" + next.mimeType + ";base64," + next.base64;
             currentPlayingMeta = next.requestId ;
+            LipSyncBuffer.get().bindSegment(next.requestId, next.sequence);
+            recordPlayback(next);
 
             // 使用更高效的方式设置媒体项
-            player.setMediaItem(MediaItem.fromUri(uri));
-            player.prepare();
+            boolean traced = PerfTrace.begin("tts.prepare");
+            try {
+                player.setMediaItem(MediaItem.fromUri(uri));
+                player.prepare();
+            } finally {
+                if (traced) PerfTrace.end();
+            }
         }
 
 //        String uri = "data:audio/mpeg;base64," + next.base64;
 //        currentPlayingMeta = next.requestId + "#" + next.sequence;
 //        player.setMediaItem(MediaItem.fromUri(uri));
 //        player.prepare();
-        player.play();
+        // 切换播放器后沿用当前积压速度
+        if (player.getPlaybackParameters().speed != speed) {
+            player.setPlaybackParameters(new PlaybackParameters(speed));
+        }
+        boolean traced = PerfTrace.begin("tts.play");
+        try {
+            player.play();
+        } finally {
+            if (traced) PerfTrace.end();
+        }
+    }
+
+    private void playNullOutput(@NonNull Track next){
+        if (currentPlayingMeta != null) return;   // 已有段在“播放”
+        currentPlayingMeta = next.requestId;
+        nullOutputStartMs = SystemClock.uptimeMillis();
+        notifyStartIfNeeded();
+        long bytes = next.bytes;
+        recordPlayback(next);
+        final int token = nullOutputToken;
+        playerHandler.postDelayed(() -> {
+            if (token == nullOutputToken) handleEnded(false);
+        }, bytes * 8 / NULL_OUTPUT_ASSUMED_KBPS);
+    }
+
+    /** 会话录制中记下实际开始播放的段，录制 / 回放两侧可据此比对播放结果 */
+    private static void recordPlayback(@NonNull Track t) {
+        SessionRecorder rec = SessionRecorder.active();
+        if (rec != null) rec.recordText(SessionRecorder.KIND_PLAYBACK, t.requestId + "#" + t.sequence + " " + t.bytes + " " + t.mimeType);
+    }
+
+    /** 是否按积压自动调整播放速度（默认开启；歌曲始终原速） */
+    public void setAdaptiveSpeedEnabled(boolean enabled) {
+        adaptiveSpeed = enabled;
+        runOnPlayer(this::adjustPlayout);
+    }
+
+    /** 积压硬上限（毫秒，0 关闭）：超过时每个回复只保留最后一段，被跳过段的文本照常回调展示 */
+    public void setBacklogHardCapMs(long capMs) {
+        backlogHardCapMs = Math.max(0, capMs);
+        runOnPlayer(this::adjustPlayout);
+    }
+
+    /** 待播音频时长（当前段剩余 + 排队段按码率估计），毫秒；仅 player 线程调用 */
+    private long backlogMs() {
+        long total = 0;
+        Track head = queue.peekFirst();
+        for (Track t : queue) {
+            if (t == head && t.startNotified && !nullOutput) {
+                long duration = player.getDuration();
+                if (duration != C.TIME_UNSET) {
+                    total += Math.max(0, duration - player.getCurrentPosition());
+                    continue;
+                }
+            }
+            total += (long) (t.bytes / bytesPerMs);
+        }
+        return total;
+    }
+
+    private void learnBitrate(@NonNull Track finished) {
+        if (nullOutput || finished.profile != PROFILE_TTS) return;
+        long duration = player.getDuration();
+        if (duration == C.TIME_UNSET || duration <= 0) return;
+        bytesPerMs += BITRATE_EWMA_ALPHA * (finished.bytes / (double) duration - bytesPerMs);
+    }
+
+    private void adjustPlayout() {
+        long backlog = backlogMs();
+        int skipped = 0;
+        long cap = backlogHardCapMs;
+        if (cap > 0 && backlog > cap) {
+            skipped = skipToLastSegments();
+            if (skipped > 0) backlog = backlogMs();
+        }
+        Track head = queue.peekFirst();
+        float target = speed;
+        if (!adaptiveSpeed || head == null || head.profile == PROFILE_SONG || backlog < SPEEDUP_RELEASE_MS) {
+            target = 1.0f;
+        } else if (backlog >= SPEEDUP_START_MS) {
+            float ratio = Math.min(1f, (backlog - SPEEDUP_START_MS) / (float) (SPEEDUP_FULL_MS - SPEEDUP_START_MS));
+            int steps = (int) Math.floor(ratio * (MAX_SPEED - 1f) / SPEED_STEP + 1e-3);
+            target = Math.min(MAX_SPEED, 1f + steps * SPEED_STEP);
+        }
+        PerfTrace.counter("tts.backlogMs", backlog);
+        boolean changed = Math.abs(target - speed) > 1e-3;
+        if (changed) {
+            speed = target;
+            // 仅改速度不改音高：ExoPlayer 内部用 Sonic 做时间伸缩
+            try { player.setPlaybackParameters(new PlaybackParameters(speed)); } catch (Exception ignored) {}
+            PerfTrace.counter("tts.speedPct", Math.round(speed * 100));
+            refreshClock();
+        }
+        if (changed || skipped > 0) {
+            try { callback.onPlayoutAdjusted(backlog, speed, skipped); } catch (Exception ignored) {}
+        }
+    }
+
+    /** 按当前段刷新播放时钟锚点，播放中则排下一次刷新；仅 player 线程调用 */
+    private void refreshClock() {
+        playerHandler.removeCallbacks(clockTick);
+        Track head = queue.peekFirst();
+        if (head == null || !head.startNotified) return;
+        boolean playing = nullOutput || player.isPlaying();
+        publishClock(head, playing);
+        if (playing) playerHandler.postDelayed(clockTick, CLOCK_TICK_MS);
+    }
+
+    /** 段结束/取消：停在该段最后位置 */
+    private void stopClock(@NonNull Track t) {
+        playerHandler.removeCallbacks(clockTick);
+        publishClock(t, false);
+    }
+
+    private void publishClock(@NonNull Track t, boolean playing) {
+        long positionMs = nullOutput
+                ? (long) ((SystemClock.uptimeMillis() - nullOutputStartMs) * speed)
+                : Math.max(0, player.getCurrentPosition());
+        PlaybackClock.get().publish(t.requestId, t.sequence, playing, positionMs, speed);
+        try { callback.onPlaybackClock(t.requestId, t.sequence, positionMs, speed, playing); } catch (Exception ignored) {}
+    }
+
+    /** 每个回复只保留队列中的最后一段（当前在播段与歌曲除外）；返回跳过的段数 */
+    private int skipToLastSegments() {
+        Track head = queue.peekFirst();
+        Map<String, Track> last = new HashMap<>();
+        for (Track t : queue) last.put(t.requestId, t);
+        int skipped = 0;
+        for (Iterator<Track> it = queue.iterator(); it.hasNext(); ) {
+            Track t = it.next();
+            if (t == head || t.profile == PROFILE_SONG || last.get(t.requestId) == t) continue;
+            it.remove();
+            skipped++;
+            // 不再播放，但文本按顺序照常展示
+            try { callback.onSegmentStart(t.requestId, t.sequence, t.textDelta); } catch (Exception ignored) {}
+            try { callback.onSegmentEnd(t.requestId, t.sequence, t.isFinalSegment, false); } catch (Exception ignored) {}
+        }
+        if (skipped > 0) traceQueueDepth();
+        return skipped;
+    }
+
+    // 段从开始出声到结束/取消的异步轨道
+    private static int segmentCookie(@NonNull Track t){
+        return (t.requestId + "#" + t.sequence).hashCode();
+    }
+
+    private static void traceSegmentEnd(@NonNull Track t){
+        if (PerfTrace.isEnabled()) PerfTrace.endAsync("tts.segment", segmentCookie(t));
+    }
+
+    private void traceQueueDepth(){
+        PerfTrace.counter("tts.queueDepth", queue.size());
     }
 
     private void runOnPlayer(@NonNull Runnable r){
@@ -8,11 +8,12 @@ import androidx.annotation.NonNull;
 
 import com.cocos.lib.JsbBridge;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.lang.reflect.Method;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -33,16 +34,10 @@ public final class CocosChatListener implements VoiceChatClient.Listener {
     private static Method sSendToScript;
     private static Method sRunOnGameThread;
 
-    // 去重缓存：跨实例/跨线程安全的最近发送键缓存（key -> 上次发送时间 millis）
-    // 防止短时间内同一事件被重复发送（例如来自多条路径的重复回调）
-    private static final ConcurrentHashMap<String, Long> sRecentSends = new ConcurrentHashMap<>();
+    // 去重：跨实例/跨线程共享，防止短时间内同一事件被重复发送（例如来自多条路径的重复回调）
     private static final long RECENT_WINDOW_MS = TimeUnit.SECONDS.toMillis(1); // 1s 窗口
-
-    // 额外短时去重（同一实例内更严格的短时间去重）
-    private static String sLastEvent;
-    private static String sLastJson;
-    private static long sLastTsMillis;
     private static final long DUPLICATE_WINDOW_MS = 300; // 300ms
+    private static final RecentSendFilter sSendFilter = new RecentSendFilter(RECENT_WINDOW_MS, DUPLICATE_WINDOW_MS);
 
     static {
         // 尝试反射查找 JsbBridge.sendToScript 和 CocosHelper.runOnGameThread
@@ -74,50 +69,65 @@ public final class CocosChatListener implements VoiceChatClient.Listener {
 
     private void sendToCocos(@NonNull String event, @NonNull JSONObject payload) {
         final String json = payload.toString();
-        final String key = event + '|' + json;
-
-        long now = System.currentTimeMillis();
-        // 跨实例/线程去重
-        Long prev = sRecentSends.get(key);
-        if (prev != null && (now - prev) < RECENT_WINDOW_MS) {
+        int verdict = sSendFilter.check(event, json, System.currentTimeMillis());
+        if (verdict == RecentSendFilter.DUPLICATE_RECENT) {
             Log.d(TAG, "suppress duplicate recent sendToCocos " + event + " " + json);
             return;
         }
-        sRecentSends.put(key, now);
+        if (verdict == RecentSendFilter.DUPLICATE_SHORT) {
+            Log.d(TAG, "suppress duplicate sendToCocos (short) " + event + " " + json);
+            return;
+        }
+
+        runOnGameThread(() -> {
+            // 日志仅在真正进入发送流程时打印
+            Log.d(TAG, "sendToCocos " + event + " " + json);
+            dispatchToScript(event, json);
+        });
+    }
+
+    /** 高频事件（播放时钟）：每次内容都不同，不经去重表、不打日志，避免去重表增长与日志刷屏 */
+    private void sendTickToCocos(@NonNull String event, @NonNull JSONObject payload) {
+        final String json = payload.toString();
+        runOnGameThread(() -> dispatchToScript(event, json));
+    }
 
-        // 同一实例内更严格的短时去重
-        synchronized (CocosChatListener.class) {
-            if (event.equals(sLastEvent) && json.equals(sLastJson) && (now - sLastTsMillis) < DUPLICATE_WINDOW_MS) {
-                Log.d(TAG, "suppress duplicate sendToCocos (short) " + event + " " + json);
+    /**
+     * 进程级网络耗时（{@link com.jujie.paipai.common.NetworkCore.TimingSink}）：与对话指标同走 CHAT:METRICS（type=net）。
+     * 每次内容都不同，不经去重表；可从任意线程调用。
+     */
+    public static void sendNetworkTiming(@NonNull JSONObject timing) {
+        final String json = timing.toString();
+        Runnable task = () -> dispatchToScript("CHAT:METRICS", json);
+        try {
+            if (sRunOnGameThread != null) {
+                sRunOnGameThread.invoke(null, task);
                 return;
             }
-            sLastEvent = event;
-            sLastJson = json;
-            sLastTsMillis = now;
+        } catch (Throwable t) {
+            Log.w(TAG, "runOnGameThread reflect failed, fallback to main: " + t.getMessage());
         }
+        new Handler(Looper.getMainLooper()).post(task);
+    }
 
-        runOnGameThread(() -> {
-            try {
-                // 日志仅在真正进入发送流程时打印
-                Log.d(TAG, "sendToCocos " + event + " " + json);
-
-                // 优先使用反射调用（若成功），否则回退到直接调用
-                if (sSendToScript != null) {
-                    try {
-                        sSendToScript.invoke(null, event, json);
-                        return;
-                    } catch (Throwable t) {
-                        Log.w(TAG, "reflect sendToScript failed, fallback: " + t.getMessage());
-                        // fallthrough
-                    }
+    private static void dispatchToScript(@NonNull String event, @NonNull String json) {
+        try {
+            // 优先使用反射调用（若成功），否则回退到直接调用
+            if (sSendToScript != null) {
+                try {
+                    sSendToScript.invoke(null, event, json);
+                    return;
+                } catch (Throwable t) {
+                    Log.w(TAG, "reflect sendToScript failed, fallback: " + t.getMessage());
+                    // fallthrough
                 }
-
-                // 直接调用作为最后回退
-                JsbBridge.sendToScript(event, json);
-            } catch (Throwable t) {
-                Log.e(TAG, "sendToCocos error: " + t.getMessage());
             }
-        });
+
+            // 直接调用作为最后回退
+            JsbBridge.sendToScript(event, json);
+        } catch (Throwable t) {
+            Log.e(TAG, "sendToCocos error: " + t.getMessage());
+        }
     }
 
     private static JSONObject jText(@NonNull String text) {
@@ -143,6 +153,11 @@ public final class CocosChatListener implements VoiceChatClient.Listener {
         sendToCocos("CHAT:CHARACTER:SWITCHED", new JSONObject());
     }
 
+    @Override
+    public void onCharacterSwitchFailed(@NonNull String reason) {
+        sendToCocos("CHAT:ERROR", jText("角色切换失败: " + reason));
+    }
+
     @Override
     public void onLimitExceeded() {
         sendToCocos("CHAT:USAGE:LIMIT_EXCEEDED", new JSONObject());
@@ -227,6 +242,65 @@ public final class CocosChatListener implements VoiceChatClient.Listener {
         // sendToCocos("chat.latency", jPair("latencyMs", millis));
     }
 
+    @Override
+    public void onReconnectLatency(long millis) {
+        Log.d(TAG, "reconnect to ready: " + millis + "ms");
+        JSONObject o = new JSONObject();
+        try {
+            o.put("type", "reconnect");
+            o.put("reconnectToReadyMs", millis);
+        } catch (Exception ignored) {}
+        sendToCocos("CHAT:METRICS", o);
+    }
+
+    @Override
+    public void onTextFirstModeChanged(boolean enabled) {
+        sendToCocos("CHAT:TEXT_FIRST", jPair("enabled", enabled));
+    }
+
+    @Override
+    public void onTurnMetrics(@NonNull JSONObject metrics) {
+        sendToCocos("CHAT:METRICS", metrics);
+    }
+
+    @Override
+    public void onPlaybackClock(@NonNull String requestId, int sequence, long positionMs, float speed, boolean playing) {
+        JSONObject o = new JSONObject();
+        try {
+            o.put("requestId", requestId);
+            o.put("sequence", sequence);
+            o.put("positionMs", positionMs);
+            o.put("speed", (double) speed);
+            o.put("playing", playing);
+            if (playing) o.put("lipsync", lipSyncAhead(requestId, sequence, positionMs, speed));
+        } catch (JSONException ignored) {}
+        sendTickToCocos("CHAT:CLOCK", o);
+    }
+
+    // 随时钟锚点附带的口型窗口覆盖到下一个锚点之后，脚本按外推位置取值，无需逐帧跨桥
+    private static final long LIPSYNC_AHEAD_MS = 400;
+
+    @NonNull
+    private static JSONObject lipSyncAhead(@NonNull String requestId, int sequence, long positionMs, float speed)
+            throws JSONException {
+        List<LipSyncBuffer.Frame> frames = LipSyncBuffer.get().frames(PlaybackClock.segmentId(requestId, sequence),
+                positionMs, positionMs + (long) (LIPSYNC_AHEAD_MS * speed));
+        JSONArray pos = new JSONArray();
+        JSONArray rms = new JSONArray();
+        JSONArray viseme = new JSONArray();
+        for (LipSyncBuffer.Frame f : frames) {
+            pos.put(f.positionMs);
+            rms.put(Math.round(f.rms * 1000) / 1000.0);
+            viseme.put(f.viseme);
+        }
+        JSONObject o = new JSONObject();
+        o.put("windowMs", LipSyncBuffer.WINDOW_MS);
+        o.put("positionMs", pos);
+        o.put("rms", rms);
+        o.put("viseme", viseme);
+        return o;
+    }
+
     @Override
     public void onConnectionClosed() {
         sendToCocos("CHAT:STOPPED", jPair("reason", "normal"));
@@ -0,0 +1,130 @@
+package com.jujie.paipai.chat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 口型数据环形缓冲：{@link LipSyncTap} 在 ExoPlayer 音频线程上按 {@link #WINDOW_MS} 窗口写入
+ * 「段 + 段内位置 + RMS 包络 + 粗粒度口型」，读取方用 {@link PlaybackClock} 的当前位置查表，
+ * 因解码先于播放，表中总有略超前于播放位置的数据。
+ * - 单写多读、读方无锁：写方先写条目再递增写计数；读方以写计数判断条目是否已被覆盖；
+ * - {@link #buffer()} 为 native 字节序直接缓冲区，供 JNI/JSB 绑定映射后逐帧读取；
+ * - 无原生绑定时 CocosChatListener 随 CHAT:CLOCK 附带接下来一小段窗口的数据。
+ *
+ * 缓冲区布局（native 字节序）：
+ * <pre>
+ * 头部 16 字节：0 int writeCount | 4 int capacity | 8 int windowMs | 12 int entrySize
+ * 条目 i 位于 16 + (i % capacity) * 16：0 int segmentId | 4 int positionMs | 8 float rms(0~1) | 12 int viseme
+ * </pre>
+ * segmentId 与 PlaybackClock 缓冲区中的 segmentId 取值相同（{@link PlaybackClock#segmentId}）。
+ */
+public final class LipSyncBuffer {
+
+    public static final int WINDOW_MS = 20;          // 50Hz
+    public static final int CAPACITY = 256;          // 约 5s
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 16;
+
+    // 粗粒度口型
+    public static final int VISEME_REST = 0;         // 闭嘴/静音
+    public static final int VISEME_ROUND = 1;        // 低能量元音 o/u
+    public static final int VISEME_OPEN = 2;         // 高能量元音 a
+    public static final int VISEME_SPREAD = 3;       // e/i
+    public static final int VISEME_FRICATIVE = 4;    // s/f 等摩擦音
+
+    private static final LipSyncBuffer INSTANCE = new LipSyncBuffer();
+
+    @NonNull
+    public static LipSyncBuffer get() {
+        return INSTANCE;
+    }
+
+    /** 一个分析窗口 */
+    public static final class Frame {
+        public final int positionMs;
+        public final float rms;
+        public final int viseme;
+        Frame(int positionMs, float rms, int viseme) {
+            this.positionMs = positionMs; this.rms = rms; this.viseme = viseme;
+        }
+    }
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_SIZE + CAPACITY * ENTRY_SIZE)
+            .order(ByteOrder.nativeOrder());
+    private int writeCount = 0;                      // 仅写方访问
+    private volatile int published = 0;              // 写计数的可见性屏障
+    // 即将开始解码的段（播放线程在 setMediaItem 前设置，音频线程在 flush 时读取）
+    private volatile int pendingSegmentId = 0;
+
+    private LipSyncBuffer() {
+        buffer.putInt(4, CAPACITY);
+        buffer.putInt(8, WINDOW_MS);
+        buffer.putInt(12, ENTRY_SIZE);
+    }
+
+    /** 供 JNI/JSB 绑定映射的只读视图 */
+    @NonNull
+    public ByteBuffer buffer() {
+        return buffer.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    void bindSegment(@NonNull String requestId, int sequence) {
+        pendingSegmentId = PlaybackClock.segmentId(requestId, sequence);
+    }
+
+    int pendingSegment() {
+        return pendingSegmentId;
+    }
+
+    /** 写入一个窗口；两个播放器的音频线程不会同时产出数据，同步仅作兜底，不影响读方 */
+    synchronized void append(int segmentId, int positionMs, float rms, int viseme) {
+        int base = HEADER_SIZE + (writeCount % CAPACITY) * ENTRY_SIZE;
+        buffer.putInt(base, segmentId);
+        buffer.putInt(base + 4, positionMs);
+        buffer.putFloat(base + 8, rms);
+        buffer.putInt(base + 12, viseme);
+        writeCount++;
+        buffer.putInt(0, writeCount);
+        published = writeCount;
+    }
+
+    /** 指定段在 positionMs 处的窗口；不存在（未解码到或已被覆盖）时返回 null */
+    @Nullable
+    public Frame frameAt(int segmentId, long positionMs) {
+        int count = published;
+        int oldest = Math.max(0, count - CAPACITY + 1);   // 下一条写入会覆盖最老的槽
+        for (int i = count - 1; i >= oldest; i--) {
+            int base = HEADER_SIZE + (i % CAPACITY) * ENTRY_SIZE;
+            if (buffer.getInt(base) != segmentId) continue;
+            int pos = buffer.getInt(base + 4);
+            if (pos > positionMs) continue;
+            if (positionMs >= pos + WINDOW_MS) return null;
+            Frame f = new Frame(pos, buffer.getFloat(base + 8), buffer.getInt(base + 12));
+            return published - i >= CAPACITY ? null : f;
+        }
+        return null;
+    }
+
+    /** 指定段在 [fromMs, toMs) 内的窗口，按位置升序 */
+    @NonNull
+    public List<Frame> frames(int segmentId, long fromMs, long toMs) {
+        List<Frame> out = new ArrayList<>();
+        int count = published;
+        int oldest = Math.max(0, count - CAPACITY + 1);   // 下一条写入会覆盖最老的槽
+        for (int i = oldest; i < count; i++) {
+            int base = HEADER_SIZE + (i % CAPACITY) * ENTRY_SIZE;
+            if (buffer.getInt(base) != segmentId) continue;
+            int pos = buffer.getInt(base + 4);
+            if (pos + WINDOW_MS <= fromMs || pos >= toMs) continue;
+            Frame f = new Frame(pos, buffer.getFloat(base + 8), buffer.getInt(base + 12));
+            if (published - i >= CAPACITY) continue;   // 读取期间被覆盖（或正被写入）
+            out.add(f);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,117 @@
+package com.jujie.paipai.chat;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.os.Bundle;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.jujie.paipai.chat.core.ChatProtocolEngine;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 端侧 TTS 兜底：平台 TextToSpeech 的薄封装，实现 {@link ChatProtocolEngine.LocalSpeech}。
+ * 会话开始时 {@link #warmUp()} 初始化引擎并静音合成一次，兜底触发时首句可立即出声；
+ * 朗读队列读完（含出错/被停止）时回调 onIdle，引擎据此把播放器交还给服务端音频。
+ */
+final class LocalTtsSpeaker implements ChatProtocolEngine.LocalSpeech {
+
+    private static final String TAG = "LocalTtsSpeaker";
+    private static final String WARMUP_ID = "warmup";
+
+    private final Context app;
+    private final Runnable onIdle;
+    private TextToSpeech tts;
+    private volatile boolean ready = false;
+    private final AtomicInteger pending = new AtomicInteger();
+    private int utteranceSeq = 0;
+    // stop 后递增：被停止的旧句子迟到的 onStop/onDone 不再影响新一轮的计数
+    private volatile int generation = 0;
+
+    LocalTtsSpeaker(@NonNull Context context, @NonNull Runnable onIdle) {
+        this.app = context.getApplicationContext();
+        this.onIdle = onIdle;
+    }
+
+    /** 初始化平台 TTS（异步）；已初始化时为空操作 */
+    void warmUp() {
+        if (tts != null) return;
+        tts = new TextToSpeech(app, status -> {
+            if (status != TextToSpeech.SUCCESS) {
+                Log.w(TAG, "TextToSpeech init failed: " + status);
+                return;
+            }
+            int lang = tts.setLanguage(Locale.SIMPLIFIED_CHINESE);
+            if (lang == TextToSpeech.LANG_MISSING_DATA || lang == TextToSpeech.LANG_NOT_SUPPORTED) {
+                Log.w(TAG, "zh-CN voice unavailable: " + lang);
+                return;
+            }
+            tts.setAudioAttributes(new AudioAttributes.Builder()
+                    .setUsage(AudioAttributes.USAGE_MEDIA)
+                    .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                    .build());
+            tts.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+                @Override public void onStart(String utteranceId) {}
+                @Override public void onDone(String utteranceId) { finished(utteranceId); }
+                @Override public void onError(String utteranceId) { finished(utteranceId); }
+                @Override public void onStop(String utteranceId, boolean interrupted) { finished(utteranceId); }
+            });
+            // 静音合成一次，加载语音数据，避免兜底首句再付初始化开销
+            Bundle params = new Bundle();
+            params.putFloat(TextToSpeech.Engine.KEY_PARAM_VOLUME, 0f);
+            tts.speak("。", TextToSpeech.QUEUE_FLUSH, params, WARMUP_ID);
+            ready = true;
+            Log.d(TAG, "TextToSpeech ready, engine=" + tts.getDefaultEngine());
+        });
+    }
+
+    private void finished(@NonNull String utteranceId) {
+        if (!utteranceId.startsWith(prefix())) return;
+        if (pending.decrementAndGet() <= 0) {
+            pending.set(0);
+            try { onIdle.run(); } catch (Exception ignored) {}
+        }
+    }
+
+    @NonNull
+    private String prefix() {
+        return "local-" + generation + "-";
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void speak(@NonNull String text) {
+        TextToSpeech t = tts;
+        if (!ready || t == null) return;
+        pending.incrementAndGet();
+        String id = prefix() + (++utteranceSeq);
+        if (t.speak(text, TextToSpeech.QUEUE_ADD, null, id) != TextToSpeech.SUCCESS) finished(id);
+    }
+
+    @Override
+    public void stop() {
+        TextToSpeech t = tts;
+        if (t == null) return;
+        generation++;
+        pending.set(0);
+        try { t.stop(); } catch (Exception ignored) {}
+    }
+
+    void shutdown() {
+        ready = false;
+        TextToSpeech t = tts;
+        tts = null;
+        if (t != null) {
+            try { t.shutdown(); } catch (Exception ignored) {}
+        }
+    }
+}
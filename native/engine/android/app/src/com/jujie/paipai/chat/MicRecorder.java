@@ -11,6 +11,8 @@ import android.media.audiofx.NoiseSuppressor;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.jujie.paipai.common.PerfTrace;
+
 /**
  * MicRecorder 负责麦克风采集和增强（AEC/NS/AGC）以及读流线程管理。
  * 使用约定：onPcmData 的回调在录音线程同步触发，缓冲区可复用，若需要跨线程保存请自行拷贝。
@@ -72,14 +74,23 @@ public final class MicRecorder {
             byte[] buf = new byte[minBuf];
             while (isRecording) {
                 int read = 0;
+                // 阻塞读取本身即为等待采集的时长，回调（上行发送）单独成段
+                boolean traced = PerfTrace.begin("mic.read");
                 try {
                     read = ar.read(buf, 0, buf.length);
                 } catch (Exception e) {
                     cb.onLog("AudioRecord 读取异常: "+e.getMessage());
                     break;
+                } finally {
+                    if (traced) PerfTrace.end();
                 }
                 if (read > 0) {
-                    cb.onPcmData(buf, read);
+                    traced = PerfTrace.begin("mic.onPcmData");
+                    try {
+                        cb.onPcmData(buf, read);
+                    } finally {
+                        if (traced) PerfTrace.end();
+                    }
                 }
             }
         }, "mic-recorder-thread");
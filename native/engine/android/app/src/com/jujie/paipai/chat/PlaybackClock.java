@@ -0,0 +1,107 @@
+package com.jujie.paipai.chat;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 聊天播放时钟：ChatTtsPlayer 在播放线程上发布「当前段 + 段内位置」，读取方按锚点外推到任意时刻，无需逐帧查询。
+ * - Java 侧：{@link #positionAt(long)} / {@link #snapshot()}，口型等分析按此对齐；
+ * - 原生侧：{@link #buffer()} 为 native 字节序的直接缓冲区，可由 JNI GetDirectBufferAddress 映射给 JSB 绑定直接读取；
+ * - 脚本侧无原生绑定时，由 CocosChatListener 以低频 CHAT:CLOCK 事件下发同样的字段，脚本在两次事件间自行外推。
+ *
+ * 缓冲区布局（native 字节序，共 {@link #SIZE} 字节），以 seqlock 保护：
+ * <pre>
+ *  0  int   version   奇数表示正在写，读方读到奇数或前后不一致时重读
+ *  4  int   segmentId requestId 与 sequence 的组合哈希，段切换时变化
+ *  8  int   sequence
+ * 12  int   playing   1 播放中 / 0 暂停或空闲
+ * 16  long  positionMs      锚点时刻的段内位置
+ * 24  long  anchorUptimeMs  锚点时刻（SystemClock.uptimeMillis，与 Cocos 原生层同一时基）
+ * 32  float speed
+ * </pre>
+ */
+public final class PlaybackClock {
+
+    public static final int SIZE = 40;
+    private static final int OFF_VERSION = 0;
+    private static final int OFF_SEGMENT_ID = 4;
+    private static final int OFF_SEQUENCE = 8;
+    private static final int OFF_PLAYING = 12;
+    private static final int OFF_POSITION = 16;
+    private static final int OFF_ANCHOR = 24;
+    private static final int OFF_SPEED = 32;
+
+    private static final PlaybackClock INSTANCE = new PlaybackClock();
+
+    /** 进程内唯一的聊天播放时钟（聊天客户端跨会话复用，同一时刻只有一路 TTS 播放） */
+    @NonNull
+    public static PlaybackClock get() {
+        return INSTANCE;
+    }
+
+    /** 某一时刻的时钟读数 */
+    public static final class Snapshot {
+        public final @Nullable String requestId;
+        public final int sequence;
+        public final boolean playing;
+        public final long positionMs;
+        public final long anchorUptimeMs;
+        public final float speed;
+        Snapshot(@Nullable String r, int seq, boolean p, long pos, long anchor, float s) {
+            requestId = r; sequence = seq; playing = p; positionMs = pos; anchorUptimeMs = anchor; speed = s;
+        }
+    }
+
+    /** 缓冲区中的 segmentId：requestId 与 sequence 的组合哈希（LipSyncBuffer 用同一取值） */
+    public static int segmentId(@NonNull String requestId, int sequence) {
+        return 31 * requestId.hashCode() + sequence;
+    }
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(SIZE).order(ByteOrder.nativeOrder());
+    private int version = 0;
+    // volatile 写充当原生缓冲区写入之间的屏障（版本号 -> 字段 -> 版本号）
+    private volatile int fence;
+    private volatile Snapshot current = new Snapshot(null, 0, false, 0, 0, 1.0f);
+
+    private PlaybackClock() {}
+
+    /** 供 JNI/JSB 绑定映射的只读视图 */
+    @NonNull
+    public ByteBuffer buffer() {
+        return buffer.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    /** 发布新锚点；仅由播放线程调用 */
+    void publish(@Nullable String requestId, int sequence, boolean playing, long positionMs, float speed) {
+        long now = SystemClock.uptimeMillis();
+        int segmentId = requestId == null ? 0 : segmentId(requestId, sequence);
+        buffer.putInt(OFF_VERSION, ++version);
+        fence = version;
+        buffer.putInt(OFF_SEGMENT_ID, segmentId);
+        buffer.putInt(OFF_SEQUENCE, sequence);
+        buffer.putInt(OFF_PLAYING, playing ? 1 : 0);
+        buffer.putLong(OFF_POSITION, positionMs);
+        buffer.putLong(OFF_ANCHOR, now);
+        buffer.putFloat(OFF_SPEED, speed);
+        current = new Snapshot(requestId, sequence, playing, positionMs, now, speed);
+        buffer.putInt(OFF_VERSION, ++version);
+        fence = version;
+    }
+
+    @NonNull
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    /** 外推到 uptimeMs 时刻的段内位置；暂停/空闲时停在锚点 */
+    public long positionAt(long uptimeMs) {
+        Snapshot s = current;
+        if (!s.playing) return s.positionMs;
+        return s.positionMs + (long) (Math.max(0, uptimeMs - s.anchorUptimeMs) * s.speed);
+    }
+}
@@ -0,0 +1,56 @@
+package com.jujie.paipai.chat;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 发往 Cocos 的事件去重，纯 Java 实现，不依赖 Android：
+ * 按 event|json 记录最近发送时间，窗口内的相同事件视为重复；另对连续相同事件做更短窗口的去重。
+ */
+public final class RecentSendFilter {
+
+    public static final int SEND = 0;
+    public static final int DUPLICATE_RECENT = 1;
+    public static final int DUPLICATE_SHORT = 2;
+
+    // 跨实例/跨线程安全的最近发送键缓存（key -> 上次发送时间 millis）
+    private final ConcurrentHashMap<String, Long> recentSends = new ConcurrentHashMap<>();
+    private final long recentWindowMs;
+    private final long duplicateWindowMs;
+
+    // 连续相同事件的短时去重
+    private String lastEvent;
+    private String lastJson;
+    private long lastTsMillis;
+
+    public RecentSendFilter(long recentWindowMs, long duplicateWindowMs) {
+        this.recentWindowMs = recentWindowMs;
+        this.duplicateWindowMs = duplicateWindowMs;
+    }
+
+    /** 返回 SEND 表示应发送，其余为被抑制的原因 */
+    public int check(@NonNull String event, @NonNull String json, long nowMs) {
+        final String key = event + '|' + json;
+        Long prev = recentSends.get(key);
+        if (prev != null && (nowMs - prev) < recentWindowMs) {
+            return DUPLICATE_RECENT;
+        }
+        recentSends.put(key, nowMs);
+
+        synchronized (this) {
+            if (event.equals(lastEvent) && json.equals(lastJson) && (nowMs - lastTsMillis) < duplicateWindowMs) {
+                return DUPLICATE_SHORT;
+            }
+            lastEvent = event;
+            lastJson = json;
+            lastTsMillis = nowMs;
+        }
+        return SEND;
+    }
+
+    /** 已记录的去重键数量 */
+    public int size() {
+        return recentSends.size();
+    }
+}
@@ -0,0 +1,117 @@
+package com.jujie.paipai.chat;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.jujie.paipai.chat.core.SessionRecording;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 语音聊天会话录制：ChatTransport 收发的每一帧（文本/二进制）及播放器实际播放的段，连同单调时间戳追加写入文件，
+ * 供 {@link SessionReplay} 离线回放；格式见 {@link SessionRecording}。
+ * 时间戳基于 System.nanoTime()，与墙钟无关。每轮对话结束与连接关闭时刷盘，退到后台时刷盘，Activity 销毁时结束。
+ */
+public final class SessionRecorder {
+
+    private static final String TAG = "SessionRecorder";
+
+    static final int KIND_OPEN = SessionRecording.KIND_OPEN;
+    static final int KIND_IN_TEXT = SessionRecording.KIND_IN_TEXT;
+    static final int KIND_IN_BINARY = SessionRecording.KIND_IN_BINARY;
+    static final int KIND_OUT_TEXT = SessionRecording.KIND_OUT_TEXT;
+    static final int KIND_OUT_BINARY = SessionRecording.KIND_OUT_BINARY;
+    static final int KIND_CLOSED = SessionRecording.KIND_CLOSED;
+    static final int KIND_PLAYBACK = SessionRecording.KIND_PLAYBACK;
+
+    private static volatile @Nullable SessionRecorder active;
+
+    private final File file;
+    private final SessionRecording.Writer out;
+    private long lastNs;
+    private long records = 0;
+    private boolean closed = false;
+
+    private SessionRecorder(@NonNull File file) throws IOException {
+        this.file = file;
+        this.out = new SessionRecording.Writer(new FileOutputStream(file, false));
+        lastNs = System.nanoTime();
+    }
+
+    /** 开始录制到指定文件（覆盖）；已有录制会先结束 */
+    public static synchronized boolean start(@NonNull File file) {
+        stop();
+        try {
+            active = new SessionRecorder(file);
+            Log.d(TAG, "recording to " + file);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "start failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /** 刷盘当前录制（轮次结束、退到后台时调用），未在录制时无操作 */
+    public static void flushActive() {
+        SessionRecorder r = active;
+        if (r != null) r.flush();
+    }
+
+    /** 结束录制并关闭文件 */
+    public static synchronized void stop() {
+        SessionRecorder r = active;
+        active = null;
+        if (r != null) r.close();
+    }
+
+    @Nullable
+    static SessionRecorder active() {
+        return active;
+    }
+
+    void recordText(int kind, @NonNull String text) {
+        byte[] b = text.getBytes(StandardCharsets.UTF_8);
+        record(kind, b, 0, b.length);
+    }
+
+    synchronized void record(int kind, @NonNull byte[] payload, int offset, int length) {
+        if (closed) return;
+        long now = System.nanoTime();
+        long deltaUs = Math.max(0, (now - lastNs) / 1000);
+        lastNs = now;
+        try {
+            out.write(kind, deltaUs, payload, offset, length);
+            records++;
+            if (kind == KIND_CLOSED) out.flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    synchronized void flush() {
+        if (closed) return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(@NonNull IOException e) {
+        Log.w(TAG, "write failed, stop recording: " + e.getMessage());
+        closed = true;
+        try { out.close(); } catch (IOException ignored) {}
+    }
+
+    private synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try { out.close(); } catch (IOException ignored) {}
+        Log.d(TAG, "recording closed: " + file + " records=" + records + " bytes=" + file.length());
+    }
+}
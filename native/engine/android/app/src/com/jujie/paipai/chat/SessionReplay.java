@@ -0,0 +1,107 @@
+package com.jujie.paipai.chat;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.jujie.paipai.chat.core.SessionRecording;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 回放 {@link SessionRecorder} 录制的会话：安装后，新的 ChatTransport.connect() 不再连网，
+ * 而是按原始节奏（或按倍速 / 尽快）把录制的下行帧投递给上层，上行发送直接吞掉。
+ * 可选配合 ChatTtsPlayer 的空输出模式，在无网络、无音频输出的环境下复现同一会话做时延与内存基准。
+ */
+public final class SessionReplay {
+
+    private static final String TAG = "SessionReplay";
+
+    /** 回放目标：由 ChatTransport 实现 */
+    interface Sink {
+        void onOpen();
+        void onText(@NonNull String text);
+        void onBinary(@NonNull byte[] bytes);
+        void onClosed(int code, @NonNull String reason);
+        void onFinished();
+    }
+
+    private static volatile @Nullable SessionReplay installed;
+
+    private final File file;
+    private final float speed;   // 1 为原速，>1 加速，<=0 表示不等待尽快回放
+
+    public SessionReplay(@NonNull File file, float speed) {
+        this.file = file;
+        this.speed = speed;
+    }
+
+    /** 安装全局回放；nullPlayer 为 true 时播放器不解码、按估算时长完成各段 */
+    public static synchronized void install(@Nullable SessionReplay replay, boolean nullPlayer) {
+        installed = replay;
+        ChatTtsPlayer.setNullOutput(replay != null && nullPlayer);
+        Log.d(TAG, replay != null ? "installed " + replay.file + " speed=" + replay.speed : "uninstalled");
+    }
+
+    @Nullable
+    static SessionReplay installed() {
+        return installed;
+    }
+
+    /** 在独立线程上回放；返回的线程可 interrupt() 以提前结束 */
+    @NonNull
+    Thread play(@NonNull Sink sink) {
+        Thread t = new Thread(() -> run(sink), "chat-replay");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private void run(@NonNull Sink sink) {
+        long startNs = System.nanoTime();
+        int frames = 0;
+        try (SessionRecording.Reader in = new SessionRecording.Reader(new FileInputStream(file))) {
+            SessionRecording.Record r;
+            while (!Thread.currentThread().isInterrupted() && (r = in.next()) != null) {
+                // 上行帧与播放记录只用于比对，不参与投递；其耗时仍计入节奏
+                if (speed > 0 && r.deltaUs > 0) {
+                    long waitUs = (long) (r.deltaUs / speed);
+                    Thread.sleep(waitUs / 1000, (int) (waitUs % 1000) * 1000);
+                }
+                if (deliver(r, sink)) frames++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (EOFException e) {
+            Log.w(TAG, "recording truncated: " + file);
+        } catch (IOException e) {
+            Log.w(TAG, "replay failed: " + e.getMessage());
+        }
+        Log.d(TAG, "replay finished: frames=" + frames + " wall="
+                + (System.nanoTime() - startNs) / 1_000_000 + "ms speed=" + speed);
+        try { sink.onFinished(); } catch (Exception ignored) {}
+    }
+
+    /** 把一条下行记录投递给 sink；返回是否为下行数据帧 */
+    static boolean deliver(@NonNull SessionRecording.Record r, @NonNull Sink sink) {
+        switch (r.kind) {
+            case SessionRecording.KIND_OPEN: sink.onOpen(); return false;
+            case SessionRecording.KIND_IN_TEXT: sink.onText(new String(r.payload, StandardCharsets.UTF_8)); return true;
+            case SessionRecording.KIND_IN_BINARY: sink.onBinary(r.payload); return true;
+            case SessionRecording.KIND_CLOSED: {
+                String s = new String(r.payload, StandardCharsets.UTF_8);
+                int sp = s.indexOf(' ');
+                int code = 1000;
+                try { code = Integer.parseInt(sp > 0 ? s.substring(0, sp) : s); } catch (NumberFormatException ignored) {}
+                sink.onClosed(code, sp > 0 ? s.substring(sp + 1) : "");
+                return false;
+            }
+            default: return false;
+        }
+    }
+}
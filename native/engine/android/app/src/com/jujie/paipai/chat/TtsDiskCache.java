@@ -0,0 +1,227 @@
+package com.jujie.paipai.chat;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.jujie.paipai.chat.core.ChatProtocolEngine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * TTS 台词磁盘缓存：每条一个文件（文件名为缓存键），头部为 mime 与作用域（角色|音色），其后为原始音频。
+ * - 按字节预算做 LRU 淘汰；命中时更新文件修改时间，重启后按修改时间恢复 LRU 顺序；
+ * - 索引在后台线程加载，加载完成前 load 视为未命中；读取、写入与淘汰都在同一后台线程，不占用协议线程。
+ */
+public final class TtsDiskCache implements ChatProtocolEngine.TtsCache {
+
+    private static final String TAG = "TtsDiskCache";
+    private static final String SUFFIX = ".tts";
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_KEY_LENGTH = 64;
+
+    private static final class Meta {
+        final String scope;
+        final String mime;
+        final long bytes;
+        Meta(String scope, String mime, long bytes) { this.scope = scope; this.mime = mime; this.bytes = bytes; }
+    }
+
+    private final File dir;
+    private final long budgetBytes;
+    private final ExecutorService io = Executors.newSingleThreadExecutor(r -> new Thread(r, "tts-cache-io"));
+    // 访问顺序：最老的在前
+    private final LinkedHashMap<String, Meta> index = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes = 0;
+    private volatile boolean loaded = false;
+
+    public TtsDiskCache(@NonNull File dir, long budgetBytes) {
+        this.dir = dir;
+        this.budgetBytes = budgetBytes;
+        io.execute(this::loadIndex);
+    }
+
+    private void loadIndex() {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "cannot create " + dir);
+            return;
+        }
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) files = new File[0];
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        synchronized (index) {
+            for (File f : files) {
+                String key = f.getName().substring(0, f.getName().length() - SUFFIX.length());
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 512))) {
+                    if (in.readInt() != FORMAT_VERSION) throw new IOException("version");
+                    String mime = in.readUTF();
+                    String scope = in.readUTF();
+                    index.put(key, new Meta(scope, mime, f.length()));
+                    totalBytes += f.length();
+                } catch (IOException e) {
+                    try { f.delete(); } catch (Exception ignored) {}
+                }
+            }
+            evictLocked();
+        }
+        loaded = true;
+        Log.d(TAG, "loaded " + index.size() + " entries, " + totalBytes + " bytes");
+    }
+
+    @Override
+    public void load(@NonNull String key, @NonNull ChatProtocolEngine.LoadCallback callback) {
+        Meta meta = null;
+        if (loaded && isValidKey(key)) {
+            synchronized (index) {
+                meta = index.get(key);
+            }
+        }
+        if (meta == null) {
+            callback.onLoaded(null);
+            return;
+        }
+        final String mime = meta.mime;
+        try {
+            io.execute(() -> {
+                byte[] audio = read(key);
+                try {
+                    callback.onLoaded(audio != null ? new ChatProtocolEngine.CachedAudio(audio, mime) : null);
+                } catch (Exception e) {
+                    Log.w(TAG, "load callback failed: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            callback.onLoaded(null);   // 已 release
+        }
+    }
+
+    // 仅在 io 线程调用：跳过头部，按文件长度读出其余音频
+    @Nullable
+    private byte[] read(@NonNull String key) {
+        File f = fileFor(key);
+        try (RandomAccessFile in = new RandomAccessFile(f, "r")) {
+            if (in.readInt() != FORMAT_VERSION) throw new IOException("version");
+            in.readUTF();
+            in.readUTF();
+            long remaining = in.length() - in.getFilePointer();
+            if (remaining <= 0 || remaining > budgetBytes) throw new IOException("bad length " + remaining);
+            byte[] audio = new byte[(int) remaining];
+            in.readFully(audio);
+            try { f.setLastModified(System.currentTimeMillis()); } catch (Exception ignored) {}
+            return audio;
+        } catch (IOException e) {
+            Log.w(TAG, "read failed " + key + ": " + e.getMessage());
+            synchronized (index) {
+                Meta old = index.remove(key);
+                if (old != null) totalBytes -= old.bytes;
+            }
+            try { f.delete(); } catch (Exception ignored) {}
+            return null;
+        }
+    }
+
+    @Override
+    public void put(@NonNull String key, @NonNull String scope, @NonNull byte[] audio, @NonNull String mime) {
+        if (!isValidKey(key) || audio.length == 0 || audio.length > budgetBytes / 4) return;
+        io.execute(() -> {
+            File f = fileFor(key);
+            File tmp = new File(dir, key + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(mime);
+                out.writeUTF(scope);
+                out.write(audio);
+            } catch (IOException e) {
+                Log.w(TAG, "write failed " + key + ": " + e.getMessage());
+                try { tmp.delete(); } catch (Exception ignored) {}
+                return;
+            }
+            if (!tmp.renameTo(f)) {
+                try { tmp.delete(); } catch (Exception ignored) {}
+                return;
+            }
+            synchronized (index) {
+                Meta old = index.put(key, new Meta(scope, mime, f.length()));
+                if (old != null) totalBytes -= old.bytes;
+                totalBytes += f.length();
+                evictLocked();
+            }
+        });
+    }
+
+    @NonNull
+    @Override
+    public List<String> keys(@NonNull String scope, int max) {
+        List<String> out = new ArrayList<>();
+        synchronized (index) {
+            // 最近使用的在后，倒序遍历
+            ListIterator<Map.Entry<String, Meta>> it = new ArrayList<>(index.entrySet()).listIterator(index.size());
+            while (it.hasPrevious() && out.size() < max) {
+                Map.Entry<String, Meta> e = it.previous();
+                if (scope.equals(e.getValue().scope)) out.add(e.getKey());
+            }
+        }
+        return out;
+    }
+
+    public void clear() {
+        io.execute(() -> {
+            synchronized (index) {
+                for (String key : index.keySet()) {
+                    try { fileFor(key).delete(); } catch (Exception ignored) {}
+                }
+                index.clear();
+                totalBytes = 0;
+            }
+        });
+    }
+
+    public void release() {
+        io.shutdown();
+    }
+
+    // 仅在 io 线程、持有 index 锁时调用
+    private void evictLocked() {
+        Iterator<Map.Entry<String, Meta>> it = index.entrySet().iterator();
+        while (totalBytes > budgetBytes && it.hasNext()) {
+            Map.Entry<String, Meta> e = it.next();
+            totalBytes -= e.getValue().bytes;
+            try { fileFor(e.getKey()).delete(); } catch (Exception ignored) {}
+            it.remove();
+        }
+    }
+
+    // 键可能来自服务端（cacheKey），只接受安全的文件名字符
+    private static boolean isValidKey(@NonNull String key) {
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) return false;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '-' || c == '_')) return false;
+        }
+        return true;
+    }
+
+    @NonNull
+    private File fileFor(@NonNull String key) {
+        return new File(dir, key + SUFFIX);
+    }
+}
@@ -6,6 +6,8 @@ import android.content.pm.PackageManager;
 import android.media.AudioDeviceInfo;
 import android.media.AudioManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.util.Log;
 
@@ -14,33 +16,41 @@ import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 import androidx.media3.common.util.UnstableApi;
 
+import com.jujie.paipai.chat.core.ChatProtocolEngine;
+import com.jujie.paipai.common.MuxTransport;
+import com.jujie.paipai.common.PerfTrace;
+
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.Collections;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.File;
+import java.util.Locale;
 
 /**
- * 聊天客户端：管理连接、录音、文本增量、TTS 播放与随播，以及歌曲播放。
+ * 聊天客户端：管理连接、录音、音频路由与角色切换；文本增量、TTS 随播与歌曲流等协议状态
+ * 由纯 Java 的 {@link ChatProtocolEngine} 维护，本类把它接到 SystemClock / ChatTransport / ChatTtsPlayer。
+ * 生命周期按会话复用：startChat / stopChat 可反复调用，播放器、播放线程、传输层与录音器保持不变；
+ * 不再使用时（如宿主 Activity 销毁）必须调用 {@link #release()}，之后实例不可再用。
  */
 public class VoiceChatClient {
 
     public interface Listener {
         void onReady();
         void onCharacterSwitched();
+        void onCharacterSwitchFailed(@NonNull String reason);
         void onLimitExceeded();
         void onLog(@NonNull String line);
         void onUserTranscript(@NonNull String text);
         void onAssistantFinal(@NonNull String text);
         void onConnectionClosed();
         void onFirstAudioLatency(long millis);
+        // 断线到服务器再次 ready 的耗时
+        void onReconnectLatency(long millis);
+        // 弱网文字优先模式进入/退出
+        void onTextFirstModeChanged(boolean enabled);
+        // 单轮分阶段时延与会话 p50/p90/p99 汇总（结构见 TurnMetrics）
+        void onTurnMetrics(@NonNull JSONObject metrics);
+        // TTS 播放时钟锚点（段开始/暂停/恢复/变速/结束及播放中约 4Hz），接收方在两次锚点间按 speed 外推
+        void onPlaybackClock(@NonNull String requestId, int sequence, long positionMs, float speed, boolean playing);
         void onAssistantDelta(@NonNull String text);
         void onRecordingReady();
         void onRecordingStopped();
@@ -53,9 +63,6 @@ public class VoiceChatClient {
          void onSongEnd(int id, @NonNull String name) ;
     }
 
-    // 新增：客户端模式
-    private enum Mode { CHAT, SONG }
-
     private final Context app;
     private final Listener listener;
 
@@ -64,56 +71,46 @@ public class VoiceChatClient {
 
     private boolean enableAsr = true;
 
-    private final ChatTransport transport;
+    private volatile ChatTransport transport;
+
+    // 角色切换：优先在现有连接上带内切换；服务端要求或超时未确认时，回退为先建后断的第二条连接。
+    // 两条路径先成功者生效并取消另一条；重连地址与会话状态只在成功时更新，失败则原连接与角色保持不变。
+    // 切换字段在主线程 Handler 与 OkHttp 回调线程间共享：写入均持有本对象锁，锁内不回调引擎或上层
+    private static final long SWITCH_ACK_TIMEOUT_MS = 3000;
+    private static final long SWITCH_CONNECT_TIMEOUT_MS = 10_000;
+    private final Handler switchHandler = new Handler(Looper.getMainLooper());
+    private volatile @Nullable ChatTransport pendingTransport;
+    private volatile @Nullable String pendingSwitchUrl;
+    private volatile int pendingCharacterId;
+    private volatile int switchSeq = 0;
 
-    private boolean isConnected = false;
-    private boolean isReady = false;
+    private volatile boolean isConnected = false;
     private boolean isMicReady = false;
-    private boolean isSwitchingMode = false;
+    private volatile boolean isSwitchingMode = false;
 
     private final ChatTtsPlayer ttsPlayer;
     private @Nullable MicRecorder micRecorder;
+    // 协议状态机（回复生命周期、TTS 段拼装、歌曲流、音质档位、文字优先）；本类只负责接到 Android 实现
+    private final ChatProtocolEngine engine;
 
     private static final int SAMPLE_RATE = 16000;
 
-    private static class TtsStreamJob {
-        final String requestId; final int sequence; final boolean isFinal;
-        final List<byte[]> buffers = new ArrayList<>();
-        String textDelta = "";
-        TtsStreamJob(String r, int s, boolean f){ requestId=r; sequence=s; isFinal=f; }
-    }
-    private @Nullable TtsStreamJob activeStreamJob;
-
-    private volatile boolean autoStartOnReady = false;
+    // 招呼语、超限提示等固定台词的音频缓存：按 角色|音色|文本 命中后本地直接播放，零下行
+    private static final String TTS_CACHE_DIR = "tts-cache";
+    private static final long TTS_CACHE_BUDGET_BYTES = 16L * 1024 * 1024;
+    private final TtsDiskCache ttsCache;
+    // 首包音频超时时由平台 TTS 兜底朗读（默认关闭，CHAT:START 参数开启）
+    private final LocalTtsSpeaker localTts;
+    private volatile boolean localTtsFallback = false;
 
-    private final Map<String, Long> asrDoneAtMs = new java.util.HashMap<>();
-    private final Set<String> firstAudioReported = new java.util.HashSet<>();
+    // start_asr 过期后无意义
+    private static final String CONTROL_KEY_ASR = "asr";
+    private static final long CONTROL_TTL_ASR_MS = 5_000;
 
-    private final Map<String, StringBuilder> assistantBuffers = new java.util.HashMap<>();
-    private @Nullable String activeResponseId = null;
-    private final Map<String, Integer> playbackDisplayedIndex = new java.util.HashMap<>();
-    private final Set<String> ttsManagedResponses = new java.util.HashSet<>();
-    private final Map<String, StringBuilder> playbackTextBuffers = new java.util.HashMap<>();
-
-    private final Set<String> finalizedResponses = Collections.newSetFromMap(new ConcurrentHashMap<>());
-
-    // 新增：歌曲相关状态
-    private Mode mode = Mode.CHAT;
-    private @Nullable String currentSongId = null;
-    private int currentSongUid = 0;
-    private @Nullable String currentSongName = null;
-    private int currentSongSeq = 0;
-    private boolean songPaused = false;
-    private final Set<String> processedSongChunks = Collections.newSetFromMap(new ConcurrentHashMap<>());
-
-    // 添加缓冲区
-    private final Map<String, ByteArrayOutputStream> songBuffers = new ConcurrentHashMap<>();
-    private static final int SONG_BUFFER_THRESHOLD = 2 * 1024 * 1024; // 2MB
-
-    // 防抖/校验：仅当收到当前歌曲音频后，才接受 song_end；每首歌只入队一次结束标记
-    private volatile boolean currentSongAudioReceived = false;
-    private volatile boolean currentSongEndQueued = false;
-    private final Set<String> notifiedSongEnd = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private volatile boolean autoStartOnReady = false;
+    private volatile long lastReconnectToReadyMs = -1;
+    // 播放器是否有段在播（用于心跳活跃判定）
+    private volatile boolean ttsPlaying = false;
 
 
     @UnstableApi
@@ -127,360 +124,272 @@ public class VoiceChatClient {
         this.ttsPlayer = new ChatTtsPlayer(app, new ChatTtsPlayer.Callback() {
             @Override
             public void onSegmentStart(@NonNull String requestId, int sequence, @NonNull String textDelta) {
-                if (!textDelta.isEmpty()) {
-                    StringBuilder buf = getOrCreateStringBuilder(playbackTextBuffers, requestId);
-                    buf.append(textDelta);
-                    try { listener.onAssistantDelta(textDelta); } catch (Exception ignored) {}
-                    int shown = getOrDefaultCompat(playbackDisplayedIndex, requestId, 0);
-                    playbackDisplayedIndex.put(requestId, shown + textDelta.length());
-                }
+                if (!ttsPlaying) { ttsPlaying = true; updateSessionActivity(); }
+                engine.onSegmentStart(requestId, sequence, textDelta);
             }
             @Override
             public void onSegmentEnd(@NonNull String requestId, int sequence, boolean isFinalSegment, boolean canceled) {
-                if (!canceled && isFinalSegment) {
-                    StringBuilder buf = playbackTextBuffers.remove(requestId);
-                    String content = (buf != null) ? buf.toString().trim() : "";
-                    if (!content.isEmpty()) {
-                        finalizeAssistantResponse(requestId, content);
-                    }
-                    ttsManagedResponses.remove(requestId);
-                    playbackDisplayedIndex.remove(requestId);
-                }
+                engine.onSegmentEnd(requestId, sequence, isFinalSegment, canceled);
             }
 
             @Override
             public void onQueueIdle() {
-                if (mode == Mode.SONG) {
-                    log("歌曲播放完成，音频队列已空");
-//                    try { listener.onSongEnd(currentSongName); } catch (Exception ignored) {}
-
-                    // 仅停止继续播放，不切回聊天；如需切回聊天可改为：
-                    // stopSongPlayback(true); // true 表示重置并切回 Mode.CHAT
-                    // 这里我们选择“留在 SONG 模式等待下一首或用户操作”
-                }
+                ttsPlaying = false;
+                updateSessionActivity();
+                engine.onQueueIdle();
             }
 
             @Override
             public void onSongEndMarker(@NonNull String requestId) {
-                Log.d("VoiceChatClient", "onSongEndMarker: currentSongId=" + currentSongId +
-                        ", currentSongUid=" + currentSongUid +
-                        ", currentSongName=" + currentSongName + ", requestId=" + requestId +
-                        ", mode=" + mode);
-
-                if (mode == Mode.SONG && requestId.equals(currentSongId)) {
-                    // 去重：同一首歌只触发一次
-                    if (!notifiedSongEnd.add(requestId)) {
-                        Log.w("VoiceChatClient", "忽略重复歌曲结束标记: " + requestId);
-                        return;
-                    }
-                    log("收到歌曲结束标记，触发歌曲结束事件: " + currentSongName);
-                    Log.d("VoiceChatClient","----------------------------------------->"+currentSongName+", " + currentSongUid);
-                    try {
-                        listener.onSongEnd(currentSongUid, currentSongName != null ? currentSongName : "未知歌曲");
-                    } catch (Exception ignored) {}
-                    // 注意：这里我们不清除歌曲状态，因为可能还需要在onSongComplete中处理，或者由外部切换模式
-                    // 我们只是通知歌曲完成，但不自动切换模式，由调用者决定后续行为
-                }
-
+                engine.onSongEndMarker(requestId);
             }
-        });
 
-        this.transport = new ChatTransport(new ChatTransport.Listener() {
-            @Override public void onOpen() {
-                isConnected = true;
-                log("WebSocket 已打开");
+            @Override
+            public void onPlayoutAdjusted(long backlogMs, float speed, int skippedSegments) {
+                log(String.format(Locale.ROOT, "播放积压 %dms 速度 x%.2f%s", backlogMs, speed,
+                        skippedSegments > 0 ? " 跳过 " + skippedSegments + " 段" : ""));
+                engine.onPlayoutAdjusted(backlogMs, speed, skippedSegments);
             }
-            @Override public void onTextMessage(@NonNull String text) {
-                handleJsonMessage(text);
+
+            @Override
+            public void onPlaybackClock(@NonNull String requestId, int sequence, long positionMs, float speed, boolean playing) {
+                listener.onPlaybackClock(requestId, sequence, positionMs, speed, playing);
             }
-            @Override public void onBinaryMessage(@NonNull byte[] bytes) {
-                handleBinary(bytes);
+        });
+
+        this.engine = new ChatProtocolEngine(new ChatProtocolEngine.Clock() {
+            @Override public long nowMs() { return SystemClock.elapsedRealtime(); }
+            @Override public void postDelayed(@NonNull Runnable task, long delayMs) { switchHandler.postDelayed(task, delayMs); }
+            @Override public void removeCallbacks(@NonNull Runnable task) { switchHandler.removeCallbacks(task); }
+        }, new ChatProtocolEngine.Transport() {
+            // 始终作用于当前连接：角色切换会替换 transport
+            @Override public void sendControl(@NonNull String json, @NonNull String coalesceKey, long ttlMs) {
+                transport.sendControl(json, coalesceKey, ttlMs);
             }
-            @Override public void onClosed(int code, @NonNull String reason) {
-                isConnected = false; isReady = false;
-                log("WebSocket 已关闭 code="+code+" reason="+reason+"，将尝试自动重连");
+            @Override public long getSmoothedRttMs() { return transport.getSmoothedRttMs(); }
+            @Override public long getDownlinkKbps() { return transport.getDownlinkKbps(); }
+            @Override public void resetDownlinkEstimate() { transport.resetDownlinkEstimate(); }
+        }, new ChatProtocolEngine.Player() {
+            @Override public void enqueue(@NonNull String requestId, int sequence, @NonNull byte[] audio,
+                                          @NonNull String textDelta, boolean isFinalSegment, @NonNull String mimeType) {
+                // 歌曲流走深缓冲的播放器，对话 TTS 走低延迟播放器
+                ttsPlayer.enqueue(requestId, sequence, audio, textDelta, isFinalSegment, mimeType,
+                        engine.isSongMode() ? ChatTtsPlayer.PROFILE_SONG : ChatTtsPlayer.PROFILE_TTS);
             }
-            @Override public void onFailure(@NonNull Throwable t, @Nullable okhttp3.Response response) {
-                isConnected = false; isReady = false;
-                log("WebSocket 错误: "+t.getMessage()+"，将尝试自动重连");
+            @Override public void cancelForResponse(@NonNull String responseId) { ttsPlayer.cancelForResponse(responseId); }
+            @Override public void clear() { clearTtsQueue(); }
+            @Override public void pause() { ttsPlayer.pause(); }
+            @Override public void resume() { ttsPlayer.resume(); }
+        }, new EngineEvents());
+        engine.setTracer(PerfTrace.engineTracer());
+        this.ttsCache = new TtsDiskCache(new File(app.getCacheDir(), TTS_CACHE_DIR), TTS_CACHE_BUDGET_BYTES);
+        engine.setTtsCache(ttsCache);
+        this.localTts = new LocalTtsSpeaker(app, engine::onLocalSpeechIdle);
+        engine.setLocalSpeech(localTts);
+
+        this.transport = createTransport();
+
+        updateOutputRoute();
+    }
+
+    /** 协议引擎事件：转发给上层 Listener，并处理需要 Android 侧动作的事件（录音、角色切换、断开） */
+    private final class EngineEvents implements ChatProtocolEngine.Listener {
+        @Override public void onLog(@NonNull String line) { log(line); }
+        @Override public void onDebug(@NonNull String line) { Log.d("VoiceChatClient", line); }
+        @Override public void onServerReady() {
+            reportReconnectToReady();
+            // 服务端声明多路复用网关后，ASR / TTS / 日志及之后的聊天重连共用一条物理连接
+            MuxTransport.setGatewayUrl(engine.getMuxGatewayUrl());
+            if(isSwitchingMode && pendingSwitchUrl == null){
+                // 回退连接的 ready（已在 handlePendingSwitchMessage 中认领）
+                completeCharacterSwitch();
+            }else if(isSwitchingMode){
+                // 带内切换等待确认期间原连接断线重连：switch_character 随旧连接丢失，直接改走新连接
+                log("带内切换期间连接已重建，改用新连接");
+                startMakeBeforeBreakSwitch(switchSeq);
+            }else{
+                listener.onReady();
             }
-            @Override public void onReconnectScheduled(int attempt, long delayMs) {
-                log("计划第"+attempt+"次重连，延迟="+delayMs+"ms");
+            Log.d("VoiceChatClient", "onServerReady: autoStartOnReady=" + autoStartOnReady);
+            if (autoStartOnReady && enableAsr) startRecording();
+        }
+        @Override public void onCharacterSwitchAck(int characterId) {
+            // 带内确认：若回退连接已在建立，以先到者为准，取消回退连接
+            String url = claimSwitch(null);
+            if (url == null) return;
+            log("角色切换完成 characterId=" + (characterId >= 0 ? characterId : pendingCharacterId));
+            transport.updateUrl(url);
+            resetSwitchedConversation();
+            completeCharacterSwitch();
+            if (autoStartOnReady && enableAsr) startRecording();
+        }
+        @Override public void onCharacterSwitchRejected(@NonNull String reason) {
+            // 服务端不支持带内切换（如需重新鉴权），改走先建后断的新连接
+            if (isSwitchingMode && pendingTransport == null) {
+                log("服务端拒绝带内切换 reason=" + reason + "，改用新连接");
+                startMakeBeforeBreakSwitch(switchSeq);
             }
-        });
+        }
+        @Override public void onLimitExceeded() {
+            listener.onLimitExceeded();
+            stopChat();
+        }
+        @Override public void onUserTranscript(@NonNull String text) { listener.onUserTranscript(text); }
+        @Override public void onAssistantDelta(@NonNull String text) { listener.onAssistantDelta(text); }
+        @Override public void onAssistantFinal(@NonNull String text) { listener.onAssistantFinal(text); }
+        @Override public void onFirstAudioLatency(long millis) { listener.onFirstAudioLatency(millis); }
+        @Override public void onTextFirstModeChanged(boolean enabled) { listener.onTextFirstModeChanged(enabled); }
+        @Override public void onSongEnd(int id, @NonNull String name) { listener.onSongEnd(id, name); }
+        @Override public void onTurnMetrics(@NonNull JSONObject metrics) {
+            // 轮次边界：会话录制落盘，进程被杀时最多丢当前一轮
+            if ("turn".equals(metrics.optString("type"))) SessionRecorder.flushActive();
+            listener.onTurnMetrics(metrics);
+        }
+    }
 
-        updateOutputRoute();
+    /**
+     * 传输层回调绑定到具体的 ChatTransport 实例：
+     * 角色切换期间可能同时存在两条连接，非当前连接的事件不得影响会话状态。
+     */
+    private final class TransportEvents implements ChatTransport.Listener {
+        @Nullable ChatTransport owner;
+
+        @Override public void onOpen() {
+            if (owner == pendingTransport) { log("切换角色：新连接已打开，等待 ready"); return; }
+            if (owner != transport) return;
+            isConnected = true;
+            log("WebSocket 已打开");
+        }
+        @Override public void onTextMessage(@NonNull String text) {
+            if (owner == pendingTransport) { handlePendingSwitchMessage(text); return; }
+            if (owner != transport) return;
+            engine.handleText(text);
+        }
+        @Override public void onBinaryMessage(@NonNull byte[] bytes) {
+            if (owner != transport) return;
+            engine.handleBinary(bytes);
+        }
+        @Override public void onClosed(int code, @NonNull String reason) {
+            if (owner == pendingTransport) { failCharacterSwitch("新连接已关闭: " + reason); return; }
+            if (owner != transport) return;
+            isConnected = false; engine.markNotReady();
+            log("WebSocket 已关闭 code="+code+" reason="+reason+"，将尝试自动重连");
+        }
+        @Override public void onFailure(@NonNull Throwable t, @Nullable okhttp3.Response response) {
+            if (owner == pendingTransport) { failCharacterSwitch("新连接失败: " + t.getMessage()); return; }
+            if (owner != transport) return;
+            isConnected = false; engine.markNotReady();
+            log("WebSocket 错误: "+t.getMessage()+"，将尝试自动重连");
+        }
+        @Override public void onReconnectScheduled(int attempt, long delayMs) {
+            if (owner != transport) return;
+            log("计划第"+attempt+"次重连，延迟="+delayMs+"ms");
+        }
+        @Override public void onReconnected(long downtimeMs) {
+            if (owner != transport) return;
+            log("已重连，断线时长="+downtimeMs+"ms");
+        }
+        @Override public void onDownlinkEstimate(long kbps, long smoothedRttMs) {
+            if (owner != transport) return;
+            engine.onDownlinkEstimate(kbps, smoothedRttMs);
+        }
+    }
+
+    private ChatTransport createTransport() {
+        TransportEvents events = new TransportEvents();
+        ChatTransport t = new ChatTransport(events);
+        events.owner = t;
+        return t;
     }
 
     public void connect(@NonNull String url){
         transport.setAutoReconnect(true);
         transport.setReconnectOnNormalClose(true);
         transport.connect(url);
-        isReady = false;
+        engine.markNotReady();
         log("WebSocket 连接中 -> "+url);
     }
 
     public void disconnect(){
+        cancelPendingSwitch();
+        engine.resetTextFirst();
         stopRecording();
         clearTtsQueue();
-        resetConversation();
+        engine.resetConversation();
         // 退出时重置歌曲状态
-        stopSongPlayback(true);
+        engine.stopSongPlayback(true);
+        ttsPlayer.endSession();
         transport.close();
-        isConnected=false; isReady=false;
+        isConnected=false; engine.markNotReady();
         applyCommunicationAudioMode(false);
         listener.onConnectionClosed();
     }
 
-    public void setEnableAsr(boolean enable){
-        this.enableAsr = enable;
+    /** 默认网络丢失：暂停重连，避免离线时盲目退避 */
+    public void onNetworkLost(){
+        transport.onNetworkLost();
     }
 
-    public void setSwitchingMode(boolean switching){
-        this.isSwitchingMode = switching;
+    /** 默认网络通过验证：断线则立即重连；handover 时先建后断迁移连接 */
+    public void onNetworkValidated(boolean handover){
+        transport.onNetworkValidated(handover);
     }
 
-    public boolean isSwitchingMode(){
-        return this.isSwitchingMode;
+    public long getLastReconnectToReadyMs(){
+        return lastReconnectToReadyMs;
     }
 
-    private void handleJsonMessage(String raw){
-        try {
-            JSONObject obj = new JSONObject(raw);
-            String type = obj.optString("type");
-            String r1 = obj.optString("responseId");
-            String r2 = obj.optString("requestId");
-            String responseId = !r1.isEmpty()? r1 : (!r2.isEmpty()? r2 : null);
-            switch (type){
-                case "ready":
-                    isReady = true; log("服务器 ready");
-                    if(isSwitchingMode){
-                        listener.onCharacterSwitched();
-                        isSwitchingMode = false;
-                    }else{
-                        listener.onReady();
-                    }
-                    Log.d("VoiceChatClient", "handleJsonMessage: ready received, autoStartOnReady=" + autoStartOnReady);
-                    if (autoStartOnReady && enableAsr) startRecording();
-                    break;
-                case "limit_exceeded":
-                    Log.d("VoiceChatClient", "handleJsonMessage: limit_exceeded received");
-                    listener.onLimitExceeded();
-                    stopChat();
-                    break;
-                case "transcript": {
-                    String text = obj.optString("sanitized", obj.optString("text"));
-                    if (!text.isEmpty()) listener.onUserTranscript(text);
-                    boolean isFinal = obj.optBoolean("final", obj.optBoolean("is_final", false));
-                    if (isFinal && responseId != null) {
-                        asrDoneAtMs.put(responseId, SystemClock.elapsedRealtime());
-                    }
-                    break; }
-                case "llm_request": {
-                    if (responseId != null) asrDoneAtMs.put(responseId, SystemClock.elapsedRealtime());
-                    startNewResponse(responseId);
-                    String userText = obj.optString("text");
-                    if (!userText.isEmpty()) listener.onUserTranscript(userText);
-                    log("LLM 请求中");
-                    break;
-                }
-                case "llm_delta": {
-                    String delta = obj.optString("content");
-                    if (responseId != null && !delta.isEmpty()) {
-                        StringBuilder sb = getOrCreateStringBuilder(assistantBuffers, responseId);
-                        sb.append(delta);
-                    }
-                    break;
-                }
-                case "llm_complete": {
-                    if (responseId != null && ttsManagedResponses.contains(responseId)) {
-                        log("LLM 完成(随播已接管)");
-                    } else {
-                        if (responseId != null) {
-                            String finalText = obj.optString("text", obj.optString("content", ""));
-                            finalizeAssistantResponse(responseId, finalText);
-                        }
-                        log("LLM 完成");
-                    }
-                    break;
-                }
-                case "tts_start": {
-                    if (responseId != null) {
-                        if (!responseId.equals(activeResponseId)) {
-                            startNewResponse(responseId);
-                        }
-                        if (isActiveResponse(responseId)) {
-                            int seq = obj.optInt("sequence");
-                            boolean isFinalSeg = obj.optBoolean("isFinal", obj.optBoolean("final", false));
-                            TtsStreamJob job = new TtsStreamJob(responseId, seq, isFinalSeg);
-                            String provided = obj.optString("text", obj.optString("content", ""));
-                            if (provided.isEmpty()) {
-                                StringBuilder buf = assistantBuffers.get(responseId);
-                                int shown = getOrDefaultCompat(playbackDisplayedIndex, responseId, 0);
-                                if (buf != null && buf.length() > shown) {
-                                    provided = buf.substring(shown);
-                                }
-                            }
-                            job.textDelta = provided;
-                            activeStreamJob = job;
-                            ttsManagedResponses.add(responseId);
-                            getOrCreateStringBuilder(playbackTextBuffers, responseId);
-                            log("tts_start r="+responseId+" s="+seq);
-                        }
-                    }
-                    break;
-                }
-                case "tts_end": {
-                    TtsStreamJob job = activeStreamJob;
-                    int seq = obj.optInt("sequence");
-                    if (job != null && responseId != null && responseId.equals(job.requestId) && seq == job.sequence) {
-                        String reason = obj.optString("reason");
-                        if ("completed".equals(reason)) {
-                            // 优先以 tts_end 携带的 isFinal/final 为准，若缺失再回退到 tts_start 的标志
-                            boolean isFinalSeg = obj.has("isFinal") || obj.has("final")
-                                    ? obj.optBoolean("isFinal", obj.optBoolean("final", false))
-                                    : job.isFinal;
-                            if (!job.buffers.isEmpty()) {
-                                byte[] merged = merge(job.buffers);
-                                // 这里传入最终段标志，确保单段语音也能触发 onAssistantFinal
-                                enqueueTts(job.requestId, job.sequence, merged, job.textDelta, isFinalSeg);
-                            } else {
-                                // 无音频块的完成：直接按文本结束，避免遗漏 onSegmentEnd
-                                if (isFinalSeg) {
-                                    finalizeAssistantResponse(job.requestId, job.textDelta);
-                                } else if (job.textDelta != null && !job.textDelta.isEmpty()) {
-                                    try { listener.onAssistantDelta(job.textDelta); } catch (Exception ignored) {}
-                                }
-                                ttsManagedResponses.remove(job.requestId);
-                                playbackTextBuffers.remove(job.requestId);
-                                playbackDisplayedIndex.remove(job.requestId);
-                            }
-                        } else {
-                            log("TTS 未完成, reason="+reason);
-                        }
-                    }
-                    activeStreamJob = null;
-                    log("tts_end r="+responseId);
-                    break;
-                }
-                case "tts_cancel": {
-                    if (responseId != null) {
-                        cancelTtsForResponse(responseId);
-                        playbackTextBuffers.remove(responseId);
-                        ttsManagedResponses.remove(responseId);
-                        log("tts_cancel r="+responseId);
-                    }
-                    break;
-                }
-                case "song_end": {
-                    if (mode == Mode.SONG && currentSongId != null) {
-                        // 如服务端带 songId，做严格校验；否则仅在已收到当前歌曲音频后才接受此结束
-                        int serverSongId = obj.has("songId") ? obj.optInt("songId", -1) : -1;
-                        int expected = currentSongUid & 0xFFFF;
-                        if (serverSongId != -1 && (serverSongId & 0xFFFF) != expected) {
-                            Log.w("VoiceChatClient", "忽略非当前歌曲的结束信号 serverSongId="+serverSongId+", expected="+expected);
-                            break;
-                        }
-                        if (!currentSongAudioReceived) {
-                            Log.w("VoiceChatClient", "忽略过期/抢先到达的歌曲结束信号（当前歌曲尚未收到音频）: " + currentSongName + "," + currentSongUid);
-                            break;
-                        }
-                        if (currentSongEndQueued) {
-                            Log.w("VoiceChatClient", "忽略重复歌曲结束信号: " + currentSongName + "," + currentSongUid);
-                            break;
-                        }
-
-                        log("收到歌曲结束信号: " + currentSongName+","+currentSongUid);
-                        // 清空缓冲区，发送剩余音频
-                        flushSongBuffer(currentSongId);
-                        // 在队列中添加结束标识
-                        enqueueTts(currentSongId, currentSongSeq++, new byte[0], "", true);
-                        currentSongEndQueued = true;
-                    }
-                    break;
-
-//                    if (mode == Mode.SONG && currentSongId != null) {
-//                        log("收到歌曲结束信号: " + currentSongName);
-//                        // 在队列中添加结束标识
-//                        enqueueTts(currentSongId, currentSongSeq++, new byte[0], "", true);
-//                    }
-//                    break;
-                }
-                default:
-                    log("事件: "+type);
-            }
-        } catch (Exception e){ log("解析错误: "+e.getMessage()); }
+    private void reportReconnectToReady(){
+        long since = transport.getDisconnectedAtMs();
+        transport.markReady();
+        if (since <= 0) return;
+        long cost = SystemClock.elapsedRealtime() - since;
+        lastReconnectToReadyMs = cost;
+        log("断线到 ready 耗时="+cost+"ms");
+        try { listener.onReconnectLatency(cost); } catch (Exception ignored) {}
     }
 
-    private void handleBinary(byte[] bytes){
-        // 新增：歌曲模式下直接处理歌曲流
-        if (mode == Mode.SONG) {
-            handleSongBinary(bytes);
-            return;
-        }
+    /** 当前上报的下行音质档位：low / medium / high */
+    @NonNull
+    public String getQualityTier(){
+        return engine.getQualityTier();
+    }
 
-        TtsStreamJob job = activeStreamJob;
-        if (job != null && isActiveResponse(job.requestId)) {
-            if (!firstAudioReported.contains(job.requestId)) {
-                Long start = asrDoneAtMs.get(job.requestId);
-                long now = SystemClock.elapsedRealtime();
-                if (start != null && now >= start) {
-                    long latency = now - start;
-                    listener.onFirstAudioLatency(latency);
-                }
-                firstAudioReported.add(job.requestId);
-                asrDoneAtMs.remove(job.requestId);
-            }
-            job.buffers.add(bytes);
-        }
+    public boolean isTextFirstMode(){
+        return engine.isTextFirstMode();
     }
 
-    private boolean isActiveResponse(@Nullable String responseId){
-        if (responseId == null) return activeResponseId == null;
-        return activeResponseId == null || responseId.equals(activeResponseId);
+    public void setEnableAsr(boolean enable){
+        this.enableAsr = enable;
     }
 
-    private void startNewResponse(@Nullable String responseId){
-        if (responseId == null) return;
-        if (activeResponseId != null) {
-            asrDoneAtMs.remove(activeResponseId);
-            firstAudioReported.remove(activeResponseId);
-            finalizeAssistantResponse(activeResponseId, null);
-            clearTtsQueue();
-            playbackTextBuffers.remove(activeResponseId);
-            ttsManagedResponses.remove(activeResponseId);
-            playbackDisplayedIndex.remove(activeResponseId);
-        }
-        activeResponseId = responseId;
-        getOrCreateStringBuilder(assistantBuffers, responseId).setLength(0);
-        playbackDisplayedIndex.put(responseId, 0);
+    public synchronized void setSwitchingMode(boolean switching){
+        this.isSwitchingMode = switching;
     }
 
-    private void finalizeAssistantResponse(@NonNull String responseId, @Nullable String finalText){
-        boolean first = finalizedResponses.add(responseId);
-        StringBuilder sb = assistantBuffers.remove(responseId);
-        String content = (finalText != null && !finalText.isEmpty()) ? finalText : (sb != null ? sb.toString() : "");
-        if (first && !content.isEmpty()) listener.onAssistantFinal(content.trim());
-        if (responseId.equals(activeResponseId)) activeResponseId = null;
+    public boolean isSwitchingMode(){
+        return this.isSwitchingMode;
     }
 
-    private void enqueueTts(@NonNull String requestId, int sequence, @NonNull byte[] audio, @NonNull String textDelta, boolean isFinalSegment){
-        ttsPlayer.enqueue(requestId, sequence, audio, textDelta, isFinalSegment);
+    private void clearTtsQueue(){
+        ttsPlayer.clear();
+        ttsPlaying = false;
+        updateSessionActivity();
     }
 
-    private void cancelTtsForResponse(@NonNull String responseId){
-        ttsPlayer.cancelForResponse(responseId);
-        playbackTextBuffers.remove(responseId);
-        ttsManagedResponses.remove(responseId);
-        playbackDisplayedIndex.remove(responseId);
+    /** 录音或播放中视为活跃轮次：传输层据此缩短心跳间隔，快速发现死连接 */
+    private void updateSessionActivity(){
+        boolean recording = micRecorder != null && micRecorder.isRunning();
+        transport.setSessionActive(recording || ttsPlaying);
     }
 
-    private void clearTtsQueue(){
-        ttsPlayer.clear();
+    /** 心跳测得的平滑 RTT（毫秒），未测得时为 -1 */
+    public long getSmoothedRttMs(){
+        return transport.getSmoothedRttMs();
     }
 
     public void startRecording(){
-        if (!isConnected || !isReady) return;
+        if (!isConnected || !engine.isReady()) return;
         if (micRecorder != null && micRecorder.isRunning()) return;
         if (ContextCompat.checkSelfPermission(app, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
             log("缺少 RECORD_AUDIO 权限，无法开始录音");
@@ -490,7 +399,7 @@ public class VoiceChatClient {
         if (micRecorder == null) micRecorder = new MicRecorder(app);
         boolean ok = micRecorder.start(SAMPLE_RATE, new MicRecorder.Callback() {
             @Override public void onPcmData(@NonNull byte[] buffer, int length) {
-                if (isConnected && isReady) {
+                if (isConnected && engine.isReady()) {
                     try { transport.sendBinary(buffer, 0, length); } catch (Exception ignored) {}
                 }
             }
@@ -498,11 +407,12 @@ public class VoiceChatClient {
         });
         if (ok) {
             log("开始录音 16kHz PCM16");
+            updateSessionActivity();
             listener.onRecordingReady();
             this.enableAsr = true;
             this.transport.setEnableAsr(true);
-            // 启动asr
-            transport.sendText("{\"type\":\"start_asr\"}");
+            // 启动asr：每个连接周期只发一次（ready 补发队列后再次开麦不会重复发送）
+            transport.sendControlOnce("{\"type\":\"start_asr\"}", CONTROL_KEY_ASR, CONTROL_TTL_ASR_MS);
         }
     }
 
@@ -511,6 +421,7 @@ public class VoiceChatClient {
             try { micRecorder.stop(); } catch (Exception ignored) {}
         }
         applyCommunicationAudioMode(false);
+        updateSessionActivity();
         log("停止录音");
 //        this.enableAsr = false;
         this.transport.setEnableAsr(false);
@@ -570,39 +481,33 @@ public class VoiceChatClient {
         return false;
     }
 
-    private static byte[] merge(List<byte[]> list){
-        int total = 0; for (byte[] a : list) total += a.length;
-        ByteBuffer out = ByteBuffer.allocate(total);
-        for (byte[] a : list) out.put(a);
-        return out.array();
-    }
-
-    private void resetConversation(){
-        assistantBuffers.clear();
-        activeResponseId = null;
-        asrDoneAtMs.clear();
-        firstAudioReported.clear();
-        playbackTextBuffers.clear();
-        ttsManagedResponses.clear();
-        playbackDisplayedIndex.clear();
-        finalizedResponses.clear();
-        // 重置模式
-        mode = Mode.CHAT;
-    }
-
     private void log(String s){ listener.onLog(s); }
 
+    /** 释放播放器与播放线程、传输层、录音器；仅在宿主销毁时调用，会话结束用 stopChat() */
     public void release() {
+        cancelPendingSwitch();
+        engine.resetTextFirst();
         try { ttsPlayer.release(); } catch (Exception ignored) {}
+        try { ttsCache.release(); } catch (Exception ignored) {}
+        try { localTts.shutdown(); } catch (Exception ignored) {}
         try { transport.release(); } catch (Exception ignored) {}
         try { if (micRecorder != null) micRecorder.release(); } catch (Exception ignored) {}
     }
 
     public void startChat(@NonNull String url) {
         autoStartOnReady = true;
+        // 会话开始即预热，兜底触发时首句可立即出声
+        if (localTtsFallback) localTts.warmUp();
         connect(url);
     }
 
+    /** 首包音频超出预算时是否用端侧 TTS 朗读（兜底使用率见 CHAT:METRICS 的 localTts） */
+    public void setLocalTtsFallbackEnabled(boolean enabled) {
+        localTtsFallback = enabled;
+        engine.setLocalTtsFallbackEnabled(enabled);
+        if (enabled) localTts.warmUp();
+    }
+
     public void stopChat() {
         autoStartOnReady = false;
         disconnect();
@@ -610,33 +515,179 @@ public class VoiceChatClient {
 
     public void stopChatSilently(){
         Log.d("VoiceChatClient", "stopChatSilently called");
+        cancelPendingSwitch();
+        engine.resetTextFirst();
         stopRecording();
         clearTtsQueue();
-        resetConversation();
+        engine.resetConversation();
         // 退出时重置歌曲状态
-        stopSongPlayback(true);
+        engine.stopSongPlayback(true);
+        ttsPlayer.endSession();
         transport.close();
-        isConnected=false; isReady=false;
+        isConnected=false; engine.markNotReady();
         applyCommunicationAudioMode(false);
     }
 
-    public boolean isTransportConnected(){
-         Log.d("VoiceChatClient", "isTransportConnected: " + isConnected);
-         return transport.isConnected();
+    /**
+     * 异步切换角色，完成后回调 onCharacterSwitched()，失败回调 onCharacterSwitchFailed()。
+     * 已连接时在现有 WebSocket 上发送 switch_character，确认后仅重置会话状态，连接与播放器保持；
+     * 未连接、服务端拒绝或确认超时时，使用 url 建立第二条连接，ready 后再关闭旧连接。
+     * 两条路径都失败时原连接（含其重连地址）保持原角色。
+     *
+     * @param characterId 新角色 id
+     * @param url         携带新 characterId 的完整连接地址（回退连接及后续重连使用）
+     */
+    public void switchCharacter(int characterId, @NonNull String url) {
+        final int seq;
+        synchronized (this) {
+            if (isSwitchingMode) seq = -1;
+            else {
+                isSwitchingMode = true;
+                pendingCharacterId = characterId;
+                pendingSwitchUrl = url;
+                seq = ++switchSeq;
+            }
+        }
+        if (seq < 0) {
+            log("角色切换进行中，忽略重复请求");
+            return;
+        }
+
+        // 切换期间旧角色静音：停止录音与播放；会话状态与重连地址等切换成功后再更新
+        stopRecording();
+        clearTtsQueue();
+        autoStartOnReady = true;
+
+        if (isConnected && engine.isReady()) {
+            JSONObject msg = new JSONObject();
+            try {
+                msg.put("type", "switch_character");
+                msg.put("characterId", characterId);
+            } catch (Exception ignored) {}
+            if (transport.sendText(msg.toString())) {
+                log("带内切换角色 characterId=" + characterId);
+                switchHandler.postDelayed(() -> {
+                    if (seq == switchSeq && isSwitchingMode && pendingTransport == null) {
+                        log("带内切换确认超时，改用新连接");
+                        startMakeBeforeBreakSwitch(seq);
+                    }
+                }, SWITCH_ACK_TIMEOUT_MS);
+                return;
+            }
+        }
+        startMakeBeforeBreakSwitch(seq);
+    }
+
+    private void startMakeBeforeBreakSwitch(int seq) {
+        ChatTransport next;
+        String url;
+        synchronized (this) {
+            url = pendingSwitchUrl;
+            if (seq != switchSeq || !isSwitchingMode || url == null || pendingTransport != null) return;
+            next = createTransport();
+            next.setAutoReconnect(false);
+            next.setEnableAsr(transport.isEnableAsr());
+            pendingTransport = next;
+        }
+        log("切换角色：建立新连接 characterId=" + pendingCharacterId);
+        next.connect(url);
+        switchHandler.postDelayed(() -> {
+            if (seq == switchSeq && pendingTransport == next) {
+                failCharacterSwitch("新连接 ready 超时");
+            }
+        }, SWITCH_CONNECT_TIMEOUT_MS);
+    }
+
+    private void handlePendingSwitchMessage(@NonNull String raw) {
+        String type;
+        try { type = new JSONObject(raw).optString("type"); } catch (Exception e) { return; }
+        if (!"ready".equals(type)) {
+            log("切换角色：新连接在 ready 前收到事件 " + type + "，忽略");
+            return;
+        }
+        ChatTransport next = pendingTransport;
+        if (next == null || claimSwitch(next) == null) return;
+        ChatTransport old;
+        synchronized (this) {
+            old = transport;
+            transport = next;
+        }
+        next.setAutoReconnect(true);
+        next.setReconnectOnNormalClose(true);
+        // 新连接已就绪后再断开旧连接（之后旧连接上迟到的 character_switched 按非当前连接忽略）
+        try { old.release(); } catch (Exception ignored) {}
+        isConnected = true;
+        // 先重置会话，再交给引擎处理 ready（其中会确定新角色的缓存作用域）
+        resetSwitchedConversation();
+        engine.handleText(raw);
+    }
+
+    /**
+     * 认领本次切换的成功：带内确认（via 为 null）或回退连接 via 的 ready，先到者生效。
+     * 成功时清掉另一条路径（释放尚未就绪的回退连接；ack 超时任务因 switchSeq 变化失效），返回新地址；
+     * 已不在切换中或 via 已被取消时返回 null，调用方直接忽略。
+     */
+    @Nullable
+    private String claimSwitch(@Nullable ChatTransport via) {
+        String url;
+        ChatTransport loser = null;
+        synchronized (this) {
+            if (!isSwitchingMode || (via != null && via != pendingTransport)) return null;
+            url = pendingSwitchUrl;
+            if (via == null) loser = pendingTransport;
+            pendingTransport = null;
+            pendingSwitchUrl = null;
+            switchSeq++;
+        }
+        if (loser != null) {
+            log("带内切换已确认，取消回退连接");
+            try { loser.release(); } catch (Exception ignored) {}
+        }
+        return url;
+    }
+
+    /** 切换成功：清空旧角色的回复/歌曲状态；连接与播放器保持 */
+    private void resetSwitchedConversation() {
+        // 新角色会话：服务端状态重建，start_asr 等“每周期一次”的控制消息需要重新发送
+        transport.resetControlSession();
+        engine.resetConversation();
+        engine.stopSongPlayback(true);
     }
 
-    private static <K, V> V getOrDefaultCompat(Map<K, V> map, K key, V def) {
-        V v = map.get(key);
-        return v != null ? v : def;
+    private void completeCharacterSwitch() {
+        synchronized (this) {
+            switchSeq++;
+            isSwitchingMode = false;
+            pendingSwitchUrl = null;
+        }
+        try { listener.onCharacterSwitched(); } catch (Exception ignored) {}
+    }
+
+    private void failCharacterSwitch(@NonNull String reason) {
+        if (!isSwitchingMode) return;
+        log("角色切换失败: " + reason);
+        // 重连地址未更新：原连接断线重连仍是原角色
+        cancelPendingSwitch();
+        try { listener.onCharacterSwitchFailed(reason); } catch (Exception ignored) {}
     }
 
-    private static <K> StringBuilder getOrCreateStringBuilder(Map<K, StringBuilder> map, K key) {
-        StringBuilder sb = map.get(key);
-        if (sb == null) {
-            sb = new StringBuilder();
-            map.put(key, sb);
+    private void cancelPendingSwitch() {
+        ChatTransport next;
+        synchronized (this) {
+            switchSeq++;
+            isSwitchingMode = false;
+            pendingSwitchUrl = null;
+            next = pendingTransport;
+            pendingTransport = null;
         }
-        return sb;
+        if (next != null) {
+            try { next.release(); } catch (Exception ignored) {}
+        }
+    }
+
+    public boolean isTransportConnected(){
+         Log.d("VoiceChatClient", "isTransportConnected: " + isConnected);
+         return transport.isConnected();
     }
 
     // ====== 歌曲相关：模式切换与数据处理 ======
@@ -655,73 +706,30 @@ public class VoiceChatClient {
     private void switchToSong(@Nullable String responseId,int songId, @NonNull String songName) {
         Log.d("VoiceChatClient", "switchToSong: 开始设置歌曲状态, songName=" + songName);
 
-        // 切歌时彻底清理旧缓冲/状态
-        songBuffers.clear();
-        processedSongChunks.clear();
-        notifiedSongEnd.clear();
-        currentSongAudioReceived = false;
-        currentSongEndQueued = false;
-
-        currentSongId = "song-" + SystemClock.elapsedRealtime();
-        currentSongUid = songId;
-
         // 停止录音与清空所有音频（语音/歌曲）
         stopRecording();
         clearTtsQueue();
-
-        this.transport.sendText("{\"type\":\"song\", \"songName\":\""+songName+"\", \"songId\":"+songId+"}");
-
-        // 取消当前 TTS 响应（如有）
-        if (activeResponseId != null) {
-            try { cancelTtsForResponse(activeResponseId); } catch (Exception ignored) {}
-            activeResponseId = null;
-        }
-        // 切歌时重置歌曲状态
-//        currentSongId = responseId != null ? responseId : ("song-" + SystemClock.elapsedRealtime());
-        currentSongName = songName;
-        currentSongSeq = 0;
-        songPaused = false;
-        mode = Mode.SONG;
-        log("播放歌曲: " + songName + " id=" + currentSongId);
-        Log.d("VoiceChatClient", "播放歌曲: " + songName + " id=" + currentSongId);
-        this.ttsPlayer.resume();
+        engine.startSong(songId, songName);
 
         try { listener.onSongStart(songId, songName); } catch (Exception ignored) {}
     }
 
     public void pauseSong() {
-        if (mode != Mode.SONG) return;
-        if (!songPaused) {
-            songPaused = true;
-            // 仅暂停播放器，不清队列，不缓存流
-            try { ttsPlayer.pause(); } catch (Exception ignored) {}
+        if (engine.pauseSong()) {
             try { listener.onSongStop(); } catch (Exception ignored) {}
-            log("歌曲暂停");
         }
     }
 
     public void resumeSong() {
-        Log.d("VoiceChatClient", "resumeSong called mode: " + mode + " songPaused: " + songPaused + " currentSongId: " + currentSongId);
-
-        if (mode != Mode.SONG) return;
-        if (songPaused) {
-            songPaused = false;
-            // 恢复播放器继续播放
-            try { ttsPlayer.resume(); } catch (Exception ignored) {}
+        Log.d("VoiceChatClient", "resumeSong called " + engine.describeSongState());
+        if (engine.resumeSong()) {
             try { listener.onSongResume(); } catch (Exception ignored) {}
-            log("歌曲继续");
         }
     }
 
     public void switchToChat() {
-        if (mode == Mode.SONG) {
-            // 停止之前歌曲播放
-            stopSongPlayback(false);
-            mode = Mode.CHAT;
-            this.transport.sendText("{\"type\":\"chat\"}");
-
-            log("切回聊天");
-            Log.d("VoiceChatClient", "switchToChat called enableAsr: " + enableAsr + " isConnected: " + isConnected + " isReady: " + isReady);
+        if (engine.switchToChat()) {
+            Log.d("VoiceChatClient", "switchToChat called enableAsr: " + enableAsr + " isConnected: " + isConnected + " isReady: " + engine.isReady());
             // 回到聊天后，根据 enableAsr 决定是否开始录音
             if (enableAsr) {
                 listener.onRecordingReady();
@@ -729,97 +737,4 @@ public class VoiceChatClient {
             }
         }
     }
-
-    private void handleSongBinary(@NonNull byte[] bytes) {
-        if (currentSongId == null) {
-            // 异常：未收到 play_song 但来了二进制，兜底创建一个歌曲会话
-            currentSongId = "song-" + SystemClock.elapsedRealtime();
-            currentSongName = "";
-            currentSongUid = 0;
-            currentSongSeq = 0;
-            songPaused = false;
-        }
-
-        // 歌曲流必须包含2字节songId头
-        if (bytes.length < 2) {
-            Log.w("VoiceChatClient", "收到无效歌曲二进制数据（长度不足2字节），丢弃");
-            return;
-        }
-
-        // 解析前2字节的大端songId，并与当前歌曲ID比对（按UInt16范围）
-        int headerSongId = ((bytes[0] & 0xFF) << 8) | (bytes[1] & 0xFF);
-        int expectedSongId = currentSongUid & 0xFFFF;
-        Log.d("VoiceChatClient", "handleSongBinary: headerSongId=" + headerSongId + ", expectedSongId=" + expectedSongId + ", currentSongUid=" + currentSongUid);
-
-        if (headerSongId != expectedSongId) {
-            Log.w("VoiceChatClient", "丢弃非当前歌曲片段，headerSongId=" + headerSongId + ", expected=" + expectedSongId + ", currentSongUid=" + currentSongUid);
-            return;
-        }
-
-        // 去掉2字节头部，保留真实音频体
-        byte[] body = Arrays.copyOfRange(bytes, 2, bytes.length);
-        if (body.length == 0) {
-            Log.w("VoiceChatClient", "歌曲音频体为空，丢弃");
-            return;
-        }
-
-        // 标记：当前歌曲已收到音频
-        currentSongAudioReceived = true;
-
-        // 基于真实音频体做去重
-        String chunkKey = currentSongId + "-" + Arrays.hashCode(body);
-        if (!processedSongChunks.add(chunkKey)) {
-            Log.w("VoiceChatClient", "检测到重复的歌曲数据块（已去除头部后），跳过: " + chunkKey);
-            return;
-        }
-
-        // 获取或创建缓冲区
-        ByteArrayOutputStream buffer = songBuffers.get(currentSongId);
-        if (buffer == null) {
-            buffer = new ByteArrayOutputStream();
-            songBuffers.put(currentSongId, buffer);
-        }
-
-        try {
-            buffer.write(body);
-
-            // 当缓冲区达到阈值时发送
-            if (buffer.size() >= SONG_BUFFER_THRESHOLD) {
-                byte[] mergedData = buffer.toByteArray();
-                enqueueTts(currentSongId, currentSongSeq++, mergedData, "", false);
-                buffer.reset(); // 清空缓冲区
-            }
-        } catch (IOException e) {
-            Log.e("VoiceChatClient", "歌曲缓冲区写入失败", e);
-        }
-
-    }
-    // 在歌曲结束时清空缓冲区
-    private void flushSongBuffer(String songId) {
-        ByteArrayOutputStream buffer = songBuffers.remove(songId);
-        if (buffer != null && buffer.size() > 0) {
-            byte[] remainingData = buffer.toByteArray();
-            enqueueTts(songId, currentSongSeq++, remainingData, "", false);
-        }
-    }
-
-    private void stopSongPlayback(boolean resetState) {
-        try { ttsPlayer.cancelForResponse(currentSongId != null ? currentSongId : ""); } catch (Exception ignored) {}
-        try { ttsPlayer.clear(); } catch (Exception ignored) {}
-        // 清理当前歌曲缓冲
-        if (currentSongId != null) {
-            songBuffers.remove(currentSongId);
-        }
-        currentSongAudioReceived = false;
-        currentSongEndQueued = false;
-        if (resetState) {
-            currentSongId = null;
-            currentSongName = null;
-            currentSongUid = 0;
-            currentSongSeq = 0;
-            songPaused = false;
-            mode = Mode.CHAT;
-            notifiedSongEnd.clear();
-        }
-    }
 }
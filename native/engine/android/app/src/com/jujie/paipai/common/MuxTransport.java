@@ -0,0 +1,372 @@
+package com.jujie.paipai.common;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.jujie.paipai.chat.core.MuxFrame;
+import com.jujie.paipai.chat.core.MuxScheduler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+/**
+ * 多路复用 WebSocket：聊天、ASR、TTS、日志等逻辑连接共用一条物理 WebSocket（经网关转发）。
+ * - 每个逻辑连接是一个虚拟通道，对外仍是 okhttp3.WebSocket / WebSocketListener，调用方 API 不变；
+ * - 帧格式见 {@link MuxFrame}，按通道窗口流控与优先级调度见 {@link MuxScheduler}，物理连接积压时暂停写入。
+ * 网关地址由聊天服务端在 ready 中以 muxGateway 声明（见 VoiceChatClient），未声明时 {@link #newWebSocket}
+ * 直接退化为普通 WebSocket；已建立的独立连接不迁移，下次重连时改走多路复用。
+ */
+public final class MuxTransport {
+
+    private static final String TAG = "MuxTransport";
+
+    public static final int PRIORITY_AUDIO = MuxScheduler.PRIORITY_AUDIO;
+    public static final int PRIORITY_LOG = MuxScheduler.PRIORITY_LOG;
+
+    private static final int INITIAL_WINDOW = 256 * 1024;
+    private static final long PHYSICAL_QUEUE_HIGH_WATER = 64 * 1024;
+    private static final long IDLE_CLOSE_MS = 30_000;
+
+    // 统计：物理握手次数、发送帧数/字节数，用于对比多路复用前后的连接与唤醒开销
+    private static final AtomicLong handshakes = new AtomicLong();
+    private static final AtomicLong framesSent = new AtomicLong();
+    private static final AtomicLong bytesSent = new AtomicLong();
+    private static final AtomicLong channelsOpened = new AtomicLong();
+
+    private static volatile @Nullable String gatewayUrl;
+    private static @Nullable MuxTransport shared;
+
+    /** 设置多路复用网关地址（服务端能力声明）；null 或非 ws/wss 地址表示关闭多路复用 */
+    public static synchronized void setGatewayUrl(@Nullable String url) {
+        if (url != null && !url.startsWith("ws://") && !url.startsWith("wss://")) url = null;
+        if (url == null ? gatewayUrl == null : url.equals(gatewayUrl)) return;
+        Log.d(TAG, "gateway " + gatewayUrl + " -> " + url);
+        gatewayUrl = url;
+        if (shared != null) {
+            // 旧网关上的通道以 onFailure 结束，由各自的重连逻辑按新配置重建
+            shared.shutdown();
+            shared = null;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return gatewayUrl != null;
+    }
+
+    /** 同 {@link #newWebSocket(OkHttpClient, Request, WebSocketListener, int)}，按音频优先级调度 */
+    @NonNull
+    public static WebSocket newWebSocket(@NonNull OkHttpClient client, @NonNull Request request,
+                                         @NonNull WebSocketListener listener) {
+        return newWebSocket(client, request, listener, PRIORITY_AUDIO);
+    }
+
+    /** 打开逻辑 WebSocket：启用多路复用时返回虚拟通道，否则直接使用 client 建立独立连接 */
+    @NonNull
+    public static WebSocket newWebSocket(@NonNull OkHttpClient client, @NonNull Request request,
+                                         @NonNull WebSocketListener listener, int priority) {
+        MuxTransport mux;
+        synchronized (MuxTransport.class) {
+            String gw = gatewayUrl;
+            if (gw == null) return client.newWebSocket(request, listener);
+            if (shared == null) shared = new MuxTransport(gw);
+            mux = shared;
+        }
+        return mux.openChannel(request, listener, priority);
+    }
+
+    @NonNull
+    public static String stats() {
+        return "handshakes=" + handshakes.get() + " channels=" + channelsOpened.get()
+                + " frames=" + framesSent.get() + " bytes=" + bytesSent.get();
+    }
+
+    private final String url;
+    private final OkHttpClient http;
+    private final Object lock = new Object();
+    private final MuxScheduler scheduler = new MuxScheduler();
+    private final Map<Integer, Channel> channels = new HashMap<>();
+    private final Thread writer;
+    private @Nullable WebSocket physical;
+    private @Nullable Response upgradeResponse;
+    private boolean physicalOpen = false;
+    private boolean running = true;
+    private int nextChannelId = 1;
+    private long idleSinceMs = 0;
+
+    private MuxTransport(@NonNull String url) {
+        this.url = url;
+        this.http = NetworkCore.newBuilder()
+                .pingInterval(15, TimeUnit.SECONDS)
+                .build();
+        this.writer = new Thread(this::writeLoop, "mux-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /** 由写线程收尾（关闭物理连接、通知各通道失败），调用方可能持有业务锁，这里不回调 */
+    private void shutdown() {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+    }
+
+    @NonNull
+    private WebSocket openChannel(@NonNull Request request, @NonNull WebSocketListener listener, int priority) {
+        Channel ch;
+        synchronized (lock) {
+            int id = allocateChannelId();
+            ch = new Channel(id, request, listener);
+            channels.put(id, ch);
+            scheduler.addChannel(id, priority, INITIAL_WINDOW);
+            idleSinceMs = 0;
+            ensurePhysicalLocked();
+            byte[] target = request.url().toString().getBytes(StandardCharsets.UTF_8);
+            scheduler.enqueueControl(id, MuxFrame.encode(id, MuxFrame.FLAG_OPEN, ch.nextSendSeq++, target, 0, target.length));
+            lock.notifyAll();
+        }
+        channelsOpened.incrementAndGet();
+        return ch;
+    }
+
+    private int allocateChannelId() {
+        for (int i = 0; i < MuxFrame.MAX_CHANNEL_ID; i++) {
+            int id = nextChannelId;
+            nextChannelId = nextChannelId >= MuxFrame.MAX_CHANNEL_ID ? 1 : nextChannelId + 1;
+            if (!channels.containsKey(id)) return id;
+        }
+        throw new IllegalStateException("no free mux channel");
+    }
+
+    private void ensurePhysicalLocked() {
+        if (physical != null || !running) return;
+        handshakes.incrementAndGet();
+        Log.d(TAG, "open physical socket " + url);
+        physical = http.newWebSocket(new Request.Builder().url(url).build(), new PhysicalListener());
+    }
+
+    // ====== 写线程：按调度器出帧，物理连接未就绪或积压时等待 ======
+    private void writeLoop() {
+        synchronized (lock) {
+            while (running) {
+                WebSocket p = physical;
+                if (p == null || !physicalOpen || p.queueSize() > PHYSICAL_QUEUE_HIGH_WATER) {
+                    waitLocked(p == null || !physicalOpen ? 1000 : 20);
+                    checkIdleLocked();
+                    continue;
+                }
+                byte[] frame = scheduler.poll();
+                if (frame == null) {
+                    waitLocked(1000);
+                    checkIdleLocked();
+                    continue;
+                }
+                if (p.send(ByteString.of(frame))) {
+                    framesSent.incrementAndGet();
+                    bytesSent.addAndGet(frame.length);
+                }
+            }
+        }
+        WebSocket p;
+        synchronized (lock) {
+            p = physical;
+            physical = null;
+            physicalOpen = false;
+        }
+        if (p != null) {
+            try { p.close(1000, "mux shutdown"); } catch (Exception ignored) {}
+        }
+        failAll(new IOException("mux shutdown"), null);
+    }
+
+    private void waitLocked(long ms) {
+        try { lock.wait(ms); } catch (InterruptedException e) { Thread.currentThread().interrupt(); running = false; }
+    }
+
+    private void checkIdleLocked() {
+        if (!channels.isEmpty() || physical == null) { idleSinceMs = 0; return; }
+        long now = SystemClock.elapsedRealtime();
+        if (idleSinceMs == 0) { idleSinceMs = now; return; }
+        if (now - idleSinceMs < IDLE_CLOSE_MS) return;
+        Log.d(TAG, "no channels for " + IDLE_CLOSE_MS + "ms, close physical socket; " + stats());
+        WebSocket p = physical;
+        physical = null;
+        physicalOpen = false;
+        idleSinceMs = 0;
+        try { p.close(1000, "idle"); } catch (Exception ignored) {}
+    }
+
+    private void enqueueControlLocked(@NonNull Channel ch, int flags, @NonNull byte[] payload) {
+        scheduler.enqueueControl(ch.id, MuxFrame.encode(ch.id, flags, ch.nextSendSeq++, payload, 0, payload.length));
+        lock.notifyAll();
+    }
+
+    private void failAll(@NonNull Throwable t, @Nullable Response response) {
+        Channel[] all;
+        synchronized (lock) {
+            all = channels.values().toArray(new Channel[0]);
+            channels.clear();
+            scheduler.clear();
+        }
+        for (Channel ch : all) {
+            ch.closed = true;
+            try { ch.listener.onFailure(ch, t, response); } catch (Exception ignored) {}
+        }
+    }
+
+    // ====== 物理连接回调：按通道号分发 ======
+    private final class PhysicalListener extends WebSocketListener {
+        @Override public void onOpen(@NonNull WebSocket webSocket, @NonNull Response response) {
+            synchronized (lock) {
+                if (webSocket != physical) return;
+                physicalOpen = true;
+                upgradeResponse = response;
+                lock.notifyAll();
+            }
+            Log.d(TAG, "physical socket open; " + stats());
+        }
+
+        @Override public void onMessage(@NonNull WebSocket webSocket, @NonNull ByteString bytes) {
+            if (webSocket != physical) return;
+            MuxFrame f = MuxFrame.decode(bytes.toByteArray());
+            if (f == null) return;
+            Channel ch;
+            synchronized (lock) { ch = channels.get(f.channelId); }
+            if (ch == null) return;
+            if (f.sequence != ch.expectedRecvSeq) {
+                Log.w(TAG, "channel " + ch.id + " seq gap, expected=" + ch.expectedRecvSeq + " got=" + f.sequence);
+            }
+            ch.expectedRecvSeq = f.sequence + 1;
+            if (f.has(MuxFrame.FLAG_OPEN)) {
+                Response r = upgradeResponse;
+                if (r != null) try { ch.listener.onOpen(ch, r); } catch (Exception ignored) {}
+            } else if (f.has(MuxFrame.FLAG_CREDIT)) {
+                synchronized (lock) { scheduler.grantSendWindow(ch.id, f.credit()); lock.notifyAll(); }
+            } else if (f.has(MuxFrame.FLAG_CLOSE)) {
+                synchronized (lock) { channels.remove(ch.id); scheduler.removeChannel(ch.id); }
+                ch.closed = true;
+                try { ch.listener.onClosed(ch, f.closeCode(), f.closeReason()); } catch (Exception ignored) {}
+            } else {
+                if (f.has(MuxFrame.FLAG_TEXT)) {
+                    try { ch.listener.onMessage(ch, f.text()); } catch (Exception ignored) {}
+                } else {
+                    try { ch.listener.onMessage(ch, ByteString.of(f.payload())); } catch (Exception ignored) {}
+                }
+                grantCredit(ch, f.payloadLength());
+            }
+        }
+
+        @Override public void onClosing(@NonNull WebSocket webSocket, int code, @NonNull String reason) {
+            webSocket.close(1000, null);
+            if (!detach(webSocket)) return;
+            failAll(new IOException("mux physical closing: " + code + " " + reason), null);
+        }
+
+        @Override public void onClosed(@NonNull WebSocket webSocket, int code, @NonNull String reason) {
+            if (!detach(webSocket)) return;
+            failAll(new IOException("mux physical closed: " + code + " " + reason), null);
+        }
+
+        @Override public void onFailure(@NonNull WebSocket webSocket, @NonNull Throwable t, @Nullable Response response) {
+            if (!detach(webSocket)) return;
+            Log.w(TAG, "physical socket failure: " + t.getMessage());
+            failAll(t, response);
+        }
+
+        private boolean detach(@NonNull WebSocket webSocket) {
+            synchronized (lock) {
+                if (webSocket != physical) return false;
+                physical = null;
+                physicalOpen = false;
+                upgradeResponse = null;
+                return true;
+            }
+        }
+    }
+
+    /** 下行交付后回馈窗口（调度器按半窗合并） */
+    private void grantCredit(@NonNull Channel ch, int consumed) {
+        synchronized (lock) {
+            if (ch.closed) return;
+            int credit = scheduler.onReceived(ch.id, consumed);
+            if (credit > 0) enqueueControlLocked(ch, MuxFrame.FLAG_CREDIT, MuxFrame.creditPayload(credit));
+        }
+    }
+
+    /** 虚拟通道：实现 okhttp3.WebSocket，调用方按普通 WebSocket 使用 */
+    private final class Channel implements WebSocket {
+        final int id;
+        final Request request;
+        final WebSocketListener listener;
+        int nextSendSeq = 0;
+        int expectedRecvSeq = 0;
+        volatile boolean closed = false;
+
+        Channel(int id, Request request, WebSocketListener listener) {
+            this.id = id; this.request = request; this.listener = listener;
+        }
+
+        @NonNull @Override public Request request() { return request; }
+
+        @Override public long queueSize() {
+            synchronized (lock) { return scheduler.queuedBytes(id); }
+        }
+
+        @Override public boolean send(@NonNull String text) {
+            byte[] b = text.getBytes(StandardCharsets.UTF_8);
+            return sendFrame(MuxFrame.FLAG_TEXT, b);
+        }
+
+        @Override public boolean send(@NonNull ByteString bytes) {
+            return sendFrame(0, bytes.toByteArray());
+        }
+
+        private boolean sendFrame(int flags, @NonNull byte[] b) {
+            synchronized (lock) {
+                if (closed) return false;
+                if (!scheduler.enqueueData(id, MuxFrame.encode(id, flags, nextSendSeq++, b, 0, b.length), b.length)) return false;
+                lock.notifyAll();
+                return true;
+            }
+        }
+
+        @Override public boolean close(int code, @Nullable String reason) {
+            byte[] payload = MuxFrame.closePayload(code, reason);
+            synchronized (lock) {
+                if (closed) return false;
+                closed = true;
+                // 已排队的数据先发出，再发送 CLOSE；网关回 CLOSE 后触发 onClosed
+                scheduler.enqueueData(id, MuxFrame.encode(id, MuxFrame.FLAG_CLOSE, nextSendSeq++, payload, 0, payload.length), 0);
+                lock.notifyAll();
+            }
+            return true;
+        }
+
+        @Override public void cancel() {
+            boolean wasOpen;
+            synchronized (lock) {
+                wasOpen = channels.remove(id) != null;
+                scheduler.removeChannel(id);
+                closed = true;
+                if (wasOpen) enqueueControlLocked(this, MuxFrame.FLAG_CLOSE, MuxFrame.closePayload(1001, null));
+            }
+            if (wasOpen) {
+                try { listener.onFailure(this, new IOException("Canceled"), null); } catch (Exception ignored) {}
+            }
+        }
+    }
+}
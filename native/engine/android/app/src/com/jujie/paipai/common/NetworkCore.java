@@ -0,0 +1,226 @@
+package com.jujie.paipai.common;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Dns;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 进程级网络核心：所有子系统（聊天、ASR、TTS、FSR、日志、视频上传）共用一个基础 OkHttpClient。
+ * - 各子系统通过 {@link #newBuilder()} 派生自己的超时/心跳配置，连接池、Dispatcher 线程池与 TLS 会话缓存保持共享，
+ *   从而跨功能复用 TLS 会话恢复与 HTTP/2 连接。
+ * - 每次请求（含 WebSocket 握手）记录 DNS / TCP 建连 / TLS / 首字节(TTFB) 耗时，交给 {@link TimingSink} 上报。
+ *   OkHttp 对 newWebSocket 强制使用 EventListener.NONE，因此不用 EventListener，而是在所有派生客户端都会保留的
+ *   拦截器、Dns 与 SocketFactory 上计时：一次调用的建连与拦截器链在同一线程上同步执行，按线程归属到当前调用。
+ */
+public final class NetworkCore {
+
+    private static final String TAG = "NetworkCore";
+
+    // WebSocket 的读循环会一直占用 Dispatcher 的一个名额，多个长连接指向同一主机时默认 5 个/主机不够用
+    private static final int MAX_REQUESTS = 64;
+    private static final int MAX_REQUESTS_PER_HOST = 16;
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static volatile OkHttpClient base;
+    private static volatile @Nullable TimingSink timingSink;
+
+    /** 单次调用的分段耗时（JSON，type=net，字段见 {@link CallTiming#toJson}） */
+    public interface TimingSink {
+        void onCallTiming(@NonNull JSONObject timing);
+    }
+
+    /** 设置耗时上报目标（如转发给脚本层的指标通道）；null 时只写 logcat */
+    public static void setTimingSink(@Nullable TimingSink sink) {
+        timingSink = sink;
+    }
+
+    private NetworkCore() {}
+
+    /** 共享的基础客户端（默认超时）；可直接用于普通 HTTP 请求 */
+    @NonNull
+    public static OkHttpClient client() {
+        OkHttpClient c = base;
+        if (c == null) {
+            synchronized (NetworkCore.class) {
+                c = base;
+                if (c == null) {
+                    c = buildBase();
+                    base = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    /** 派生构建器：共享连接池 / Dispatcher / TLS 会话缓存，仅按需覆盖超时、心跳等参数 */
+    @NonNull
+    public static OkHttpClient.Builder newBuilder() {
+        return client().newBuilder();
+    }
+
+    private static OkHttpClient buildBase() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(10, TimeUnit.SECONDS)
+                .writeTimeout(10, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .dns(new TimedDns())
+                .socketFactory(new TimedSocketFactory())
+                .addInterceptor(NetworkCore::timeCall)
+                .build();
+    }
+
+    private static final ThreadLocal<CallTiming> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 单次调用的分段计时。复用已有连接时 DNS/建连/TLS 不会发生，对应字段记为 -1。
+     * WebSocket 的 ttfb 为升级请求发出到收到 101 的耗时，total 为调用开始到握手完成。
+     */
+    static final class CallTiming {
+        final long startNs = System.nanoTime();
+        long dnsMs = -1;
+        long connectMs = -1;
+        long connectEndAtMs = 0; // 墙钟，与 Response#sentRequestAtMillis 同一时基
+
+        @NonNull
+        JSONObject toJson(@NonNull Request request, @Nullable Response response, @Nullable String error) {
+            JSONObject o = new JSONObject();
+            try {
+                o.put("type", "net");
+                o.put("host", request.url().host());
+                o.put("kind", isWebSocket(request) ? "ws" : "http");
+                o.put("status", response != null ? response.code() : -1);
+                o.put("totalMs", ms(startNs));
+                o.put("dnsMs", dnsMs);
+                o.put("connectMs", connectMs);
+                // TLS 握手位于 TCP 建连完成与请求头写出之间
+                boolean tls = response != null && request.isHttps() && connectEndAtMs != 0;
+                o.put("tlsMs", tls ? Math.max(0, response.sentRequestAtMillis() - connectEndAtMs) : -1);
+                o.put("ttfbMs", response != null ? response.receivedResponseAtMillis() - response.sentRequestAtMillis() : -1);
+                o.put("reused", connectMs < 0);
+                if (error != null) o.put("error", error);
+            } catch (Exception ignored) {}
+            return o;
+        }
+    }
+
+    private static long ms(long fromNs) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - fromNs);
+    }
+
+    private static boolean isWebSocket(@NonNull Request request) {
+        return "websocket".equalsIgnoreCase(request.header("Upgrade"));
+    }
+
+    // 应用拦截器：WebSocket 调用不经过网络拦截器，只有应用拦截器对两类调用都生效；
+    // proceed 返回时连接（含 TLS）已建立、响应头（WebSocket 为 101）已到
+    @NonNull
+    private static Response timeCall(@NonNull Interceptor.Chain chain) throws IOException {
+        CallTiming t = new CallTiming();
+        CallTiming outer = CURRENT.get();
+        CURRENT.set(t);
+        try {
+            Response response = chain.proceed(chain.request());
+            report(t.toJson(chain.request(), response, null));
+            return response;
+        } catch (IOException e) {
+            report(t.toJson(chain.request(), null, String.valueOf(e.getMessage())));
+            throw e;
+        } finally {
+            if (outer != null) CURRENT.set(outer); else CURRENT.remove();
+        }
+    }
+
+    private static void report(@NonNull JSONObject timing) {
+        Log.d(TAG, timing.toString());
+        TimingSink sink = timingSink;
+        if (sink == null) return;
+        try { sink.onCallTiming(timing); } catch (Exception ignored) {}
+    }
+
+    private static final class TimedDns implements Dns {
+        @NonNull
+        @Override
+        public List<InetAddress> lookup(@NonNull String hostname) throws UnknownHostException {
+            long start = System.nanoTime();
+            try {
+                return Dns.SYSTEM.lookup(hostname);
+            } finally {
+                CallTiming t = CURRENT.get();
+                if (t != null) t.dnsMs = ms(start);
+            }
+        }
+    }
+
+    /** 只计 TCP 建连；TLS 握手在其上由 SSLSocketFactory 包装完成，耗时由请求头写出时刻反推 */
+    private static final class TimedSocketFactory extends SocketFactory {
+        @Override public Socket createSocket() { return new TimedSocket(); }
+
+        @Override public Socket createSocket(String host, int port) throws IOException {
+            Socket s = new TimedSocket();
+            s.connect(new InetSocketAddress(host, port));
+            return s;
+        }
+
+        @Override public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            Socket s = new TimedSocket();
+            s.bind(new InetSocketAddress(localHost, localPort));
+            s.connect(new InetSocketAddress(host, port));
+            return s;
+        }
+
+        @Override public Socket createSocket(InetAddress host, int port) throws IOException {
+            Socket s = new TimedSocket();
+            s.connect(new InetSocketAddress(host, port));
+            return s;
+        }
+
+        @Override public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            Socket s = new TimedSocket();
+            s.bind(new InetSocketAddress(localAddress, localPort));
+            s.connect(new InetSocketAddress(address, port));
+            return s;
+        }
+    }
+
+    private static final class TimedSocket extends Socket {
+        @Override
+        public void connect(SocketAddress endpoint, int timeout) throws IOException {
+            long start = System.nanoTime();
+            super.connect(endpoint, timeout);
+            CallTiming t = CURRENT.get();
+            if (t != null) {
+                t.connectMs = ms(start);
+                t.connectEndAtMs = System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.jujie.paipai.common;
+
+import android.os.Build;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+
+import com.jujie.paipai.chat.core.ChatProtocolEngine;
+
+/**
+ * systrace / Perfetto 埋点封装：同步分段、异步轨道与计数器轨道。
+ * - {@link #ENABLED} 为编译期开关，置 false 后所有方法体为常量分支，R8 直接移除；
+ * - 运行期仅在 API 29+ 且正在抓取 trace（Trace.isEnabled）时记录，其余情况为空操作。
+ * 分段名带动态部分时请用 {@link #begin(String, String)}，未抓取时不做字符串拼接。
+ * 抓取：perfetto 勾选 atrace app 为本应用（release 包需 profileable），离线分析见 tools/trace_stages.py。
+ */
+public final class PerfTrace {
+
+    public static final boolean ENABLED = true;
+
+    // atrace 分段名上限 127 字符
+    private static final int MAX_NAME_LENGTH = 127;
+
+    private PerfTrace() {}
+
+    public static boolean isEnabled() {
+        return ENABLED && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && Trace.isEnabled();
+    }
+
+    /** 开始同步分段；返回是否实际开始，调用方据此决定是否 {@link #end()} */
+    public static boolean begin(@NonNull String name) {
+        if (!isEnabled()) return false;
+        Trace.beginSection(clip(name));
+        return true;
+    }
+
+    public static boolean begin(@NonNull String prefix, @NonNull String detail) {
+        if (!isEnabled()) return false;
+        Trace.beginSection(clip(prefix + " " + detail));
+        return true;
+    }
+
+    public static void end() {
+        if (ENABLED && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) Trace.endSection();
+    }
+
+    /** 异步轨道：可跨线程起止，同名同 cookie 配对 */
+    public static void beginAsync(@NonNull String name, int cookie) {
+        if (!isEnabled()) return;
+        Trace.beginAsyncSection(clip(name), cookie);
+    }
+
+    public static void endAsync(@NonNull String name, int cookie) {
+        if (!isEnabled()) return;
+        Trace.endAsyncSection(clip(name), cookie);
+    }
+
+    /** 计数器轨道（队列深度、待发字节数等） */
+    public static void counter(@NonNull String name, long value) {
+        if (!isEnabled()) return;
+        Trace.setCounter(clip(name), value);
+    }
+
+    /** 供纯 Java 的协议引擎使用的适配 */
+    @NonNull
+    public static ChatProtocolEngine.Tracer engineTracer() {
+        return new ChatProtocolEngine.Tracer() {
+            @Override public boolean isEnabled() { return PerfTrace.isEnabled(); }
+            @Override public void beginSection(@NonNull String name) { Trace.beginSection(clip(name)); }
+            @Override public void endSection() { PerfTrace.end(); }
+            @Override public void setCounter(@NonNull String name, long value) { PerfTrace.counter(name, value); }
+        };
+    }
+
+    @NonNull
+    private static String clip(@NonNull String name) {
+        return name.length() <= MAX_NAME_LENGTH ? name : name.substring(0, MAX_NAME_LENGTH);
+    }
+}
@@ -31,6 +31,7 @@ import androidx.camera.view.PreviewView;
 import androidx.core.content.ContextCompat;
 import androidx.lifecycle.LifecycleOwner;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.jujie.paipai.common.PerfTrace;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -205,8 +206,12 @@ public class CameraXManager {
     }
 
     private void startCamera() {
+        // 异步轨道覆盖获取 CameraProvider 到绑定完成的全程
+        final int traceCookie = System.identityHashCode(this);
+        PerfTrace.beginAsync("camera.start", traceCookie);
         ListenableFuture<ProcessCameraProvider> cameraProviderFuture = ProcessCameraProvider.getInstance(activity);
         cameraProviderFuture.addListener(() -> {
+            boolean traced = PerfTrace.begin("camera.bind");
             try {
                 cameraProvider = cameraProviderFuture.get();
 
@@ -244,6 +249,9 @@ public class CameraXManager {
                 
             } catch (Exception e) {
                 Log.e(TAG, "启动相机失败", e);
+            } finally {
+                if (traced) PerfTrace.end();
+                PerfTrace.endAsync("camera.start", traceCookie);
             }
         }, ContextCompat.getMainExecutor(activity));
     }
@@ -11,6 +11,8 @@ import android.widget.FrameLayout;
 import android.view.Gravity;
 import android.widget.ImageView;
 
+import com.jujie.paipai.common.PerfTrace;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -270,6 +272,7 @@ public class ImageLayerManager {
         AssetManager assetManager = context.getAssets();
         InputStream is = null;
         Bitmap bitmap = null;
+        boolean traced = PerfTrace.begin("image.load", path);
         try {
             Log.d(TAG, "try open asset: " + path);
             is = assetManager.open(path);
@@ -286,6 +289,7 @@ public class ImageLayerManager {
                     Log.e(TAG, "Error closing input stream", e);
                 }
             }
+            if (traced) PerfTrace.end();
         }
     }
 }
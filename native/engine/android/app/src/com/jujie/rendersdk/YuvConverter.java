@@ -0,0 +1,40 @@
+package com.jujie.rendersdk;
+
+/**
+ * RGBA → YUV420 平面格式（I420）转换，纯 Java 实现，不依赖 Android，可在 JVM 上做基准测试。
+ */
+public final class YuvConverter {
+
+    private YuvConverter() {}
+
+    public static byte[] rgbaToYuv420(byte[] rgba, int width, int height) {
+        int frameSize = width * height;
+        byte[] yuv = new byte[frameSize * 3 / 2];
+
+        int yIndex = 0;
+        int uIndex = frameSize;
+        int vIndex = frameSize + frameSize/4;
+
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                int rgbaIndex = (j * width + i) * 4;
+                int r = rgba[rgbaIndex] & 0xff;
+                int g = rgba[rgbaIndex + 1] & 0xff;
+                int b = rgba[rgbaIndex + 2] & 0xff;
+
+                // RGB to Y
+                int y = ((66 * r + 129 * g + 25 * b + 128) >> 8) + 16;
+                yuv[yIndex++] = (byte) (y < 0 ? 0 : (y > 255 ? 255 : y));
+
+                // RGB to U,V (每2x2像素采样一次)
+                if (j % 2 == 0 && i % 2 == 0) {
+                    int u = ((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128;
+                    int v = ((112 * r - 94 * g - 18 * b + 128) >> 8) + 128;
+                    yuv[uIndex++] = (byte) (u < 0 ? 0 : (u > 255 ? 255 : u));
+                    yuv[vIndex++] = (byte) (v < 0 ? 0 : (v > 255 ? 255 : v));
+                }
+            }
+        }
+        return yuv;
+    }
+}
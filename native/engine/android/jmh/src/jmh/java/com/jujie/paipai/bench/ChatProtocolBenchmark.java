@@ -0,0 +1,128 @@
+package com.jujie.paipai.bench;
+
+import com.jujie.paipai.chat.core.ChatProtocolEngine;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 语音聊天协议热点（voicechat-core）：TTS 块合并、歌曲块处理、下行 JSON 解码与整轮回放。
+ * 播放器为空实现：入队即视为播完并回调段开始/结束，以覆盖随播文本路径。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChatProtocolBenchmark {
+
+    private static final int SONG_ID = 7;
+
+    @Param({"false", "true"})
+    public boolean framed;
+
+    private List<Object> traffic;
+    private List<String> textFrames;
+    private List<byte[]> ttsChunks;
+    private List<byte[]> songChunks;
+    private ChatProtocolEngine engine;
+    private long enqueuedBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        traffic = Fixtures.chatTraffic(20, framed);
+        textFrames = new ArrayList<>();
+        for (Object f : traffic) if (f instanceof String) textFrames.add((String) f);
+        // 一段 TTS：约 3 秒 MP3 的到达块数
+        ttsChunks = new ArrayList<>(Fixtures.songChunks(0, 24, 2048));
+        // 约 2.4MB 歌曲流，跨过一次 2MB 合并阈值
+        songChunks = Fixtures.songChunks(SONG_ID, 600, 4096);
+        engine = newEngine();
+    }
+
+    @Benchmark
+    public byte[] mergeTtsChunks() {
+        return ChatProtocolEngine.merge(ttsChunks);
+    }
+
+    @Benchmark
+    public long songChunkHandling() {
+        enqueuedBytes = 0;
+        engine.stopSongPlayback(true);
+        engine.startSong(SONG_ID, "bench");
+        for (byte[] chunk : songChunks) engine.handleBinary(chunk);
+        engine.handleText("{\"type\":\"song_end\",\"songId\":" + SONG_ID + "}");
+        return enqueuedBytes;
+    }
+
+    @Benchmark
+    public int decodeJson() throws Exception {
+        int n = 0;
+        for (String text : textFrames) {
+            JSONObject obj = new JSONObject(text);
+            n += obj.optString("type").length() + obj.optString("responseId").length();
+        }
+        return n;
+    }
+
+    @Benchmark
+    public long replayTurns() {
+        enqueuedBytes = 0;
+        engine.stopSongPlayback(true);
+        engine.resetConversation();
+        for (Object frame : traffic) {
+            if (frame instanceof String) engine.handleText((String) frame);
+            else engine.handleBinary((byte[]) frame);
+        }
+        return enqueuedBytes;
+    }
+
+    private ChatProtocolEngine newEngine() {
+        final ChatProtocolEngine[] holder = new ChatProtocolEngine[1];
+        holder[0] = new ChatProtocolEngine(new ChatProtocolEngine.Clock() {
+            @Override public long nowMs() { return System.nanoTime() / 1_000_000; }
+            @Override public void postDelayed(Runnable task, long delayMs) {}
+            @Override public void removeCallbacks(Runnable task) {}
+        }, new ChatProtocolEngine.Transport() {
+            @Override public void sendControl(String json, String coalesceKey, long ttlMs) {}
+            @Override public long getSmoothedRttMs() { return 80; }
+            @Override public long getDownlinkKbps() { return 512; }
+            @Override public void resetDownlinkEstimate() {}
+        }, new ChatProtocolEngine.Player() {
+            @Override public void enqueue(String requestId, int sequence, byte[] audio, String textDelta,
+                                          boolean isFinalSegment, String mimeType) {
+                enqueuedBytes += audio.length;
+                holder[0].onSegmentStart(requestId, sequence, textDelta);
+                holder[0].onSegmentEnd(requestId, sequence, isFinalSegment, false);
+            }
+            @Override public void cancelForResponse(String responseId) {}
+            @Override public void clear() {}
+            @Override public void pause() {}
+            @Override public void resume() {}
+        }, new ChatProtocolEngine.Listener() {
+            @Override public void onLog(String line) {}
+            @Override public void onServerReady() {}
+            @Override public void onCharacterSwitchAck(int characterId) {}
+            @Override public void onCharacterSwitchRejected(String reason) {}
+            @Override public void onLimitExceeded() {}
+            @Override public void onUserTranscript(String text) {}
+            @Override public void onAssistantDelta(String text) {}
+            @Override public void onAssistantFinal(String text) {}
+            @Override public void onFirstAudioLatency(long millis) {}
+            @Override public void onTextFirstModeChanged(boolean enabled) {}
+            @Override public void onSongEnd(int id, String name) {}
+            @Override public void onTurnMetrics(JSONObject metrics) {}
+        });
+        return holder[0];
+    }
+}
@@ -0,0 +1,48 @@
+package com.jujie.paipai.bench;
+
+import com.jujie.paipai.chat.RecentSendFilter;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CocosChatListener.sendToCocos 的去重：payload 序列化 + 去重键查找。
+ * distinct 对应流式增量（每条不同，去重表持续增长），repeated 对应多路径重复回调。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CocosSendFilterBenchmark {
+
+    private RecentSendFilter filter;
+    private long counter;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        filter = new RecentSendFilter(1000, 300);
+        counter = 0;
+    }
+
+    @Benchmark
+    public int distinct() throws Exception {
+        long n = ++counter;
+        JSONObject payload = new JSONObject().put("text", "从前有一座山，山里有一座庙。" + n);
+        return filter.check("CHAT:ASSISTANT_DELTA", payload.toString(), n);
+    }
+
+    @Benchmark
+    public int repeated() throws Exception {
+        long n = ++counter;
+        JSONObject payload = new JSONObject().put("text", "从前有一座山，山里有一座庙。");
+        return filter.check("CHAT:ASSISTANT_DELTA", payload.toString(), n);
+    }
+}
@@ -0,0 +1,185 @@
+package com.jujie.paipai.bench;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 基准输入：默认用固定种子合成接近真实的数据；
+ * 指定 -Dbench.recording（SessionRecorder 录制的 .rec）或 -Dbench.logcat（logcat -v time 转储）时改用真实数据。
+ */
+final class Fixtures {
+
+    static final long SEED = 20240601L;
+    static final int PID = 11720;
+
+    private Fixtures() {}
+
+    /** 模拟摄像头画面：横向渐变叠加噪声，避免全零/全同值让分支预测失真 */
+    static byte[] rgbaFrame(int width, int height) {
+        Random random = new Random(SEED);
+        byte[] rgba = new byte[width * height * 4];
+        int p = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(32);
+                rgba[p++] = (byte) ((x * 255 / width + noise) & 0xFF);
+                rgba[p++] = (byte) ((y * 255 / height + noise) & 0xFF);
+                rgba[p++] = (byte) (((x + y) * 255 / (width + height)) & 0xFF);
+                rgba[p++] = (byte) 0xFF;
+            }
+        }
+        return rgba;
+    }
+
+    /** 16kHz 单声道 PCM16：正弦叠加噪声 */
+    static byte[] pcm16(int seconds) {
+        Random random = new Random(SEED);
+        int samples = 16000 * seconds;
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            int v = (int) (8000 * Math.sin(2 * Math.PI * 220 * i / 16000.0)) + random.nextInt(512) - 256;
+            pcm[2 * i] = (byte) v;
+            pcm[2 * i + 1] = (byte) (v >> 8);
+        }
+        return pcm;
+    }
+
+    /** logcat -v time 格式的转储；合成数据中约 70% 为本进程 Cocos 日志，其余为他进程、他 tag 与续行 */
+    static List<String> logcatDump(int lines) throws IOException {
+        String path = System.getProperty("bench.logcat");
+        if (path != null) return Files.readAllLines(new File(path).toPath(), StandardCharsets.UTF_8);
+        Random random = new Random(SEED);
+        String[] levels = {"D", "I", "W", "E"};
+        String[] messages = {
+                "JS: socket connected",
+                "JS: [chat] CHAT:ASSISTANT_DELTA {\"text\":\"今天天气不错，我们去公园散步吧。\"}",
+                "JS: scene loaded in 183ms, nodes=412, drawcalls=37",
+                "JS: audio route changed speaker=false bluetooth=true",
+                "JS: [net] request /api/v1/character/list cost=241ms status=200",
+        };
+        List<String> out = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            int kind = random.nextInt(10);
+            String ts = String.format(Locale.ROOT, "06-01 13:%02d:%02d.%03d", (i / 600) % 60, (i / 10) % 60, i % 1000);
+            String level = levels[random.nextInt(levels.length)];
+            String msg = messages[random.nextInt(messages.length)];
+            if (kind < 7) {
+                out.add(ts + " " + level + "/Cocos   (" + PID + "): 13:51:34 [DEBUG]: " + msg);
+            } else if (kind == 7) {
+                out.add(ts + " " + level + "/Cocos   (" + (PID + 1) + "): " + msg);
+            } else if (kind == 8) {
+                out.add(ts + " " + level + "/chromium(" + PID + "): [INFO:CONSOLE(1)] " + msg);
+            } else {
+                out.add("    at cc.Node._updateWorldMatrix (cocos2d-js-min.js:1:" + random.nextInt(99999) + ")");
+            }
+        }
+        return out;
+    }
+
+    /** 下行帧：String 为文本帧，byte[] 为二进制帧 */
+    static List<Object> chatTraffic(int turns, boolean framed) throws IOException {
+        String path = System.getProperty("bench.recording");
+        if (path != null) return readRecording(new File(path));
+        Random random = new Random(SEED);
+        List<Object> frames = new ArrayList<>();
+        frames.add(framed ? "{\"type\":\"ready\",\"audioFrameVersion\":1}" : "{\"type\":\"ready\"}");
+        for (int t = 0; t < turns; t++) {
+            String rid = "s1-r" + t;
+            frames.add("{\"type\":\"transcript\",\"responseId\":\"" + rid + "\",\"text\":\"给我讲个故事吧\",\"final\":true}");
+            frames.add("{\"type\":\"llm_request\",\"responseId\":\"" + rid + "\",\"text\":\"给我讲个故事吧\"}");
+            int segments = 3;
+            for (int s = 0; s < segments; s++) {
+                frames.add("{\"type\":\"llm_delta\",\"responseId\":\"" + rid + "\",\"content\":\"从前有一座山，山里有一座庙。\"}");
+            }
+            for (int s = 0; s < segments; s++) {
+                boolean last = s == segments - 1;
+                frames.add("{\"type\":\"tts_start\",\"responseId\":\"" + rid + "\",\"sequence\":" + s
+                        + ",\"isFinal\":" + last + ",\"text\":\"从前有一座山，山里有一座庙。\"}");
+                int chunks = 8;
+                for (int c = 0; c < chunks; c++) {
+                    byte[] body = new byte[2048];
+                    random.nextBytes(body);
+                    frames.add(framed ? framedTts(rid, s, c, c == chunks - 1, body) : body);
+                }
+                frames.add("{\"type\":\"tts_end\",\"responseId\":\"" + rid + "\",\"sequence\":" + s
+                        + ",\"reason\":\"completed\",\"isFinal\":" + last + "}");
+            }
+            frames.add("{\"type\":\"llm_complete\",\"responseId\":\"" + rid + "\"}");
+        }
+        return frames;
+    }
+
+    /** 带 2 字节 songId 头的歌曲块（旧格式） */
+    static List<byte[]> songChunks(int songId, int count, int bytes) {
+        Random random = new Random(SEED);
+        List<byte[]> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] chunk = new byte[2 + bytes];
+            random.nextBytes(chunk);
+            chunk[0] = (byte) (songId >> 8);
+            chunk[1] = (byte) songId;
+            out.add(chunk);
+        }
+        return out;
+    }
+
+    private static byte[] framedTts(String responseId, int segment, int chunk, boolean last, byte[] body) {
+        byte[] frame = new byte[16 + body.length];
+        frame[0] = (byte) 0xAF; frame[1] = 1; frame[2] = 16; frame[3] = 1;
+        frame[4] = (byte) (last ? 1 : 0);
+        putInt(frame, 6, com.jujie.paipai.chat.core.AudioFrameHeader.streamIdOf(responseId));
+        frame[10] = (byte) (segment >> 8); frame[11] = (byte) segment;
+        putInt(frame, 12, chunk);
+        System.arraycopy(body, 0, frame, 16, body.length);
+        return frame;
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24); b[off + 1] = (byte) (v >>> 16); b[off + 2] = (byte) (v >>> 8); b[off + 3] = (byte) v;
+    }
+
+    // SessionRecorder 格式："PPSR" + 版本，之后每条为 kind、varint 时间差(µs)、varint 长度、负载；仅取下行帧
+    private static List<Object> readRecording(File file) throws IOException {
+        List<Object> frames = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] magic = new byte[4];
+            in.readFully(magic);
+            if (!"PPSR".equals(new String(magic, StandardCharsets.US_ASCII))) throw new IOException("not a session recording: " + file);
+            in.readUnsignedByte();
+            while (true) {
+                int kind = in.read();
+                if (kind < 0) break;
+                readVarint(in);
+                byte[] payload = new byte[(int) readVarint(in)];
+                in.readFully(payload);
+                if (kind == 2) frames.add(new String(payload, StandardCharsets.UTF_8));
+                else if (kind == 3) frames.add(payload);
+            }
+        } catch (EOFException ignored) {
+            // 录制被截断时使用已读部分
+        }
+        return frames;
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long v = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+            shift += 7;
+            if (shift > 63) throw new IOException("bad varint");
+        }
+    }
+}
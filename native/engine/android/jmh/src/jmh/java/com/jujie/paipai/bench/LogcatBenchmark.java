@@ -0,0 +1,49 @@
+package com.jujie.paipai.bench;
+
+import com.cocos.game.LogcatLines;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** LogcatCapture 逐行路径：extractLogDetails 解析 + enqueueLog 构造上报条目，按 1000 行转储计 */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LogcatBenchmark {
+
+    private List<String> lines;
+
+    @Setup
+    public void setup() throws IOException {
+        lines = Fixtures.logcatDump(1000);
+    }
+
+    @Benchmark
+    public void extractLogDetails(Blackhole bh) {
+        for (String line : lines) bh.consume(LogcatLines.extractLogDetails(line, Fixtures.PID));
+    }
+
+    @Benchmark
+    public void extractAndEnqueue(Blackhole bh) {
+        String lastLevel = "I";
+        for (String line : lines) {
+            String[] details = LogcatLines.extractLogDetails(line, Fixtures.PID);
+            if (details != null) {
+                lastLevel = details[0];
+                bh.consume(LogcatLines.buildEntry(details[0], details[1], "1.4.0", "Xiaomi", "M2012K11AC", "MP001", "ORG01", "tester"));
+            } else if (line.trim().length() > 0) {
+                bh.consume(LogcatLines.buildEntry(lastLevel, line.trim(), "1.4.0", "Xiaomi", "M2012K11AC", "MP001", "ORG01", "tester"));
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.jujie.paipai.bench;
+
+import com.jujie.audiosdk.WavEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/** FSRManager.createWavFile：一句录音结束时把整段 PCM 封装为 WAV 上传 */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WavBenchmark {
+
+    @Param({"5", "30"})
+    public int seconds;
+
+    private byte[] pcm;
+
+    @Setup
+    public void setup() {
+        pcm = Fixtures.pcm16(seconds);
+    }
+
+    @Benchmark
+    public byte[] createWavFile() {
+        return WavEncoder.encode(pcm, 16000, 1, 16);
+    }
+}
@@ -0,0 +1,41 @@
+package com.jujie.paipai.bench;
+
+import com.jujie.rendersdk.YuvConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/** GLUtils.rgbaToYuv420：每帧一次，1080p 下为推流路径的主要 CPU 开销 */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class YuvBenchmark {
+
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    private byte[] rgba;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setup() {
+        String[] wh = resolution.split("x");
+        width = Integer.parseInt(wh[0]);
+        height = Integer.parseInt(wh[1]);
+        rgba = Fixtures.rgbaFrame(width, height);
+    }
+
+    @Benchmark
+    public byte[] rgbaToYuv420() {
+        return YuvConverter.rgbaToYuv420(rgba, width, height);
+    }
+}
@@ -0,0 +1,274 @@
+package com.jujie.paipai.soak;
+
+import com.jujie.paipai.chat.core.ChatProtocolEngine;
+import com.jujie.paipai.chat.core.NetworkShaper;
+
+import org.json.JSONObject;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * 模拟客户端：与 App 的 VoiceChatClient 一样，由真实的 {@link ChatProtocolEngine} 解析下行、拼装 TTS、
+ * 管理回复生命周期与音质档位，经 {@link SoakTransport} 收发、由 {@link SoakPlayer} 按时长“播放”。
+ * 按 voice-chat 协议循环「说一句 → 等回复播完」，定期点歌，并每隔若干轮断开重连，
+ * 模拟 CHAT:STOP / CHAT:START 的反复创建：每次新建会话（引擎 + 传输 + 播放器），旧会话释放后应可被回收，
+ * 引擎实例登记弱引用用于统计未回收的会话（泄漏）。连接失败时沿用同一会话重连（对应 App 的自动重连）。
+ * 指定弱网脚本时，每个客户端持有独立的 {@link NetworkShaper}，收发均经其延迟/限速/丢帧，阶段断线时取消连接。
+ */
+final class SoakClient {
+
+    static final Set<WeakReference<ChatProtocolEngine>> liveSessions = ConcurrentHashMap.newKeySet();
+    static final ReferenceQueue<ChatProtocolEngine> collected = new ReferenceQueue<>();
+
+    private static final int MIC_FRAME_BYTES = 640;     // 16kHz * 16bit * 20ms
+    private static final int MIC_FRAMES_PER_UTTERANCE = 50;
+    private static final long MIC_FRAME_INTERVAL_MS = 20;
+    private static final long PAUSE_BETWEEN_TURNS_MS = 500;
+
+    private final int id;
+    private final String url;
+    private final OkHttpClient http;
+    private final ScheduledExecutorService timer;
+    private final SoakHarness.Metrics metrics;
+    private final int turnsPerSession;
+    private final int songEvery;
+    private final NetworkShaper shaper;   // 可为 null：不模拟弱网
+    private final Runnable shaperDisconnect = this::forceDisconnect;
+
+    private volatile boolean running = true;
+    private volatile Session session;
+    private int totalTurns = 0;
+
+    SoakClient(int id, String url, OkHttpClient http, ScheduledExecutorService timer,
+               SoakHarness.Metrics metrics, int turnsPerSession, int songEvery, NetworkShaper shaper) {
+        this.id = id;
+        this.url = url;
+        this.http = http;
+        this.timer = timer;
+        this.metrics = metrics;
+        this.turnsPerSession = turnsPerSession;
+        this.songEvery = songEvery;
+        this.shaper = shaper;
+    }
+
+    void start() {
+        if (shaper != null) {
+            shaper.addDisconnectHook(shaperDisconnect);
+            shaper.start();
+        }
+        newSession();
+    }
+
+    void stop() {
+        running = false;
+        if (shaper != null) shaper.stop();
+        Session s = session;
+        session = null;
+        if (s != null) s.release("soak stop");
+    }
+
+    private synchronized void newSession() {
+        if (!running) return;
+        Session s = new Session();
+        session = s;
+        liveSessions.add(new WeakReference<>(s.engine, collected));
+        metrics.sessions.incrementAndGet();
+        s.transport.connect(url);
+    }
+
+    /** 关闭当前会话并稍后新建，模拟脚本层 STOP/START */
+    private void rotate(Session s, String reason) {
+        synchronized (this) {
+            if (session != s) return;
+            session = null;
+        }
+        s.release(reason);
+        if (running) timer.schedule(this::newSession, PAUSE_BETWEEN_TURNS_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** 弱网脚本要求断线：取消当前连接，走 onFailure -> 重连 */
+    private void forceDisconnect() {
+        Session s = session;
+        if (s != null) s.transport.cancel();
+    }
+
+    /** 引擎用的时钟：单调毫秒 + 共享定时线程，removeCallbacks 取消该任务尚未执行的所有投递 */
+    private final class ExecutorClock implements ChatProtocolEngine.Clock {
+        private final Map<Runnable, List<ScheduledFuture<?>>> pending = new IdentityHashMap<>();
+        private boolean released = false;
+
+        @Override public long nowMs() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        }
+
+        @Override public synchronized void postDelayed(Runnable task, long delayMs) {
+            if (released) return;
+            final ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+            self[0] = timer.schedule(() -> {
+                if (forget(task, self[0])) task.run();
+            }, Math.max(0, delayMs), TimeUnit.MILLISECONDS);
+            List<ScheduledFuture<?>> list = pending.get(task);
+            if (list == null) { list = new ArrayList<>(1); pending.put(task, list); }
+            list.add(self[0]);
+        }
+
+        /** 到期任务出表；已被 removeCallbacks 取走时返回 false */
+        private synchronized boolean forget(Runnable task, ScheduledFuture<?> f) {
+            List<ScheduledFuture<?>> list = pending.get(task);
+            if (list == null || !list.remove(f)) return false;
+            if (list.isEmpty()) pending.remove(task);
+            return true;
+        }
+
+        @Override public synchronized void removeCallbacks(Runnable task) {
+            List<ScheduledFuture<?>> list = pending.remove(task);
+            if (list != null) for (ScheduledFuture<?> f : list) f.cancel(false);
+        }
+
+        synchronized void release() {
+            released = true;
+            for (List<ScheduledFuture<?>> list : pending.values()) for (ScheduledFuture<?> f : list) f.cancel(false);
+            pending.clear();
+        }
+    }
+
+    /** 一次 CHAT:START 到 CHAT:STOP 之间的对象；release 后应整体可回收 */
+    private final class Session implements ChatProtocolEngine.Listener, SoakTransport.Listener {
+        final ExecutorClock clock = new ExecutorClock();
+        final SoakPlayer player = new SoakPlayer();
+        final SoakTransport transport = new SoakTransport(http, timer, shaper, this);
+        final ChatProtocolEngine engine = new ChatProtocolEngine(clock, transport, player, this);
+        private final AtomicLong speechEndNs = new AtomicLong();
+        private volatile boolean firstAudioSeen = false;
+        private int turnsThisSession = 0;
+        private volatile boolean songPending = false;
+
+        Session() {
+            player.bind(engine);
+        }
+
+        void release(String reason) {
+            transport.close(1000, reason);
+            clock.release();
+            player.release();
+            engine.resetConversation();
+        }
+
+        private void speak() {
+            if (session != this || !running) return;
+            // start_asr 走控制消息通道：重连后未 ready 时暂存，ready 后补发
+            transport.sendControl("{\"type\":\"start_asr\"}", "start_asr", 5000);
+            byte[] pcm = new byte[MIC_FRAME_BYTES];
+            for (int i = 0; i < MIC_FRAMES_PER_UTTERANCE; i++) {
+                final boolean last = i == MIC_FRAMES_PER_UTTERANCE - 1;
+                timer.schedule(() -> {
+                    if (session != this) return;
+                    transport.sendBinary(pcm);
+                    if (last) {
+                        firstAudioSeen = false;
+                        speechEndNs.set(System.nanoTime());
+                    }
+                }, i * MIC_FRAME_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void onTurnComplete() {
+            long start = speechEndNs.getAndSet(0);
+            if (start == 0) return;
+            metrics.turn.add((System.nanoTime() - start) / 1_000_000);
+            boolean rotate;
+            boolean song;
+            synchronized (SoakClient.this) {
+                turnsThisSession++;
+                totalTurns++;
+                rotate = turnsPerSession > 0 && turnsThisSession >= turnsPerSession;
+                song = !rotate && songEvery > 0 && totalTurns % songEvery == 0;
+            }
+            if (rotate) {
+                rotate(this, "rotate");
+                return;
+            }
+            if (song) {
+                songPending = true;
+                int songId = id * 100 + totalTurns % 100;
+                timer.execute(() -> { if (session == this) engine.startSong(songId, "soak"); });
+                return;   // 歌曲播完（onSongEnd）后继续对话
+            }
+            timer.schedule(this::speak, PAUSE_BETWEEN_TURNS_MS, TimeUnit.MILLISECONDS);
+        }
+
+        // ====== SoakTransport.Listener ======
+
+        @Override public void onText(String text) {
+            engine.handleText(text);
+        }
+
+        @Override public void onBinary(byte[] bytes) {
+            metrics.downlinkBytes.addAndGet(bytes.length);
+            long start = speechEndNs.get();
+            if (!firstAudioSeen && start != 0 && !songPending) {
+                firstAudioSeen = true;
+                metrics.firstAudio.add((System.nanoTime() - start) / 1_000_000);
+            }
+            engine.handleBinary(bytes);
+        }
+
+        @Override public void onDownlinkEstimate(long kbps, long smoothedRttMs) {
+            engine.onDownlinkEstimate(kbps, smoothedRttMs);
+        }
+
+        @Override public void onFailure(Throwable t) {
+            if (session != this) return;
+            metrics.failures.incrementAndGet();
+            engine.markNotReady();
+            if (running) timer.schedule(() -> { if (session == this) transport.connect(url); }, 1000, TimeUnit.MILLISECONDS);
+        }
+
+        // ====== ChatProtocolEngine.Listener（引擎持锁回调：只投递，不回调引擎） ======
+
+        @Override public void onLog(String line) {
+            if (line.startsWith("解析错误")) metrics.protocolErrors.incrementAndGet();
+        }
+        @Override public void onServerReady() {
+            transport.markReady();
+            timer.execute(this::speak);
+        }
+        @Override public void onCharacterSwitchAck(int characterId) {}
+        @Override public void onCharacterSwitchRejected(String reason) {}
+        @Override public void onLimitExceeded() {
+            timer.execute(() -> rotate(this, "limit"));
+        }
+        @Override public void onUserTranscript(String text) {}
+        @Override public void onAssistantDelta(String text) {}
+        @Override public void onAssistantFinal(String text) {
+            // 最终文本在末段播完时给出，即一轮对话结束
+            timer.execute(this::onTurnComplete);
+        }
+        @Override public void onFirstAudioLatency(long millis) {}
+        @Override public void onTextFirstModeChanged(boolean enabled) {
+            if (enabled) metrics.textFirstEntries.incrementAndGet();
+        }
+        @Override public void onSongEnd(int songId, String name) {
+            timer.execute(() -> {
+                if (session != this) return;
+                songPending = false;
+                engine.switchToChat();
+                speak();
+            });
+        }
+        @Override public void onTurnMetrics(JSONObject metrics) {}
+    }
+}
@@ -0,0 +1,181 @@
+package com.jujie.paipai.soak;
+
+import com.jujie.paipai.chat.core.NetworkShaper;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * 长稳 / 压测入口：启动本地替身服务端（或连接 --url 指定的服务），驱动 N 个模拟客户端运行指定时长，
+ * 每个采样周期输出堆占用、线程数、首包/整轮时延分位与未回收会话数，结束时给出每小时增长趋势。
+ * 客户端由真实的 ChatProtocolEngine 驱动（见 {@link SoakClient}），未回收会话数即未被回收的引擎实例数。
+ *
+ * 参数：--clients N  --minutes M  --interval 秒  --url ws://...  --framed  --turns-per-session K  --song-every S
+ *       --net-profile 弱网脚本.json（格式同 NetworkShaper，每个客户端独立实例）
+ * 退出码：0 正常；1 判定存在增长（线程或未回收会话持续增加 / 堆明显上涨）；2 参数错误；
+ *       3 样本不足无法判定（丢弃前 1/4 预热后少于 8 个采样或不足 5 分钟，需加长 --minutes 或缩短 --interval）
+ */
+public final class SoakHarness {
+
+    /** 一个采样周期内的时延样本，采样后清空 */
+    static final class LatencySamples {
+        private final List<Long> samples = new ArrayList<>();
+
+        synchronized void add(long ms) { samples.add(ms); }
+
+        synchronized String drainSummary() {
+            if (samples.isEmpty()) return "n=0";
+            Collections.sort(samples);
+            String s = String.format(Locale.ROOT, "n=%d p50=%d p95=%d p99=%d max=%d", samples.size(),
+                    pct(0.50), pct(0.95), pct(0.99), samples.get(samples.size() - 1));
+            samples.clear();
+            return s;
+        }
+
+        private long pct(double p) {
+            int idx = (int) Math.ceil(p * samples.size()) - 1;
+            return samples.get(Math.max(0, Math.min(idx, samples.size() - 1)));
+        }
+    }
+
+    static final class Metrics {
+        final LatencySamples firstAudio = new LatencySamples();
+        final LatencySamples turn = new LatencySamples();
+        final AtomicLong sessions = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong downlinkBytes = new AtomicLong();
+        final AtomicLong protocolErrors = new AtomicLong();
+        final AtomicLong textFirstEntries = new AtomicLong();
+    }
+
+    private static final double MAX_HEAP_MB_PER_HOUR = 8;
+    private static final double MAX_THREADS_PER_HOUR = 1;
+    private static final double MAX_LIVE_SESSIONS_PER_HOUR = 5;
+    // 趋势判定至少需要的预热后样本数与时间跨度；不足时只输出趋势、结论为 INCONCLUSIVE
+    private static final int MIN_STEADY_SAMPLES = 8;
+    private static final double MIN_STEADY_HOURS = 5 / 60.0;
+
+    public static void main(String[] args) throws Exception {
+        int clients = 10;
+        double minutes = 10;
+        long intervalSec = 30;
+        String url = null;
+        boolean framed = false;
+        int turnsPerSession = 20;
+        int songEvery = 10;
+        String netProfile = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--clients": clients = Integer.parseInt(args[++i]); break;
+                case "--minutes": minutes = Double.parseDouble(args[++i]); break;
+                case "--interval": intervalSec = Long.parseLong(args[++i]); break;
+                case "--url": url = args[++i]; break;
+                case "--framed": framed = true; break;
+                case "--turns-per-session": turnsPerSession = Integer.parseInt(args[++i]); break;
+                case "--song-every": songEvery = Integer.parseInt(args[++i]); break;
+                case "--net-profile": netProfile = new String(Files.readAllBytes(Paths.get(args[++i])), StandardCharsets.UTF_8); break;
+                default: System.err.println("unknown arg: " + args[i]); System.exit(2);
+            }
+        }
+
+        StandInVoiceChatServer server = null;
+        if (url == null) {
+            server = new StandInVoiceChatServer(new StandInVoiceChatServer.Config());
+            server.start();
+            url = server.url();
+        }
+        if (framed) url += "&audioFrame=1";
+        System.out.println("soak: clients=" + clients + " minutes=" + minutes + " url=" + url
+                + (netProfile != null ? " netProfile=on" : ""));
+
+        OkHttpClient http = new OkHttpClient.Builder()
+                .pingInterval(15, TimeUnit.SECONDS)
+                .build();
+        http.dispatcher().setMaxRequestsPerHost(Math.max(5, clients * 2));
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(2, r -> {
+            Thread t = new Thread(r, "soak-client-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        // 引擎的延时任务（如 20s 复测）被取消后立即出队，否则已释放的会话要等到期才可回收，误计为未回收
+        timer.setRemoveOnCancelPolicy(true);
+        Metrics metrics = new Metrics();
+        List<SoakClient> all = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            NetworkShaper shaper = netProfile != null ? NetworkShaper.fromJson(netProfile) : null;
+            SoakClient c = new SoakClient(i, url, http, timer, metrics, turnsPerSession, songEvery, shaper);
+            all.add(c);
+            c.start();
+        }
+
+        List<double[]> trend = new ArrayList<>();   // {小时, 堆MB, 线程数, 未回收会话}
+        long startNs = System.nanoTime();
+        long endNs = startNs + (long) (minutes * 60_000_000_000L);
+        while (System.nanoTime() < endNs) {
+            Thread.sleep(intervalSec * 1000);
+            System.gc();
+            Reference<?> r;
+            while ((r = SoakClient.collected.poll()) != null) SoakClient.liveSessions.remove(r);
+            Runtime rt = Runtime.getRuntime();
+            double heapMb = (rt.totalMemory() - rt.freeMemory()) / (1024.0 * 1024.0);
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            int live = SoakClient.liveSessions.size();
+            double hours = (System.nanoTime() - startNs) / 3_600_000_000_000.0;
+            trend.add(new double[]{hours, heapMb, threads, live});
+            System.out.println(String.format(Locale.ROOT,
+                    "[%6.2fh] heap=%.1fMB threads=%d liveSessions=%d/%d sessions=%d failures=%d parseErrors=%d textFirst=%d down=%dKB turns=%d | firstAudio %s | turn %s",
+                    hours, heapMb, threads, live, clients, metrics.sessions.get(), metrics.failures.get(),
+                    metrics.protocolErrors.get(), metrics.textFirstEntries.get(),
+                    metrics.downlinkBytes.get() / 1024, server != null ? server.turnCount() : -1,
+                    metrics.firstAudio.drainSummary(), metrics.turn.drainSummary()));
+        }
+
+        for (SoakClient c : all) c.stop();
+        timer.shutdownNow();
+        http.dispatcher().executorService().shutdown();
+        http.connectionPool().evictAll();
+        if (server != null) server.close();
+
+        // 丢弃前 1/4 预热样本后做线性回归，得到每小时增长
+        List<double[]> steady = trend.subList(trend.size() / 4, trend.size());
+        double heapSlope = slope(steady, 1);
+        double threadSlope = slope(steady, 2);
+        double stateSlope = slope(steady, 3);
+        double steadyHours = steady.size() < 2 ? 0 : steady.get(steady.size() - 1)[0] - steady.get(0)[0];
+        System.out.println(String.format(Locale.ROOT,
+                "trend per hour: heap=%+.2fMB threads=%+.2f liveSessions=%+.2f (steady samples=%d over %.1fmin)",
+                heapSlope, threadSlope, stateSlope, steady.size(), steadyHours * 60));
+        if (steady.size() < MIN_STEADY_SAMPLES || steadyHours < MIN_STEADY_HOURS) {
+            // 几个点的斜率外推到每小时没有意义
+            System.out.println(String.format(Locale.ROOT,
+                    "RESULT: INCONCLUSIVE (need >= %d steady samples over >= %.0fmin; raise --minutes or lower --interval)",
+                    MIN_STEADY_SAMPLES, MIN_STEADY_HOURS * 60));
+            System.exit(3);
+        }
+        boolean growing = heapSlope > MAX_HEAP_MB_PER_HOUR || threadSlope > MAX_THREADS_PER_HOUR
+                || stateSlope > MAX_LIVE_SESSIONS_PER_HOUR;
+        System.out.println(growing ? "RESULT: GROWTH DETECTED" : "RESULT: FLAT");
+        System.exit(growing ? 1 : 0);
+    }
+
+    private static double slope(List<double[]> points, int col) {
+        int n = points.size();
+        if (n < 2) return 0;
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (double[] p : points) { sx += p[0]; sy += p[col]; sxx += p[0] * p[0]; sxy += p[0] * p[col]; }
+        double den = n * sxx - sx * sx;
+        return den == 0 ? 0 : (n * sxy - sx * sy) / den;
+    }
+}
@@ -0,0 +1,152 @@
+package com.jujie.paipai.soak;
+
+import com.jujie.paipai.chat.core.ChatProtocolEngine;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模拟播放器：不解码，按假定码率把每段“播放”相应时长，并像 ChatTtsPlayer 一样回调引擎的
+ * onSegmentStart / onSegmentEnd / onQueueIdle / onSongEndMarker（空音频的末段即歌曲结束标记）。
+ * 与 ChatTtsPlayer 一样每个播放器一条播放线程：引擎在持锁时调用本类，操作一律投递到播放线程，且不在持有本对象锁时回调引擎。
+ */
+final class SoakPlayer implements ChatProtocolEngine.Player {
+
+    /** 假定的播放码率（kbit/s），决定每段占用的播放时长 */
+    static final long PLAYOUT_KBPS = 256;
+
+    private static final class Track {
+        final String requestId;
+        final int sequence;
+        final int bytes;
+        final String text;
+        final boolean isFinal;
+        Track(String requestId, int sequence, int bytes, String text, boolean isFinal) {
+            this.requestId = requestId; this.sequence = sequence; this.bytes = bytes; this.text = text; this.isFinal = isFinal;
+        }
+    }
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "soak-player");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ArrayDeque<Track> queue = new ArrayDeque<>();
+    private ChatProtocolEngine engine;
+    private Track playing;
+    private ScheduledFuture<?> playingEnd;
+    private boolean paused = false;
+    private boolean released = false;
+
+    /** 引擎构造需要播放器，构造完成后回填 */
+    synchronized void bind(ChatProtocolEngine engine) {
+        this.engine = engine;
+    }
+
+    @Override public synchronized void enqueue(String requestId, int sequence, byte[] audio,
+                                               String textDelta, boolean isFinalSegment, String mimeType) {
+        if (released) return;
+        queue.addLast(new Track(requestId, sequence, audio.length, textDelta, isFinalSegment));
+        post(this::playNextIfIdle);
+    }
+
+    @Override public void cancelForResponse(String responseId) {
+        boolean cancelCurrent;
+        synchronized (this) {
+            for (Iterator<Track> it = queue.iterator(); it.hasNext(); ) {
+                if (it.next().requestId.equals(responseId)) it.remove();
+            }
+            cancelCurrent = playing != null && playing.requestId.equals(responseId);
+        }
+        if (cancelCurrent) post(() -> finishCurrent(true));
+    }
+
+    @Override public void clear() {
+        synchronized (this) {
+            queue.clear();
+        }
+        post(() -> finishCurrent(true));
+    }
+
+    @Override public synchronized void pause() {
+        paused = true;
+    }
+
+    @Override public void resume() {
+        synchronized (this) {
+            paused = false;
+        }
+        post(this::playNextIfIdle);
+    }
+
+    /** 会话结束：丢弃队列、结束播放线程，不再回调引擎 */
+    void release() {
+        synchronized (this) {
+            released = true;
+            queue.clear();
+            playing = null;
+            playingEnd = null;
+            engine = null;
+        }
+        timer.shutdownNow();
+    }
+
+    private void post(Runnable task) {
+        try { timer.execute(task); } catch (RejectedExecutionException ignored) {}   // 已释放
+    }
+
+    private void playNextIfIdle() {
+        Track next;
+        ChatProtocolEngine e;
+        synchronized (this) {
+            if (released || paused || playing != null || engine == null) return;
+            next = queue.pollFirst();
+            if (next == null) return;
+            e = engine;
+            if (next.bytes == 0) {
+                // 歌曲结束标记：前面的段已播完
+                playing = null;
+            } else {
+                playing = next;
+                long durationMs = Math.max(1, next.bytes * 8L / PLAYOUT_KBPS);
+                playingEnd = timer.schedule(() -> finishCurrent(false), durationMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (next.bytes == 0) {
+            e.onSegmentEnd(next.requestId, next.sequence, next.isFinal, false);
+            e.onSongEndMarker(next.requestId);
+            afterTrack(e);
+            return;
+        }
+        e.onSegmentStart(next.requestId, next.sequence, next.text);
+    }
+
+    private void finishCurrent(boolean canceled) {
+        Track done;
+        ChatProtocolEngine e;
+        synchronized (this) {
+            done = playing;
+            e = engine;
+            if (done == null || e == null) return;
+            if (playingEnd != null) playingEnd.cancel(false);
+            playing = null;
+            playingEnd = null;
+        }
+        e.onSegmentEnd(done.requestId, done.sequence, done.isFinal, canceled);
+        afterTrack(e);
+    }
+
+    private void afterTrack(ChatProtocolEngine e) {
+        boolean idle;
+        synchronized (this) {
+            idle = queue.isEmpty();
+        }
+        if (idle) e.onQueueIdle();
+        playNextIfIdle();
+    }
+}
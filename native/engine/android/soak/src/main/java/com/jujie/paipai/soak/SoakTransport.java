@@ -0,0 +1,246 @@
+package com.jujie.paipai.soak;
+
+import com.jujie.paipai.chat.core.ChatProtocolEngine;
+import com.jujie.paipai.chat.core.NetworkShaper;
+
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+/**
+ * JVM 版传输层：把 ChatProtocolEngine 接到 OkHttp WebSocket，行为对齐 App 的 ChatTransport 中引擎依赖的部分——
+ * 控制消息按 key 合并、ready 前暂存并带过期；应用层 ping/pong 测平滑 RTT；按突发估计下行吞吐并回调引擎。
+ * ChatTransport 本身依赖 SystemClock / Log / PerfTrace / 会话录制，无法在 JVM 上直接运行。
+ * 指定弱网脚本时收发都经 {@link NetworkShaper}。
+ */
+final class SoakTransport implements ChatProtocolEngine.Transport {
+
+    /** 下行事件（已过弱网模拟），回调在 OkHttp 读线程或弱网调度线程 */
+    interface Listener {
+        void onText(String text);
+        void onBinary(byte[] bytes);
+        void onDownlinkEstimate(long kbps, long smoothedRttMs);
+        void onFailure(Throwable t);
+    }
+
+    private static final long PING_INTERVAL_MS = 5000;
+    private static final long BURST_GAP_MS = 500;
+    private static final long BURST_MAX_MS = 2000;
+    private static final long BURST_MIN_DURATION_MS = 100;
+    private static final long BURST_MIN_BYTES = 8 * 1024;
+
+    private static final class ControlMessage {
+        final String text;
+        final long expiresAtMs;
+        ControlMessage(String text, long expiresAtMs) { this.text = text; this.expiresAtMs = expiresAtMs; }
+    }
+
+    private final OkHttpClient http;
+    private final ScheduledExecutorService timer;
+    private final NetworkShaper shaper;   // 可为 null
+    private final Listener listener;
+
+    private volatile WebSocket ws;
+    private boolean controlReady = false;
+    private final Map<String, ControlMessage> controlQueue = new LinkedHashMap<>();
+    private ScheduledFuture<?> pinger;
+    private int pingSeq = 0;
+    private int pendingPingSeq = -1;
+    private long pendingPingSentNs = 0;
+    private volatile long smoothedRttMs = -1;
+
+    // 仅在下行线程访问
+    private long burstStartMs = 0;
+    private long burstLastMs = 0;
+    private long burstBytes = 0;
+    private volatile long downlinkKbps = -1;
+
+    SoakTransport(OkHttpClient http, ScheduledExecutorService timer, NetworkShaper shaper, Listener listener) {
+        this.http = http;
+        this.timer = timer;
+        this.shaper = shaper;
+        this.listener = listener;
+    }
+
+    synchronized void connect(String url) {
+        close(1000, "reconnect");
+        ws = http.newWebSocket(new Request.Builder().url(url).build(), new SocketListener());
+        pinger = timer.scheduleWithFixedDelay(this::ping, PING_INTERVAL_MS, PING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** 弱网脚本要求断线：取消当前连接，走 onFailure */
+    void cancel() {
+        WebSocket w = ws;
+        if (w != null) w.cancel();
+    }
+
+    synchronized void close(int code, String reason) {
+        controlReady = false;
+        if (pinger != null) { pinger.cancel(false); pinger = null; }
+        WebSocket w = ws;
+        ws = null;
+        if (w != null) w.close(code, reason);
+    }
+
+    /** 业务层 ready 后调用：补发排队中的控制消息 */
+    synchronized void markReady() {
+        controlReady = true;
+        long now = nowMs();
+        for (Iterator<ControlMessage> it = controlQueue.values().iterator(); it.hasNext(); ) {
+            ControlMessage m = it.next();
+            it.remove();
+            if (m.expiresAtMs >= now) sendText(m.text);
+        }
+    }
+
+    synchronized void markNotReady() {
+        controlReady = false;
+    }
+
+    @Override public synchronized void sendControl(String json, String coalesceKey, long ttlMs) {
+        if (controlReady && sendText(json)) return;
+        controlQueue.remove(coalesceKey);
+        controlQueue.put(coalesceKey, new ControlMessage(json, nowMs() + ttlMs));
+    }
+
+    @Override public long getSmoothedRttMs() { return smoothedRttMs; }
+    @Override public long getDownlinkKbps() { return downlinkKbps; }
+    @Override public void resetDownlinkEstimate() { downlinkKbps = -1; }
+
+    boolean sendText(String text) {
+        WebSocket w = ws;
+        if (w == null) return false;
+        NetworkShaper s = shaper;
+        if (s == null) return w.send(text);
+        s.outbound(NetworkShaper.utf8Length(text), false, () -> w.send(text));
+        return true;
+    }
+
+    boolean sendBinary(byte[] bytes) {
+        WebSocket w = ws;
+        if (w == null) return false;
+        ByteString b = ByteString.of(bytes);
+        NetworkShaper s = shaper;
+        if (s == null) return w.send(b);
+        s.outbound(b.size(), true, () -> w.send(b));
+        return true;
+    }
+
+    private void ping() {
+        int seq;
+        synchronized (this) {
+            if (ws == null) return;
+            seq = ++pingSeq;
+            pendingPingSeq = seq;
+            pendingPingSentNs = System.nanoTime();
+        }
+        sendText("{\"type\":\"ping\",\"seq\":" + seq + "}");
+    }
+
+    /** 消费 pong，不交给引擎 */
+    private boolean handlePong(String text) {
+        if (text.length() > 96 || !text.contains("\"pong\"")) return false;
+        int seq;
+        try {
+            JSONObject o = new JSONObject(text);
+            if (!"pong".equals(o.optString("type"))) return false;
+            seq = o.optInt("seq", -1);
+        } catch (Exception e) {
+            return false;
+        }
+        long sentNs;
+        synchronized (this) {
+            if (seq != pendingPingSeq) return true;
+            sentNs = pendingPingSentNs;
+            pendingPingSeq = -1;
+        }
+        long rtt = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentNs);
+        long srtt = smoothedRttMs;
+        smoothedRttMs = srtt < 0 ? rtt : (srtt * 7 + rtt) / 8;
+        return true;
+    }
+
+    private void recordDownlink(int size, long now) {
+        if (burstStartMs != 0 && now - burstLastMs > BURST_GAP_MS) finishBurst();
+        if (burstStartMs == 0) {
+            burstStartMs = now;
+            burstBytes = 0;
+        } else {
+            burstBytes += size;
+        }
+        burstLastMs = now;
+        if (now - burstStartMs >= BURST_MAX_MS) {
+            finishBurst();
+            burstStartMs = now;
+            burstBytes = 0;
+        }
+    }
+
+    private void finishBurst() {
+        long dur = burstLastMs - burstStartMs;
+        if (dur >= BURST_MIN_DURATION_MS && burstBytes >= BURST_MIN_BYTES) {
+            long kbps = burstBytes * 8 / dur;
+            long prev = downlinkKbps;
+            long est = prev < 0 ? kbps : (prev * 3 + kbps) / 4;
+            downlinkKbps = est;
+            listener.onDownlinkEstimate(est, smoothedRttMs);
+        }
+        burstStartMs = 0;
+        burstBytes = 0;
+    }
+
+    private static long nowMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private final class SocketListener extends WebSocketListener {
+        @Override public void onMessage(WebSocket webSocket, String text) {
+            NetworkShaper s = shaper;
+            if (s != null) s.inbound(NetworkShaper.utf8Length(text), false, () -> deliverText(webSocket, text));
+            else deliverText(webSocket, text);
+        }
+
+        @Override public void onMessage(WebSocket webSocket, ByteString bytes) {
+            NetworkShaper s = shaper;
+            if (s != null) s.inbound(bytes.size(), true, () -> deliverBinary(webSocket, bytes));
+            else deliverBinary(webSocket, bytes);
+        }
+
+        private void deliverText(WebSocket webSocket, String text) {
+            if (webSocket != ws || handlePong(text)) return;
+            listener.onText(text);
+        }
+
+        private void deliverBinary(WebSocket webSocket, ByteString bytes) {
+            if (webSocket != ws) return;
+            recordDownlink(bytes.size(), nowMs());
+            listener.onBinary(bytes.toByteArray());
+        }
+
+        @Override public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(1000, null);
+        }
+
+        @Override public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            synchronized (SoakTransport.this) {
+                if (webSocket != ws) return;
+                ws = null;
+                controlReady = false;
+                if (pinger != null) { pinger.cancel(false); pinger = null; }
+            }
+            listener.onFailure(t);
+        }
+    }
+}
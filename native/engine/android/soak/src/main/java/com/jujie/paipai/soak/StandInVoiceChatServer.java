@@ -0,0 +1,237 @@
+package com.jujie.paipai.soak;
+
+import com.jujie.paipai.chat.core.AudioFrameHeader;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.ByteString;
+
+/**
+ * 本地替身 voice-chat 服务端（基于 OkHttp MockWebServer 的 WebSocket 升级）：
+ * - 连接建立后发 ready（请求带 audioFrame=1 时回 audioFrameVersion，并给音频帧加 v1 帧头）
+ * - start_asr 之后累计约 1 秒上行音频即视为一句话结束，依次下发
+ *   transcript / llm_request / llm_delta* / (tts_start, 音频帧*, tts_end)* / llm_complete
+ * - song：按 2 字节 songId 头（或 v1 帧头）推送歌曲音频，结束发 song_end
+ * - ping 回 pong；switch_character 回 character_switched；每连接达到轮次上限后发 limit_exceeded
+ * - ready 声明 bandwidthProbe：bandwidth_probe 回一条同 id、总长约为请求 bytes 的填充消息
+ */
+public final class StandInVoiceChatServer implements AutoCloseable {
+
+    public static final class Config {
+        public long thinkMs = 300;             // 一句话结束到 llm_request
+        public long firstAudioMs = 400;        // llm_request 到首个音频帧
+        public int segmentsPerTurn = 3;
+        public int framesPerSegment = 8;
+        public int frameBytes = 2048;
+        public long frameIntervalMs = 40;
+        public int songFrames = 40;
+        public int turnsBeforeLimit = 0;       // 0 表示不限
+        public long seed = 7;
+    }
+
+    private static final int UTTERANCE_BYTES = 32_000;   // 16kHz * 16bit * 1s
+    private static final int MAX_PROBE_BYTES = 256 * 1024;
+
+    private final Config config;
+    private final MockWebServer server = new MockWebServer();
+    // 单线程：同一时刻到期的下行按提交顺序发出（tts_end 先于下一段 tts_start），与真实服务端的顺序一致
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "standin-server-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final AtomicLong turns = new AtomicLong();
+
+    public StandInVoiceChatServer(Config config) {
+        this.config = config;
+        server.setDispatcher(new Dispatcher() {
+            @Override public MockResponse dispatch(RecordedRequest request) {
+                String path = request.getPath() != null ? request.getPath() : "";
+                boolean framed = path.contains("audioFrame=1");
+                return new MockResponse().withWebSocketUpgrade(new Session(framed, sessions.incrementAndGet()));
+            }
+        });
+    }
+
+    public void start() throws IOException {
+        server.start();
+    }
+
+    /** 形如 ws://127.0.0.1:port/chat/voice-chat?token=soak */
+    public String url() {
+        return "ws://" + server.getHostName() + ":" + server.getPort() + "/chat/voice-chat?token=soak";
+    }
+
+    public int sessionCount() { return sessions.get(); }
+    public long turnCount() { return turns.get(); }
+
+    @Override public void close() throws IOException {
+        timer.shutdownNow();
+        server.shutdown();
+    }
+
+    private final class Session extends WebSocketListener {
+        private final boolean framed;
+        private final int id;
+        private final Random random;
+        private volatile WebSocket ws;
+        private int uplinkBytes = -1;      // -1 表示未在收音
+        private int turnCount = 0;
+        private int responseSeq = 0;
+
+        Session(boolean framed, int id) {
+            this.framed = framed;
+            this.id = id;
+            this.random = new Random(config.seed + id);
+        }
+
+        @Override public void onOpen(WebSocket webSocket, Response response) {
+            ws = webSocket;
+            webSocket.send(framed ? "{\"type\":\"ready\",\"audioFrameVersion\":1,\"bandwidthProbe\":true}"
+                    : "{\"type\":\"ready\",\"bandwidthProbe\":true}");
+        }
+
+        @Override public void onMessage(WebSocket webSocket, String text) {
+            JSONObject obj;
+            try { obj = new JSONObject(text); } catch (Exception e) { return; }
+            switch (obj.optString("type")) {
+                case "ping":
+                    webSocket.send("{\"type\":\"pong\",\"seq\":" + obj.optInt("seq") + "}");
+                    break;
+                case "start_asr":
+                    synchronized (this) { uplinkBytes = 0; }
+                    break;
+                case "song":
+                    streamSong(obj.optInt("songId"));
+                    break;
+                case "bandwidth_probe":
+                    webSocket.send(probeReply(obj.optInt("id"), Math.min(obj.optInt("bytes", 0), MAX_PROBE_BYTES)));
+                    break;
+                case "switch_character":
+                    webSocket.send("{\"type\":\"character_switched\",\"characterId\":" + obj.optInt("characterId") + "}");
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override public void onMessage(WebSocket webSocket, ByteString bytes) {
+            boolean endOfUtterance;
+            synchronized (this) {
+                if (uplinkBytes < 0) return;
+                uplinkBytes += bytes.size();
+                endOfUtterance = uplinkBytes >= UTTERANCE_BYTES;
+                if (endOfUtterance) uplinkBytes = -1;
+            }
+            if (endOfUtterance) timer.schedule(this::respond, config.thinkMs, TimeUnit.MILLISECONDS);
+        }
+
+        @Override public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            ws = null;
+        }
+
+        @Override public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(1000, null);
+            ws = null;
+        }
+
+        private void respond() {
+            WebSocket w = ws;
+            if (w == null) return;
+            turns.incrementAndGet();
+            if (config.turnsBeforeLimit > 0 && ++turnCount > config.turnsBeforeLimit) {
+                w.send("{\"type\":\"limit_exceeded\"}");
+                return;
+            }
+            String rid = "s" + id + "-r" + (++responseSeq);
+            w.send("{\"type\":\"transcript\",\"responseId\":\"" + rid + "\",\"text\":\"你好\",\"final\":true}");
+            w.send("{\"type\":\"llm_request\",\"responseId\":\"" + rid + "\",\"text\":\"你好\"}");
+            for (int i = 0; i < config.segmentsPerTurn; i++) {
+                w.send("{\"type\":\"llm_delta\",\"responseId\":\"" + rid + "\",\"content\":\"第" + i + "句。\"}");
+            }
+            long at = config.firstAudioMs;
+            for (int seg = 0; seg < config.segmentsPerTurn; seg++) {
+                final int s = seg;
+                final boolean last = seg == config.segmentsPerTurn - 1;
+                timer.schedule(() -> send("{\"type\":\"tts_start\",\"responseId\":\"" + rid + "\",\"sequence\":" + s
+                        + ",\"isFinal\":" + last + ",\"text\":\"第" + s + "句。\"}"), at, TimeUnit.MILLISECONDS);
+                for (int f = 0; f < config.framesPerSegment; f++) {
+                    final int chunk = f;
+                    final boolean lastChunk = f == config.framesPerSegment - 1;
+                    timer.schedule(() -> sendAudio(1, AudioFrameHeader.streamIdOf(rid), s, chunk, lastChunk),
+                            at + f * config.frameIntervalMs, TimeUnit.MILLISECONDS);
+                }
+                at += config.framesPerSegment * config.frameIntervalMs;
+                timer.schedule(() -> send("{\"type\":\"tts_end\",\"responseId\":\"" + rid + "\",\"sequence\":" + s
+                        + ",\"reason\":\"completed\",\"isFinal\":" + last + "}"), at, TimeUnit.MILLISECONDS);
+            }
+            timer.schedule(() -> send("{\"type\":\"llm_complete\",\"responseId\":\"" + rid + "\"}"), at, TimeUnit.MILLISECONDS);
+        }
+
+        private void streamSong(int songId) {
+            for (int f = 0; f < config.songFrames; f++) {
+                final int chunk = f;
+                timer.schedule(() -> sendAudio(2, songId, 0, chunk, chunk == config.songFrames - 1),
+                        f * config.frameIntervalMs, TimeUnit.MILLISECONDS);
+            }
+            timer.schedule(() -> send("{\"type\":\"song_end\",\"songId\":" + songId + "}"),
+                    config.songFrames * config.frameIntervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        private void send(String text) {
+            WebSocket w = ws;
+            if (w != null) w.send(text);
+        }
+
+        private void sendAudio(int streamType, int streamId, int segment, int chunk, boolean last) {
+            WebSocket w = ws;
+            if (w == null) return;
+            byte[] body = new byte[config.frameBytes];
+            random.nextBytes(body);
+            byte[] frame;
+            if (framed) {
+                frame = new byte[16 + body.length];
+                frame[0] = (byte) 0xAF; frame[1] = 1; frame[2] = 16; frame[3] = (byte) streamType;
+                frame[4] = (byte) (last ? 1 : 0);
+                putInt(frame, 6, streamId);
+                frame[10] = (byte) (segment >> 8); frame[11] = (byte) segment;
+                putInt(frame, 12, chunk);
+                System.arraycopy(body, 0, frame, 16, body.length);
+            } else if (streamType == 2) {
+                frame = new byte[2 + body.length];
+                frame[0] = (byte) (streamId >> 8); frame[1] = (byte) streamId;
+                System.arraycopy(body, 0, frame, 2, body.length);
+            } else {
+                frame = body;
+            }
+            w.send(ByteString.of(frame));
+        }
+    }
+
+    private static String probeReply(int id, int bytes) {
+        String head = "{\"type\":\"bandwidth_probe\",\"id\":" + id + ",\"padding\":\"";
+        StringBuilder sb = new StringBuilder(Math.max(bytes, head.length() + 2)).append(head);
+        while (sb.length() < bytes - 2) sb.append('x');
+        return sb.append("\"}").toString();
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24); b[off + 1] = (byte) (v >>> 16); b[off + 2] = (byte) (v >>> 8); b[off + 3] = (byte) v;
+    }
+}
@@ -0,0 +1,137 @@
+#!/usr/bin/env python3
+"""
+从 Perfetto / systrace 抓取的 trace 中提取语音聊天各阶段时延与关键分段耗时。
+
+依赖：pip install perfetto（使用其中的 trace_processor）
+
+    python3 tools/trace_stages.py chat.perfetto-trace [--process com.jujie.paipai]
+
+阶段时延按 App 写入的计数器轨道 chat.turnMark 还原（取值即 TurnMetrics 的时间点序号），
+规则与 TurnMetrics 一致：同一轮内每个时间点取第一次，FINAL 结束一轮；时间点缺失的阶段不计入。
+分段耗时汇总 PerfTrace 写入的同步分段（ws.* / chat.* / tts.* / mic.* / camera.* / image.* / jsb.*）
+与异步轨道（tts.segment、camera.start）。
+"""
+
+import argparse
+import math
+import sys
+from collections import defaultdict
+
+SPEECH_END, FINAL_TRANSCRIPT, LLM_REQUEST, FIRST_DELTA, TTS_START, FIRST_AUDIO, AUDIBLE, FINAL = range(8)
+
+# (阶段名, 起点, 终点)；起点为 None 表示本轮第一个时间点（说话结束 / 最终识别 / llm_request）
+STAGES = [
+    ("asr", SPEECH_END, FINAL_TRANSCRIPT),
+    ("dispatch", FINAL_TRANSCRIPT, LLM_REQUEST),
+    ("llmFirstToken", LLM_REQUEST, FIRST_DELTA),
+    ("ttsStart", FIRST_DELTA, TTS_START),
+    ("firstAudio", TTS_START, FIRST_AUDIO),
+    ("playout", FIRST_AUDIO, AUDIBLE),
+    ("toAudible", None, AUDIBLE),
+    ("total", None, FINAL),
+]
+
+SECTION_PREFIXES = ("ws.", "chat.", "tts.", "mic.", "camera.", "image.", "jsb.")
+
+
+def percentile(sorted_values, p):
+    idx = int(math.ceil(p * len(sorted_values))) - 1
+    return sorted_values[max(0, min(idx, len(sorted_values) - 1))]
+
+
+def summarize(values):
+    s = sorted(values)
+    return len(s), percentile(s, 0.50), percentile(s, 0.90), percentile(s, 0.99), s[-1]
+
+
+def turns_from_marks(marks):
+    """marks: [(ts_ns, point)] 按时间排序；返回每轮 {point: ts_ns}"""
+    turns = []
+    pending = None
+    current = None
+    for ts, point in marks:
+        if point == SPEECH_END:
+            pending = {SPEECH_END: ts}
+        elif point == FINAL_TRANSCRIPT:
+            target = pending if pending is not None else current
+            if target is None:
+                pending = target = {}
+            target.setdefault(FINAL_TRANSCRIPT, ts)
+        elif point == LLM_REQUEST:
+            current = pending if pending is not None else {}
+            pending = None
+            current[LLM_REQUEST] = ts
+        elif current is not None:
+            current.setdefault(point, ts)
+            if point == FINAL:
+                turns.append(current)
+                current = None
+    return turns
+
+
+def stage_durations(turns):
+    out = defaultdict(list)
+    for t in turns:
+        anchor = next((t[p] for p in (SPEECH_END, FINAL_TRANSCRIPT, LLM_REQUEST) if p in t), None)
+        for name, start, end in STAGES:
+            frm = anchor if start is None else t.get(start)
+            to = t.get(end)
+            if frm is None or to is None or to < frm:
+                continue
+            out[name].append((to - frm) / 1e6)
+    return out
+
+
+def main():
+    ap = argparse.ArgumentParser(description=__doc__, formatter_class=argparse.RawDescriptionHelpFormatter)
+    ap.add_argument("trace")
+    ap.add_argument("--process", help="进程名过滤（默认不过滤）")
+    args = ap.parse_args()
+
+    try:
+        from perfetto.trace_processor import TraceProcessor
+    except ImportError:
+        sys.exit("需要 perfetto 包：pip install perfetto")
+
+    tp = TraceProcessor(trace=args.trace)
+    proc_filter = ""
+    if args.process:
+        proc_filter = " AND p.name = '%s'" % args.process.replace("'", "''")
+
+    marks = [(int(r.ts), int(r.value)) for r in tp.query(
+        "SELECT c.ts AS ts, c.value AS value FROM counter c "
+        "JOIN process_counter_track t ON c.track_id = t.id "
+        "JOIN process p USING (upid) "
+        "WHERE t.name = 'chat.turnMark'" + proc_filter + " ORDER BY c.ts")]
+    turns = turns_from_marks(marks)
+    durations = stage_durations(turns)
+
+    print("== 轮次阶段时延 (ms)  turns=%d" % len(turns))
+    print("%-16s %6s %9s %9s %9s %9s" % ("stage", "n", "p50", "p90", "p99", "max"))
+    for name, _, _ in STAGES:
+        if durations.get(name):
+            print("%-16s %6d %9.1f %9.1f %9.1f %9.1f" % ((name,) + summarize(durations[name])))
+
+    # 同步分段在线程轨道上，异步轨道在进程轨道上，统一按 slice 汇总
+    sections = defaultdict(list)
+    for r in tp.query(
+            "SELECT s.name AS name, s.dur AS dur FROM slice s "
+            "LEFT JOIN thread_track tt ON s.track_id = tt.id "
+            "LEFT JOIN thread th USING (utid) "
+            "LEFT JOIN process_track pt ON s.track_id = pt.id "
+            "LEFT JOIN process p ON p.upid = COALESCE(th.upid, pt.upid) "
+            "WHERE s.dur >= 0" + proc_filter):
+        if r.name and r.name.startswith(SECTION_PREFIXES):
+            sections[r.name].append(r.dur / 1e6)
+
+    print()
+    print("== 分段耗时 (ms)")
+    print("%-40s %7s %9s %9s %9s %9s" % ("section", "n", "p50", "p90", "p99", "max"))
+    for name in sorted(sections, key=lambda n: -sum(sections[n])):
+        print("%-40s %7d %9.2f %9.2f %9.2f %9.2f" % ((name[:40],) + summarize(sections[name])))
+
+    tp.close()
+
+
+if __name__ == "__main__":
+    main()
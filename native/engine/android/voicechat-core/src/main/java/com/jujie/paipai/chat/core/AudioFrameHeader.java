@@ -0,0 +1,85 @@
+package com.jujie.paipai.chat.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 下行音频二进制帧的自描述头（v1），所有字段大端：
+ * <pre>
+ *  0  u8  magic (0xAF)
+ *  1  u8  version
+ *  2  u8  headerLength（后续版本可扩展，解析时按此长度跳过）
+ *  3  u8  streamType（1=TTS，2=歌曲）
+ *  4  u8  flags（bit0=本段最后一块）
+ *  5  u8  保留
+ *  6  u32 streamId（TTS 为 responseId 的 FNV-1a 32 位哈希；歌曲为 songId）
+ * 10  u16 segment（对应 tts_start 的 sequence）
+ * 12  u32 chunkIndex（段内块序号，从 0 开始）
+ * </pre>
+ * 仅当服务端在 ready 中声明 audioFrameVersion 后才按此格式解析，旧服务端保持原有无头/2字节 songId 头格式。
+ */
+public final class AudioFrameHeader {
+
+    static final int MAGIC = 0xAF;
+    public static final int VERSION = 1;
+    static final int MIN_LENGTH = 16;
+
+    static final int STREAM_TTS = 1;
+    static final int STREAM_SONG = 2;
+
+    static final int FLAG_LAST = 0x01;
+
+    final int version;
+    final int headerLength;
+    final int streamType;
+    final int flags;
+    final int streamId;
+    final int segment;
+    final int chunkIndex;
+
+    private AudioFrameHeader(int version, int headerLength, int streamType, int flags,
+                             int streamId, int segment, int chunkIndex) {
+        this.version = version;
+        this.headerLength = headerLength;
+        this.streamType = streamType;
+        this.flags = flags;
+        this.streamId = streamId;
+        this.segment = segment;
+        this.chunkIndex = chunkIndex;
+    }
+
+    boolean isLast() { return (flags & FLAG_LAST) != 0; }
+
+    /** 解析帧头；不是合法的 v1+ 帧时返回 null */
+    @Nullable
+    static AudioFrameHeader parse(@NonNull byte[] b) {
+        if (b.length < MIN_LENGTH || (b[0] & 0xFF) != MAGIC) return null;
+        int version = b[1] & 0xFF;
+        int headerLength = b[2] & 0xFF;
+        if (version < VERSION || headerLength < MIN_LENGTH || headerLength > b.length) return null;
+        return new AudioFrameHeader(version, headerLength, b[3] & 0xFF, b[4] & 0xFF,
+                readInt(b, 6), ((b[10] & 0xFF) << 8) | (b[11] & 0xFF), readInt(b, 12));
+    }
+
+    /** 服务端与客户端约定的 responseId → streamId 映射（FNV-1a 32 位，UTF-8） */
+    public static int streamIdOf(@NonNull String responseId) {
+        int h = 0x811C9DC5;
+        for (byte x : responseId.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (x & 0xFF);
+            h *= 0x01000193;
+        }
+        return h;
+    }
+
+    /** TTS 流的查找键：streamId + segment，无需解析 JSON 即可定位所属段 */
+    static long key(int streamId, int segment) {
+        return ((long) streamId << 16) | (segment & 0xFFFF);
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+}
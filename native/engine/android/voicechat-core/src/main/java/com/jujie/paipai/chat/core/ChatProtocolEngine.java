@@ -0,0 +1,1569 @@
+package com.jujie.paipai.chat.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 语音聊天协议引擎（纯 Java，不依赖 Android）：解析下行 JSON 与音频帧，维护回复生命周期、
+ * TTS 段拼装、歌曲流校验，以及下行音质档位与弱网文字优先的状态机。
+ * 时钟、传输、播放器与事件回调通过下面的小接口注入：Android 端由 VoiceChatClient 接到
+ * SystemClock / Handler / ChatTransport / ChatTtsPlayer，JVM 上可直接驱动做基准与测试。
+ * <p>线程：下行消息（网络读线程）、播放器回调（播放线程）、Clock 延时任务（主线程）与端侧朗读回调（任意线程）
+ * 都会进入引擎，所有入口与延时任务统一持引擎对象锁执行，内部状态只在锁内读写。锁内会调用 Transport / Player /
+ * Listener：实现方不得在持有自身锁时回调引擎，Player 的操作需投递到自身线程而不是同步等待。
+ */
+public final class ChatProtocolEngine {
+
+    /** 单调时钟与延时任务（Android 端为 SystemClock + 主线程 Handler） */
+    public interface Clock {
+        long nowMs();
+        void postDelayed(@NonNull Runnable task, long delayMs);
+        void removeCallbacks(@NonNull Runnable task);
+    }
+
+    /** 引擎用到的上行能力：可合并的控制消息与链路估计 */
+    public interface Transport {
+        void sendControl(@NonNull String json, @NonNull String coalesceKey, long ttlMs);
+        long getSmoothedRttMs();
+        long getDownlinkKbps();
+        void resetDownlinkEstimate();
+    }
+
+    /** 音频播放队列；段开始/结束等事件由实现方回调 onSegmentStart 等方法 */
+    public interface Player {
+        void enqueue(@NonNull String requestId, int sequence, @NonNull byte[] audio,
+                     @NonNull String textDelta, boolean isFinalSegment, @NonNull String mimeType);
+        void cancelForResponse(@NonNull String responseId);
+        void clear();
+        void pause();
+        void resume();
+    }
+
+    public interface Listener {
+        void onLog(@NonNull String line);
+        // 仅用于调试输出的细节（Android 端写 logcat，不进入界面日志）
+        default void onDebug(@NonNull String line) {}
+        void onServerReady();
+        // characterId 缺失时为 -1
+        void onCharacterSwitchAck(int characterId);
+        void onCharacterSwitchRejected(@NonNull String reason);
+        void onLimitExceeded();
+        void onUserTranscript(@NonNull String text);
+        void onAssistantDelta(@NonNull String text);
+        void onAssistantFinal(@NonNull String text);
+        void onFirstAudioLatency(long millis);
+        void onTextFirstModeChanged(boolean enabled);
+        void onSongEnd(int id, @NonNull String name);
+        // 一轮对话完成时的分阶段时延（type=turn），以及会话结束时的汇总（type=session），见 TurnMetrics
+        void onTurnMetrics(@NonNull JSONObject metrics);
+    }
+
+    /** 可选的 systrace/Perfetto 埋点（Android 端接到 android.os.Trace），未抓取时 isEnabled 为 false，不产生开销 */
+    public interface Tracer {
+        Tracer NONE = new Tracer() {
+            @Override public boolean isEnabled() { return false; }
+            @Override public void beginSection(@NonNull String name) {}
+            @Override public void endSection() {}
+            @Override public void setCounter(@NonNull String name, long value) {}
+        };
+        boolean isEnabled();
+        void beginSection(@NonNull String name);
+        void endSection();
+        void setCounter(@NonNull String name, long value);
+    }
+
+    /**
+     * 可选的 TTS 音频持久缓存（Android 端为 TtsDiskCache），键见 {@link TtsCacheKey}。
+     * 键不含编码与码率，引擎只写入高音质档位的台词。load 在持引擎锁的协议线程上调用，实现方不得在调用线程读盘，
+     * 读完后在任意线程回调（未命中可直接在调用线程回调 null）；put 可异步落盘。
+     */
+    public interface TtsCache {
+        TtsCache NONE = new TtsCache() {
+            @Override public void load(@NonNull String key, @NonNull LoadCallback callback) { callback.onLoaded(null); }
+            @Override public void put(@NonNull String key, @NonNull String scope, @NonNull byte[] audio, @NonNull String mime) {}
+            @NonNull @Override public List<String> keys(@NonNull String scope, int max) { return Collections.emptyList(); }
+        };
+        void load(@NonNull String key, @NonNull LoadCallback callback);
+        void put(@NonNull String key, @NonNull String scope, @NonNull byte[] audio, @NonNull String mime);
+        // 该 scope 下最近使用的键，最多 max 个
+        @NonNull List<String> keys(@NonNull String scope, int max);
+    }
+
+    /**
+     * 端侧合成（Android 端为平台 TextToSpeech），首包音频超出预算时兜底朗读。
+     * speak 追加到朗读队列；队列读完时实现方调用 {@link #onLocalSpeechIdle()}。
+     */
+    public interface LocalSpeech {
+        LocalSpeech NONE = new LocalSpeech() {
+            @Override public boolean isReady() { return false; }
+            @Override public void speak(@NonNull String text) {}
+            @Override public void stop() {}
+        };
+        boolean isReady();
+        void speak(@NonNull String text);
+        void stop();
+    }
+
+    public interface LoadCallback {
+        // 未命中或读取失败时为 null
+        void onLoaded(@Nullable CachedAudio audio);
+    }
+
+    public static final class CachedAudio {
+        public final byte[] audio;
+        public final String mime;
+        public CachedAudio(@NonNull byte[] audio, @NonNull String mime) {
+            this.audio = audio;
+            this.mime = mime;
+        }
+    }
+
+    private enum Mode { CHAT, SONG }
+
+    public static final String DEFAULT_MIME = "audio/mpeg";
+
+    // 控制消息合并键与有效期：模式切换只保留最新一条
+    private static final String CONTROL_KEY_MODE = "mode";
+    private static final long CONTROL_TTL_MODE_MS = 15_000;
+    private static final String CONTROL_KEY_QUALITY = "quality";
+    private static final String CONTROL_KEY_TTS_CACHE = "tts_cache";
+    private static final long CONTROL_TTL_TTS_CACHE_MS = 30_000;
+    private static final long CONTROL_TTL_TTS_CACHE_MISS_MS = 10_000;
+    private static final int MAX_ANNOUNCED_CACHE_KEYS = 200;
+    // 端侧 TTS 兜底：llm_request 后超过预算仍无服务端音频时，本地朗读已完整的句子
+    private static final long LOCAL_TTS_BUDGET_MS = 1500;
+    // 迟迟没有句末标点时，累计到此长度即在逗号处断句先读
+    private static final int LOCAL_TTS_MIN_CLAUSE_CHARS = 16;
+    private static final String SENTENCE_ENDS = "。！？!?；;…\n";
+    private static final String CLAUSE_ENDS = "，,、：:";
+    private static final long CONTROL_TTL_QUALITY_MS = 30_000;
+
+    // 下行音质档位：由吞吐/RTT 估计得出，连接 ready 时及档位变化时上报，服务端据此选择码率/编码。
+    // TTS 推流测得的被动吞吐只是服务端发送速率（低档位下本就发得慢），只能作为可用带宽的下界佐证升档；
+    // 降档依据 RTT 与主动探测（服务端在 ready 中声明 bandwidthProbe 时，回一条指定大小的填充消息，按墙钟到达耗时计算）
+    public static final String QUALITY_LOW = "low";
+    public static final String QUALITY_MEDIUM = "medium";
+    public static final String QUALITY_HIGH = "high";
+    private static final long QUALITY_LOW_MAX_KBPS = 64;
+    private static final long QUALITY_HIGH_MIN_KBPS = 256;
+    private static final long QUALITY_LOW_MIN_RTT_MS = 800;
+    private static final long QUALITY_HIGH_MAX_RTT_MS = 250;
+    // 降档立即生效；升档需连续多次估计一致，避免抖动（主动探测为实测带宽，确认次数更少）
+    private static final int QUALITY_UPGRADE_CONFIRMATIONS = 3;
+    private static final int QUALITY_PROBE_UPGRADE_CONFIRMATIONS = 2;
+    private volatile String qualityTier = QUALITY_MEDIUM;
+    private @Nullable String qualityCandidate;
+    private int qualityCandidateCount = 0;
+    // 主动带宽探测：ready 时探测一次；处于低档位或文字优先时周期探测，以便网络好转后能升回
+    private static final String CONTROL_KEY_PROBE = "bandwidth_probe";
+    private static final long CONTROL_TTL_PROBE_MS = 5_000;
+    private static final int PROBE_BYTES = 32 * 1024;
+    private static final long PROBE_INTERVAL_MS = 20_000;
+    private static final long PROBE_TIMEOUT_MS = 10_000;
+    private static final long PROBE_MIN_TRANSFER_MS = 10;
+    private boolean probeSupported = false;
+    // 服务端在 ready 中声明的多路复用网关（muxGateway），未声明为 null
+    private volatile @Nullable String muxGatewayUrl;
+    private int probeSeq = 0;
+    private int probeOutstandingId = -1;
+    private long probeSentAtMs = 0;
+    private long lastProbeKbps = -1;
+    private long lastProbeAtMs = 0;
+    private final Runnable probeTask = this::runBandwidthProbe;
+    private final Runnable probeTimeout = this::onProbeTimeout;
+    // 不支持探测的服务端：低档位停留一段时间后试升一档，很快又降回则加倍停留时间
+    private static final long QUALITY_LOW_DWELL_MIN_MS = 30_000;
+    private static final long QUALITY_LOW_DWELL_MAX_MS = 240_000;
+    private long lowDwellMs = QUALITY_LOW_DWELL_MIN_MS;
+    private long lowEnteredAtMs = 0;
+    private long lowExitedAtMs = 0;
+    private final Runnable lowDwellStepUp = this::stepUpFromLow;
+    // 弱网文字优先：下行带宽或首包时延超出预算时请求服务端停发 TTS 音频，文本增量立即展示；
+    // 至少停留一个退避间隔后才检查恢复：支持探测时要求 RTT 正常且降级后的探测带宽高于恢复阈值（高于进入阈值，留回差）；
+    // 不支持探测时要求 RTT 连续多次正常，并以试用方式恢复（试用期内一次首包超时即重新降级）。恢复后很快又降级则加倍间隔
+    private static final String CONTROL_KEY_TTS_MODE = "tts_mode";
+    private static final long TEXT_FIRST_ENTER_KBPS = 24;
+    private static final long TEXT_FIRST_RECOVER_KBPS = 48;
+    private static final int TEXT_FIRST_RECOVER_CHECKS = 2;
+    private static final long TEXT_FIRST_RECHECK_MS = 10_000;
+    private static final long FIRST_AUDIO_BUDGET_MS = 3500;
+    private static final int FIRST_AUDIO_MISSES_TO_ENTER = 2;
+    private static final long TEXT_FIRST_PROBE_MIN_MS = 30_000;
+    private static final long TEXT_FIRST_PROBE_MAX_MS = 120_000;
+    private static final long TEXT_FIRST_RECOVER_MAX_RTT_MS = 400;
+    private volatile boolean textFirst = false;
+    private volatile int firstAudioMisses = 0;
+    private long textFirstProbeMs = TEXT_FIRST_PROBE_MIN_MS;
+    private long textFirstEnteredAtMs = 0;
+    private long textFirstExitedAtMs = 0;
+    private int textFirstGoodChecks = 0;
+    // 无探测依据的试用恢复：下一次首包超时立即重新降级
+    private boolean textFirstTrial = false;
+    // 降级期间服务端仍在发音频（未遵从 tts_mode）时，已提示过的回复
+    private @Nullable String textFirstIgnoredResponseId;
+    private final Runnable textFirstProbe = this::probeTextFirstRecovery;
+
+    // 服务端 audio_format 声明的当前下行编码；之后开始的段按此 MIME 播放
+    private volatile String downlinkMime = DEFAULT_MIME;
+    // 无头 PCM（codec=pcm）：播放器无法识别裸 PCM，入队前按声明的采样参数补 WAV 头
+    private static final String MIME_PCM = "audio/L16";
+    private static final int PCM_DEFAULT_SAMPLE_RATE = 16000;
+    private int pcmSampleRate = PCM_DEFAULT_SAMPLE_RATE;
+    private int pcmChannels = 1;
+
+    private static class TtsStreamJob {
+        final String requestId; final int sequence; final boolean isFinal;
+        // 按块序号排序，容忍乱序与重复；无帧头时按到达顺序编号
+        final TreeMap<Integer, byte[]> chunks = new TreeMap<>();
+        String mime = DEFAULT_MIME;
+        int nextArrivalIndex = 0;
+        boolean lastChunkReceived = false;
+        String textDelta = "";
+        // 服务端标记 cacheable 的台词，完整收到后以此键写入 TTS 缓存
+        @Nullable String cacheKey;
+        // 该段文本在整条回复中的位置（按 tts_start 文本长度累计），用于与端侧兜底已朗读部分对齐
+        int textStart;
+        int textLength;
+        TtsStreamJob(String r, int s, boolean f){ requestId=r; sequence=s; isFinal=f; }
+    }
+    private @Nullable TtsStreamJob activeStreamJob;
+    // 带帧头时按 (streamId, segment) 无状态分发，允许多段并存
+    private final Map<Long, TtsStreamJob> streamJobs = new ConcurrentHashMap<>();
+    // 服务端在 ready 中声明 audioFrameVersion 后，下行音频帧携带 AudioFrameHeader
+    private volatile boolean framedAudio = false;
+
+    private volatile boolean ready = false;
+
+    private final Map<String, Long> asrDoneAtMs = new HashMap<>();
+    private final Set<String> firstAudioReported = new HashSet<>();
+
+    private final Map<String, StringBuilder> assistantBuffers = new HashMap<>();
+    private @Nullable String activeResponseId = null;
+    private final Map<String, Integer> playbackDisplayedIndex = new HashMap<>();
+    private final Set<String> ttsManagedResponses = new HashSet<>();
+    private final Map<String, StringBuilder> playbackTextBuffers = new HashMap<>();
+
+    private final Set<String> finalizedResponses = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final TurnMetrics turnMetrics = new TurnMetrics();
+
+    // 歌曲相关状态
+    private Mode mode = Mode.CHAT;
+    private @Nullable String currentSongId = null;
+    private int currentSongUid = 0;
+    private @Nullable String currentSongName = null;
+    private int currentSongSeq = 0;
+    private boolean songPaused = false;
+    private final Set<String> processedSongChunks = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    // 歌曲缓冲区
+    private final Map<String, ByteArrayOutputStream> songBuffers = new ConcurrentHashMap<>();
+    private static final int SONG_BUFFER_THRESHOLD = 2 * 1024 * 1024; // 2MB
+
+    // 防抖/校验：仅当收到当前歌曲音频后，才接受 song_end；每首歌只入队一次结束标记
+    private volatile boolean currentSongAudioReceived = false;
+    private volatile boolean currentSongEndQueued = false;
+    private final Set<String> notifiedSongEnd = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private final Clock clock;
+    private final Transport transport;
+    private final Player player;
+    private final Listener listener;
+    private volatile Tracer tracer = Tracer.NONE;
+    private volatile TtsCache ttsCache = TtsCache.NONE;
+    // 缓存作用域「角色|音色」：来自 ready / character_switched，未知时不按文本计算缓存键
+    private volatile @Nullable String cacheScope;
+    // 正在读缓存的 tts_cached 段及其后同一回复的段：按到达顺序排队，读完后依次入队播放，保证段序不乱
+    private static final class DeferredSegment {
+        final int sequence; final boolean isFinal;
+        @Nullable byte[] audio; String text; String mime;
+        boolean loading;
+        DeferredSegment(int s, boolean f){ sequence=s; isFinal=f; }
+    }
+    private final ArrayDeque<DeferredSegment> deferredSegments = new ArrayDeque<>();
+    private @Nullable String deferredResponseId;
+    private volatile LocalSpeech localSpeech = LocalSpeech.NONE;
+    private volatile boolean localTtsEnabled = false;
+    // 兜底接管中的回复及已交给本地朗读的文本长度（assistantBuffers 下标）
+    private @Nullable String localResponseId;
+    private int localSpokenChars = 0;
+    // 服务端音频已到：不再追加本地朗读，读完当前队列后交给播放器
+    private boolean localServerAudio = false;
+    // 整轮由本地读完：之后到达的服务端段全部丢弃
+    private boolean localFull = false;
+    // 兜底中的回复已收到 llm_complete：剩余文本可一次读完
+    private boolean localTextComplete = false;
+    // 最近一次收到 llm_complete 的回复（兜底可能晚于 llm_complete 才开始）
+    private @Nullable String llmCompletedResponseId;
+    private volatile boolean localSpeaking = false;
+    private boolean playerHeldForLocal = false;
+    // 服务端 TTS 段文本的累计长度（按回复）
+    private @Nullable String serverTextResponseId;
+    private int serverTextChars = 0;
+
+    public ChatProtocolEngine(@NonNull Clock clock, @NonNull Transport transport,
+                              @NonNull Player player, @NonNull Listener listener) {
+        this.clock = clock;
+        this.transport = transport;
+        this.player = player;
+        this.listener = listener;
+    }
+
+    public void setTracer(@Nullable Tracer tracer){
+        this.tracer = tracer != null ? tracer : Tracer.NONE;
+    }
+
+    public void setTtsCache(@Nullable TtsCache cache){
+        this.ttsCache = cache != null ? cache : TtsCache.NONE;
+    }
+
+    public void setLocalSpeech(@Nullable LocalSpeech speech){
+        this.localSpeech = speech != null ? speech : LocalSpeech.NONE;
+    }
+
+    /** 是否在首包音频超时时用端侧 TTS 兜底（默认关闭） */
+    public synchronized void setLocalTtsFallbackEnabled(boolean enabled){
+        localTtsEnabled = enabled;
+        if (!enabled) stopLocalSpeech();
+    }
+
+    // ====== 连接状态 ======
+
+    /** 已收到服务端 ready 且之后未断开 */
+    public boolean isReady(){
+        return ready;
+    }
+
+    /** 连接中/断开/关闭时调用，直到下一次 ready */
+    public void markNotReady(){
+        ready = false;
+    }
+
+    // ====== 下行消息 ======
+
+    public synchronized void handleText(@NonNull String raw){
+        Tracer t = tracer;
+        boolean traced = false;
+        try {
+            JSONObject obj = new JSONObject(raw);
+            String type = obj.optString("type");
+            if (t.isEnabled()) { t.beginSection("chat.json " + type); traced = true; }
+            String r1 = obj.optString("responseId");
+            String r2 = obj.optString("requestId");
+            String responseId = !r1.isEmpty()? r1 : (!r2.isEmpty()? r2 : null);
+            switch (type){
+                case "ready":
+                    ready = true; log("服务器 ready");
+                    framedAudio = obj.optInt("audioFrameVersion", 0) >= AudioFrameHeader.VERSION;
+                    probeSupported = obj.optBoolean("bandwidthProbe", false);
+                    String mux = obj.optString("muxGateway", "");
+                    muxGatewayUrl = !mux.isEmpty() ? mux : null;
+                    // 上一条连接上未回的探测作废
+                    probeOutstandingId = -1;
+                    clock.removeCallbacks(probeTimeout);
+                    sendQualityReport();
+                    if (probeSupported) runBandwidthProbe();
+                    // 新会话不记得降级状态，ready 后重申
+                    if (textFirst) sendTtsMode();
+                    updateCacheScope(obj);
+                    listener.onServerReady();
+                    break;
+                case "audio_format": {
+                    // 服务端中途切换编码参数（如降档改用低码率/其他编码）；已开始的段保持原格式
+                    String mime = obj.optString("mime", "");
+                    if (mime.isEmpty()) mime = mimeForCodec(obj.optString("codec", ""));
+                    downlinkMime = mime;
+                    if (MIME_PCM.equals(mime)) {
+                        pcmSampleRate = obj.optInt("sampleRate", PCM_DEFAULT_SAMPLE_RATE);
+                        pcmChannels = Math.max(1, obj.optInt("channels", 1));
+                    }
+                    log("下行音频格式 -> "+mime+" bitrate="+obj.optInt("bitrate", -1)+" sampleRate="+obj.optInt("sampleRate", -1));
+                    break;
+                }
+                case "character_switched":
+                    // 带内切换确认：连接与播放器保持不变；上层在确认回调中重置会话，之后再确定新角色的缓存作用域
+                    listener.onCharacterSwitchAck(obj.optInt("characterId", -1));
+                    updateCacheScope(obj);
+                    break;
+                case "switch_character_rejected":
+                    // 服务端不支持带内切换（如需重新鉴权），由上层改走先建后断的新连接
+                    listener.onCharacterSwitchRejected(obj.optString("reason"));
+                    break;
+                case "limit_exceeded":
+                    debug("handleText: limit_exceeded received");
+                    listener.onLimitExceeded();
+                    break;
+                case "speech_end":
+                case "vad_end":
+                    // 服务端端点检测判定说话结束（未下发时本轮从最终识别结果起算）
+                    markTurn(TurnMetrics.SPEECH_END, null);
+                    break;
+                case "transcript": {
+                    String text = obj.optString("sanitized", obj.optString("text"));
+                    if (!text.isEmpty()) listener.onUserTranscript(text);
+                    boolean isFinal = obj.optBoolean("final", obj.optBoolean("is_final", false));
+                    if (isFinal) markTurn(TurnMetrics.FINAL_TRANSCRIPT, responseId);
+                    if (isFinal && responseId != null) {
+                        asrDoneAtMs.put(responseId, clock.nowMs());
+                    }
+                    break; }
+                case "llm_request": {
+                    if (responseId != null) asrDoneAtMs.put(responseId, clock.nowMs());
+                    startNewResponse(responseId);
+                    markTurn(TurnMetrics.LLM_REQUEST, responseId);
+                    if (responseId != null) watchFirstAudio(responseId);
+                    if (responseId != null) watchLocalFallback(responseId);
+                    String userText = obj.optString("text");
+                    if (!userText.isEmpty()) listener.onUserTranscript(userText);
+                    log("LLM 请求中");
+                    break;
+                }
+                case "llm_delta": {
+                    String delta = obj.optString("content");
+                    if (responseId != null && !delta.isEmpty()) {
+                        markTurn(TurnMetrics.FIRST_DELTA, responseId);
+                        StringBuilder sb = getOrCreateStringBuilder(assistantBuffers, responseId);
+                        sb.append(delta);
+                        // 文字优先：增量立即展示并推进已展示位置，之后若仍有 TTS 段不再重复其文本
+                        if (textFirst && isActiveResponse(responseId)) showPendingText(responseId);
+                        if (responseId.equals(localResponseId) && !localServerAudio) speakLocalSentences(responseId, false);
+                    }
+                    break;
+                }
+                case "llm_complete": {
+                    if (responseId != null) llmCompletedResponseId = responseId;
+                    if (responseId != null && responseId.equals(localResponseId)) localTextComplete = true;
+                    // 兜底中且服务端音频仍未到：网络太慢，剩余文本也由本地读完
+                    if (responseId != null && responseId.equals(localResponseId) && !localServerAudio) {
+                        if (!localFull) {
+                            localFull = true;
+                            turnMetrics.markLocalTts(responseId, TurnMetrics.LOCAL_TTS_FULL);
+                            log("端侧 TTS 读完整轮 r="+responseId);
+                        }
+                        speakLocalSentences(responseId, true);
+                    }
+                    if (responseId != null && ttsManagedResponses.contains(responseId) && !textFirst) {
+                        log("LLM 完成(随播已接管)");
+                    } else {
+                        if (responseId != null) {
+                            String finalText = obj.optString("text", obj.optString("content", ""));
+                            finalizeAssistantResponse(responseId, finalText);
+                        }
+                        log("LLM 完成");
+                    }
+                    break;
+                }
+                case "tts_start": {
+                    if (responseId != null) {
+                        if (!responseId.equals(activeResponseId)) {
+                            startNewResponse(responseId);
+                        }
+                        if (isActiveResponse(responseId) && textFirst) {
+                            // 文字优先期间服务端仍推 TTS（未遵从或未收到 tts_mode）：本地不建段，音频帧随之丢弃，文本照常展示
+                            suppressTtsInTextFirst(responseId, obj.optString("text", obj.optString("content", "")));
+                        } else if (isActiveResponse(responseId)) {
+                            int seq = obj.optInt("sequence");
+                            boolean isFinalSeg = obj.optBoolean("isFinal", obj.optBoolean("final", false));
+                            TtsStreamJob job = new TtsStreamJob(responseId, seq, isFinalSeg);
+                            String text = obj.optString("text", obj.optString("content", ""));
+                            job.textDelta = !text.isEmpty() ? text : pendingDisplayText(responseId);
+                            // 键不区分码率与编码：只缓存高音质档位、且已知作用域的台词，避免低码率音频被长期复用
+                            if (obj.optBoolean("cacheable", false) && cacheScope != null && QUALITY_HIGH.equals(qualityTier)) {
+                                job.cacheKey = cacheKeyFor(obj, text);
+                            }
+                            if (!responseId.equals(serverTextResponseId)) { serverTextResponseId = responseId; serverTextChars = 0; }
+                            job.textStart = serverTextChars;
+                            job.textLength = text.length();
+                            serverTextChars += text.length();
+                            String segMime = obj.optString("mime", "");
+                            job.mime = !segMime.isEmpty() ? segMime
+                                    : obj.has("codec") ? mimeForCodec(obj.optString("codec")) : downlinkMime;
+                            activeStreamJob = job;
+                            streamJobs.put(AudioFrameHeader.key(AudioFrameHeader.streamIdOf(responseId), seq), job);
+                            ttsManagedResponses.add(responseId);
+                            getOrCreateStringBuilder(playbackTextBuffers, responseId);
+                            markTurn(TurnMetrics.TTS_START, responseId);
+                            log("tts_start r="+responseId+" s="+seq);
+                        }
+                    }
+                    break;
+                }
+                case "tts_end": {
+                    int seq = obj.optInt("sequence");
+                    TtsStreamJob job = activeStreamJob;
+                    if (framedAudio && responseId != null) {
+                        job = streamJobs.remove(AudioFrameHeader.key(AudioFrameHeader.streamIdOf(responseId), seq));
+                    }
+                    if (job != null && responseId != null && responseId.equals(job.requestId) && seq == job.sequence) {
+                        String reason = obj.optString("reason");
+                        if ("completed".equals(reason)) {
+                            // 优先以 tts_end 携带的 isFinal/final 为准，若缺失再回退到 tts_start 的标志
+                            boolean isFinalSeg = obj.has("isFinal") || obj.has("final")
+                                    ? obj.optBoolean("isFinal", obj.optBoolean("final", false))
+                                    : job.isFinal;
+                            if (job.requestId.equals(localResponseId) && coveredLocally(job, isFinalSeg)) {
+                                // 端侧已读过这段：丢弃服务端音频，文本早已展示
+                                debug("端侧已朗读，丢弃服务端段 r="+job.requestId+" s="+job.sequence);
+                                if (isFinalSeg) {
+                                    finalizeAssistantResponse(job.requestId, null);
+                                    ttsManagedResponses.remove(job.requestId);
+                                    playbackTextBuffers.remove(job.requestId);
+                                    playbackDisplayedIndex.remove(job.requestId);
+                                }
+                            } else if (!job.chunks.isEmpty()) {
+                                if (framedAudio && !job.lastChunkReceived) log("tts_end 早于最后一块音频 r="+job.requestId+" s="+job.sequence);
+                                byte[] merged = merge(new ArrayList<>(job.chunks.values()));
+                                if (MIME_PCM.equals(job.mime)) {
+                                    merged = wrapPcm(merged);
+                                    job.mime = "audio/wav";
+                                }
+                                String scope = cacheScope;
+                                if (job.cacheKey != null && scope != null && (!framedAudio || job.lastChunkReceived)) {
+                                    try { ttsCache.put(job.cacheKey, scope, merged, job.mime); } catch (Exception ignored) {}
+                                }
+                                // 这里传入最终段标志，确保单段语音也能触发 onAssistantFinal
+                                enqueueSegment(job.requestId, job.sequence, merged, job.textDelta, isFinalSeg, job.mime);
+                            } else {
+                                // 无音频块的完成：直接按文本结束，避免遗漏 onSegmentEnd
+                                if (isFinalSeg) {
+                                    finalizeAssistantResponse(job.requestId, job.textDelta);
+                                } else if (job.textDelta != null && !job.textDelta.isEmpty()) {
+                                    try { listener.onAssistantDelta(job.textDelta); } catch (Exception ignored) {}
+                                }
+                                ttsManagedResponses.remove(job.requestId);
+                                playbackTextBuffers.remove(job.requestId);
+                                playbackDisplayedIndex.remove(job.requestId);
+                            }
+                        } else {
+                            log("TTS 未完成, reason="+reason);
+                        }
+                    }
+                    activeStreamJob = null;
+                    log("tts_end r="+responseId);
+                    break;
+                }
+                case "bandwidth_probe": {
+                    onProbeReply(obj.optInt("id", -1), raw.length());
+                    break;
+                }
+                case "tts_cached": {
+                    if (responseId != null && mode == Mode.CHAT) playCachedTts(responseId, obj);
+                    break;
+                }
+                case "tts_cancel": {
+                    if (responseId != null) {
+                        cancelTtsForResponse(responseId);
+                        playbackTextBuffers.remove(responseId);
+                        ttsManagedResponses.remove(responseId);
+                        log("tts_cancel r="+responseId);
+                    }
+                    break;
+                }
+                case "song_end": {
+                    if (mode == Mode.SONG && currentSongId != null) {
+                        // 如服务端带 songId，做严格校验；否则仅在已收到当前歌曲音频后才接受此结束
+                        int serverSongId = obj.has("songId") ? obj.optInt("songId", -1) : -1;
+                        int expected = currentSongUid & 0xFFFF;
+                        if (serverSongId != -1 && (serverSongId & 0xFFFF) != expected) {
+                            debug("忽略非当前歌曲的结束信号 serverSongId="+serverSongId+", expected="+expected);
+                            break;
+                        }
+                        if (!currentSongAudioReceived) {
+                            debug("忽略过期/抢先到达的歌曲结束信号（当前歌曲尚未收到音频）: " + currentSongName + "," + currentSongUid);
+                            break;
+                        }
+                        if (currentSongEndQueued) {
+                            debug("忽略重复歌曲结束信号: " + currentSongName + "," + currentSongUid);
+                            break;
+                        }
+
+                        log("收到歌曲结束信号: " + currentSongName+","+currentSongUid);
+                        // 清空缓冲区，发送剩余音频
+                        flushSongBuffer(currentSongId);
+                        // 在队列中添加结束标识
+                        enqueueTts(currentSongId, currentSongSeq++, new byte[0], "", true);
+                        currentSongEndQueued = true;
+                    }
+                    break;
+                }
+                default:
+                    log("事件: "+type);
+            }
+        } catch (Exception e){ log("解析错误: "+e.getMessage()); }
+        finally { if (traced) t.endSection(); }
+    }
+
+    public synchronized void handleBinary(@NonNull byte[] bytes){
+        Tracer t = tracer;
+        if (!t.isEnabled()) { dispatchBinary(bytes); return; }
+        t.beginSection("chat.binary");
+        try { dispatchBinary(bytes); } finally { t.endSection(); }
+    }
+
+    private void dispatchBinary(@NonNull byte[] bytes){
+        if (framedAudio) {
+            handleFramedBinary(bytes);
+            return;
+        }
+        // 歌曲模式下直接处理歌曲流
+        if (mode == Mode.SONG) {
+            handleSongBinary(bytes);
+            return;
+        }
+
+        TtsStreamJob job = activeStreamJob;
+        if (job != null && isActiveResponse(job.requestId)) {
+            reportFirstAudio(job.requestId);
+            job.chunks.put(job.nextArrivalIndex++, bytes);
+        }
+    }
+
+    /** 带帧头的下行音频：仅凭帧头定位所属流，过期/已取消流的帧直接丢弃 */
+    private void handleFramedBinary(@NonNull byte[] bytes){
+        AudioFrameHeader h = AudioFrameHeader.parse(bytes);
+        if (h == null) {
+            debug("丢弃无效音频帧（帧头缺失或版本不符），len=" + bytes.length);
+            return;
+        }
+        byte[] body = Arrays.copyOfRange(bytes, h.headerLength, bytes.length);
+        if (h.streamType == AudioFrameHeader.STREAM_SONG) {
+            if (mode != Mode.SONG) {
+                debug("非歌曲模式，丢弃歌曲帧 songId=" + h.streamId);
+                return;
+            }
+            ensureSongSession();
+            acceptSongBody(h.streamId, currentSongUid, body);
+            return;
+        }
+        if (h.streamType != AudioFrameHeader.STREAM_TTS) return;
+        TtsStreamJob job = streamJobs.get(AudioFrameHeader.key(h.streamId, h.segment));
+        if (job == null || !isActiveResponse(job.requestId)) {
+            debug("丢弃过期 TTS 帧 stream=" + h.streamId + " seg=" + h.segment + " chunk=" + h.chunkIndex);
+            return;
+        }
+        reportFirstAudio(job.requestId);
+        if (job.chunks.put(h.chunkIndex, body) != null) {
+            debug("重复 TTS 帧 r=" + job.requestId + " seg=" + h.segment + " chunk=" + h.chunkIndex);
+        }
+        if (h.isLast()) job.lastChunkReceived = true;
+    }
+
+    private void reportFirstAudio(@NonNull String requestId){
+        if (requestId.equals(localResponseId) && !localServerAudio && !localFull) handOverFromLocal(requestId);
+        if (firstAudioReported.contains(requestId)) return;
+        Long start = asrDoneAtMs.get(requestId);
+        long now = clock.nowMs();
+        markTurn(TurnMetrics.FIRST_AUDIO, requestId);
+        if (start != null && now >= start) {
+            long latency = now - start;
+            listener.onFirstAudioLatency(latency);
+        }
+        firstAudioReported.add(requestId);
+        asrDoneAtMs.remove(requestId);
+        if (start != null) recordFirstAudioOutcome(now - start <= FIRST_AUDIO_BUDGET_MS, requestId);
+    }
+
+    private void removeStreamJobs(@NonNull String responseId){
+        for (Iterator<TtsStreamJob> it = streamJobs.values().iterator(); it.hasNext(); ) {
+            if (responseId.equals(it.next().requestId)) it.remove();
+        }
+    }
+
+    // ====== 播放器事件（由 Player 实现方在播放线程回调） ======
+
+    public synchronized void onSegmentStart(@NonNull String requestId, int sequence, @NonNull String textDelta){
+        // 播放器真正开始出声（首段）
+        markTurn(TurnMetrics.AUDIBLE, requestId);
+        if (!textDelta.isEmpty()) {
+            StringBuilder buf = getOrCreateStringBuilder(playbackTextBuffers, requestId);
+            buf.append(textDelta);
+            try { listener.onAssistantDelta(textDelta); } catch (Exception ignored) {}
+            int shown = getOrDefaultCompat(playbackDisplayedIndex, requestId, 0);
+            playbackDisplayedIndex.put(requestId, shown + textDelta.length());
+        }
+    }
+
+    public synchronized void onSegmentEnd(@NonNull String requestId, int sequence, boolean isFinalSegment, boolean canceled){
+        if (!canceled && isFinalSegment) {
+            StringBuilder buf = playbackTextBuffers.remove(requestId);
+            String content = (buf != null) ? buf.toString().trim() : "";
+            if (!content.isEmpty()) {
+                finalizeAssistantResponse(requestId, content);
+            }
+            ttsManagedResponses.remove(requestId);
+            playbackDisplayedIndex.remove(requestId);
+        }
+    }
+
+    public synchronized void onQueueIdle(){
+        if (mode == Mode.SONG) {
+            // 仅停止继续播放，不切回聊天：留在 SONG 模式等待下一首或用户操作
+            log("歌曲播放完成，音频队列已空");
+        }
+    }
+
+    /** 播放器按积压调速或跳段：计入本轮指标（type=turn 报告中的 playout），随轮次/会话报告上报 */
+    public synchronized void onPlayoutAdjusted(long backlogMs, float speed, int skippedSegments){
+        turnMetrics.markPlayout(backlogMs, speed, skippedSegments);
+    }
+
+    public synchronized void onSongEndMarker(@NonNull String requestId){
+        debug("onSongEndMarker: currentSongId=" + currentSongId +
+                ", currentSongUid=" + currentSongUid +
+                ", currentSongName=" + currentSongName + ", requestId=" + requestId +
+                ", mode=" + mode);
+
+        if (mode == Mode.SONG && requestId.equals(currentSongId)) {
+            // 去重：同一首歌只触发一次
+            if (!notifiedSongEnd.add(requestId)) {
+                debug("忽略重复歌曲结束标记: " + requestId);
+                return;
+            }
+            log("收到歌曲结束标记，触发歌曲结束事件: " + currentSongName);
+            try {
+                listener.onSongEnd(currentSongUid, currentSongName != null ? currentSongName : "未知歌曲");
+            } catch (Exception ignored) {}
+            // 不清除歌曲状态、不自动切换模式，由调用者决定后续行为
+        }
+    }
+
+    // ====== 回复生命周期 ======
+
+    private boolean isActiveResponse(@Nullable String responseId){
+        if (responseId == null) return activeResponseId == null;
+        return activeResponseId == null || responseId.equals(activeResponseId);
+    }
+
+    private void startNewResponse(@Nullable String responseId){
+        if (responseId == null) return;
+        if (localResponseId != null && !localResponseId.equals(responseId)) stopLocalSpeech();
+        if (activeResponseId != null) {
+            removeStreamJobs(activeResponseId);
+            // 被打断回复的未完成段：之后迟到的 tts_end 不再把已收到的音频入队
+            TtsStreamJob job = activeStreamJob;
+            if (job != null && activeResponseId.equals(job.requestId)) activeStreamJob = null;
+            asrDoneAtMs.remove(activeResponseId);
+            firstAudioReported.remove(activeResponseId);
+            finalizeAssistantResponse(activeResponseId, null);
+            dropDeferredSegments(null);
+            player.clear();
+            playbackTextBuffers.remove(activeResponseId);
+            ttsManagedResponses.remove(activeResponseId);
+            playbackDisplayedIndex.remove(activeResponseId);
+        }
+        activeResponseId = responseId;
+        getOrCreateStringBuilder(assistantBuffers, responseId).setLength(0);
+        playbackDisplayedIndex.put(responseId, 0);
+    }
+
+    private void finalizeAssistantResponse(@NonNull String responseId, @Nullable String finalText){
+        boolean first = finalizedResponses.add(responseId);
+        if (first) markTurn(TurnMetrics.FINAL, responseId);
+        StringBuilder sb = assistantBuffers.remove(responseId);
+        String content = (finalText != null && !finalText.isEmpty()) ? finalText : (sb != null ? sb.toString() : "");
+        if (first && !content.isEmpty()) listener.onAssistantFinal(content.trim());
+        if (responseId.equals(activeResponseId)) activeResponseId = null;
+    }
+
+    /** 回复中已收到但尚未随播放展示的文本（tts_start 未携带文本时作为该段文本） */
+    @NonNull
+    private String pendingDisplayText(@NonNull String responseId){
+        StringBuilder buf = assistantBuffers.get(responseId);
+        int shown = getOrDefaultCompat(playbackDisplayedIndex, responseId, 0);
+        return buf != null && buf.length() > shown ? buf.substring(shown) : "";
+    }
+
+    // ====== 端侧 TTS 兜底 ======
+
+    private void watchLocalFallback(@NonNull String responseId){
+        if (!localTtsEnabled) return;
+        clock.postDelayed(() -> maybeStartLocalFallback(responseId), LOCAL_TTS_BUDGET_MS);
+    }
+
+    private synchronized void maybeStartLocalFallback(@NonNull String responseId){
+        if (!localTtsEnabled || mode != Mode.CHAT || !responseId.equals(activeResponseId)) return;
+        if (responseId.equals(localResponseId) || finalizedResponses.contains(responseId)) return;
+        // 服务端音频已到则无需兜底
+        if (firstAudioReported.contains(responseId)) return;
+        if (!localSpeech.isReady()) {
+            log("端侧 TTS 未就绪，跳过兜底 r="+responseId);
+            return;
+        }
+        localResponseId = responseId;
+        localSpokenChars = 0;
+        localServerAudio = false;
+        localFull = false;
+        localTextComplete = responseId.equals(llmCompletedResponseId);
+        playerHeldForLocal = false;
+        turnMetrics.markLocalTts(responseId, TurnMetrics.LOCAL_TTS_PARTIAL);
+        log("首包音频超过 "+LOCAL_TTS_BUDGET_MS+"ms，端侧 TTS 兜底 r="+responseId);
+        speakLocalSentences(responseId, localTextComplete);
+    }
+
+    /** 把已完整的句子（all 时为全部剩余文本）交给本地朗读，并按朗读进度展示文本 */
+    private void speakLocalSentences(@NonNull String responseId, boolean all){
+        StringBuilder buf = assistantBuffers.get(responseId);
+        if (buf == null) return;
+        int from = Math.min(localSpokenChars, buf.length());
+        int end = all ? buf.length() : speakableEnd(buf, from);
+        if (end <= localSpokenChars) return;
+        String text = buf.substring(localSpokenChars, end).trim();
+        localSpokenChars = end;
+        int shown = Math.min(getOrDefaultCompat(playbackDisplayedIndex, responseId, 0), end);
+        if (end > shown) {
+            String delta = buf.substring(shown, end);
+            getOrCreateStringBuilder(playbackTextBuffers, responseId).append(delta);
+            playbackDisplayedIndex.put(responseId, end);
+            try { listener.onAssistantDelta(delta); } catch (Exception ignored) {}
+        }
+        if (text.isEmpty()) return;
+        localSpeaking = true;
+        markTurn(TurnMetrics.AUDIBLE, responseId);
+        try { localSpeech.speak(text); } catch (Exception ignored) {}
+    }
+
+    /** from 之后最后一个句末标点之后的位置；没有句末标点但已较长时退到最后一个逗号；都没有返回 from */
+    private static int speakableEnd(@NonNull CharSequence buf, int from){
+        int clause = -1;
+        for (int i = buf.length() - 1; i >= from; i--) {
+            char c = buf.charAt(i);
+            if (SENTENCE_ENDS.indexOf(c) >= 0) return i + 1;
+            if (clause < 0 && CLAUSE_ENDS.indexOf(c) >= 0) clause = i + 1;
+        }
+        return clause > 0 && buf.length() - from >= LOCAL_TTS_MIN_CLAUSE_CHARS ? clause : from;
+    }
+
+    /**
+     * 服务端段是否由本地朗读覆盖（覆盖则丢弃其音频）。
+     * 段的前半已由本地读过时，服务端音频会重复播放已读部分：改为整轮由本地读完，放开播放器并续读剩余文本。
+     */
+    private boolean coveredLocally(@NonNull TtsStreamJob job, boolean isFinalSeg){
+        if (localFull) return true;
+        if (job.textLength == 0) return false;
+        if (job.textStart + job.textLength <= localSpokenChars) return true;
+        if (job.textStart >= localSpokenChars) return false;
+        localFull = true;
+        localServerAudio = false;
+        releaseHeldPlayer();
+        turnMetrics.markLocalTts(job.requestId, TurnMetrics.LOCAL_TTS_FULL);
+        log("服务端段与端侧朗读部分重叠，改由端侧读完整轮 r="+job.requestId+" s="+job.sequence);
+        // 末段到达说明服务端文本已全部给出；否则已完整的句子先读，其余随 llm_delta / llm_complete 续读
+        speakLocalSentences(job.requestId, localTextComplete || isFinalSeg);
+        return true;
+    }
+
+    /** 服务端音频到达：停止追加本地朗读；本地还在读则先按住播放器，读完当前队列再交接 */
+    private void handOverFromLocal(@NonNull String responseId){
+        localServerAudio = true;
+        if (localFull) return;
+        if (localSpeaking && !playerHeldForLocal) {
+            playerHeldForLocal = true;
+            try { player.pause(); } catch (Exception ignored) {}
+        }
+        log("服务端音频到达，端侧 TTS 读完当前句后交接 r="+responseId);
+    }
+
+    /** 端侧朗读队列已读完（由 LocalSpeech 实现方回调，任意线程） */
+    public synchronized void onLocalSpeechIdle(){
+        localSpeaking = false;
+        releaseHeldPlayer();
+    }
+
+    private void releaseHeldPlayer(){
+        if (!playerHeldForLocal) return;
+        playerHeldForLocal = false;
+        try { player.resume(); } catch (Exception ignored) {}
+    }
+
+    /** 停止兜底朗读并放开播放器（新回复、取消、断开时） */
+    public synchronized void stopLocalSpeech(){
+        if (localResponseId == null && !localSpeaking) return;
+        localResponseId = null;
+        localSpeaking = false;
+        localFull = false;
+        localTextComplete = false;
+        try { localSpeech.stop(); } catch (Exception ignored) {}
+        releaseHeldPlayer();
+    }
+
+    // ====== TTS 缓存 ======
+
+    private void updateCacheScope(@NonNull JSONObject obj){
+        if (!obj.has("characterId")) return;
+        cacheScope = TtsCacheKey.scope(obj.optInt("characterId", -1), obj.optString("voice", ""));
+        announceCachedTts();
+    }
+
+    /** 服务端给出的 cacheKey 优先；否则按当前作用域与文本计算 */
+    @Nullable
+    private String cacheKeyFor(@NonNull JSONObject obj, @NonNull String text){
+        String key = obj.optString("cacheKey", "");
+        if (!key.isEmpty()) return key;
+        String scope = cacheScope;
+        return scope != null && !text.isEmpty() ? TtsCacheKey.of(scope, text) : null;
+    }
+
+    /** 连接 ready / 切换角色后告知服务端本地已缓存的台词，服务端可改发 tts_cached 引用 */
+    private void announceCachedTts(){
+        String scope = cacheScope;
+        if (scope == null) return;
+        List<String> keys;
+        try { keys = ttsCache.keys(scope, MAX_ANNOUNCED_CACHE_KEYS); } catch (Exception e) { return; }
+        if (keys.isEmpty()) return;
+        JSONObject msg = new JSONObject();
+        try {
+            msg.put("type", "tts_cache_keys");
+            msg.put("scope", scope);
+            msg.put("keys", new JSONArray(keys));
+        } catch (Exception ignored) {}
+        transport.sendControl(msg.toString(), CONTROL_KEY_TTS_CACHE, CONTROL_TTL_TTS_CACHE_MS);
+        log("已声明本地 TTS 缓存 " + keys.size() + " 条");
+    }
+
+    /**
+     * 服务端引用已缓存台词：异步读缓存，期间同一回复后续到达的段排在其后；
+     * 命中则零下行入队播放，未命中回 tts_cache_miss，由服务端改为正常推流。
+     */
+    private void playCachedTts(@NonNull String responseId, @NonNull JSONObject obj){
+        int seq = obj.optInt("sequence");
+        String text = obj.optString("text", "");
+        String key = cacheKeyFor(obj, text);
+        if (key == null) {
+            sendCacheMiss(responseId, seq, "");
+            return;
+        }
+        if (!responseId.equals(activeResponseId)) startNewResponse(responseId);
+        if (!isActiveResponse(responseId)) return;
+        ttsManagedResponses.add(responseId);
+        getOrCreateStringBuilder(playbackTextBuffers, responseId);
+        markTurn(TurnMetrics.TTS_START, responseId);
+        DeferredSegment seg = new DeferredSegment(seq, obj.optBoolean("isFinal", obj.optBoolean("final", false)));
+        seg.text = !text.isEmpty() ? text : pendingDisplayText(responseId);
+        seg.loading = true;
+        if (!responseId.equals(deferredResponseId)) dropDeferredSegments(null);
+        deferredResponseId = responseId;
+        deferredSegments.addLast(seg);
+        try {
+            ttsCache.load(key, audio -> onCachedTtsLoaded(responseId, seg, key, audio));
+        } catch (Exception e) {
+            onCachedTtsLoaded(responseId, seg, key, null);
+        }
+    }
+
+    private synchronized void onCachedTtsLoaded(@NonNull String responseId, @NonNull DeferredSegment seg,
+                                                @NonNull String key, @Nullable CachedAudio audio){
+        // 读盘期间回复已被打断或会话已重置
+        if (!seg.loading || !responseId.equals(deferredResponseId)) return;
+        seg.loading = false;
+        if (audio == null) {
+            deferredSegments.remove(seg);
+            sendCacheMiss(responseId, seg.sequence, key);
+        } else {
+            seg.audio = audio.audio;
+            seg.mime = audio.mime;
+            reportFirstAudio(responseId);
+            log("tts_cached 命中 r="+responseId+" s="+seg.sequence+" bytes="+audio.audio.length);
+        }
+        flushDeferredSegments();
+    }
+
+    private void sendCacheMiss(@NonNull String responseId, int seq, @NonNull String key){
+        JSONObject miss = new JSONObject();
+        try {
+            miss.put("type", "tts_cache_miss");
+            miss.put("responseId", responseId);
+            miss.put("sequence", seq);
+            miss.put("cacheKey", key);
+        } catch (Exception ignored) {}
+        transport.sendControl(miss.toString(), CONTROL_KEY_TTS_CACHE + ":" + responseId + ":" + seq, CONTROL_TTL_TTS_CACHE_MISS_MS);
+        log("tts_cached 未命中 r="+responseId+" s="+seq);
+    }
+
+    /** 段入队播放；该回复前面还有未读完的缓存段时先排队 */
+    private void enqueueSegment(@NonNull String requestId, int sequence, @NonNull byte[] audio, @NonNull String textDelta,
+                                boolean isFinalSegment, @NonNull String mime){
+        if (requestId.equals(deferredResponseId) && !deferredSegments.isEmpty()) {
+            DeferredSegment seg = new DeferredSegment(sequence, isFinalSegment);
+            seg.audio = audio;
+            seg.text = textDelta;
+            seg.mime = mime;
+            deferredSegments.addLast(seg);
+            return;
+        }
+        player.enqueue(requestId, sequence, audio, textDelta, isFinalSegment, mime);
+    }
+
+    private void flushDeferredSegments(){
+        String responseId = deferredResponseId;
+        if (responseId == null) return;
+        while (!deferredSegments.isEmpty() && !deferredSegments.peekFirst().loading) {
+            DeferredSegment seg = deferredSegments.pollFirst();
+            player.enqueue(responseId, seg.sequence, seg.audio, seg.text, seg.isFinal, seg.mime);
+        }
+        if (deferredSegments.isEmpty()) deferredResponseId = null;
+    }
+
+    /** 丢弃排队中的段；responseId 为 null 时不论属于哪个回复 */
+    private void dropDeferredSegments(@Nullable String responseId){
+        if (responseId != null && !responseId.equals(deferredResponseId)) return;
+        for (DeferredSegment seg : deferredSegments) seg.loading = false;
+        deferredSegments.clear();
+        deferredResponseId = null;
+    }
+
+    private void enqueueTts(@NonNull String requestId, int sequence, @NonNull byte[] audio, @NonNull String textDelta, boolean isFinalSegment){
+        String mime = downlinkMime;
+        if (MIME_PCM.equals(mime) && audio.length > 0) {
+            audio = wrapPcm(audio);
+            mime = "audio/wav";
+        }
+        enqueueSegment(requestId, sequence, audio, textDelta, isFinalSegment, mime);
+    }
+
+    @NonNull
+    private static String mimeForCodec(@NonNull String codec){
+        switch (codec.toLowerCase(Locale.ROOT)) {
+            case "opus": return "audio/ogg";
+            case "aac": return "audio/aac";
+            case "wav": return "audio/wav";
+            case "pcm": return MIME_PCM;
+            default: return DEFAULT_MIME;
+        }
+    }
+
+    /** 16 位小端 PCM 前补 44 字节 WAV 头（采样参数取自 audio_format） */
+    @NonNull
+    private byte[] wrapPcm(@NonNull byte[] pcm){
+        int channels = pcmChannels;
+        int byteRate = pcmSampleRate * channels * 2;
+        ByteBuffer b = ByteBuffer.allocate(44 + pcm.length).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(new byte[]{'R', 'I', 'F', 'F'}).putInt(36 + pcm.length).put(new byte[]{'W', 'A', 'V', 'E'});
+        b.put(new byte[]{'f', 'm', 't', ' '}).putInt(16).putShort((short) 1).putShort((short) channels)
+                .putInt(pcmSampleRate).putInt(byteRate).putShort((short) (channels * 2)).putShort((short) 16);
+        b.put(new byte[]{'d', 'a', 't', 'a'}).putInt(pcm.length).put(pcm);
+        return b.array();
+    }
+
+    private void cancelTtsForResponse(@NonNull String responseId){
+        if (responseId.equals(localResponseId)) stopLocalSpeech();
+        dropDeferredSegments(responseId);
+        player.cancelForResponse(responseId);
+        removeStreamJobs(responseId);
+        playbackTextBuffers.remove(responseId);
+        ttsManagedResponses.remove(responseId);
+        playbackDisplayedIndex.remove(responseId);
+    }
+
+    /** 清空所有回复相关状态并回到聊天模式（断开/切换角色时调用）；有已完成轮次时上报会话时延汇总 */
+    public synchronized void resetConversation(){
+        JSONObject summary = turnMetrics.finishSession();
+        if (summary != null) reportTurnMetrics(summary);
+        assistantBuffers.clear();
+        activeResponseId = null;
+        activeStreamJob = null;
+        streamJobs.clear();
+        asrDoneAtMs.clear();
+        firstAudioReported.clear();
+        playbackTextBuffers.clear();
+        ttsManagedResponses.clear();
+        playbackDisplayedIndex.clear();
+        finalizedResponses.clear();
+        dropDeferredSegments(null);
+        // 角色可能随之变化，等下一次 ready / character_switched 再确定缓存作用域
+        cacheScope = null;
+        stopLocalSpeech();
+        serverTextResponseId = null;
+        serverTextChars = 0;
+        llmCompletedResponseId = null;
+        mode = Mode.CHAT;
+    }
+
+    /** 按顺序拼接音频块 */
+    @NonNull
+    public static byte[] merge(@NonNull List<byte[]> list){
+        int total = 0; for (byte[] a : list) total += a.length;
+        ByteBuffer out = ByteBuffer.allocate(total);
+        for (byte[] a : list) out.put(a);
+        return out.array();
+    }
+
+    // ====== 下行音质档位 ======
+
+    /**
+     * 传输层给出新的被动吞吐 / RTT 估计。被动吞吐是服务端发送速率，只作下界：
+     * 可佐证升档，不据此降档或进入文字优先；RTT 恶化仍立即降档，并在支持时发起一次探测确认带宽。
+     */
+    public synchronized void onDownlinkEstimate(long kbps, long smoothedRttMs){
+        String tier = tierFor(kbps, smoothedRttMs);
+        String current = qualityTier;
+        if (qualityRank(tier) > qualityRank(current)) {
+            updateQualityTier(tier, QUALITY_UPGRADE_CONFIRMATIONS, "被动 "+kbps+"kbps, srtt="+smoothedRttMs+"ms");
+        } else if (smoothedRttMs > QUALITY_LOW_MIN_RTT_MS && !QUALITY_LOW.equals(current)) {
+            updateQualityTier(QUALITY_LOW, QUALITY_UPGRADE_CONFIRMATIONS, "srtt="+smoothedRttMs+"ms");
+            if (probeSupported && probeOutstandingId < 0) runBandwidthProbe();
+        }
+    }
+
+    @NonNull
+    private static String tierFor(long kbps, long srttMs){
+        if (kbps < QUALITY_LOW_MAX_KBPS || srttMs > QUALITY_LOW_MIN_RTT_MS) return QUALITY_LOW;
+        if (kbps >= QUALITY_HIGH_MIN_KBPS && srttMs < QUALITY_HIGH_MAX_RTT_MS) return QUALITY_HIGH;
+        return QUALITY_MEDIUM;
+    }
+
+    private void updateQualityTier(@NonNull String tier, int upgradeConfirmations, @NonNull String reason){
+        String current = qualityTier;
+        if (tier.equals(current)) { qualityCandidate = null; qualityCandidateCount = 0; return; }
+        if (qualityRank(tier) > qualityRank(current)) {
+            if (!tier.equals(qualityCandidate)) { qualityCandidate = tier; qualityCandidateCount = 0; }
+            if (++qualityCandidateCount < upgradeConfirmations) return;
+        }
+        qualityCandidate = null;
+        qualityCandidateCount = 0;
+        setQualityTier(tier, reason);
+    }
+
+    private void setQualityTier(@NonNull String tier, @NonNull String reason){
+        String current = qualityTier;
+        qualityTier = tier;
+        long now = clock.nowMs();
+        if (QUALITY_LOW.equals(tier)) {
+            // 刚试升又降回：说明网络仍不足，加倍下一次试升前的停留时间
+            lowDwellMs = (lowExitedAtMs > 0 && now - lowExitedAtMs < QUALITY_LOW_DWELL_MAX_MS)
+                    ? Math.min(lowDwellMs * 2, QUALITY_LOW_DWELL_MAX_MS) : QUALITY_LOW_DWELL_MIN_MS;
+            lowEnteredAtMs = now;
+            clock.removeCallbacks(lowDwellStepUp);
+            if (!probeSupported) clock.postDelayed(lowDwellStepUp, lowDwellMs);
+            else scheduleProbe();
+        } else if (QUALITY_LOW.equals(current)) {
+            lowExitedAtMs = now;
+            clock.removeCallbacks(lowDwellStepUp);
+        }
+        log("下行音质档位 "+current+" -> "+tier+" ("+reason+")");
+        sendQualityReport();
+    }
+
+    /** 无探测能力时的低档位试升：停留期满且 RTT 正常则升到中档，由之后的 RTT / 首包情况决定是否再降 */
+    private synchronized void stepUpFromLow(){
+        if (!QUALITY_LOW.equals(qualityTier) || probeSupported) return;
+        long srtt = transport.getSmoothedRttMs();
+        if (!ready || srtt > QUALITY_LOW_MIN_RTT_MS) {
+            clock.postDelayed(lowDwellStepUp, lowDwellMs);
+            return;
+        }
+        setQualityTier(QUALITY_MEDIUM, "低档停留 "+(clock.nowMs() - lowEnteredAtMs)+"ms 后试升, srtt="+srtt+"ms");
+    }
+
+    // ====== 主动带宽探测 ======
+
+    private synchronized void runBandwidthProbe(){
+        if (!probeSupported || !ready || probeOutstandingId >= 0) return;
+        int id = ++probeSeq;
+        probeOutstandingId = id;
+        probeSentAtMs = clock.nowMs();
+        transport.sendControl("{\"type\":\"bandwidth_probe\",\"id\":"+id+",\"bytes\":"+PROBE_BYTES+"}", CONTROL_KEY_PROBE, CONTROL_TTL_PROBE_MS);
+        clock.removeCallbacks(probeTimeout);
+        clock.postDelayed(probeTimeout, PROBE_TIMEOUT_MS);
+    }
+
+    /** 收到探测回包：墙钟耗时减去一个 RTT 即为传输耗时 */
+    private void onProbeReply(int id, int bytes){
+        if (id != probeOutstandingId) return;
+        probeOutstandingId = -1;
+        clock.removeCallbacks(probeTimeout);
+        long elapsed = clock.nowMs() - probeSentAtMs;
+        long srtt = transport.getSmoothedRttMs();
+        long transferMs = Math.max(PROBE_MIN_TRANSFER_MS, elapsed - Math.max(0, srtt));
+        onProbeResult((long) bytes * 8 / transferMs, srtt, "探测 "+bytes+"B/"+elapsed+"ms");
+    }
+
+    private synchronized void onProbeTimeout(){
+        if (probeOutstandingId < 0) return;
+        probeOutstandingId = -1;
+        // 超时未回：按超时时长计为上限速率（必然落在低档）
+        onProbeResult((long) PROBE_BYTES * 8 / PROBE_TIMEOUT_MS, transport.getSmoothedRttMs(), "探测超时");
+    }
+
+    private void onProbeResult(long kbps, long srtt, @NonNull String reason){
+        lastProbeKbps = kbps;
+        lastProbeAtMs = clock.nowMs();
+        debug("带宽探测 "+kbps+"kbps srtt="+srtt+"ms ("+reason+")");
+        updateQualityTier(tierFor(kbps, srtt), QUALITY_PROBE_UPGRADE_CONFIRMATIONS, reason+", "+kbps+"kbps, srtt="+srtt+"ms");
+        if (kbps < TEXT_FIRST_ENTER_KBPS) enterTextFirst("下行带宽 "+kbps+"kbps");
+        scheduleProbe();
+    }
+
+    /** 低档位或文字优先期间继续周期探测，等待网络好转 */
+    private void scheduleProbe(){
+        clock.removeCallbacks(probeTask);
+        if (probeSupported && (QUALITY_LOW.equals(qualityTier) || textFirst)) clock.postDelayed(probeTask, PROBE_INTERVAL_MS);
+    }
+
+    private static int qualityRank(@NonNull String tier){
+        return QUALITY_LOW.equals(tier) ? 0 : QUALITY_HIGH.equals(tier) ? 2 : 1;
+    }
+
+    private void sendQualityReport(){
+        String msg = "{\"type\":\"audio_quality\",\"tier\":\""+qualityTier+"\",\"downlinkKbps\":"+transport.getDownlinkKbps()
+                +",\"rttMs\":"+transport.getSmoothedRttMs()+"}";
+        transport.sendControl(msg, CONTROL_KEY_QUALITY, CONTROL_TTL_QUALITY_MS);
+    }
+
+    /** 当前上报的下行音质档位：low / medium / high */
+    @NonNull
+    public String getQualityTier(){
+        return qualityTier;
+    }
+
+    /** 最近一次 ready 声明的多路复用网关地址；未声明时为 null */
+    @Nullable
+    public String getMuxGatewayUrl(){
+        return muxGatewayUrl;
+    }
+
+    // ====== 弱网文字优先模式 ======
+
+    private void enterTextFirst(@NonNull String reason){
+        if (textFirst) return;
+        textFirst = true;
+        firstAudioMisses = 0;
+        textFirstGoodChecks = 0;
+        textFirstTrial = false;
+        // 恢复后很快又降级：说明网络仍不稳定，加倍探测间隔
+        long now = clock.nowMs();
+        textFirstProbeMs = (textFirstExitedAtMs > 0 && now - textFirstExitedAtMs < TEXT_FIRST_PROBE_MAX_MS)
+                ? Math.min(textFirstProbeMs * 2, TEXT_FIRST_PROBE_MAX_MS) : TEXT_FIRST_PROBE_MIN_MS;
+        textFirstEnteredAtMs = now;
+        log("进入文字优先模式: "+reason+"，"+textFirstProbeMs+"ms 后探测恢复");
+        sendTtsMode();
+        // 当前回复中尚未展示的文本立即输出
+        String rid = activeResponseId;
+        if (rid != null) showPendingText(rid);
+        clock.removeCallbacks(textFirstProbe);
+        clock.postDelayed(textFirstProbe, textFirstProbeMs);
+        scheduleProbe();
+        try { listener.onTextFirstModeChanged(true); } catch (Exception ignored) {}
+    }
+
+    /** 停留满一个退避间隔后检查是否恢复；RTT 正常只是必要条件 */
+    private synchronized void probeTextFirstRecovery(){
+        if (!textFirst) return;
+        long srtt = transport.getSmoothedRttMs();
+        boolean rttOk = ready && srtt <= TEXT_FIRST_RECOVER_MAX_RTT_MS;
+        if (probeSupported) {
+            // 需要降级之后的实测带宽，且高于恢复阈值
+            boolean fresh = lastProbeAtMs >= textFirstEnteredAtMs && lastProbeAtMs > 0;
+            if (rttOk && fresh && lastProbeKbps >= TEXT_FIRST_RECOVER_KBPS) {
+                exitTextFirst("srtt="+srtt+"ms, 探测 "+lastProbeKbps+"kbps");
+                return;
+            }
+            log("文字优先：网络仍不佳（srtt="+srtt+"ms, 探测 "+(fresh ? lastProbeKbps+"kbps" : "无")+"），继续降级");
+            if (!fresh) runBandwidthProbe();
+            clock.postDelayed(textFirstProbe, TEXT_FIRST_RECHECK_MS);
+            return;
+        }
+        textFirstGoodChecks = rttOk ? textFirstGoodChecks + 1 : 0;
+        if (textFirstGoodChecks >= TEXT_FIRST_RECOVER_CHECKS) {
+            textFirstTrial = true;
+            exitTextFirst("srtt 连续 "+textFirstGoodChecks+" 次正常（"+srtt+"ms），试用恢复");
+            return;
+        }
+        log("文字优先：等待恢复（srtt="+srtt+"ms, 连续正常 "+textFirstGoodChecks+"/"+TEXT_FIRST_RECOVER_CHECKS+"）");
+        clock.postDelayed(textFirstProbe, rttOk ? TEXT_FIRST_RECHECK_MS : textFirstProbeMs);
+    }
+
+    private void exitTextFirst(@NonNull String reason){
+        if (!textFirst) return;
+        textFirst = false;
+        firstAudioMisses = 0;
+        textFirstExitedAtMs = clock.nowMs();
+        clock.removeCallbacks(textFirstProbe);
+        transport.resetDownlinkEstimate();
+        log("恢复语音模式: "+reason);
+        sendTtsMode();
+        try { listener.onTextFirstModeChanged(false); } catch (Exception ignored) {}
+    }
+
+    /** 仅清理状态（断开/释放时），不再通知服务端 */
+    public synchronized void resetTextFirst(){
+        clock.removeCallbacks(textFirstProbe);
+        boolean was = textFirst;
+        textFirst = false;
+        firstAudioMisses = 0;
+        textFirstProbeMs = TEXT_FIRST_PROBE_MIN_MS;
+        textFirstExitedAtMs = 0;
+        textFirstGoodChecks = 0;
+        textFirstTrial = false;
+        if (was) try { listener.onTextFirstModeChanged(false); } catch (Exception ignored) {}
+    }
+
+    private void suppressTtsInTextFirst(@NonNull String responseId, @NonNull String text){
+        activeStreamJob = null;
+        StringBuilder buf = getOrCreateStringBuilder(assistantBuffers, responseId);
+        // 服务端只在 tts_start 中携带文本（无 llm_delta）时，补进回复文本
+        if (!text.isEmpty() && buf.indexOf(text) < 0) buf.append(text);
+        showPendingText(responseId);
+        if (!responseId.equals(textFirstIgnoredResponseId)) {
+            textFirstIgnoredResponseId = responseId;
+            log("文字优先：服务端仍在发送 TTS，本地丢弃音频 r="+responseId);
+            sendTtsMode();
+        }
+    }
+
+    private void sendTtsMode(){
+        transport.sendControl("{\"type\":\"tts_mode\",\"audio\":"+(!textFirst)+"}", CONTROL_KEY_TTS_MODE, CONTROL_TTL_MODE_MS);
+    }
+
+    private void showPendingText(@NonNull String responseId){
+        StringBuilder buf = assistantBuffers.get(responseId);
+        int shown = getOrDefaultCompat(playbackDisplayedIndex, responseId, 0);
+        if (buf == null || buf.length() <= shown) return;
+        String pending = buf.substring(shown);
+        playbackDisplayedIndex.put(responseId, buf.length());
+        try { listener.onAssistantDelta(pending); } catch (Exception ignored) {}
+    }
+
+    /** 首包音频是否在预算内：连续超预算（含迟迟未到）达到阈值即降级，按时到达则清零 */
+    private void recordFirstAudioOutcome(boolean onTime, @NonNull String responseId){
+        if (onTime) { firstAudioMisses = 0; textFirstTrial = false; return; }
+        int misses = ++firstAudioMisses;
+        log("首包音频超出预算 r="+responseId+" 连续="+misses);
+        if (textFirstTrial) enterTextFirst("试用恢复后首包音频超时");
+        else if (misses >= FIRST_AUDIO_MISSES_TO_ENTER) enterTextFirst("首包音频连续超时");
+    }
+
+    private void watchFirstAudio(@NonNull String responseId){
+        if (textFirst) return;
+        clock.postDelayed(() -> checkFirstAudioMissed(responseId), FIRST_AUDIO_BUDGET_MS);
+    }
+
+    private synchronized void checkFirstAudioMissed(@NonNull String responseId){
+        // 仅统计已开始 TTS（服务端确实要发音频）但音频迟迟未到的回复
+        if (textFirst || !responseId.equals(activeResponseId)) return;
+        if (ttsManagedResponses.contains(responseId) && !firstAudioReported.contains(responseId)) {
+            firstAudioReported.add(responseId);   // 之后迟到的首包不再重复计入
+            asrDoneAtMs.remove(responseId);
+            recordFirstAudioOutcome(false, responseId);
+        }
+    }
+
+    public boolean isTextFirstMode(){
+        return textFirst;
+    }
+
+    // ====== 歌曲 ======
+
+    public synchronized boolean isSongMode(){
+        return mode == Mode.SONG;
+    }
+
+    @NonNull
+    public synchronized String describeSongState(){
+        return "mode: " + mode + " songPaused: " + songPaused + " currentSongId: " + currentSongId;
+    }
+
+    /** 进入歌曲模式并通知服务端开始推流；调用方负责先停止录音与清空播放队列 */
+    public synchronized void startSong(int songId, @NonNull String songName){
+        // 切歌时彻底清理旧缓冲/状态
+        songBuffers.clear();
+        processedSongChunks.clear();
+        notifiedSongEnd.clear();
+        currentSongAudioReceived = false;
+        currentSongEndQueued = false;
+
+        currentSongId = "song-" + clock.nowMs();
+        currentSongUid = songId;
+
+        transport.sendControl("{\"type\":\"song\", \"songName\":\""+songName+"\", \"songId\":"+songId+"}", CONTROL_KEY_MODE, CONTROL_TTL_MODE_MS);
+
+        // 取消当前 TTS 响应（如有）
+        if (activeResponseId != null) {
+            try { cancelTtsForResponse(activeResponseId); } catch (Exception ignored) {}
+            activeResponseId = null;
+        }
+        currentSongName = songName;
+        currentSongSeq = 0;
+        songPaused = false;
+        mode = Mode.SONG;
+        log("播放歌曲: " + songName + " id=" + currentSongId);
+        player.resume();
+    }
+
+    /** 暂停当前歌曲；状态有变化时返回 true */
+    public synchronized boolean pauseSong(){
+        if (mode != Mode.SONG || songPaused) return false;
+        songPaused = true;
+        // 仅暂停播放器，不清队列，不缓存流
+        try { player.pause(); } catch (Exception ignored) {}
+        log("歌曲暂停");
+        return true;
+    }
+
+    /** 继续当前歌曲；状态有变化时返回 true */
+    public synchronized boolean resumeSong(){
+        if (mode != Mode.SONG || !songPaused) return false;
+        songPaused = false;
+        try { player.resume(); } catch (Exception ignored) {}
+        log("歌曲继续");
+        return true;
+    }
+
+    /** 从歌曲模式切回聊天并通知服务端；原本不在歌曲模式时返回 false */
+    public synchronized boolean switchToChat(){
+        if (mode != Mode.SONG) return false;
+        // 停止之前歌曲播放
+        stopSongPlayback(false);
+        mode = Mode.CHAT;
+        transport.sendControl("{\"type\":\"chat\"}", CONTROL_KEY_MODE, CONTROL_TTL_MODE_MS);
+        log("切回聊天");
+        return true;
+    }
+
+    private void handleSongBinary(@NonNull byte[] bytes) {
+        ensureSongSession();
+
+        // 歌曲流必须包含2字节songId头
+        if (bytes.length < 2) {
+            debug("收到无效歌曲二进制数据（长度不足2字节），丢弃");
+            return;
+        }
+
+        // 解析前2字节的大端songId，并与当前歌曲ID比对（按UInt16范围）
+        int headerSongId = ((bytes[0] & 0xFF) << 8) | (bytes[1] & 0xFF);
+        // 去掉2字节头部，保留真实音频体
+        acceptSongBody(headerSongId, currentSongUid & 0xFFFF, Arrays.copyOfRange(bytes, 2, bytes.length));
+    }
+
+    private void ensureSongSession() {
+        if (currentSongId == null) {
+            // 异常：未收到 play_song 但来了二进制，兜底创建一个歌曲会话
+            currentSongId = "song-" + clock.nowMs();
+            currentSongName = "";
+            currentSongUid = 0;
+            currentSongSeq = 0;
+            songPaused = false;
+        }
+    }
+
+    private void acceptSongBody(int headerSongId, int expectedSongId, @NonNull byte[] body) {
+        debug("handleSongBinary: headerSongId=" + headerSongId + ", expectedSongId=" + expectedSongId + ", currentSongUid=" + currentSongUid);
+
+        if (headerSongId != expectedSongId) {
+            debug("丢弃非当前歌曲片段，headerSongId=" + headerSongId + ", expected=" + expectedSongId + ", currentSongUid=" + currentSongUid);
+            return;
+        }
+
+        if (body.length == 0) {
+            debug("歌曲音频体为空，丢弃");
+            return;
+        }
+
+        // 标记：当前歌曲已收到音频
+        currentSongAudioReceived = true;
+
+        // 基于真实音频体做去重
+        String chunkKey = currentSongId + "-" + Arrays.hashCode(body);
+        if (!processedSongChunks.add(chunkKey)) {
+            debug("检测到重复的歌曲数据块（已去除头部后），跳过: " + chunkKey);
+            return;
+        }
+
+        // 获取或创建缓冲区
+        ByteArrayOutputStream buffer = songBuffers.get(currentSongId);
+        if (buffer == null) {
+            buffer = new ByteArrayOutputStream();
+            songBuffers.put(currentSongId, buffer);
+        }
+
+        buffer.write(body, 0, body.length);
+
+        // 当缓冲区达到阈值时发送
+        if (buffer.size() >= SONG_BUFFER_THRESHOLD) {
+            byte[] mergedData = buffer.toByteArray();
+            enqueueTts(currentSongId, currentSongSeq++, mergedData, "", false);
+            buffer.reset(); // 清空缓冲区
+        }
+    }
+
+    // 在歌曲结束时清空缓冲区
+    private void flushSongBuffer(String songId) {
+        ByteArrayOutputStream buffer = songBuffers.remove(songId);
+        if (buffer != null && buffer.size() > 0) {
+            byte[] remainingData = buffer.toByteArray();
+            enqueueTts(songId, currentSongSeq++, remainingData, "", false);
+        }
+    }
+
+    /** 停止歌曲播放并清理缓冲；resetState 为 true 时同时清空歌曲信息并回到聊天模式 */
+    public synchronized void stopSongPlayback(boolean resetState) {
+        try { player.cancelForResponse(currentSongId != null ? currentSongId : ""); } catch (Exception ignored) {}
+        try { player.clear(); } catch (Exception ignored) {}
+        // 清理当前歌曲缓冲
+        if (currentSongId != null) {
+            songBuffers.remove(currentSongId);
+        }
+        currentSongAudioReceived = false;
+        currentSongEndQueued = false;
+        if (resetState) {
+            currentSongId = null;
+            currentSongName = null;
+            currentSongUid = 0;
+            currentSongSeq = 0;
+            songPaused = false;
+            mode = Mode.CHAT;
+            notifiedSongEnd.clear();
+        }
+    }
+
+    private void markTurn(int point, @Nullable String responseId){
+        // 时间点序号写入计数器轨道，离线脚本据此从 trace 中还原各阶段时延
+        Tracer t = tracer;
+        if (t.isEnabled()) t.setCounter("chat.turnMark", point);
+        JSONObject report = turnMetrics.mark(point, responseId, clock.nowMs());
+        if (report != null) reportTurnMetrics(report);
+    }
+
+    private void reportTurnMetrics(@NonNull JSONObject metrics){
+        log(TurnMetrics.describe(metrics));
+        try { listener.onTurnMetrics(metrics); } catch (Exception ignored) {}
+    }
+
+    private void log(String s){ listener.onLog(s); }
+
+    private void debug(String s){
+        try { listener.onDebug(s); } catch (Exception ignored) {}
+    }
+
+    private static <K, V> V getOrDefaultCompat(Map<K, V> map, K key, V def) {
+        V v = map.get(key);
+        return v != null ? v : def;
+    }
+
+    private static <K> StringBuilder getOrCreateStringBuilder(Map<K, StringBuilder> map, K key) {
+        StringBuilder sb = map.get(key);
+        if (sb == null) {
+            sb = new StringBuilder();
+            map.put(key, sb);
+        }
+        return sb;
+    }
+}
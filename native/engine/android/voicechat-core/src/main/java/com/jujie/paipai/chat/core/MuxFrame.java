@@ -0,0 +1,120 @@
+package com.jujie.paipai.chat.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 多路复用 WebSocket 的帧（均为二进制消息），头部大端：
+ * <pre>
+ *  0  u8  通道号（1..255）
+ *  1  u8  标志（TEXT / OPEN / CLOSE / CREDIT）
+ *  2  u32 通道内序号（每个方向从 0 开始，逐帧加一）
+ *  6  ...  负载
+ * </pre>
+ * OPEN 负载为目标 URL；CLOSE 负载为 u16 关闭码 + UTF-8 原因；CREDIT 负载为 u32 追加的窗口字节数。
+ */
+public final class MuxFrame {
+
+    public static final int HEADER_SIZE = 6;
+    public static final int MAX_CHANNEL_ID = 255;
+
+    public static final int FLAG_TEXT = 0x01;
+    public static final int FLAG_OPEN = 0x02;
+    public static final int FLAG_CLOSE = 0x04;
+    public static final int FLAG_CREDIT = 0x08;
+
+    public final int channelId;
+    public final int flags;
+    public final int sequence;
+    private final byte[] raw;
+
+    private MuxFrame(int channelId, int flags, int sequence, @NonNull byte[] raw) {
+        this.channelId = channelId;
+        this.flags = flags;
+        this.sequence = sequence;
+        this.raw = raw;
+    }
+
+    public boolean has(int flag) { return (flags & flag) != 0; }
+
+    public int payloadLength() { return raw.length - HEADER_SIZE; }
+
+    @NonNull
+    public byte[] payload() {
+        byte[] out = new byte[payloadLength()];
+        System.arraycopy(raw, HEADER_SIZE, out, 0, out.length);
+        return out;
+    }
+
+    @NonNull
+    public String text() {
+        return new String(raw, HEADER_SIZE, payloadLength(), StandardCharsets.UTF_8);
+    }
+
+    /** CREDIT 帧追加的窗口；负载不足 4 字节时为 0 */
+    public int credit() {
+        return payloadLength() >= 4 ? readInt(raw, HEADER_SIZE) : 0;
+    }
+
+    /** CLOSE 帧的关闭码；无负载时为 1000 */
+    public int closeCode() {
+        return payloadLength() >= 2 ? ((raw[HEADER_SIZE] & 0xFF) << 8) | (raw[HEADER_SIZE + 1] & 0xFF) : 1000;
+    }
+
+    @NonNull
+    public String closeReason() {
+        int len = payloadLength() - 2;
+        return len > 0 ? new String(raw, HEADER_SIZE + 2, len, StandardCharsets.UTF_8) : "";
+    }
+
+    /** 解析帧；长度不足或通道号为 0 时返回 null */
+    @Nullable
+    public static MuxFrame decode(@NonNull byte[] raw) {
+        if (raw.length < HEADER_SIZE) return null;
+        int channelId = raw[0] & 0xFF;
+        if (channelId == 0) return null;
+        return new MuxFrame(channelId, raw[1] & 0xFF, readInt(raw, 2), raw);
+    }
+
+    @NonNull
+    public static byte[] encode(int channelId, int flags, int sequence, @NonNull byte[] payload, int offset, int length) {
+        if (channelId < 1 || channelId > MAX_CHANNEL_ID) throw new IllegalArgumentException("channel " + channelId);
+        byte[] b = new byte[HEADER_SIZE + length];
+        b[0] = (byte) channelId;
+        b[1] = (byte) flags;
+        writeInt(b, 2, sequence);
+        System.arraycopy(payload, offset, b, HEADER_SIZE, length);
+        return b;
+    }
+
+    @NonNull
+    public static byte[] creditPayload(int bytes) {
+        byte[] b = new byte[4];
+        writeInt(b, 0, bytes);
+        return b;
+    }
+
+    @NonNull
+    public static byte[] closePayload(int code, @Nullable String reason) {
+        byte[] r = reason != null ? reason.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] b = new byte[2 + r.length];
+        b[0] = (byte) (code >> 8);
+        b[1] = (byte) code;
+        System.arraycopy(r, 0, b, 2, r.length);
+        return b;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+}
@@ -0,0 +1,146 @@
+package com.jujie.paipai.chat.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 多路复用的发送调度与流控（不含 I/O，调用方持锁使用）：
+ * - 控制帧（OPEN / CREDIT / cancel 的 CLOSE）不受窗口限制，最先发出；
+ * - 数据帧按通道优先级（数值小者优先，音频先于日志）出队，同一通道内保持顺序；
+ *   通道发送窗口不足时跳过该通道，不阻塞同优先级的其他通道；
+ * - 接收侧按通道累计已消费字节，达到半窗时返回应回馈的 CREDIT，减少控制帧数量。
+ */
+public final class MuxScheduler {
+
+    public static final int PRIORITY_AUDIO = 0;
+    public static final int PRIORITY_LOG = 1;
+    public static final int PRIORITY_COUNT = 2;
+
+    private static final class ChannelState {
+        final int priority;
+        final long window;
+        long sendWindow;
+        long queuedBytes;
+        long unackedRecv;
+        ChannelState(int priority, long window) { this.priority = priority; this.window = window; this.sendWindow = window; }
+    }
+
+    private static final class Entry {
+        final ChannelState state; final byte[] frame; final int dataLen;
+        Entry(ChannelState s, byte[] f, int d) { state = s; frame = f; dataLen = d; }
+    }
+
+    private final Map<Integer, ChannelState> channels = new HashMap<>();
+    private final ArrayDeque<Entry> controlQueue = new ArrayDeque<>();
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Entry>[] dataQueues = new ArrayDeque[PRIORITY_COUNT];
+
+    public MuxScheduler() {
+        for (int i = 0; i < PRIORITY_COUNT; i++) dataQueues[i] = new ArrayDeque<>();
+    }
+
+    /** 登记通道；window 为双方约定的初始窗口（发送与接收相同） */
+    public void addChannel(int channelId, int priority, long window) {
+        channels.put(channelId, new ChannelState(Math.max(0, Math.min(priority, PRIORITY_COUNT - 1)), window));
+    }
+
+    public boolean hasChannel(int channelId) {
+        return channels.containsKey(channelId);
+    }
+
+    public boolean isIdle() {
+        return channels.isEmpty();
+    }
+
+    /** 注销通道并丢弃其排队中的数据帧（已排队的控制帧照常发出） */
+    public void removeChannel(int channelId) {
+        ChannelState s = channels.remove(channelId);
+        if (s == null) return;
+        for (ArrayDeque<Entry> q : dataQueues) {
+            for (Iterator<Entry> it = q.iterator(); it.hasNext(); ) {
+                if (it.next().state == s) it.remove();
+            }
+        }
+        s.queuedBytes = 0;
+    }
+
+    /** 控制帧入队；通道可已注销（如取消时的 CLOSE） */
+    public void enqueueControl(int channelId, @NonNull byte[] frame) {
+        controlQueue.addLast(new Entry(channels.get(channelId), frame, 0));
+    }
+
+    /** 数据帧入队，dataLen 为计入窗口的负载字节数；通道未登记时返回 false */
+    public boolean enqueueData(int channelId, @NonNull byte[] frame, int dataLen) {
+        ChannelState s = channels.get(channelId);
+        if (s == null) return false;
+        s.queuedBytes += frame.length;
+        dataQueues[s.priority].addLast(new Entry(s, frame, dataLen));
+        return true;
+    }
+
+    /** 下一帧待发数据；没有可发的（队列空或窗口全部用尽）时返回 null */
+    @Nullable
+    public byte[] poll() {
+        Entry c = controlQueue.pollFirst();
+        if (c != null) return c.frame;
+        Set<ChannelState> blocked = null;
+        for (ArrayDeque<Entry> q : dataQueues) {
+            for (Iterator<Entry> it = q.iterator(); it.hasNext(); ) {
+                Entry e = it.next();
+                if (blocked != null && blocked.contains(e.state)) continue;
+                // 超过整窗的大消息在窗口全部空闲时放行（窗口可暂时为负），避免永远发不出去
+                if (e.state.sendWindow >= Math.min(e.dataLen, e.state.window)) {
+                    e.state.sendWindow -= e.dataLen;
+                    e.state.queuedBytes -= e.frame.length;
+                    it.remove();
+                    return e.frame;
+                }
+                // 保持通道内顺序：队头帧窗口不足时，该通道后面的帧也不能越过它
+                if (blocked == null) blocked = new HashSet<>();
+                blocked.add(e.state);
+            }
+        }
+        return null;
+    }
+
+    /** 对端回馈的 CREDIT */
+    public void grantSendWindow(int channelId, long bytes) {
+        ChannelState s = channels.get(channelId);
+        if (s != null && bytes > 0) s.sendWindow += bytes;
+    }
+
+    public long sendWindow(int channelId) {
+        ChannelState s = channels.get(channelId);
+        return s != null ? s.sendWindow : 0;
+    }
+
+    /** 通道排队中的帧字节数（对应 WebSocket.queueSize） */
+    public long queuedBytes(int channelId) {
+        ChannelState s = channels.get(channelId);
+        return s != null ? s.queuedBytes : 0;
+    }
+
+    /** 已向上层交付 bytes 字节下行数据；累计达到半窗时返回应回馈的窗口，否则返回 0 */
+    public int onReceived(int channelId, int bytes) {
+        ChannelState s = channels.get(channelId);
+        if (s == null) return 0;
+        s.unackedRecv += bytes;
+        if (s.unackedRecv < s.window / 2) return 0;
+        int credit = (int) Math.min(Integer.MAX_VALUE, s.unackedRecv);
+        s.unackedRecv -= credit;
+        return credit;
+    }
+
+    public void clear() {
+        channels.clear();
+        controlQueue.clear();
+        for (ArrayDeque<Entry> q : dataQueues) q.clear();
+    }
+}
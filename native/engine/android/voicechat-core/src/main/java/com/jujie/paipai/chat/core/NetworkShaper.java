@@ -0,0 +1,242 @@
+package com.jujie.paipai.chat.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 聊天连接的弱网模拟层（调试包的 ChatTransport 与 JVM 压测客户端共用，纯 Java）：
+ * - 对收发两个方向分别注入延迟、抖动、带宽限制与丢帧；同方向保持 FIFO，与真实 TCP 有序语义一致
+ * - 按脚本阶段（phase）推进，可在阶段开始时强制断线，或整段黑洞（收发全丢，用于验证心跳判死）
+ * - 随机数可指定种子，配合本地替身服务端可复现首包时延与重连行为
+ *
+ * 脚本格式（JSON）：
+ * <pre>
+ * {"loop": true, "seed": 42, "phases": [
+ *   {"name": "good",   "durationMs": 20000, "latencyMs": 30, "jitterMs": 10},
+ *   {"name": "subway", "durationMs": 10000, "latencyMs": 400, "jitterMs": 300,
+ *    "downKbps": 48, "upKbps": 32, "dropRate": 0.05, "textDropRate": 0.01},
+ *   {"name": "tunnel", "durationMs": 3000, "disconnect": true, "blackout": true}
+ * ]}
+ * </pre>
+ * latencyMs 为单向延迟；dropRate 作用于二进制帧，textDropRate 作用于文本帧（默认 0）。
+ * 带宽按线上字节计算：文本帧传入 UTF-8 字节数（见 {@link #utf8Length}），而不是 UTF-16 字符数。
+ * 时钟与日志由使用方注入（Android 端接 SystemClock / Log）。
+ */
+public final class NetworkShaper {
+
+    private static final String TAG = "NetworkShaper";
+
+    /** 约定的脚本文件名：调试包启动时从应用外部文件目录加载 */
+    public static final String PROFILE_FILE_NAME = "net_profile.json";
+
+    /** 单调毫秒时钟 */
+    public interface TimeSource {
+        TimeSource SYSTEM = () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        long nowMs();
+    }
+
+    public interface Logger {
+        Logger NONE = line -> {};
+        void log(@NonNull String line);
+    }
+
+    public static final class Phase {
+        final String name;
+        final long durationMs;
+        final long latencyMs;
+        final long jitterMs;
+        final long downKbps;     // 0 表示不限速
+        final long upKbps;
+        final double dropRate;
+        final double textDropRate;
+        final boolean disconnect;
+        final boolean blackout;
+
+        Phase(@NonNull JSONObject o) {
+            name = o.optString("name", "phase");
+            durationMs = Math.max(1, o.optLong("durationMs", 10_000));
+            latencyMs = Math.max(0, o.optLong("latencyMs", 0));
+            jitterMs = Math.max(0, o.optLong("jitterMs", 0));
+            downKbps = Math.max(0, o.optLong("downKbps", o.optLong("kbps", 0)));
+            upKbps = Math.max(0, o.optLong("upKbps", o.optLong("kbps", 0)));
+            dropRate = o.optDouble("dropRate", 0);
+            textDropRate = o.optDouble("textDropRate", 0);
+            disconnect = o.optBoolean("disconnect", false);
+            blackout = o.optBoolean("blackout", false);
+        }
+    }
+
+    /** 单个方向的排队状态：releaseMs 保证 FIFO，带宽按帧大小顺延 */
+    private static final class Direction {
+        long lastReleaseMs = 0;
+    }
+
+    private static volatile @Nullable NetworkShaper installed;
+
+    private final List<Phase> phases;
+    private final boolean loop;
+    private final TimeSource time;
+    private final Logger logger;
+    private final Random random;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "chat-net-shaper");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Direction up = new Direction();
+    private final Direction down = new Direction();
+    private final List<Runnable> disconnectHooks = new CopyOnWriteArrayList<>();
+    private volatile Phase current;
+
+    private NetworkShaper(@NonNull List<Phase> phases, boolean loop, long seed,
+                          @NonNull TimeSource time, @NonNull Logger logger) {
+        this.phases = phases;
+        this.loop = loop;
+        this.time = time;
+        this.logger = logger;
+        this.random = seed != 0 ? new Random(seed) : new Random();
+        this.current = phases.get(0);
+    }
+
+    @NonNull
+    public static NetworkShaper fromJson(@NonNull String json) throws JSONException {
+        return fromJson(json, TimeSource.SYSTEM, Logger.NONE);
+    }
+
+    @NonNull
+    public static NetworkShaper fromJson(@NonNull String json, @NonNull TimeSource time, @NonNull Logger logger) throws JSONException {
+        JSONObject root = new JSONObject(json);
+        JSONArray arr = root.getJSONArray("phases");
+        List<Phase> list = new ArrayList<>();
+        for (int i = 0; i < arr.length(); i++) list.add(new Phase(arr.getJSONObject(i)));
+        if (list.isEmpty()) throw new JSONException("no phases");
+        return new NetworkShaper(list, root.optBoolean("loop", true), root.optLong("seed", 0), time, logger);
+    }
+
+    /** 读取脚本文件；不存在或格式错误时返回 null */
+    @Nullable
+    public static NetworkShaper loadFromFile(@NonNull File file, @NonNull TimeSource time, @NonNull Logger logger) {
+        if (!file.isFile()) return null;
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buf = new byte[(int) file.length()];
+            int off = 0, n;
+            while (off < buf.length && (n = in.read(buf, off, buf.length - off)) > 0) off += n;
+            return fromJson(new String(buf, 0, off, StandardCharsets.UTF_8), time, logger);
+        } catch (IOException | JSONException e) {
+            logger.log(TAG + ": load profile failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** 安装为全局模拟层：之后新建的 ChatTransport 生效；传 null 卸载 */
+    public static synchronized void install(@Nullable NetworkShaper shaper) {
+        NetworkShaper old = installed;
+        if (old != null) old.stop();
+        installed = shaper;
+        if (shaper != null) {
+            shaper.start();
+            shaper.logger.log(TAG + ": installed, phases=" + shaper.phases.size());
+        }
+    }
+
+    @Nullable
+    public static NetworkShaper installed() {
+        return installed;
+    }
+
+    /** 开始按脚本推进阶段；全局安装时由 {@link #install} 调用，独立使用（如压测的每个客户端）时自行调用 */
+    public void start() {
+        executor.execute(() -> enterPhase(0));
+    }
+
+    public void stop() {
+        disconnectHooks.clear();
+        try { executor.shutdownNow(); } catch (Exception ignored) {}
+    }
+
+    private void enterPhase(int index) {
+        if (index >= phases.size()) {
+            if (!loop) return;   // 不循环：停留在最后一个阶段
+            index = 0;
+        }
+        Phase p = phases.get(index);
+        current = p;
+        logger.log(TAG + ": phase -> " + p.name + " (" + p.durationMs + "ms)");
+        if (p.disconnect) {
+            for (Runnable hook : disconnectHooks) {
+                try { hook.run(); } catch (Exception ignored) {}
+            }
+        }
+        if (index + 1 < phases.size() || loop) {
+            final int next = index + 1;
+            executor.schedule(() -> enterPhase(next), p.durationMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void addDisconnectHook(@NonNull Runnable hook) {
+        disconnectHooks.add(hook);
+    }
+
+    public void removeDisconnectHook(@NonNull Runnable hook) {
+        disconnectHooks.remove(hook);
+    }
+
+    /** 上行：按当前阶段延迟/限速/丢弃后在模拟线程上执行发送；size 为线上字节数 */
+    public void outbound(int size, boolean binary, @NonNull Runnable send) {
+        shape(up, size, binary, send, true);
+    }
+
+    /** 下行：按当前阶段延迟/限速/丢弃后在模拟线程上投递；size 为线上字节数 */
+    public void inbound(int size, boolean binary, @NonNull Runnable deliver) {
+        shape(down, size, binary, deliver, false);
+    }
+
+    /** 文本帧在线上的 UTF-8 字节数（不分配新数组） */
+    public static int utf8Length(@NonNull CharSequence s) {
+        int n = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) n += 1;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) { n += 4; i++; }
+            else n += 3;
+        }
+        return n;
+    }
+
+    private void shape(@NonNull Direction dir, int size, boolean binary, @NonNull Runnable action, boolean upstream) {
+        long delay;
+        synchronized (this) {
+            Phase p = current;
+            double drop = binary ? p.dropRate : p.textDropRate;
+            if (p.blackout || (drop > 0 && random.nextDouble() < drop)) return;
+            long now = time.nowMs();
+            long jitter = p.jitterMs > 0 ? (long) (random.nextDouble() * p.jitterMs) : 0;
+            long release = Math.max(now + p.latencyMs + jitter, dir.lastReleaseMs);
+            long kbps = upstream ? p.upKbps : p.downKbps;
+            if (kbps > 0) release += size * 8L / kbps;   // 字节*8/(kbit/s) = 毫秒
+            dir.lastReleaseMs = release;
+            delay = release - now;
+        }
+        try {
+            executor.schedule(action, delay, TimeUnit.MILLISECONDS);
+        } catch (Exception ignored) {}
+    }
+}
@@ -0,0 +1,122 @@
+package com.jujie.paipai.chat.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 会话录制文件格式（与平台无关）：头部 "PPSR" + u8 版本；之后每条记录为
+ * u8 类型 | varint 距上一条的微秒数 | varint 负载长度 | 负载。
+ * App 侧 SessionRecorder / SessionReplay 只负责取时间与线程，编解码都在这里，便于在 JVM 上做往返测试。
+ */
+public final class SessionRecording {
+
+    public static final byte[] MAGIC = {'P', 'P', 'S', 'R'};
+    public static final int VERSION = 1;
+
+    public static final int KIND_OPEN = 1;
+    public static final int KIND_IN_TEXT = 2;
+    public static final int KIND_IN_BINARY = 3;
+    public static final int KIND_OUT_TEXT = 4;
+    public static final int KIND_OUT_BINARY = 5;
+    public static final int KIND_CLOSED = 6;
+    public static final int KIND_PLAYBACK = 7;   // 播放器实际开始播放的段（requestId#seq 字节数 mime），用于回放结果比对
+
+    private SessionRecording() {}
+
+    /** 一条记录 */
+    public static final class Record {
+        public final int kind;
+        public final long deltaUs;
+        @NonNull public final byte[] payload;
+
+        Record(int kind, long deltaUs, @NonNull byte[] payload) {
+            this.kind = kind;
+            this.deltaUs = deltaUs;
+            this.payload = payload;
+        }
+    }
+
+    /** 顺序写入记录；非线程安全，由调用方加锁 */
+    public static final class Writer implements Closeable, Flushable {
+        private final OutputStream out;
+
+        public Writer(@NonNull OutputStream out) throws IOException {
+            this.out = new BufferedOutputStream(out, 64 * 1024);
+            this.out.write(MAGIC);
+            this.out.write(VERSION);
+        }
+
+        public void write(int kind, long deltaUs, @NonNull byte[] payload, int offset, int length) throws IOException {
+            out.write(kind);
+            writeVarint(Math.max(0, deltaUs));
+            writeVarint(length);
+            out.write(payload, offset, length);
+        }
+
+        private void writeVarint(long v) throws IOException {
+            while ((v & ~0x7FL) != 0) {
+                out.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int) v);
+        }
+
+        @Override public void flush() throws IOException { out.flush(); }
+
+        @Override public void close() throws IOException { out.close(); }
+    }
+
+    /** 顺序读取记录；头部不符时构造即抛 IOException */
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+
+        public Reader(@NonNull InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+            byte[] magic = new byte[MAGIC.length];
+            this.in.readFully(magic);
+            int version = this.in.readUnsignedByte();
+            if (!Arrays.equals(magic, MAGIC) || version > VERSION) {
+                throw new IOException("not a session recording");
+            }
+        }
+
+        /** 下一条记录；文件结束返回 null，记录被截断时抛 EOFException */
+        @Nullable
+        public Record next() throws IOException {
+            int kind = in.read();
+            if (kind < 0) return null;
+            long deltaUs = readVarint();
+            long length = readVarint();
+            if (length > Integer.MAX_VALUE) throw new IOException("bad record length " + length);
+            byte[] payload = new byte[(int) length];
+            in.readFully(payload);
+            return new Record(kind, deltaUs, payload);
+        }
+
+        private long readVarint() throws IOException {
+            long v = 0;
+            int shift = 0;
+            while (true) {
+                int b = in.read();
+                if (b < 0) throw new EOFException();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+                shift += 7;
+                if (shift > 63) throw new IOException("bad varint");
+            }
+        }
+
+        @Override public void close() throws IOException { in.close(); }
+    }
+}
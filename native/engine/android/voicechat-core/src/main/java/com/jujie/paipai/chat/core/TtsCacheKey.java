@@ -0,0 +1,55 @@
+package com.jujie.paipai.chat.core;
+
+import androidx.annotation.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * TTS 缓存键：sha256(scope + "\n" + normalize(text)) 的十六进制前 32 位。
+ * scope 为「角色 + 音色参数」（{@link #scope}），服务端按同一规则计算即可直接引用客户端已缓存的台词。
+ * 文本规范化：NFKC（全半角统一）→ 小写 → 去掉所有空白；标点保留（影响停顿与语调）。
+ */
+public final class TtsCacheKey {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int KEY_BYTES = 16;
+
+    private TtsCacheKey() {}
+
+    @NonNull
+    public static String scope(int characterId, @NonNull String voice) {
+        return characterId + "|" + voice;
+    }
+
+    @NonNull
+    public static String normalize(@NonNull String text) {
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!Character.isWhitespace(c) && !Character.isSpaceChar(c)) sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    @NonNull
+    public static String of(@NonNull String scope, @NonNull String text) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] digest = md.digest((scope + "\n" + normalize(text)).getBytes(StandardCharsets.UTF_8));
+        char[] out = new char[KEY_BYTES * 2];
+        for (int i = 0; i < KEY_BYTES; i++) {
+            out[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+            out[2 * i + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,266 @@
+package com.jujie.paipai.chat.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * 单轮对话的分阶段时延：按单调时钟记录说话结束、最终识别、llm_request、首个增量、tts_start、
+ * 首个音频字节、实际开始播放、回复完成等时间点，一轮结束时计算各阶段耗时并累入会话直方图（p50/p90/p99）。
+ * 时间点缺失的阶段（如服务端未发 speech_end、文字优先模式无播放）不计入。
+ * 另统计端侧 TTS 兜底的使用率：本轮首句（partial）或整轮（full）由本地合成朗读；
+ * 以及播放器按积压的调整：本轮最大待播积压、最高倍速与因积压跳过的段数。
+ */
+public final class TurnMetrics {
+
+    public static final int SPEECH_END = 0;
+    public static final int FINAL_TRANSCRIPT = 1;
+    public static final int LLM_REQUEST = 2;
+    public static final int FIRST_DELTA = 3;
+    public static final int TTS_START = 4;
+    public static final int FIRST_AUDIO = 5;
+    public static final int AUDIBLE = 6;
+    public static final int FINAL = 7;
+    private static final int MARK_COUNT = 8;
+
+    // 阶段名与起止时间点；起点为 -1 表示从本轮第一个时间点（说话结束 / 最终识别 / llm_request）算起
+    private static final String[] STAGE_NAMES = {
+            "asr", "dispatch", "llmFirstToken", "ttsStart", "firstAudio", "playout", "toAudible", "total"};
+    private static final int[][] STAGE_SPANS = {
+            {SPEECH_END, FINAL_TRANSCRIPT}, {FINAL_TRANSCRIPT, LLM_REQUEST}, {LLM_REQUEST, FIRST_DELTA},
+            {FIRST_DELTA, TTS_START}, {TTS_START, FIRST_AUDIO}, {FIRST_AUDIO, AUDIBLE}, {-1, AUDIBLE}, {-1, FINAL}};
+
+    // 每阶段保留最近的样本数，长会话内存有界
+    private static final int MAX_SAMPLES = 512;
+    private static final long UNSET = Long.MIN_VALUE;
+
+    public static final int LOCAL_TTS_NONE = 0;
+    public static final int LOCAL_TTS_PARTIAL = 1;
+    public static final int LOCAL_TTS_FULL = 2;
+    private static final String[] LOCAL_TTS_NAMES = {"none", "partial", "full"};
+
+    private static final class Turn {
+        final long[] at = new long[MARK_COUNT];
+        @Nullable String responseId;
+        int localTts = LOCAL_TTS_NONE;
+        long maxBacklogMs = -1;   // -1 表示本轮播放器未做过调整
+        float maxSpeed = 1f;
+        int skippedSegments = 0;
+        Turn() { Arrays.fill(at, UNSET); }
+    }
+
+    /** 固定容量的样本环，取分位时复制排序 */
+    private static final class Histogram {
+        final long[] ring = new long[MAX_SAMPLES];
+        int count = 0;
+
+        void add(long v) { ring[count++ % MAX_SAMPLES] = v; }
+
+        @Nullable
+        JSONObject summary() throws Exception {
+            int n = Math.min(count, MAX_SAMPLES);
+            if (n == 0) return null;
+            long[] sorted = Arrays.copyOf(ring, n);
+            Arrays.sort(sorted);
+            return new JSONObject().put("n", count)
+                    .put("p50", percentile(sorted, 0.50))
+                    .put("p90", percentile(sorted, 0.90))
+                    .put("p99", percentile(sorted, 0.99));
+        }
+
+        private static long percentile(long[] sorted, double p) {
+            int idx = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+        }
+    }
+
+    private final Histogram[] histograms = new Histogram[STAGE_NAMES.length];
+    private Histogram backlogHistogram = new Histogram();
+    private @Nullable Turn pending;   // llm_request 之前（说话结束 / 最终识别）
+    private @Nullable Turn current;   // 已绑定 responseId，等待完成
+    private int turns = 0;
+    private int localTtsTurns = 0;
+    private int localTtsFullTurns = 0;
+    private int speedupTurns = 0;
+    private int skippedSegments = 0;
+
+    public TurnMetrics() {
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new Histogram();
+    }
+
+    /**
+     * 记录时间点；同一轮内每个时间点只取第一次。
+     * @return 本次记录使一轮完成（FINAL）时返回该轮报告，否则 null
+     */
+    @Nullable
+    public synchronized JSONObject mark(int point, @Nullable String responseId, long nowMs) {
+        switch (point) {
+            case SPEECH_END:
+                // 新的一句话开始计时；上一句若未进入 llm_request 即被丢弃
+                pending = new Turn();
+                pending.at[SPEECH_END] = nowMs;
+                return null;
+            case FINAL_TRANSCRIPT: {
+                Turn t = current != null && responseId != null && responseId.equals(current.responseId) ? current : pending;
+                if (t == null) pending = t = new Turn();
+                if (t.at[FINAL_TRANSCRIPT] == UNSET) t.at[FINAL_TRANSCRIPT] = nowMs;
+                return null;
+            }
+            case LLM_REQUEST: {
+                Turn t = pending != null ? pending : new Turn();
+                pending = null;
+                t.responseId = responseId;
+                t.at[LLM_REQUEST] = nowMs;
+                current = t;
+                return null;
+            }
+            default: {
+                Turn t = current;
+                if (t == null) return null;
+                if (responseId != null && t.responseId != null && !responseId.equals(t.responseId)) return null;
+                if (t.at[point] == UNSET) t.at[point] = nowMs;
+                if (point != FINAL) return null;
+                current = null;
+                return complete(t);
+            }
+        }
+    }
+
+    /** 本轮使用了端侧 TTS 兜底；级别只升不降 */
+    public synchronized void markLocalTts(@NonNull String responseId, int level) {
+        Turn t = current;
+        if (t == null || !responseId.equals(t.responseId)) return;
+        t.localTts = Math.max(t.localTts, level);
+    }
+
+    /**
+     * 播放器按积压调速或跳段（见 ChatTtsPlayer.Callback#onPlayoutAdjusted）：计入进行中的一轮；
+     * 不在轮次内（如回复完成后队列排空恢复原速）时只累计跳过段数。
+     */
+    public synchronized void markPlayout(long backlogMs, float speed, int skipped) {
+        skippedSegments += Math.max(0, skipped);
+        Turn t = current;
+        if (t == null) return;
+        t.maxBacklogMs = Math.max(t.maxBacklogMs, backlogMs);
+        t.maxSpeed = Math.max(t.maxSpeed, speed);
+        t.skippedSegments += Math.max(0, skipped);
+    }
+
+    @Nullable
+    private JSONObject complete(@NonNull Turn t) {
+        long anchor = UNSET;
+        for (int p = SPEECH_END; p <= LLM_REQUEST && anchor == UNSET; p++) anchor = t.at[p];
+        turns++;
+        if (t.localTts != LOCAL_TTS_NONE) localTtsTurns++;
+        if (t.localTts == LOCAL_TTS_FULL) localTtsFullTurns++;
+        if (t.maxSpeed > 1f) speedupTurns++;
+        try {
+            JSONObject stages = new JSONObject();
+            for (int i = 0; i < STAGE_NAMES.length; i++) {
+                long from = STAGE_SPANS[i][0] < 0 ? anchor : t.at[STAGE_SPANS[i][0]];
+                long to = t.at[STAGE_SPANS[i][1]];
+                if (from == UNSET || to == UNSET || to < from) continue;
+                histograms[i].add(to - from);
+                stages.put(STAGE_NAMES[i], to - from);
+            }
+            JSONObject report = new JSONObject().put("type", "turn").put("turn", turns).put("stages", stages);
+            if (t.responseId != null) report.put("responseId", t.responseId);
+            if (t.localTts != LOCAL_TTS_NONE) report.put("localTts", LOCAL_TTS_NAMES[t.localTts]);
+            if (t.maxBacklogMs >= 0) {
+                backlogHistogram.add(t.maxBacklogMs);
+                report.put("playout", new JSONObject().put("maxBacklogMs", t.maxBacklogMs)
+                        .put("maxSpeed", Math.round(t.maxSpeed * 100) / 100.0).put("skipped", t.skippedSegments));
+            }
+            return report.put("session", sessionJson());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 会话内各阶段直方图：{"turns":n,"stages":{"asr":{"n","p50","p90","p99"},...},
+     * "localTts":{"turns","full","rate"},"playout":{"maxBacklogMs":{"n","p50","p90","p99"},"speedupTurns","skipped"}}，
+     * rate 为使用端侧兜底的轮次占比（百分比）；maxBacklogMs 只统计播放器做过调整的轮次
+     */
+    @NonNull
+    private JSONObject sessionJson() throws Exception {
+        JSONObject stages = new JSONObject();
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            JSONObject s = histograms[i].summary();
+            if (s != null) stages.put(STAGE_NAMES[i], s);
+        }
+        JSONObject local = new JSONObject().put("turns", localTtsTurns).put("full", localTtsFullTurns)
+                .put("rate", turns > 0 ? Math.round(localTtsTurns * 1000.0 / turns) / 10.0 : 0.0);
+        JSONObject playout = new JSONObject().put("speedupTurns", speedupTurns).put("skipped", skippedSegments);
+        JSONObject backlog = backlogHistogram.summary();
+        if (backlog != null) playout.put("maxBacklogMs", backlog);
+        return new JSONObject().put("turns", turns).put("stages", stages).put("localTts", local).put("playout", playout);
+    }
+
+    /**
+     * 结束当前会话：返回会话汇总（无完成轮次时为 null）并清空所有状态。
+     */
+    @Nullable
+    public synchronized JSONObject finishSession() {
+        JSONObject summary = null;
+        if (turns > 0) {
+            try {
+                summary = new JSONObject().put("type", "session").put("session", sessionJson());
+            } catch (Exception ignored) {}
+        }
+        pending = null;
+        current = null;
+        turns = 0;
+        localTtsTurns = 0;
+        localTtsFullTurns = 0;
+        speedupTurns = 0;
+        skippedSegments = 0;
+        backlogHistogram = new Histogram();
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new Histogram();
+        return summary;
+    }
+
+    /** 一行文本形式，用于日志通道 */
+    @NonNull
+    public static String describe(@NonNull JSONObject report) {
+        StringBuilder sb = new StringBuilder();
+        JSONObject stages = report.optJSONObject("stages");
+        if (stages != null) {
+            sb.append("轮次时延 #").append(report.optInt("turn"));
+            for (String name : STAGE_NAMES) {
+                if (stages.has(name)) sb.append(' ').append(name).append('=').append(stages.optLong(name)).append("ms");
+            }
+            if (report.has("localTts")) sb.append(" localTts=").append(report.optString("localTts"));
+            JSONObject playout = report.optJSONObject("playout");
+            if (playout != null) {
+                sb.append(" backlog=").append(playout.optLong("maxBacklogMs")).append("ms x").append(playout.optDouble("maxSpeed"));
+                if (playout.optInt("skipped") > 0) sb.append(" skipped=").append(playout.optInt("skipped"));
+            }
+            return sb.toString();
+        }
+        JSONObject session = report.optJSONObject("session");
+        JSONObject hist = session != null ? session.optJSONObject("stages") : null;
+        sb.append("会话时延 turns=").append(session != null ? session.optInt("turns") : 0);
+        if (hist != null) {
+            for (String name : STAGE_NAMES) {
+                JSONObject h = hist.optJSONObject(name);
+                if (h == null) continue;
+                sb.append(' ').append(name).append('=').append(h.optLong("p50")).append('/')
+                        .append(h.optLong("p90")).append('/').append(h.optLong("p99"));
+            }
+            sb.append(" (p50/p90/p99 ms)");
+        }
+        JSONObject local = session != null ? session.optJSONObject("localTts") : null;
+        if (local != null && local.optInt("turns") > 0) {
+            sb.append(" localTts=").append(local.optInt("turns")).append(" (").append(local.optString("rate")).append("%)");
+        }
+        JSONObject playout = session != null ? session.optJSONObject("playout") : null;
+        if (playout != null && (playout.optInt("speedupTurns") > 0 || playout.optInt("skipped") > 0)) {
+            sb.append(" speedupTurns=").append(playout.optInt("speedupTurns")).append(" skipped=").append(playout.optInt("skipped"));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,660 @@
+package com.jujie.paipai.chat.core;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** 引擎的下行时序、打断与文字优先路径（手动时钟，桩传输/播放器/回调，不依赖网络与 Android） */
+public class ChatProtocolEngineTest {
+
+    private ManualClock clock;
+    private FakeTransport transport;
+    private FakePlayer player;
+    private RecordingListener listener;
+    private ChatProtocolEngine engine;
+
+    @Before
+    public void setUp() {
+        clock = new ManualClock();
+        transport = new FakeTransport();
+        player = new FakePlayer();
+        listener = new RecordingListener();
+        engine = new ChatProtocolEngine(clock, transport, player, listener);
+    }
+
+    // ====== 时序 ======
+
+    @Test
+    public void segmentsAreEnqueuedInOrderAndFinalizedOnce() {
+        engine.handleText("{\"type\":\"ready\"}");
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r1\"}");
+        engine.handleText("{\"type\":\"llm_delta\",\"responseId\":\"r1\",\"content\":\"你好。\"}");
+        segment("r1", 0, "你好。", false, new byte[]{1, 2});
+        engine.handleText("{\"type\":\"llm_delta\",\"responseId\":\"r1\",\"content\":\"再见。\"}");
+        segment("r1", 1, "再见。", true, new byte[]{3});
+        engine.handleText("{\"type\":\"llm_complete\",\"responseId\":\"r1\"}");
+
+        assertEquals(2, player.enqueued.size());
+        assertEquals(0, player.enqueued.get(0).sequence);
+        assertEquals("你好。", player.enqueued.get(0).text);
+        assertFalse(player.enqueued.get(0).isFinal);
+        assertEquals(1, player.enqueued.get(1).sequence);
+        assertTrue(player.enqueued.get(1).isFinal);
+        // 文本随播放展示，llm_complete 由 TTS 接管，不提前出最终文本
+        assertTrue(listener.finals.isEmpty());
+
+        playAll();
+        assertEquals(listOf("你好。", "再见。"), listener.deltas);
+        assertEquals(listOf("你好。再见。"), listener.finals);
+    }
+
+    @Test
+    public void framedChunksAreReassembledByIndexAndDuplicatesDropped() {
+        engine.handleText("{\"type\":\"ready\",\"audioFrameVersion\":1}");
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r1\"}");
+        engine.handleText("{\"type\":\"tts_start\",\"responseId\":\"r1\",\"sequence\":0,\"text\":\"好\",\"isFinal\":true}");
+        engine.handleBinary(frame("r1", 0, 1, true, new byte[]{3, 4}));
+        engine.handleBinary(frame("r1", 0, 0, false, new byte[]{1, 2}));
+        engine.handleBinary(frame("r1", 0, 0, false, new byte[]{1, 2}));
+        // 其他回复的帧不会混入
+        engine.handleBinary(frame("r0", 0, 0, false, new byte[]{9}));
+        engine.handleText("{\"type\":\"tts_end\",\"responseId\":\"r1\",\"sequence\":0,\"reason\":\"completed\"}");
+
+        assertEquals(1, player.enqueued.size());
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, player.enqueued.get(0).audio);
+    }
+
+    @Test
+    public void segmentCodecSelectsMime() {
+        engine.handleText("{\"type\":\"ready\"}");
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r1\"}");
+        engine.handleText("{\"type\":\"tts_start\",\"responseId\":\"r1\",\"sequence\":0,\"text\":\"好\",\"isFinal\":true,\"codec\":\"aac\"}");
+        engine.handleBinary(new byte[]{1});
+        engine.handleText("{\"type\":\"tts_end\",\"responseId\":\"r1\",\"sequence\":0,\"reason\":\"completed\"}");
+        assertEquals("audio/aac", player.enqueued.get(0).mime);
+    }
+
+    @Test
+    public void pcmSegmentsAreWrappedInWavHeader() {
+        engine.handleText("{\"type\":\"ready\"}");
+        engine.handleText("{\"type\":\"audio_format\",\"codec\":\"pcm\",\"sampleRate\":24000,\"channels\":1}");
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r1\"}");
+        segment("r1", 0, "好", true, new byte[]{1, 2, 3, 4});
+
+        Enqueued e = player.enqueued.get(0);
+        assertEquals("audio/wav", e.mime);
+        assertEquals(44 + 4, e.audio.length);
+        assertEquals("RIFF", new String(e.audio, 0, 4, StandardCharsets.US_ASCII));
+        int rate = (e.audio[24] & 0xFF) | (e.audio[25] & 0xFF) << 8 | (e.audio[26] & 0xFF) << 16;
+        assertEquals(24000, rate);
+        assertEquals(1, e.audio[44]);
+    }
+
+    // ====== 音质档位 ======
+
+    @Test
+    public void passiveSendRateNeverDowngrades() {
+        engine.handleText("{\"type\":\"ready\"}");
+        // 服务端按低码率推流时被动吞吐自然很低，不能据此降档或进入文字优先（否则形成正反馈）
+        for (int i = 0; i < 5; i++) engine.onDownlinkEstimate(16, 200);
+        assertEquals(ChatProtocolEngine.QUALITY_MEDIUM, engine.getQualityTier());
+        assertFalse(engine.isTextFirstMode());
+
+        // 被动吞吐作为下界可以佐证升档
+        for (int i = 0; i < 3; i++) engine.onDownlinkEstimate(400, 100);
+        assertEquals(ChatProtocolEngine.QUALITY_HIGH, engine.getQualityTier());
+
+        // RTT 恶化仍立即降档
+        engine.onDownlinkEstimate(400, 1200);
+        assertEquals(ChatProtocolEngine.QUALITY_LOW, engine.getQualityTier());
+    }
+
+    @Test
+    public void probesRecoverFromLowTier() {
+        engine.handleText("{\"type\":\"ready\",\"bandwidthProbe\":true}");
+        answerProbe(32 * 1024, 5000);   // ≈ 55kbps
+        assertEquals(ChatProtocolEngine.QUALITY_LOW, engine.getQualityTier());
+
+        // 低档期间周期探测；一次充足不够，连续两次实测带宽充足后升档（srtt=300 只到中档）
+        clock.advance(20_000);
+        answerProbe(32 * 1024, 600);
+        assertEquals(ChatProtocolEngine.QUALITY_LOW, engine.getQualityTier());
+        clock.advance(20_000);
+        answerProbe(32 * 1024, 600);
+        assertEquals(ChatProtocolEngine.QUALITY_MEDIUM, engine.getQualityTier());
+    }
+
+    @Test
+    public void lowTierStepsUpAfterDwellWithoutProbeSupport() {
+        engine.handleText("{\"type\":\"ready\"}");
+        engine.onDownlinkEstimate(400, 1200);
+        assertEquals(ChatProtocolEngine.QUALITY_LOW, engine.getQualityTier());
+
+        transport.srtt = 200;
+        clock.advance(30_000);
+        assertEquals(ChatProtocolEngine.QUALITY_MEDIUM, engine.getQualityTier());
+
+        // 很快又降回：下一次试升前停留加倍
+        engine.onDownlinkEstimate(400, 1200);
+        clock.advance(30_000);
+        assertEquals(ChatProtocolEngine.QUALITY_LOW, engine.getQualityTier());
+        clock.advance(30_000);
+        assertEquals(ChatProtocolEngine.QUALITY_MEDIUM, engine.getQualityTier());
+    }
+
+    // ====== 打断 ======
+
+    @Test
+    public void newRequestBargesInAndDropsStaleSegments() {
+        engine.handleText("{\"type\":\"ready\"}");
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r1\"}");
+        engine.handleText("{\"type\":\"llm_delta\",\"responseId\":\"r1\",\"content\":\"第一句\"}");
+        engine.handleText("{\"type\":\"tts_start\",\"responseId\":\"r1\",\"sequence\":0,\"text\":\"第一句\"}");
+        engine.handleBinary(new byte[]{1});
+
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r2\"}");
+        assertEquals(1, player.clears);
+        // 被打断的回复按已收到的文本结束，只结束一次
+        assertEquals(listOf("第一句"), listener.finals);
+
+        // r1 迟到的段与音频不再入队
+        engine.handleBinary(new byte[]{2});
+        engine.handleText("{\"type\":\"tts_end\",\"responseId\":\"r1\",\"sequence\":0,\"reason\":\"completed\"}");
+        assertTrue(player.enqueued.isEmpty());
+
+        segment("r2", 0, "第二句", true, new byte[]{5});
+        assertEquals(1, player.enqueued.size());
+        assertEquals("r2", player.enqueued.get(0).requestId);
+    }
+
+    @Test
+    public void ttsCancelCancelsPlayerForResponse() {
+        engine.handleText("{\"type\":\"ready\"}");
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r1\"}");
+        segment("r1", 0, "半句", false, new byte[]{1});
+        engine.handleText("{\"type\":\"tts_cancel\",\"responseId\":\"r1\"}");
+        assertEquals(listOf("r1"), player.canceled);
+    }
+
+    // ====== 端侧兜底 ======
+
+    @Test
+    public void partiallySpokenServerSegmentHandsTheRestToLocalSpeech() {
+        List<String> spoken = new ArrayList<>();
+        engine.setLocalSpeech(new ChatProtocolEngine.LocalSpeech() {
+            @Override public boolean isReady() { return true; }
+            @Override public void speak(@NonNull String text) { spoken.add(text); }
+            @Override public void stop() {}
+        });
+        engine.setLocalTtsFallbackEnabled(true);
+        engine.handleText("{\"type\":\"ready\"}");
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r1\"}");
+        engine.handleText("{\"type\":\"llm_delta\",\"responseId\":\"r1\",\"content\":\"第一句。第二\"}");
+        clock.advance(1500);
+        assertEquals(listOf("第一句。"), spoken);
+
+        // 服务端段前半已由本地读过：丢弃其音频，不重复播放
+        segment("r1", 0, "第一句。第二句。", false, new byte[]{1});
+        assertTrue(player.enqueued.isEmpty());
+
+        engine.handleText("{\"type\":\"llm_delta\",\"responseId\":\"r1\",\"content\":\"句。完\"}");
+        engine.handleText("{\"type\":\"llm_complete\",\"responseId\":\"r1\"}");
+        assertEquals(listOf("第一句。", "第二句。", "完"), spoken);
+
+        segment("r1", 1, "完", true, new byte[]{2});
+        assertTrue(player.enqueued.isEmpty());
+        assertEquals(listOf("第一句。", "第二句。", "完"), listener.deltas);
+        assertEquals(listOf("第一句。第二句。完"), listener.finals);
+    }
+
+    // ====== TTS 缓存 ======
+
+    @Test
+    public void cachedSegmentKeepsOrderWhileLoading() {
+        FakeTtsCache cache = new FakeTtsCache();
+        engine.setTtsCache(cache);
+        engine.handleText("{\"type\":\"ready\",\"characterId\":3,\"voice\":\"v\"}");
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r1\"}");
+        engine.handleText("{\"type\":\"tts_cached\",\"responseId\":\"r1\",\"sequence\":0,\"text\":\"你好。\",\"cacheKey\":\"k0\"}");
+        // 读盘未完成时后续段先排队
+        segment("r1", 1, "再见。", true, new byte[]{2});
+        assertTrue(player.enqueued.isEmpty());
+
+        cache.complete("k0", new byte[]{9});
+        assertEquals(2, player.enqueued.size());
+        assertEquals(0, player.enqueued.get(0).sequence);
+        assertArrayEquals(new byte[]{9}, player.enqueued.get(0).audio);
+        assertEquals(1, player.enqueued.get(1).sequence);
+        playAll();
+        assertEquals(listOf("你好。再见。"), listener.finals);
+    }
+
+    @Test
+    public void cacheMissReportsAndReleasesLaterSegments() {
+        FakeTtsCache cache = new FakeTtsCache();
+        engine.setTtsCache(cache);
+        engine.handleText("{\"type\":\"ready\",\"characterId\":3,\"voice\":\"v\"}");
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r1\"}");
+        engine.handleText("{\"type\":\"tts_cached\",\"responseId\":\"r1\",\"sequence\":0,\"text\":\"你好。\",\"cacheKey\":\"k0\"}");
+        segment("r1", 1, "再见。", false, new byte[]{2});
+
+        cache.complete("k0", null);
+        assertEquals("k0", new JSONObject(transport.last("tts_cache:r1:0")).getString("cacheKey"));
+        assertEquals(1, player.enqueued.size());
+        assertEquals(1, player.enqueued.get(0).sequence);
+    }
+
+    @Test
+    public void cacheLoadFinishingAfterBargeInIsDropped() {
+        FakeTtsCache cache = new FakeTtsCache();
+        engine.setTtsCache(cache);
+        engine.handleText("{\"type\":\"ready\",\"characterId\":3,\"voice\":\"v\"}");
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r1\"}");
+        engine.handleText("{\"type\":\"tts_cached\",\"responseId\":\"r1\",\"sequence\":0,\"text\":\"你好。\",\"cacheKey\":\"k0\"}");
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r2\"}");
+        segment("r2", 0, "新回复", true, new byte[]{5});
+
+        cache.complete("k0", new byte[]{9});
+        assertEquals(1, player.enqueued.size());
+        assertEquals("r2", player.enqueued.get(0).requestId);
+    }
+
+    @Test
+    public void onlyHighTierSegmentsWithKnownScopeAreCached() {
+        FakeTtsCache cache = new FakeTtsCache();
+        engine.setTtsCache(cache);
+        // 作用域未知
+        engine.handleText("{\"type\":\"ready\"}");
+        for (int i = 0; i < 3; i++) engine.onDownlinkEstimate(400, 100);
+        assertEquals(ChatProtocolEngine.QUALITY_HIGH, engine.getQualityTier());
+        cacheableSegment("r1", "一");
+        assertTrue(cache.puts.isEmpty());
+
+        // 作用域已知、中档音质
+        engine.resetConversation();
+        engine.handleText("{\"type\":\"ready\",\"characterId\":3,\"voice\":\"v\"}");
+        engine.onDownlinkEstimate(400, 1200);
+        assertFalse(ChatProtocolEngine.QUALITY_HIGH.equals(engine.getQualityTier()));
+        cacheableSegment("r2", "二");
+        assertTrue(cache.puts.isEmpty());
+
+        for (int i = 0; i < 3; i++) engine.onDownlinkEstimate(400, 100);
+        assertEquals(ChatProtocolEngine.QUALITY_HIGH, engine.getQualityTier());
+        cacheableSegment("r3", "三");
+        assertEquals(1, cache.puts.size());
+        assertEquals(TtsCacheKey.of("3|v", "三"), cache.puts.get(0)[0]);
+        assertEquals("3|v", cache.puts.get(0)[1]);
+    }
+
+    // ====== 文字优先 ======
+
+    @Test
+    public void slowProbeEntersTextFirstAndShowsTextImmediately() {
+        engine.handleText("{\"type\":\"ready\",\"bandwidthProbe\":true}");
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r1\"}");
+        answerProbe(2000, 3000);
+
+        assertTrue(engine.isTextFirstMode());
+        assertEquals(listOf(true), listener.textFirstChanges);
+        assertEquals("{\"type\":\"tts_mode\",\"audio\":false}", transport.last("tts_mode"));
+        assertEquals(ChatProtocolEngine.QUALITY_LOW, engine.getQualityTier());
+
+        engine.handleText("{\"type\":\"llm_delta\",\"responseId\":\"r1\",\"content\":\"文字\"}");
+        assertEquals(listOf("文字"), listener.deltas);
+    }
+
+    @Test
+    public void lateFirstAudioTwiceEntersTextFirst() {
+        engine.handleText("{\"type\":\"ready\"}");
+        for (String r : new String[]{"r1", "r2"}) {
+            engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"" + r + "\"}");
+            engine.handleText("{\"type\":\"tts_start\",\"responseId\":\"" + r + "\",\"sequence\":0,\"text\":\"嗯\"}");
+            clock.advance(4000);
+        }
+        assertTrue(engine.isTextFirstMode());
+    }
+
+    @Test
+    public void textFirstDoesNotExitOnRttAlone() {
+        engine.handleText("{\"type\":\"ready\",\"bandwidthProbe\":true}");
+        answerProbe(2000, 3000);
+        assertTrue(engine.isTextFirstMode());
+
+        // RTT 恢复但带宽仍低于恢复阈值（高于进入阈值）：继续降级
+        transport.srtt = 100;
+        clock.advance(20_000);
+        answerProbe(32 * 1024, 8000);   // ≈ 33kbps
+        clock.advance(10_000);
+        assertTrue(engine.isTextFirstMode());
+
+        // 之后探测带宽恢复：退出
+        clock.advance(10_000);
+        answerProbe(32 * 1024, 600);
+        clock.advance(10_000);
+        assertFalse(engine.isTextFirstMode());
+        assertEquals("{\"type\":\"tts_mode\",\"audio\":true}", transport.last("tts_mode"));
+    }
+
+    @Test
+    public void textFirstWithoutProbeNeedsConsecutiveGoodChecksAndReentersOnTrialMiss() {
+        engine.handleText("{\"type\":\"ready\"}");
+        for (String r : new String[]{"r1", "r2"}) {
+            engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"" + r + "\"}");
+            engine.handleText("{\"type\":\"tts_start\",\"responseId\":\"" + r + "\",\"sequence\":0,\"text\":\"嗯\"}");
+            clock.advance(4000);
+        }
+        assertTrue(engine.isTextFirstMode());
+
+        transport.srtt = 100;
+        clock.advance(30_000);
+        assertTrue(engine.isTextFirstMode());
+        clock.advance(10_000);
+        assertFalse(engine.isTextFirstMode());
+
+        // 试用期内一次首包超时即重新降级
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r3\"}");
+        engine.handleText("{\"type\":\"tts_start\",\"responseId\":\"r3\",\"sequence\":0,\"text\":\"嗯\"}");
+        clock.advance(4000);
+        assertTrue(engine.isTextFirstMode());
+    }
+
+    @Test
+    public void textFirstDropsAudioWhenServerIgnoresTtsMode() {
+        engine.handleText("{\"type\":\"ready\",\"bandwidthProbe\":true}");
+        answerProbe(2000, 3000);
+        assertTrue(engine.isTextFirstMode());
+
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r1\"}");
+        segment("r1", 0, "只显示文字", true, new byte[]{1, 2});
+        engine.handleText("{\"type\":\"llm_complete\",\"responseId\":\"r1\"}");
+
+        assertTrue(player.enqueued.isEmpty());
+        assertEquals(listOf("只显示文字"), listener.deltas);
+        assertEquals(listOf("只显示文字"), listener.finals);
+    }
+
+    @Test
+    public void resetTextFirstClearsStateWithoutNotifyingServer() {
+        engine.handleText("{\"type\":\"ready\",\"bandwidthProbe\":true}");
+        answerProbe(2000, 3000);
+        int sent = transport.sent.size();
+        engine.resetTextFirst();
+        assertFalse(engine.isTextFirstMode());
+        assertEquals(sent, transport.sent.size());
+        assertEquals(listOf(true, false), listener.textFirstChanges);
+    }
+
+    // ====== 指标 ======
+
+    @Test
+    public void playoutAdjustmentsAreReportedWithTheTurn() {
+        engine.handleText("{\"type\":\"ready\"}");
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"r1\"}");
+        engine.handleText("{\"type\":\"llm_delta\",\"responseId\":\"r1\",\"content\":\"你好。\"}");
+        segment("r1", 0, "你好。", false, new byte[]{1});
+        segment("r1", 1, "再见。", true, new byte[]{2});
+        engine.onSegmentStart("r1", 0, "你好。");
+        engine.onPlayoutAdjusted(4200, 1.25f, 0);
+        engine.onPlayoutAdjusted(6100, 1.5f, 2);
+        engine.onPlayoutAdjusted(900, 1.0f, 0);
+        engine.onSegmentEnd("r1", 0, false, false);
+        engine.onSegmentStart("r1", 1, "再见。");
+        engine.onSegmentEnd("r1", 1, true, false);
+
+        assertEquals(1, listener.metrics.size());
+        JSONObject turn = listener.metrics.get(0);
+        assertEquals("turn", turn.getString("type"));
+        JSONObject playout = turn.getJSONObject("playout");
+        assertEquals(6100, playout.getLong("maxBacklogMs"));
+        assertEquals(1.5, playout.getDouble("maxSpeed"), 1e-9);
+        assertEquals(2, playout.getInt("skipped"));
+
+        engine.resetConversation();
+        JSONObject session = listener.metrics.get(listener.metrics.size() - 1).getJSONObject("session");
+        JSONObject sessionPlayout = session.getJSONObject("playout");
+        assertEquals(1, sessionPlayout.getInt("speedupTurns"));
+        assertEquals(2, sessionPlayout.getInt("skipped"));
+        assertEquals(6100, sessionPlayout.getJSONObject("maxBacklogMs").getLong("p50"));
+    }
+
+    // ====== 线程 ======
+
+    @Test
+    public void concurrentEntryPointsDoNotCorruptState() throws Exception {
+        engine.handleText("{\"type\":\"ready\"}");
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread network = new Thread(() -> {
+            try {
+                start.await();
+                for (int i = 0; i < 2000; i++) {
+                    String r = "r" + i;
+                    engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"" + r + "\"}");
+                    engine.handleText("{\"type\":\"llm_delta\",\"responseId\":\"" + r + "\",\"content\":\"字\"}");
+                    engine.handleText("{\"type\":\"tts_start\",\"responseId\":\"" + r + "\",\"sequence\":0,\"text\":\"字\",\"isFinal\":true}");
+                    engine.handleBinary(new byte[]{1});
+                    engine.handleText("{\"type\":\"tts_end\",\"responseId\":\"" + r + "\",\"sequence\":0,\"reason\":\"completed\"}");
+                }
+            } catch (Throwable t) { failure.set(t); }
+        });
+        Thread playback = new Thread(() -> {
+            try {
+                start.await();
+                for (int i = 0; i < 2000; i++) {
+                    String r = "r" + i;
+                    engine.onSegmentStart(r, 0, "字");
+                    engine.onSegmentEnd(r, 0, true, false);
+                    clock.advance(1);
+                }
+            } catch (Throwable t) { failure.set(t); }
+        });
+        network.start();
+        playback.start();
+        start.countDown();
+        network.join();
+        playback.join();
+        assertNull(failure.get());
+        assertTrue(listener.parseErrors.isEmpty());
+    }
+
+    // ====== 工具 ======
+
+    private void segment(String r, int seq, String text, boolean isFinal, byte[] audio) {
+        engine.handleText("{\"type\":\"tts_start\",\"responseId\":\"" + r + "\",\"sequence\":" + seq
+                + ",\"text\":\"" + text + "\",\"isFinal\":" + isFinal + "}");
+        engine.handleBinary(audio);
+        engine.handleText("{\"type\":\"tts_end\",\"responseId\":\"" + r + "\",\"sequence\":" + seq + ",\"reason\":\"completed\"}");
+    }
+
+    private void cacheableSegment(String r, String text) {
+        engine.handleText("{\"type\":\"llm_request\",\"responseId\":\"" + r + "\"}");
+        engine.handleText("{\"type\":\"tts_start\",\"responseId\":\"" + r + "\",\"sequence\":0"
+                + ",\"text\":\"" + text + "\",\"isFinal\":true,\"cacheable\":true}");
+        engine.handleBinary(new byte[]{1});
+        engine.handleText("{\"type\":\"tts_end\",\"responseId\":\"" + r + "\",\"sequence\":0,\"reason\":\"completed\"}");
+    }
+
+    /** 服务端在 elapsedMs 后回复最近一次带宽探测，回包总长约 bytes */
+    private void answerProbe(int bytes, long elapsedMs) {
+        String req = transport.last("bandwidth_probe");
+        int id = new JSONObject(req).getInt("id");
+        clock.advance(elapsedMs);
+        StringBuilder pad = new StringBuilder();
+        String head = "{\"type\":\"bandwidth_probe\",\"id\":" + id + ",\"padding\":\"";
+        while (pad.length() < bytes - head.length() - 2) pad.append('x');
+        engine.handleText(head + pad + "\"}");
+    }
+
+    /** 模拟播放器按入队顺序播放完所有段 */
+    private void playAll() {
+        for (Enqueued e : new ArrayList<>(player.enqueued)) {
+            engine.onSegmentStart(e.requestId, e.sequence, e.text);
+            engine.onSegmentEnd(e.requestId, e.sequence, e.isFinal, false);
+        }
+    }
+
+    private static byte[] frame(String responseId, int segment, int chunk, boolean last, byte[] body) {
+        byte[] b = new byte[AudioFrameHeader.MIN_LENGTH + body.length];
+        int streamId = AudioFrameHeader.streamIdOf(responseId);
+        b[0] = (byte) AudioFrameHeader.MAGIC;
+        b[1] = (byte) AudioFrameHeader.VERSION;
+        b[2] = (byte) AudioFrameHeader.MIN_LENGTH;
+        b[3] = (byte) AudioFrameHeader.STREAM_TTS;
+        b[4] = (byte) (last ? AudioFrameHeader.FLAG_LAST : 0);
+        putInt(b, 6, streamId);
+        b[10] = (byte) (segment >> 8);
+        b[11] = (byte) segment;
+        putInt(b, 12, chunk);
+        System.arraycopy(body, 0, b, AudioFrameHeader.MIN_LENGTH, body.length);
+        return b;
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    @SafeVarargs
+    private static <T> List<T> listOf(T... items) {
+        List<T> out = new ArrayList<>();
+        for (T t : items) out.add(t);
+        return out;
+    }
+
+    /** 手动推进的时钟：advance 时按到期顺序执行延时任务（任务可再投递） */
+    static final class ManualClock implements ChatProtocolEngine.Clock {
+        private static final class Task {
+            final Runnable r; final long at;
+            Task(Runnable r, long at) { this.r = r; this.at = at; }
+        }
+        private final List<Task> tasks = new ArrayList<>();
+        private long now = 1_000;
+
+        @Override public synchronized long nowMs() { return now; }
+
+        @Override public synchronized void postDelayed(@NonNull Runnable task, long delayMs) {
+            tasks.add(new Task(task, now + delayMs));
+        }
+
+        @Override public synchronized void removeCallbacks(@NonNull Runnable task) {
+            for (Iterator<Task> it = tasks.iterator(); it.hasNext(); ) if (it.next().r == task) it.remove();
+        }
+
+        void advance(long ms) {
+            long target;
+            synchronized (this) { target = now + ms; }
+            while (true) {
+                Task next = null;
+                synchronized (this) {
+                    for (Task t : tasks) if (t.at <= target && (next == null || t.at < next.at)) next = t;
+                    if (next == null) { now = target; return; }
+                    tasks.remove(next);
+                    now = next.at;
+                }
+                next.r.run();
+            }
+        }
+    }
+
+    static final class FakeTransport implements ChatProtocolEngine.Transport {
+        final List<String[]> sent = new ArrayList<>();
+        volatile long srtt = 300;
+        volatile long kbps = -1;
+
+        @Override public synchronized void sendControl(@NonNull String json, @NonNull String coalesceKey, long ttlMs) {
+            sent.add(new String[]{coalesceKey, json});
+        }
+        @Override public long getSmoothedRttMs() { return srtt; }
+        @Override public long getDownlinkKbps() { return kbps; }
+        @Override public void resetDownlinkEstimate() { kbps = -1; }
+
+        synchronized String last(String key) {
+            for (int i = sent.size() - 1; i >= 0; i--) if (sent.get(i)[0].equals(key)) return sent.get(i)[1];
+            return null;
+        }
+    }
+
+    static final class Enqueued {
+        final String requestId; final int sequence; final byte[] audio; final String text; final boolean isFinal; final String mime;
+        Enqueued(String r, int s, byte[] a, String t, boolean f, String m) { requestId = r; sequence = s; audio = a; text = t; isFinal = f; mime = m; }
+    }
+
+    static final class FakePlayer implements ChatProtocolEngine.Player {
+        final List<Enqueued> enqueued = new ArrayList<>();
+        final List<String> canceled = new ArrayList<>();
+        int clears = 0;
+
+        @Override public void enqueue(@NonNull String requestId, int sequence, @NonNull byte[] audio,
+                                      @NonNull String textDelta, boolean isFinalSegment, @NonNull String mimeType) {
+            enqueued.add(new Enqueued(requestId, sequence, audio, textDelta, isFinalSegment, mimeType));
+        }
+        @Override public void cancelForResponse(@NonNull String responseId) { canceled.add(responseId); }
+        @Override public void clear() { clears++; }
+        @Override public void pause() {}
+        @Override public void resume() {}
+    }
+
+    /** 读取由测试手动完成，模拟磁盘缓存在后台线程回调 */
+    static final class FakeTtsCache implements ChatProtocolEngine.TtsCache {
+        final List<String> loadKeys = new ArrayList<>();
+        final List<ChatProtocolEngine.LoadCallback> loadCallbacks = new ArrayList<>();
+        final List<String[]> puts = new ArrayList<>();
+
+        @Override public synchronized void load(@NonNull String key, @NonNull ChatProtocolEngine.LoadCallback callback) {
+            loadKeys.add(key);
+            loadCallbacks.add(callback);
+        }
+        @Override public synchronized void put(@NonNull String key, @NonNull String scope, @NonNull byte[] audio, @NonNull String mime) {
+            puts.add(new String[]{key, scope});
+        }
+        @NonNull @Override public List<String> keys(@NonNull String scope, int max) { return new ArrayList<>(); }
+
+        void complete(String key, byte[] audio) {
+            ChatProtocolEngine.LoadCallback cb;
+            synchronized (this) {
+                int i = loadKeys.indexOf(key);
+                loadKeys.remove(i);
+                cb = loadCallbacks.remove(i);
+            }
+            cb.onLoaded(audio != null ? new ChatProtocolEngine.CachedAudio(audio, "audio/mpeg") : null);
+        }
+    }
+
+    static final class RecordingListener implements ChatProtocolEngine.Listener {
+        final List<String> deltas = new ArrayList<>();
+        final List<String> finals = new ArrayList<>();
+        final List<Boolean> textFirstChanges = new ArrayList<>();
+        final List<String> parseErrors = new ArrayList<>();
+        final List<JSONObject> metrics = new ArrayList<>();
+
+        @Override public void onLog(@NonNull String line) { if (line.startsWith("解析错误")) parseErrors.add(line); }
+        @Override public void onServerReady() {}
+        @Override public void onCharacterSwitchAck(int characterId) {}
+        @Override public void onCharacterSwitchRejected(@NonNull String reason) {}
+        @Override public void onLimitExceeded() {}
+        @Override public void onUserTranscript(@NonNull String text) {}
+        @Override public void onAssistantDelta(@NonNull String text) { deltas.add(text); }
+        @Override public void onAssistantFinal(@NonNull String text) { finals.add(text); }
+        @Override public void onFirstAudioLatency(long millis) {}
+        @Override public void onTextFirstModeChanged(boolean enabled) { textFirstChanges.add(enabled); }
+        @Override public void onSongEnd(int id, @NonNull String name) {}
+        @Override public void onTurnMetrics(@NonNull JSONObject metrics) { this.metrics.add(metrics); }
+    }
+}
@@ -0,0 +1,72 @@
+package com.jujie.paipai.chat.core;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** 多路复用帧的编解码往返 */
+public class MuxFrameTest {
+
+    @Test
+    public void dataFrameRoundTrips() {
+        byte[] body = {9, 8, 7, 6, 5};
+        byte[] raw = MuxFrame.encode(255, 0, 0x01020304, body, 1, 3);
+        assertEquals(MuxFrame.HEADER_SIZE + 3, raw.length);
+        // 头部按大端写入
+        assertEquals((byte) 0xFF, raw[0]);
+        assertEquals(0x01, raw[2]);
+        assertEquals(0x04, raw[5]);
+
+        MuxFrame f = MuxFrame.decode(raw);
+        assertEquals(255, f.channelId);
+        assertEquals(0x01020304, f.sequence);
+        assertFalse(f.has(MuxFrame.FLAG_TEXT));
+        assertArrayEquals(new byte[]{8, 7, 6}, f.payload());
+    }
+
+    @Test
+    public void textFrameKeepsUtf8AndHighSequence() {
+        byte[] text = "你好 ws".getBytes(StandardCharsets.UTF_8);
+        MuxFrame f = MuxFrame.decode(MuxFrame.encode(3, MuxFrame.FLAG_TEXT, -1, text, 0, text.length));
+        assertTrue(f.has(MuxFrame.FLAG_TEXT));
+        assertEquals(-1, f.sequence);
+        assertEquals("你好 ws", f.text());
+    }
+
+    @Test
+    public void creditAndClosePayloads() {
+        byte[] credit = MuxFrame.creditPayload(200_000);
+        MuxFrame c = MuxFrame.decode(MuxFrame.encode(1, MuxFrame.FLAG_CREDIT, 7, credit, 0, credit.length));
+        assertTrue(c.has(MuxFrame.FLAG_CREDIT));
+        assertEquals(200_000, c.credit());
+
+        byte[] close = MuxFrame.closePayload(4001, "再见");
+        MuxFrame x = MuxFrame.decode(MuxFrame.encode(1, MuxFrame.FLAG_CLOSE, 8, close, 0, close.length));
+        assertEquals(4001, x.closeCode());
+        assertEquals("再见", x.closeReason());
+
+        MuxFrame empty = MuxFrame.decode(MuxFrame.encode(1, MuxFrame.FLAG_CLOSE, 9, new byte[0], 0, 0));
+        assertEquals(1000, empty.closeCode());
+        assertEquals("", empty.closeReason());
+        assertEquals(0, empty.credit());
+    }
+
+    @Test
+    public void rejectsShortFramesAndChannelZero() {
+        assertNull(MuxFrame.decode(new byte[]{1, 0, 0, 0, 0}));
+        assertNull(MuxFrame.decode(new byte[]{0, 0, 0, 0, 0, 0}));
+        try {
+            MuxFrame.encode(256, 0, 0, new byte[0], 0, 0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // 通道号只有一个字节
+        }
+    }
+}
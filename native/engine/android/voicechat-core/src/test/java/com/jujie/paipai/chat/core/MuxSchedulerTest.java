@@ -0,0 +1,120 @@
+package com.jujie.paipai.chat.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/** 多路复用的优先级调度与按通道窗口流控 */
+public class MuxSchedulerTest {
+
+    private static final int AUDIO = 1;
+    private static final int LOG = 2;
+    private static final int CHAT = 3;
+
+    private MuxScheduler s;
+
+    @Before
+    public void setUp() {
+        s = new MuxScheduler();
+    }
+
+    @Test
+    public void audioIsSentBeforeQueuedLogs() {
+        s.addChannel(LOG, MuxScheduler.PRIORITY_LOG, 1024);
+        s.addChannel(AUDIO, MuxScheduler.PRIORITY_AUDIO, 1024);
+        s.enqueueData(LOG, frame(LOG, 0, 10), 10);
+        s.enqueueData(LOG, frame(LOG, 1, 10), 10);
+        s.enqueueData(AUDIO, frame(AUDIO, 0, 10), 10);
+        s.enqueueData(AUDIO, frame(AUDIO, 1, 10), 10);
+
+        assertEquals(AUDIO, channelOf(s.poll()));
+        assertEquals(AUDIO, channelOf(s.poll()));
+        // 日志在音频之后，按入队顺序
+        assertEquals(0, MuxFrame.decode(s.poll()).sequence);
+        assertEquals(1, MuxFrame.decode(s.poll()).sequence);
+        assertNull(s.poll());
+    }
+
+    @Test
+    public void controlFramesBypassPriorityAndWindow() {
+        s.addChannel(AUDIO, MuxScheduler.PRIORITY_AUDIO, 10);
+        s.enqueueData(AUDIO, frame(AUDIO, 0, 10), 10);
+        s.enqueueData(AUDIO, frame(AUDIO, 1, 10), 10);
+        byte[] credit = MuxFrame.creditPayload(100);
+        s.enqueueControl(LOG, MuxFrame.encode(LOG, MuxFrame.FLAG_CREDIT, 0, credit, 0, credit.length));
+
+        assertEquals(LOG, channelOf(s.poll()));
+        assertEquals(AUDIO, channelOf(s.poll()));
+        // 窗口已用尽，控制帧仍可发
+        assertNull(s.poll());
+        s.enqueueControl(AUDIO, frame(AUDIO, 2, 0));
+        assertEquals(2, MuxFrame.decode(s.poll()).sequence);
+    }
+
+    @Test
+    public void exhaustedWindowBlocksOnlyThatChannelUntilCredit() {
+        s.addChannel(AUDIO, MuxScheduler.PRIORITY_AUDIO, 16);
+        s.addChannel(CHAT, MuxScheduler.PRIORITY_AUDIO, 16);
+        s.enqueueData(AUDIO, frame(AUDIO, 0, 12), 12);
+        s.enqueueData(AUDIO, frame(AUDIO, 1, 12), 12);
+        s.enqueueData(AUDIO, frame(AUDIO, 2, 2), 2);
+        s.enqueueData(CHAT, frame(CHAT, 0, 4), 4);
+
+        assertEquals(0, MuxFrame.decode(s.poll()).sequence);
+        assertEquals(4, s.sendWindow(AUDIO));
+        // AUDIO 的队头帧窗口不足：后面的小帧也不越过它，同优先级的 CHAT 照常发
+        assertEquals(CHAT, channelOf(s.poll()));
+        assertNull(s.poll());
+        assertEquals((MuxFrame.HEADER_SIZE + 12) + (MuxFrame.HEADER_SIZE + 2), s.queuedBytes(AUDIO));
+
+        s.grantSendWindow(AUDIO, 12);
+        assertEquals(1, MuxFrame.decode(s.poll()).sequence);
+        assertEquals(2, MuxFrame.decode(s.poll()).sequence);
+        assertEquals(2, s.sendWindow(AUDIO));
+        assertEquals(0, s.queuedBytes(AUDIO));
+    }
+
+    @Test
+    public void oversizedMessageWaitsForTheWholeWindow() {
+        s.addChannel(AUDIO, MuxScheduler.PRIORITY_AUDIO, 16);
+        s.enqueueData(AUDIO, frame(AUDIO, 0, 4), 4);
+        s.enqueueData(AUDIO, frame(AUDIO, 1, 40), 40);
+        s.poll();
+        assertNull(s.poll());
+        s.grantSendWindow(AUDIO, 4);
+        assertEquals(1, MuxFrame.decode(s.poll()).sequence);
+        assertEquals(-24, s.sendWindow(AUDIO));
+    }
+
+    @Test
+    public void creditIsReturnedEveryHalfWindow() {
+        s.addChannel(AUDIO, MuxScheduler.PRIORITY_AUDIO, 100);
+        assertEquals(0, s.onReceived(AUDIO, 30));
+        assertEquals(0, s.onReceived(AUDIO, 19));
+        assertEquals(50, s.onReceived(AUDIO, 1));
+        assertEquals(0, s.onReceived(AUDIO, 49));
+        assertEquals(70, s.onReceived(AUDIO, 21));
+        assertEquals(0, s.onReceived(LOG, 1000));
+    }
+
+    @Test
+    public void removedChannelDropsQueuedData() {
+        s.addChannel(LOG, MuxScheduler.PRIORITY_LOG, 1024);
+        s.enqueueData(LOG, frame(LOG, 0, 10), 10);
+        s.removeChannel(LOG);
+        assertFalse(s.hasChannel(LOG));
+        assertFalse(s.enqueueData(LOG, frame(LOG, 1, 10), 10));
+        assertNull(s.poll());
+    }
+
+    private static byte[] frame(int channel, int seq, int len) {
+        return MuxFrame.encode(channel, 0, seq, new byte[len], 0, len);
+    }
+
+    private static int channelOf(byte[] frame) {
+        return MuxFrame.decode(frame).channelId;
+    }
+}
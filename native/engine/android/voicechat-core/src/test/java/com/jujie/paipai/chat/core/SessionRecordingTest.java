@@ -0,0 +1,183 @@
+package com.jujie.paipai.chat.core;
+
+import androidx.annotation.NonNull;
+
+import com.jujie.paipai.chat.core.ChatProtocolEngineTest.Enqueued;
+import com.jujie.paipai.chat.core.ChatProtocolEngineTest.FakePlayer;
+import com.jujie.paipai.chat.core.ChatProtocolEngineTest.FakeTransport;
+import com.jujie.paipai.chat.core.ChatProtocolEngineTest.ManualClock;
+import com.jujie.paipai.chat.core.ChatProtocolEngineTest.RecordingListener;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** 会话录制格式往返：录下一段真实引擎会话，回放进新引擎后入队与播放结果一致 */
+public class SessionRecordingTest {
+
+    /** 录制侧：下行帧先落盘再交给引擎，播放器开始播放的段记为 KIND_PLAYBACK，与 App 侧 ChatTransport / ChatTtsPlayer 相同 */
+    private static final class RecordingSession {
+        final ManualClock clock = new ManualClock();
+        final FakeTransport transport = new FakeTransport();
+        final FakePlayer player = new FakePlayer();
+        final RecordingListener listener = new RecordingListener();
+        final ChatProtocolEngine engine = new ChatProtocolEngine(clock, transport, player, listener);
+        final SessionRecording.Writer writer;
+        long deltaUs = 0;
+        int played = 0;
+
+        RecordingSession(@NonNull ByteArrayOutputStream out) throws IOException {
+            writer = new SessionRecording.Writer(out);
+            write(SessionRecording.KIND_OPEN, "ws://stand-in/chat".getBytes(StandardCharsets.UTF_8));
+        }
+
+        void text(@NonNull String json) throws IOException {
+            write(SessionRecording.KIND_IN_TEXT, json.getBytes(StandardCharsets.UTF_8));
+            engine.handleText(json);
+        }
+
+        void binary(@NonNull byte[] bytes) throws IOException {
+            write(SessionRecording.KIND_IN_BINARY, bytes);
+            engine.handleBinary(bytes);
+        }
+
+        void playAll() throws IOException {
+            while (played < player.enqueued.size()) {
+                Enqueued e = player.enqueued.get(played++);
+                write(SessionRecording.KIND_PLAYBACK, playbackRow(e).getBytes(StandardCharsets.UTF_8));
+                engine.onSegmentStart(e.requestId, e.sequence, e.text);
+                engine.onSegmentEnd(e.requestId, e.sequence, e.isFinal, false);
+            }
+        }
+
+        private void write(int kind, @NonNull byte[] payload) throws IOException {
+            deltaUs += 1500;
+            writer.write(kind, deltaUs, payload, 0, payload.length);
+        }
+    }
+
+    private static String playbackRow(@NonNull Enqueued e) {
+        return e.requestId + "#" + e.sequence + " " + e.audio.length + " " + e.mime;
+    }
+
+    private static void recordTwoTurns(@NonNull RecordingSession s) throws IOException {
+        s.text("{\"type\":\"ready\"}");
+        s.text("{\"type\":\"llm_request\",\"responseId\":\"r1\"}");
+        s.text("{\"type\":\"llm_delta\",\"responseId\":\"r1\",\"content\":\"你好。\"}");
+        s.text("{\"type\":\"tts_start\",\"responseId\":\"r1\",\"sequence\":0,\"text\":\"你好。\",\"isFinal\":true}");
+        s.binary(new byte[]{1, 2, 3});
+        s.text("{\"type\":\"tts_end\",\"responseId\":\"r1\",\"sequence\":0,\"reason\":\"completed\"}");
+        s.text("{\"type\":\"llm_complete\",\"responseId\":\"r1\"}");
+        s.playAll();
+        s.text("{\"type\":\"llm_request\",\"responseId\":\"r2\"}");
+        s.text("{\"type\":\"tts_start\",\"responseId\":\"r2\",\"sequence\":0,\"text\":\"再见。\",\"isFinal\":true}");
+        byte[] big = new byte[70 * 1024];   // 超过写缓冲，跨越刷盘边界
+        for (int i = 0; i < big.length; i++) big[i] = (byte) i;
+        s.binary(big);
+        s.text("{\"type\":\"tts_end\",\"responseId\":\"r2\",\"sequence\":0,\"reason\":\"completed\"}");
+        s.text("{\"type\":\"llm_complete\",\"responseId\":\"r2\"}");
+        s.playAll();
+        s.writer.close();
+    }
+
+    private static byte[] recordTwoTurns() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recordTwoTurns(new RecordingSession(out));
+        return out.toByteArray();
+    }
+
+    @Test
+    public void replayedSessionReproducesEnqueuedAudioAndPlayback() throws IOException {
+        ByteArrayOutputStream liveOut = new ByteArrayOutputStream();
+        RecordingSession live = new RecordingSession(liveOut);
+        recordTwoTurns(live);
+        byte[] recording = liveOut.toByteArray();
+
+        // 回放侧：与 SessionReplay.deliver 相同，只投递下行帧；播放记录按原顺序驱动播放回调并用于比对
+        FakePlayer player = new FakePlayer();
+        RecordingListener listener = new RecordingListener();
+        ChatProtocolEngine engine = new ChatProtocolEngine(new ManualClock(), new FakeTransport(), player, listener);
+        List<String> recordedPlayback = new ArrayList<>();
+        List<Long> deltas = new ArrayList<>();
+        int opens = 0;
+        try (SessionRecording.Reader in = new SessionRecording.Reader(new ByteArrayInputStream(recording))) {
+            SessionRecording.Record r;
+            while ((r = in.next()) != null) {
+                deltas.add(r.deltaUs);
+                switch (r.kind) {
+                    case SessionRecording.KIND_OPEN: opens++; break;
+                    case SessionRecording.KIND_IN_TEXT: engine.handleText(new String(r.payload, StandardCharsets.UTF_8)); break;
+                    case SessionRecording.KIND_IN_BINARY: engine.handleBinary(r.payload); break;
+                    case SessionRecording.KIND_PLAYBACK: {
+                        String row = new String(r.payload, StandardCharsets.UTF_8);
+                        recordedPlayback.add(row);
+                        Enqueued e = player.enqueued.get(recordedPlayback.size() - 1);
+                        assertEquals(row, playbackRow(e));
+                        engine.onSegmentStart(e.requestId, e.sequence, e.text);
+                        engine.onSegmentEnd(e.requestId, e.sequence, e.isFinal, false);
+                        break;
+                    }
+                    default: fail("unexpected kind " + r.kind);
+                }
+            }
+        }
+
+        assertEquals(1, opens);
+        assertEquals(Arrays.asList("r1#0 3 audio/mpeg", "r2#0 71680 audio/mpeg"), recordedPlayback);
+        assertEquals(live.player.enqueued.size(), player.enqueued.size());
+        for (int i = 0; i < player.enqueued.size(); i++) {
+            assertEquals(playbackRow(live.player.enqueued.get(i)), playbackRow(player.enqueued.get(i)));
+            assertArrayEquals(live.player.enqueued.get(i).audio, player.enqueued.get(i).audio);
+        }
+        assertEquals(live.listener.finals, listener.finals);
+        assertEquals(Arrays.asList("你好。", "再见。"), listener.finals);
+        // 时间差原样往返（varint 多字节）
+        for (int i = 0; i < deltas.size(); i++) assertEquals(1500L * (i + 1), (long) deltas.get(i));
+    }
+
+    @Test
+    public void truncatedRecordingStopsWithEof() throws IOException {
+        byte[] recording = recordTwoTurns();
+        byte[] cut = Arrays.copyOf(recording, recording.length - 10);
+        int records = 0;
+        try (SessionRecording.Reader in = new SessionRecording.Reader(new ByteArrayInputStream(cut))) {
+            while (in.next() != null) records++;
+            fail("expected EOF");
+        } catch (EOFException expected) {
+            // 已读部分仍可用
+        }
+        assertTrue(records > 5);
+    }
+
+    @Test
+    public void rejectsForeignFiles() {
+        try {
+            new SessionRecording.Reader(new ByteArrayInputStream("RIFF....WAVE".getBytes(StandardCharsets.US_ASCII)));
+            fail("expected IOException");
+        } catch (IOException expected) {
+            // 不是会话录制
+        }
+    }
+
+    @Test
+    public void emptyRecordingHasNoRecords() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SessionRecording.Writer(out).close();
+        try (SessionRecording.Reader in = new SessionRecording.Reader(new ByteArrayInputStream(out.toByteArray()))) {
+            assertNull(in.next());
+        }
+    }
+}